@@ -0,0 +1,176 @@
+package cs315.yourname.hwk2;
+
+import java.util.HashMap;
+
+/**
+ * Sprays a soft blob of paint that blends with what's already on the surface.
+ *
+ * The paint fades out linearly from the center to the edge of the brush. The falloff for each radius is
+ * computed once (no square roots per pixel) and cached, and blending is done in fixed point on the packed
+ * ARGB int, working on the red and blue channels together and then green, rather than one channel at a time.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class AirBrush
+{
+	public static final int DEFAULT_RADIUS = 50;
+	public static final int MAX_STRENGTH = 256; //strength at which the center of the brush covers completely
+	public static final int DEFAULT_STRENGTH = 128; //half and half with the existing color
+
+	private static final int OPAQUE = 0xFF000000;
+	private static final int RB_MASK = 0x00FF00FF; //red and blue channels
+	private static final int G_MASK = 0x0000FF00; //green channel
+
+	private int _radius;
+	private int _strength;
+
+	private HashMap<Integer, int[]> _falloffs; //falloff weights (0-256) for each radius we've used, row-major over the brush's box
+	private int[] _kernel; //falloff scaled by strength, for the current settings
+	private int[] _rowStart; //for each row of the kernel, the first and last columns inside the circle
+	private int[] _rowEnd;
+
+	public AirBrush()
+	{
+		_falloffs = new HashMap<Integer, int[]>();
+		_radius = DEFAULT_RADIUS;
+		_strength = DEFAULT_STRENGTH;
+		buildKernel();
+	}
+
+	/**
+	 * @param radius the radius of the brush in pixels (at least 1)
+	 */
+	public void setRadius(int radius)
+	{
+		if(radius < 1)
+			throw new IllegalArgumentException("Airbrush radius must be positive: "+radius);
+		if(radius != _radius) {
+			_radius = radius;
+			buildKernel();
+		}
+	}
+
+	public int getRadius()
+	{
+		return _radius;
+	}
+
+	/**
+	 * @param strength how much the paint covers the existing color at the center of the brush, from 0 (not at
+	 *  all) to MAX_STRENGTH (completely)
+	 */
+	public void setStrength(int strength)
+	{
+		if(strength < 0 || strength > MAX_STRENGTH)
+			throw new IllegalArgumentException("Airbrush strength must be between 0 and "+MAX_STRENGTH+": "+strength);
+		if(strength != _strength) {
+			_strength = strength;
+			buildKernel();
+		}
+	}
+
+	public int getStrength()
+	{
+		return _strength;
+	}
+
+	/**
+	 * Sprays the brush centered on the given point, clipped to the surface
+	 * @param surface the surface to draw on
+	 * @param x x-coord of the center of the brush
+	 * @param y y-coord of the center of the brush
+	 * @param color ARGB color of the paint
+	 * @return the number of pixels painted
+	 */
+	public int spray(PixelSurface surface, int x, int y, int color)
+	{
+		return spray(surface, x, y, color, 0, 0, surface.getWidth()-1, surface.getHeight()-1);
+	}
+
+	/**
+	 * Sprays the brush centered on the given point, clipped to a box (which must be within the surface)
+	 * @param surface the surface to draw on
+	 * @param x x-coord of the center of the brush
+	 * @param y y-coord of the center of the brush
+	 * @param color ARGB color of the paint
+	 * @param left left edge of the clip box
+	 * @param top top edge of the clip box
+	 * @param right right edge of the clip box (inclusive)
+	 * @param bottom bottom edge of the clip box (inclusive)
+	 * @return the number of pixels painted
+	 */
+	public int spray(PixelSurface surface, int x, int y, int color, int left, int top, int right, int bottom)
+	{
+		int r = _radius;
+		int size = 2*r + 1;
+		int minY = Math.max(y - r, top);
+		int maxY = Math.min(y + r, bottom);
+		int minX = left;
+		int maxX = right;
+		int inverse = MAX_STRENGTH - _strength; //weight of the existing color
+
+		int colorRB = color & RB_MASK;
+		int colorG = color & G_MASK;
+		int painted = 0;
+		for(int py = minY; py <= maxY; py++)
+		{
+			int row = py - (y - r); //row within the kernel
+			int start = Math.max(x - r + _rowStart[row], minX);
+			int end = Math.min(x - r + _rowEnd[row], maxX);
+			painted += Math.max(end - start + 1, 0);
+			int k = row*size - (x - r); //so that _kernel[k + px] is the weight for pixel px
+			for(int px = start; px <= end; px++)
+			{
+				int weight = _kernel[k + px];
+				int old = surface.getPixel(px, py);
+				int rb = (((old & RB_MASK)*inverse + colorRB*weight) >>> 8) & RB_MASK;
+				int g = (((old & G_MASK)*inverse + colorG*weight) >>> 8) & G_MASK;
+				surface.setPixel(px, py, OPAQUE | rb | g);
+			}
+		}
+		return painted;
+	}
+
+	/**
+	 * Rebuilds the kernel for the current radius and strength
+	 */
+	private void buildKernel()
+	{
+		int r = _radius;
+		int size = 2*r + 1;
+		int[] falloff = _falloffs.get(r);
+		if(falloff == null) {
+			falloff = new int[size*size];
+			for(int dy = -r; dy <= r; dy++)
+			{
+				for(int dx = -r; dx <= r; dx++)
+				{
+					double distance = Math.sqrt(dx*dx + dy*dy);
+					//-1 marks pixels outside the brush
+					falloff[(dy+r)*size + dx+r] = distance <= r ? (int)Math.round(256*(1 - distance/r)) : -1;
+				}
+			}
+			_falloffs.put(r, falloff);
+		}
+
+		_kernel = new int[size*size];
+		_rowStart = new int[size];
+		_rowEnd = new int[size];
+		for(int row = 0; row < size; row++)
+		{
+			_rowStart[row] = size;
+			_rowEnd[row] = -1;
+			for(int col = 0; col < size; col++)
+			{
+				int w = falloff[row*size + col];
+				if(w >= 0) {
+					_kernel[row*size + col] = (w*_strength) >> 8;
+					if(_rowStart[row] == size)
+						_rowStart[row] = col;
+					_rowEnd[row] = col;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package cs315.yourname.hwk2;
+
+/**
+ * Blend modes for layers, worked out on packed ARGB ints. Where every channel is multiplied by the same
+ * amount (e.g., a layer's alpha), red and blue are done together in one multiply, each in its own 16 bits
+ * of the int (SIMD within a register), as are saturating adds; where each channel has its own factor
+ * (multiply), it's a multiply per channel.
+ *
+ * Colors are blended onto an opaque destination, so only its red, green and blue matter. With the source's
+ * alpha a (times the layer's opacity), each channel d of the destination becomes:
+ *   NORMAL   d*(1-a) + s*a
+ *   ADD      min(d + s*a, 1)
+ *   MULTIPLY d*(1 - a + s*a)
+ *   SCREEN   d*(1 - s*a) + s*a
+ * (rounded to the nearest level).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class Blend
+{
+	public static final int NORMAL = 0;
+	public static final int ADD = 1;
+	public static final int MULTIPLY = 2;
+	public static final int SCREEN = 3;
+	public static final int MODES = 4;
+
+	private static final int OPAQUE = 0xFF000000;
+	private static final int RGB_MASK = 0x00FFFFFF;
+	private static final int RB_MASK = 0x00FF00FF; //red and blue (or alpha and green, shifted down)
+	private static final int CARRY = 0x01000100; //bits that overflow out of the channels of an RB pair
+	private static final int HALF = 0x00800080; //for rounding both channels of a pair
+
+	/**
+	 * @return the name of a mode (e.g., "multiply")
+	 */
+	public static String name(int mode)
+	{
+		switch(mode) {
+		case NORMAL: return "normal";
+		case ADD: return "add";
+		case MULTIPLY: return "multiply";
+		case SCREEN: return "screen";
+		default: return "#"+mode;
+		}
+	}
+
+	/**
+	 * Blends a color onto an opaque one
+	 * @param dst the color underneath (its alpha is ignored)
+	 * @param src the color on top, with its alpha
+	 * @param mode how to blend
+	 * @param opacity the opacity of src's layer (0-255)
+	 * @return the opaque result
+	 */
+	public static int blend(int dst, int src, int mode, int opacity)
+	{
+		int a = alpha(src, opacity);
+		if(a == 0)
+			return dst | OPAQUE;
+		int sa = a == 255 ? src & RGB_MASK : scale(src, a); //the source's share
+		switch(mode) {
+		case NORMAL:
+			return OPAQUE | (a == 255 ? sa : scale(dst, 255 - a) + sa); //(no carries, as the shares add up to at most 255)
+		case ADD:
+			return OPAQUE | addSaturate(dst, sa);
+		case MULTIPLY:
+			return OPAQUE | multiply(dst, spread(255 - a) + sa);
+		case SCREEN:
+			return OPAQUE | (multiply(dst, RGB_MASK - sa) + sa);
+		default:
+			throw new IllegalArgumentException("Unknown blend mode: "+mode);
+		}
+	}
+
+	/**
+	 * @return each channel (red, green, blue) times a/255, rounded
+	 */
+	public static int scale(int color, int a)
+	{
+		return mulPair(color & RB_MASK, a) | mulPair((color >>> 8) & 0xFF, a) << 8;
+	}
+
+	/**
+	 * @return red, green and blue multiplied channel by channel (times 1/255, rounded)
+	 */
+	public static int multiply(int x, int y)
+	{
+		return mul((x >>> 16) & 0xFF, (y >>> 16) & 0xFF) << 16 | mul((x >>> 8) & 0xFF, (y >>> 8) & 0xFF) << 8 | mul(x & 0xFF, y & 0xFF);
+	}
+
+	/**
+	 * @return red, green and blue added channel by channel, each stopping at 255
+	 */
+	public static int addSaturate(int x, int y)
+	{
+		int rb = (x & RB_MASK) + (y & RB_MASK);
+		int g = ((x >>> 8) & 0xFF) + ((y >>> 8) & 0xFF);
+		int over = rb & CARRY; //channels that went past 255 get all their bits set
+		rb = (rb | (over - (over >>> 8))) & RB_MASK;
+		return rb | Math.min(g, 255) << 8;
+	}
+
+	/**
+	 * @return a color's alpha times a layer's opacity
+	 */
+	private static int alpha(int src, int opacity)
+	{
+		return opacity == 255 ? src >>> 24 : mul(src >>> 24, opacity);
+	}
+
+	/**
+	 * @return a/255 in all three channels
+	 */
+	private static int spread(int a)
+	{
+		return a*0x00010101;
+	}
+
+	/**
+	 * @return both channels of a pair (0x00XX00YY) times a/255, rounded
+	 */
+	private static int mulPair(int pair, int a)
+	{
+		int t = pair*a + HALF;
+		return ((t + ((t >>> 8) & RB_MASK)) >>> 8) & RB_MASK;
+	}
+
+	/**
+	 * @return x*y/255, rounded
+	 */
+	private static int mul(int x, int y)
+	{
+		int t = x*y + 128;
+		return (t + (t >>> 8)) >>> 8;
+	}
+}
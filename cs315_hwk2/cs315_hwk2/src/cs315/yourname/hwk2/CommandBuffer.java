@@ -0,0 +1,168 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of paint commands, packed the same way a CommandQueue packs them (a header word with the
+ * opcode in the low byte and the argument count above it, followed by the arguments). A drawing can be
+ * decoded into one of these on a background thread, and then handed to the queue all at once.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class CommandBuffer implements PaintCommandSink
+{
+	private int[] _commands;
+	private int _size; //ints used
+
+	public CommandBuffer()
+	{
+		_commands = new int[256];
+	}
+
+	/**
+	 * @return the packed commands; only the first size() ints are used
+	 */
+	public int[] getCommands()
+	{
+		return _commands;
+	}
+
+	/**
+	 * @return how many ints the commands take up
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	public void setColor(int color)
+	{
+		put(PaintCommand.COLOR, color);
+	}
+
+	public void drawPoint(int x, int y)
+	{
+		put(PaintCommand.POINT, x, y);
+	}
+
+	public void drawLine(int startX, int startY, int endX, int endY)
+	{
+		put(PaintCommand.LINE, startX, startY, endX, endY);
+	}
+
+	public void drawCircle(int x, int y, int radius)
+	{
+		put(PaintCommand.CIRCLE, x, y, radius);
+	}
+
+	public void fillCircle(int x, int y, int radius)
+	{
+		put(PaintCommand.FILLED_CIRCLE, x, y, radius);
+	}
+
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		put(PaintCommand.ELLIPSE, x, y, radiusX, radiusY);
+	}
+
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		put(PaintCommand.FILLED_ELLIPSE, x, y, radiusX, radiusY);
+	}
+
+	public void drawRectangle(int startX, int startY, int endX, int endY)
+	{
+		put(PaintCommand.RECTANGLE, startX, startY, endX, endY);
+	}
+
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		put(PaintCommand.RECTANGLE_OUTLINE, startX, startY, endX, endY);
+	}
+
+	public void floodFill(int x, int y)
+	{
+		put(PaintCommand.FLOOD_FILL, x, y);
+	}
+
+	public void airBrush(int x, int y)
+	{
+		put(PaintCommand.AIRBRUSH, x, y);
+	}
+
+	public void clear(int color)
+	{
+		put(PaintCommand.CLEAR, color);
+	}
+
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		putPoints(PaintCommand.POLYGON, rule, coords, offset, points);
+	}
+
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		putPoints(PaintCommand.STAMP, brush, coords, offset, points);
+	}
+
+	private void put(int op, int a)
+	{
+		int i = grow(2);
+		_commands[i] = op | (1 << 8);
+		_commands[i+1] = a;
+	}
+
+	private void put(int op, int a, int b)
+	{
+		int i = grow(3);
+		_commands[i] = op | (2 << 8);
+		_commands[i+1] = a;
+		_commands[i+2] = b;
+	}
+
+	private void put(int op, int a, int b, int c)
+	{
+		int i = grow(4);
+		_commands[i] = op | (3 << 8);
+		_commands[i+1] = a;
+		_commands[i+2] = b;
+		_commands[i+3] = c;
+	}
+
+	private void put(int op, int a, int b, int c, int d)
+	{
+		int i = grow(5);
+		_commands[i] = op | (4 << 8);
+		_commands[i+1] = a;
+		_commands[i+2] = b;
+		_commands[i+3] = c;
+		_commands[i+4] = d;
+	}
+
+	/**
+	 * Puts a command that's a setting (the polygon's rule or the brush) followed by a series of points
+	 */
+	private void putPoints(int op, int setting, int[] coords, int offset, int points)
+	{
+		int ints = 3 + 2*points;
+		int i = grow(ints);
+		_commands[i] = op | ((ints-1) << 8);
+		_commands[i+1] = setting;
+		_commands[i+2] = points;
+		System.arraycopy(coords, offset, _commands, i+3, 2*points);
+	}
+
+	/**
+	 * Makes room for the given number of ints at the end
+	 * @return where they start
+	 */
+	private int grow(int ints)
+	{
+		int start = _size;
+		if(start + ints > _commands.length)
+			_commands = Arrays.copyOf(_commands, Math.max(start + ints, 2*_commands.length));
+		_size += ints;
+		return start;
+	}
+}
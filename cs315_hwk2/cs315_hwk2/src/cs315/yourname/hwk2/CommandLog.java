@@ -0,0 +1,596 @@
+package cs315.yourname.hwk2;
+
+/**
+ * A record of every command that's been drawn, so the drawing can be drawn again from scratch (e.g., onto a
+ * bigger surface after the screen rotates). Commands pass through this sink on their way to the target,
+ * and are kept in a compact int array in the same format as the CommandQueue: a header (opcode, plus the
+ * argument count << 8) followed by the arguments.
+ *
+ * Undo and redo are followed too: the log keeps where each of the history's steps ends, and a cursor marking
+ * how much of it is currently drawn. Undone commands stay in the log until dropRedo() (which should come
+ * before drawing something new), so they can be redone.
+ * Airbrush and fill settings are logged (and passed on) like the commands, as they come through the queue
+ * in order with them.
+ *
+ * The log is only trimmed by compact(), so it stops at MAX_SIZE ints: past that it's dropped and stops
+ * recording (see isComplete()), as it is after discard().
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class CommandLog implements HistorySink
+{
+	public static final int MAX_SIZE = 1 << 20; //ints (4 MB)
+
+	private HistorySink _target; //where commands go after being logged
+	private UndoHistory _history; //the target's history, so undo only moves the log if there's a step to undo
+
+	private int[] _log;
+	private int _size; //ints used
+	private int _cursor; //end of the commands currently drawn; anything after it has been undone
+	private int _base; //where the log was when the history started; undoing everything goes back to here
+	private IntStack _steps; //where each step ends, oldest first
+	private IntStack _stepIds; //the history's id for each step
+	private int _stepsDone; //how many of _steps end at or before the cursor
+	private boolean _settingsStale; //settings changed while there were undone steps, so they still need logging
+	private boolean _complete = true; //whether the log has everything on the canvas
+
+	//the latest settings, to restore after replaying
+	private int _color;
+	private int _airBrushRadius;
+	private int _airBrushStrength;
+	private int _fillConnectivity;
+	private int _fillTolerance;
+
+	/**
+	 * @param target where commands go after being logged
+	 * @param raster the rasterizer being drawn with, whose current settings start the log
+	 */
+	public CommandLog(HistorySink target, Rasterizer raster)
+	{
+		_target = target;
+		_log = new int[1024];
+		_steps = new IntStack(64);
+		_stepIds = new IntStack(64);
+		_color = raster.getColor();
+		_airBrushRadius = raster.getAirBrushRadius();
+		_airBrushStrength = raster.getAirBrushStrength();
+		_fillConnectivity = raster.getFillConnectivity();
+		_fillTolerance = raster.getFillTolerance();
+		logSettings();
+		_base = _size;
+	}
+
+	/**
+	 * Changes where commands go after being logged (e.g., to a TiledReplay once there's a thread pool)
+	 */
+	public void setTarget(HistorySink target)
+	{
+		_target = target;
+	}
+
+	/**
+	 * Sets the history kept by the target's surface, if any, so the log's steps match up with the history's
+	 * (which leaves out steps that didn't change any pixels, and forgets the oldest ones); call compact() too
+	 * if it's a new history
+	 */
+	public void setHistory(UndoHistory history)
+	{
+		_history = history;
+	}
+
+	/**
+	 * @return how many ints the log takes up
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * @return whether the log has everything on the canvas, so it can be replayed
+	 */
+	public boolean isComplete()
+	{
+		return _complete;
+	}
+
+	/**
+	 * Drops the log and stops recording, for when the canvas has something the log can't redraw (e.g., a
+	 * loaded drawing) or the log has grown too big. Commands still pass through to the target.
+	 */
+	public void discard()
+	{
+		_complete = false;
+		_log = new int[0];
+		_size = 0;
+		_cursor = 0;
+		_base = 0;
+		_steps.clear();
+		_stepIds.clear();
+		_stepsDone = 0;
+		_settingsStale = false;
+	}
+
+	/******** PaintCommandSink ********/
+
+	public void setColor(int color)
+	{
+		_color = color;
+		if(_size > _cursor)
+			_settingsStale = true; //logged once something new is drawn, so the undone steps can still be redone
+		else
+			append(PaintCommand.COLOR, color);
+		_target.setColor(color);
+	}
+
+	public void drawPoint(int x, int y)
+	{
+		append(PaintCommand.POINT, x, y);
+		_target.drawPoint(x, y);
+	}
+
+	public void drawLine(int startX, int startY, int endX, int endY)
+	{
+		append(PaintCommand.LINE, startX, startY, endX, endY);
+		_target.drawLine(startX, startY, endX, endY);
+	}
+
+	public void drawCircle(int x, int y, int radius)
+	{
+		append(PaintCommand.CIRCLE, x, y, radius);
+		_target.drawCircle(x, y, radius);
+	}
+
+	public void fillCircle(int x, int y, int radius)
+	{
+		append(PaintCommand.FILLED_CIRCLE, x, y, radius);
+		_target.fillCircle(x, y, radius);
+	}
+
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		append(PaintCommand.ELLIPSE, x, y, radiusX, radiusY);
+		_target.drawEllipse(x, y, radiusX, radiusY);
+	}
+
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		append(PaintCommand.FILLED_ELLIPSE, x, y, radiusX, radiusY);
+		_target.fillEllipse(x, y, radiusX, radiusY);
+	}
+
+	public void drawRectangle(int startX, int startY, int endX, int endY)
+	{
+		append(PaintCommand.RECTANGLE, startX, startY, endX, endY);
+		_target.drawRectangle(startX, startY, endX, endY);
+	}
+
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		append(PaintCommand.RECTANGLE_OUTLINE, startX, startY, endX, endY);
+		_target.strokeRectangle(startX, startY, endX, endY);
+	}
+
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		appendPoints(PaintCommand.POLYGON, rule, coords, offset, points);
+		_target.fillPolygon(coords, offset, points, rule);
+	}
+
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		appendPoints(PaintCommand.STAMP, brush, coords, offset, points);
+		_target.stamp(coords, offset, points, brush);
+	}
+
+	public void floodFill(int x, int y)
+	{
+		append(PaintCommand.FLOOD_FILL, x, y);
+		_target.floodFill(x, y);
+	}
+
+	public void airBrush(int x, int y)
+	{
+		append(PaintCommand.AIRBRUSH, x, y);
+		_target.airBrush(x, y);
+	}
+
+	public void clear(int color)
+	{
+		append(PaintCommand.CLEAR, color);
+		_target.clear(color);
+	}
+
+	/******** Settings ********/
+
+	public void setAirBrush(int radius, int strength)
+	{
+		_airBrushRadius = radius;
+		_airBrushStrength = strength;
+		logSetting(PaintCommand.AIRBRUSH_SETTINGS, radius, strength);
+		_target.setAirBrush(radius, strength);
+	}
+
+	public void setFillOptions(int connectivity, int tolerance)
+	{
+		_fillConnectivity = connectivity;
+		_fillTolerance = tolerance;
+		logSetting(PaintCommand.FILL_SETTINGS, connectivity, tolerance);
+		_target.setFillOptions(connectivity, tolerance);
+	}
+
+	private void logSetting(int op, int a, int b)
+	{
+		if(_size > _cursor)
+			_settingsStale = true; //logged once something new is drawn, so the undone steps can still be redone
+		else
+			append(op, a, b);
+	}
+
+	private void logSettings()
+	{
+		append(PaintCommand.COLOR, _color);
+		append(PaintCommand.AIRBRUSH_SETTINGS, _airBrushRadius, _airBrushStrength);
+		append(PaintCommand.FILL_SETTINGS, _fillConnectivity, _fillTolerance);
+	}
+
+	/******** History ********/
+
+	/**
+	 * Ends the current step (if the history recorded one, or there's no history and anything's been drawn)
+	 */
+	public void checkpoint()
+	{
+		_target.checkpoint();
+		if(!_complete)
+			return;
+		int last = _stepsDone > 0 ? _steps.get(_stepsDone-1) : _base;
+		if(_history != null) {
+			int id = _history.getStepId();
+			if(id != (_stepsDone > 0 ? _stepIds.get(_stepsDone-1) : 0))
+				pushStep(id);
+		}
+		else if(_cursor > last)
+			pushStep(_steps.size() + 1);
+	}
+
+	public void undo()
+	{
+		checkpoint();
+		_target.undo();
+		if(_history != null)
+			follow(_history.getStepId());
+		else if(_stepsDone > 0)
+			moveTo(_stepsDone-1);
+	}
+
+	public void redo()
+	{
+		_target.redo();
+		if(_history != null)
+			follow(_history.getStepId());
+		else if(_stepsDone < _steps.size())
+			moveTo(_stepsDone+1);
+	}
+
+	public void dropRedo()
+	{
+		dropUndone();
+		_target.dropRedo();
+	}
+
+	/**
+	 * Forgets the steps after the cursor (which have been undone)
+	 */
+	private void dropUndone()
+	{
+		if(_size <= _cursor)
+			return;
+		_size = _cursor;
+		while(_steps.size() > _stepsDone)
+		{
+			_steps.pop();
+			_stepIds.pop();
+		}
+		_settingsStale = true; //settings logged among those steps still apply
+	}
+
+	private void pushStep(int id)
+	{
+		_steps.push(_cursor);
+		_stepIds.push(id);
+		_stepsDone++;
+	}
+
+	/**
+	 * Moves the cursor to the end of the step with the given id (where the history now is)
+	 */
+	private void follow(int id)
+	{
+		if(id == 0) {
+			moveTo(0);
+			return;
+		}
+		for(int i = _stepIds.size()-1; i >= 0; i--)
+		{
+			if(_stepIds.get(i) == id) {
+				moveTo(i+1);
+				return;
+			}
+		}
+	}
+
+	private void moveTo(int stepsDone)
+	{
+		if(stepsDone == _stepsDone) //e.g., nothing to redo; stay put, keeping anything drawn since the last step
+			return;
+		_stepsDone = stepsDone;
+		_cursor = stepsDone > 0 ? _steps.get(stepsDone-1) : _base;
+	}
+
+	/**
+	 * Forgets the undo steps, along with anything undone and anything hidden under the last clear(); what's
+	 * drawn now becomes the start of the log
+	 */
+	public void compact()
+	{
+		if(!_complete)
+			return;
+		int start = lastClear();
+		int[] compacted = new int[Math.max(1024, _cursor - start + 16)];
+		int[] log = _log;
+		int cursor = _cursor;
+		int[] state = stateAt(start);
+		boolean stale = _settingsStale;
+
+		_log = compacted;
+		_size = 0;
+		_settingsStale = false;
+		if(start > 0) { //the log always starts with the settings, so carry them over
+			append(PaintCommand.COLOR, state[0]);
+			append(PaintCommand.AIRBRUSH_SETTINGS, state[1], state[2]);
+			append(PaintCommand.FILL_SETTINGS, state[3], state[4]);
+		}
+		System.arraycopy(log, start, _log, _size, cursor - start);
+		_size += cursor - start;
+		_cursor = _size;
+		_base = _size;
+		_steps.clear();
+		_stepIds.clear();
+		_stepsDone = 0;
+		if(stale)
+			logSettings();
+	}
+
+	/******** Replay ********/
+
+	/**
+	 * Draws everything currently in the log (i.e., not undone) again, starting from the last clear(). The
+	 * rasterizer's color and settings are left as they are now.
+	 * @param raster the rasterizer to draw with (e.g., on a new surface)
+	 * @param replay for drawing in parallel (targeting raster), or null
+	 */
+	public void replay(Rasterizer raster, TiledReplay replay)
+	{
+		PaintCommandSink sink = replay != null ? replay : raster;
+		int start = lastClear();
+		if(start > 0) { //otherwise the settings are at the start of the log
+			int[] state = stateAt(start);
+			raster.setColor(state[0]);
+			raster.setAirBrush(state[1], state[2]);
+			raster.setFillOptions(state[3], state[4]);
+		}
+		try {
+			for(int i = start; i < _cursor; i += 1 + (_log[i] >>> 8))
+				PaintCommand.dispatch(_log[i] & 0xFF, _log, i+1, sink); //settings reach the raster through the replay
+			if(replay != null)
+				replay.flush();
+		}
+		finally {
+			raster.setColor(_color);
+			raster.setAirBrush(_airBrushRadius, _airBrushStrength);
+			raster.setFillOptions(_fillConnectivity, _fillTolerance);
+		}
+	}
+
+	/**
+	 * Roughly how many pixels replay() would draw on a surface of the given size
+	 */
+	public long getReplayCost(int width, int height)
+	{
+		long canvas = (long)width*height;
+		long cost = 0;
+		int airBrushRadius = 0;
+		for(int i = 0; i < _cursor; i += 1 + (_log[i] >>> 8))
+		{
+			int op = _log[i] & 0xFF;
+			switch(op) {
+			case PaintCommand.POINT:
+				cost++;
+				break;
+			case PaintCommand.LINE: //clipped, so never longer than across the canvas
+				cost += Math.min(Math.max(Math.abs((long)_log[i+3] - _log[i+1]), Math.abs((long)_log[i+4] - _log[i+2])) + 1, width + height);
+				break;
+			case PaintCommand.CIRCLE:
+				cost += Math.min(8L*Math.abs((long)_log[i+3]) + 4, 2L*(width + height));
+				break;
+			case PaintCommand.FILLED_CIRCLE: //clipped, so never wider or taller than the canvas
+				cost += Math.min(2*Math.abs((long)_log[i+3]) + 1, width)*Math.min(2*Math.abs((long)_log[i+3]) + 1, height);
+				break;
+			case PaintCommand.ELLIPSE:
+				cost += Math.min(4*(Math.abs((long)_log[i+3]) + Math.abs((long)_log[i+4])) + 4, 2L*(width + height));
+				break;
+			case PaintCommand.FILLED_ELLIPSE:
+				cost += Math.min(2*Math.abs((long)_log[i+3]) + 1, width)*Math.min(2*Math.abs((long)_log[i+4]) + 1, height);
+				break;
+			case PaintCommand.RECTANGLE:
+				cost += Math.min((Math.abs((long)_log[i+3] - _log[i+1]) + 1)*(Math.abs((long)_log[i+4] - _log[i+2]) + 1), canvas);
+				break;
+			case PaintCommand.RECTANGLE_OUTLINE:
+				cost += Math.min(2*(Math.abs((long)_log[i+3] - _log[i+1]) + Math.abs((long)_log[i+4] - _log[i+2]) + 2), 2L*(width + height));
+				break;
+			case PaintCommand.POLYGON: //its bounding box, clipped
+			{
+				long left = Long.MAX_VALUE, top = Long.MAX_VALUE, right = Long.MIN_VALUE, bottom = Long.MIN_VALUE;
+				for(int p = i+3; p < i+3 + 2*_log[i+2]; p += 2)
+				{
+					left = Math.min(left, _log[p]);
+					right = Math.max(right, _log[p]);
+					top = Math.min(top, _log[p+1]);
+					bottom = Math.max(bottom, _log[p+1]);
+				}
+				left = Math.max(left, 0);
+				top = Math.max(top, 0);
+				right = Math.min(right, width-1);
+				bottom = Math.min(bottom, height-1);
+				if(left <= right && top <= bottom)
+					cost += (right - left + 1)*(bottom - top + 1);
+				break;
+			}
+			case PaintCommand.FLOOD_FILL: //could be anything up to the whole canvas; assume it is
+				cost += canvas;
+				break;
+			case PaintCommand.CLEAR: //nothing before a clear gets drawn
+				cost = canvas;
+				break;
+			case PaintCommand.AIRBRUSH:
+				cost += (2L*airBrushRadius + 1)*(2L*airBrushRadius + 1);
+				break;
+			case PaintCommand.STAMP:
+				if(_log[i+1] == PaintCommand.AIRBRUSH)
+					cost += _log[i+2]*(2L*airBrushRadius + 1)*(2L*airBrushRadius + 1);
+				else
+					cost += _log[i+2];
+				break;
+			case PaintCommand.AIRBRUSH_SETTINGS:
+				airBrushRadius = _log[i+1];
+				break;
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * @return where the last clear() before the cursor starts (or 0 if there isn't one)
+	 */
+	private int lastClear()
+	{
+		int start = 0;
+		for(int i = 0; i < _cursor; i += 1 + (_log[i] >>> 8))
+			if((_log[i] & 0xFF) == PaintCommand.CLEAR)
+				start = i;
+		return start;
+	}
+
+	/**
+	 * @return {color, airbrush radius, airbrush strength, fill connectivity, fill tolerance} as of the given point in the log
+	 */
+	private int[] stateAt(int end)
+	{
+		int[] state = new int[5];
+		for(int i = 0; i < end; i += 1 + (_log[i] >>> 8))
+		{
+			switch(_log[i] & 0xFF) {
+			case PaintCommand.COLOR:
+				state[0] = _log[i+1];
+				break;
+			case PaintCommand.AIRBRUSH_SETTINGS:
+				state[1] = _log[i+1];
+				state[2] = _log[i+2];
+				break;
+			case PaintCommand.FILL_SETTINGS:
+				state[3] = _log[i+1];
+				state[4] = _log[i+2];
+				break;
+			}
+		}
+		return state;
+	}
+
+	/******** Storage ********/
+
+	private void append(int op, int a)
+	{
+		int i = reserve(2);
+		if(i < 0)
+			return;
+		_log[i] = op | (1 << 8);
+		_log[i+1] = a;
+	}
+
+	private void append(int op, int a, int b)
+	{
+		int i = reserve(3);
+		if(i < 0)
+			return;
+		_log[i] = op | (2 << 8);
+		_log[i+1] = a;
+		_log[i+2] = b;
+	}
+
+	private void append(int op, int a, int b, int c)
+	{
+		int i = reserve(4);
+		if(i < 0)
+			return;
+		_log[i] = op | (3 << 8);
+		_log[i+1] = a;
+		_log[i+2] = b;
+		_log[i+3] = c;
+	}
+
+	private void append(int op, int a, int b, int c, int d)
+	{
+		int i = reserve(5);
+		if(i < 0)
+			return;
+		_log[i] = op | (4 << 8);
+		_log[i+1] = a;
+		_log[i+2] = b;
+		_log[i+3] = c;
+		_log[i+4] = d;
+	}
+
+	/**
+	 * Appends a command that's a setting (the polygon's rule or the brush) followed by a series of points
+	 */
+	private void appendPoints(int op, int setting, int[] coords, int offset, int points)
+	{
+		int i = reserve(3 + 2*points);
+		if(i < 0)
+			return;
+		_log[i] = op | ((2 + 2*points) << 8);
+		_log[i+1] = setting;
+		_log[i+2] = points;
+		System.arraycopy(coords, offset, _log, i+3, 2*points);
+	}
+
+	/**
+	 * Makes room for a new entry at the cursor, dropping anything that had been undone
+	 * @return where to write the entry, or -1 if it isn't being kept
+	 */
+	private int reserve(int ints)
+	{
+		if(!_complete)
+			return -1;
+		dropUndone(); //(normally done already, by dropRedo() before drawing something new)
+		if(_settingsStale) {
+			_settingsStale = false;
+			logSettings();
+		}
+		if(_size + ints > MAX_SIZE) {
+			discard();
+			return -1;
+		}
+		if(_size + ints > _log.length) {
+			int[] bigger = new int[Math.min(Math.max(_log.length*2, _size + ints), MAX_SIZE)];
+			System.arraycopy(_log, 0, bigger, 0, _size);
+			_log = bigger;
+		}
+		int i = _size;
+		_size += ints;
+		_cursor = _size;
+		return i;
+	}
+}
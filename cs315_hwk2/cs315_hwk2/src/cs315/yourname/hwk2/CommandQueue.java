@@ -0,0 +1,442 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free single-producer/single-consumer queue of paint commands, for handing commands from the UI
+ * thread (touch input and file parsing) to the thread that rasterizes them.
+ *
+ * Commands are packed into a ring of ints: a header word (opcode in the low byte, argument count above it)
+ * followed by the arguments. The producer only ever writes the tail and the consumer only ever writes the
+ * head, so neither side takes a lock; publishing is done with atomic writes to those counters.
+ * The producer never waits, though: if the ring fills up, commands spill into an overflow buffer (under a
+ * short lock) until the consumer has caught up on both, which keeps them in order.
+ *
+ * The producer side is a PaintCommandSink, so it can be used anywhere a Rasterizer can. Exactly one thread
+ * may call those methods, and exactly one (other) thread may call drain().
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class CommandQueue implements HistorySink
+{
+	public static final int DEFAULT_CAPACITY = 1 << 16; //in ints
+
+	public static final int MAX_OVERFLOW = 1 << 22; //most ints that can spill past a full ring (16 MB)
+
+	private final int[] _ring;
+	private final int _mask;
+	private final AtomicLong _head; //next int the consumer will read
+	private final AtomicLong _tail; //next int the producer will write
+
+	private long _cachedHead; //producer's last look at the head, so it rarely needs to read the shared counter
+	private volatile Thread _waitingConsumer; //set while the consumer is parked waiting for commands
+
+	private int[] _args; //consumer's scratch space for unpacking commands (grown for big polygons)
+
+	private final Object _overflowLock = new Object();
+	private volatile boolean _overflowing; //set while commands are going to the overflow instead of the ring
+	private int[] _overflow; //commands spilled by the producer (guarded by _overflowLock)
+	private int _overflowSize;
+	private int[] _chunk; //spilled commands the consumer has taken, and how far it's got through them
+	private int _chunkSize;
+	private int _chunkPos;
+
+	public CommandQueue()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity size of the ring in ints; rounded up to a power of two
+	 */
+	public CommandQueue(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		_ring = new int[size];
+		_mask = size - 1;
+		_head = new AtomicLong(0);
+		_tail = new AtomicLong(0);
+		_args = new int[PaintCommand.MAX_ARGS];
+		_overflow = new int[0];
+		_chunk = new int[0];
+	}
+
+	/**
+	 * @return whether there are no commands waiting
+	 */
+	public boolean isEmpty()
+	{
+		return _head.get() == _tail.get() && !_overflowing;
+	}
+
+	/******** Producer side ********/
+
+	public void setColor(int color)
+	{
+		put(PaintCommand.COLOR, color);
+	}
+
+	public void drawPoint(int x, int y)
+	{
+		put(PaintCommand.POINT, x, y);
+	}
+
+	public void drawLine(int startX, int startY, int endX, int endY)
+	{
+		put(PaintCommand.LINE, startX, startY, endX, endY);
+	}
+
+	public void drawCircle(int x, int y, int radius)
+	{
+		put(PaintCommand.CIRCLE, x, y, radius);
+	}
+
+	public void fillCircle(int x, int y, int radius)
+	{
+		put(PaintCommand.FILLED_CIRCLE, x, y, radius);
+	}
+
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		put(PaintCommand.ELLIPSE, x, y, radiusX, radiusY);
+	}
+
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		put(PaintCommand.FILLED_ELLIPSE, x, y, radiusX, radiusY);
+	}
+
+	public void drawRectangle(int startX, int startY, int endX, int endY)
+	{
+		put(PaintCommand.RECTANGLE, startX, startY, endX, endY);
+	}
+
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		put(PaintCommand.RECTANGLE_OUTLINE, startX, startY, endX, endY);
+	}
+
+	public void floodFill(int x, int y)
+	{
+		put(PaintCommand.FLOOD_FILL, x, y);
+	}
+
+	public void airBrush(int x, int y)
+	{
+		put(PaintCommand.AIRBRUSH, x, y);
+	}
+
+	public void clear(int color)
+	{
+		put(PaintCommand.CLEAR, color);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the polygon wouldn't fit in the ring at all
+	 */
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		if(points < 0 || 3 + 2L*points > _ring.length)
+			throw new IllegalArgumentException("Polygon has too many points for the queue: "+points);
+		putPoints(PaintCommand.POLYGON, rule, coords, offset, points);
+	}
+
+	/**
+	 * Long strokes are split into as many commands as it takes to fit in the queue
+	 */
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		int most = (_ring.length - 3)/2;
+		for(int i = 0; i < points; i += most)
+			putPoints(PaintCommand.STAMP, brush, coords, offset + 2*i, Math.min(points - i, most));
+	}
+
+	public void checkpoint()
+	{
+		put(PaintCommand.CHECKPOINT);
+	}
+
+	public void undo()
+	{
+		put(PaintCommand.UNDO);
+	}
+
+	public void redo()
+	{
+		put(PaintCommand.REDO);
+	}
+
+	public void dropRedo()
+	{
+		put(PaintCommand.DROP_REDO);
+	}
+
+	public void setAirBrush(int radius, int strength)
+	{
+		put(PaintCommand.AIRBRUSH_SETTINGS, radius, strength);
+	}
+
+	public void setFillOptions(int connectivity, int tolerance)
+	{
+		put(PaintCommand.FILL_SETTINGS, connectivity, tolerance);
+	}
+
+	/**
+	 * Puts a whole list of commands (e.g., a drawing decoded on another thread) in one go
+	 */
+	public void putAll(CommandBuffer commands)
+	{
+		int[] ints = commands.getCommands();
+		int size = commands.size();
+		if(size == 0)
+			return;
+		long tail = reserve(size);
+		if(tail < 0) {
+			spill(ints, size);
+			return;
+		}
+		int start = (int)tail & _mask;
+		int first = Math.min(size, _ring.length - start); //the rest wraps around to the start of the ring
+		System.arraycopy(ints, 0, _ring, start, first);
+		System.arraycopy(ints, first, _ring, 0, size - first);
+		publish(tail+size);
+	}
+
+	private void put(int op)
+	{
+		long tail = reserve(1);
+		if(tail < 0) {
+			spill(op);
+			return;
+		}
+		_ring[(int)tail & _mask] = op;
+		publish(tail+1);
+	}
+
+	private void put(int op, int a)
+	{
+		long tail = reserve(2);
+		if(tail < 0) {
+			spill(op | (1 << 8), a);
+			return;
+		}
+		_ring[(int)tail & _mask] = op | (1 << 8);
+		_ring[(int)(tail+1) & _mask] = a;
+		publish(tail+2);
+	}
+
+	private void put(int op, int a, int b)
+	{
+		long tail = reserve(3);
+		if(tail < 0) {
+			spill(op | (2 << 8), a, b);
+			return;
+		}
+		_ring[(int)tail & _mask] = op | (2 << 8);
+		_ring[(int)(tail+1) & _mask] = a;
+		_ring[(int)(tail+2) & _mask] = b;
+		publish(tail+3);
+	}
+
+	private void put(int op, int a, int b, int c)
+	{
+		long tail = reserve(4);
+		if(tail < 0) {
+			spill(op | (3 << 8), a, b, c);
+			return;
+		}
+		_ring[(int)tail & _mask] = op | (3 << 8);
+		_ring[(int)(tail+1) & _mask] = a;
+		_ring[(int)(tail+2) & _mask] = b;
+		_ring[(int)(tail+3) & _mask] = c;
+		publish(tail+4);
+	}
+
+	private void put(int op, int a, int b, int c, int d)
+	{
+		long tail = reserve(5);
+		if(tail < 0) {
+			spill(op | (4 << 8), a, b, c, d);
+			return;
+		}
+		_ring[(int)tail & _mask] = op | (4 << 8);
+		_ring[(int)(tail+1) & _mask] = a;
+		_ring[(int)(tail+2) & _mask] = b;
+		_ring[(int)(tail+3) & _mask] = c;
+		_ring[(int)(tail+4) & _mask] = d;
+		publish(tail+5);
+	}
+
+	/**
+	 * Puts a command that's a setting (the polygon's rule or the brush) followed by a series of points
+	 */
+	private void putPoints(int op, int setting, int[] coords, int offset, int points)
+	{
+		int ints = 3 + 2*points;
+		long tail = reserve(ints);
+		if(tail < 0) {
+			int[] command = new int[ints];
+			command[0] = op | ((ints-1) << 8);
+			command[1] = setting;
+			command[2] = points;
+			System.arraycopy(coords, offset, command, 3, 2*points);
+			spill(command);
+			return;
+		}
+		_ring[(int)tail & _mask] = op | ((ints-1) << 8);
+		_ring[(int)(tail+1) & _mask] = setting;
+		_ring[(int)(tail+2) & _mask] = points;
+		for(int i = 0; i < 2*points; i++)
+			_ring[(int)(tail+3+i) & _mask] = coords[offset+i];
+		publish(tail+ints);
+	}
+
+	/**
+	 * Makes room in the ring for the given number of ints
+	 * @return the position to start writing at, or -1 if the command has to be spilled instead (the ring is
+	 * full, or earlier commands are still in the overflow)
+	 */
+	private long reserve(int ints)
+	{
+		if(_overflowing)
+			return -1;
+		long tail = _tail.get();
+		long limit = tail + ints - _ring.length;
+		if(_cachedHead < limit) {
+			_cachedHead = _head.get();
+			if(_cachedHead < limit)
+				return -1;
+		}
+		return tail;
+	}
+
+	private void spill(int... command)
+	{
+		spill(command, command.length);
+	}
+
+	/**
+	 * Adds (packed) commands to the overflow, for when they can't go in the ring
+	 * @param length how many ints of commands to add
+	 * @throws IllegalStateException if the consumer is so far behind that the overflow is full too
+	 */
+	private void spill(int[] commands, int length)
+	{
+		synchronized (_overflowLock) {
+			int size = _overflowSize + length;
+			if(size > MAX_OVERFLOW)
+				throw new IllegalStateException("Command queue is full");
+			if(size > _overflow.length)
+				_overflow = Arrays.copyOf(_overflow, Math.max(size, 2*_overflow.length));
+			System.arraycopy(commands, 0, _overflow, _overflowSize, length);
+			_overflowSize = size;
+			_overflowing = true; //(again, if the consumer has just caught up)
+		}
+		wakeConsumer();
+	}
+
+	private void publish(long tail)
+	{
+		//a full volatile write (rather than lazySet) so it can't be reordered with the read of _waitingConsumer
+		//in wakeConsumer(); otherwise a consumer that's just about to park could miss the wakeup
+		_tail.set(tail);
+		wakeConsumer();
+	}
+
+	private void wakeConsumer()
+	{
+		Thread waiting = _waitingConsumer;
+		if(waiting != null)
+			LockSupport.unpark(waiting);
+	}
+
+	/******** Consumer side ********/
+
+	/**
+	 * Sends up to maxCommands waiting commands to the sink, in order
+	 * @return the number of commands drained
+	 */
+	public int drain(PaintCommandSink sink, int maxCommands)
+	{
+		long head = _head.get();
+		long tail = _tail.get();
+		int count = 0;
+		while(count < maxCommands)
+		{
+			if(head == tail) { //the ring's drained, so move on to anything that spilled past it
+				if(_chunkPos < _chunkSize) {
+					int header = _chunk[_chunkPos];
+					PaintCommand.dispatch(header & 0xFF, _chunk, _chunkPos+1, sink);
+					_chunkPos += 1 + (header >>> 8);
+					count++;
+					continue;
+				}
+				if(!takeOverflow(head))
+					break;
+				tail = _tail.get();
+				continue;
+			}
+			int header = _ring[(int)head & _mask];
+			int op = header & 0xFF;
+			int argCount = header >>> 8;
+			if(argCount > _args.length)
+				_args = new int[Math.max(argCount, 2*_args.length)];
+			for(int i = 0; i < argCount; i++)
+				_args[i] = _ring[(int)(head+1+i) & _mask];
+			head += 1 + argCount;
+			_head.lazySet(head); //free the space before running the command, so the producer can keep going
+			PaintCommand.dispatch(op, _args, 0, sink);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Takes over what's spilled into the overflow, once everything in the ring (which came before it) is done
+	 * @param head where the consumer's got to in the ring
+	 * @return whether there might be more commands to drain now
+	 */
+	private boolean takeOverflow(long head)
+	{
+		if(!_overflowing)
+			return false;
+		synchronized (_overflowLock) {
+			if(_tail.get() != head) //commands put before the ring filled up
+				return true;
+			if(_overflowSize == 0) {
+				_overflowing = false; //all caught up, so the producer can go back to the ring
+				return false;
+			}
+			int[] chunk = _chunk;
+			_chunk = _overflow;
+			_chunkSize = _overflowSize;
+			_chunkPos = 0;
+			_overflow = chunk; //reused for the next spill
+			_overflowSize = 0;
+			return true;
+		}
+	}
+
+	/**
+	 * Parks the calling (consumer) thread until commands are available or the timeout passes
+	 * @param timeout longest time to wait, in ns
+	 */
+	public void awaitCommands(long timeout)
+	{
+		_waitingConsumer = Thread.currentThread();
+		if(isEmpty()) //check again after advertising that we're waiting, so we can't miss a wakeup
+			LockSupport.parkNanos(this, timeout);
+		_waitingConsumer = null;
+	}
+
+	/**
+	 * Wakes up the consumer if it's waiting (e.g., so it can notice it's been asked to stop)
+	 */
+	public void wake()
+	{
+		wakeConsumer();
+	}
+}
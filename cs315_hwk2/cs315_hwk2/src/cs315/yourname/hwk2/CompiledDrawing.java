@@ -0,0 +1,229 @@
+package cs315.yourname.hwk2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a compiled (binary) .minipaint drawing, as made by MiniPaintCompiler.
+ *
+ * The format is a 16-byte header: the magic "MPB", a version byte, the number of commands (int) and a hash
+ * of the source text (long), both big-endian. Then come the commands, each an opcode byte (the
+ * PaintCommand opcodes, plus LINE_TO) followed by its arguments:
+ *  - colors are 4 bytes, big-endian
+ *  - coordinates are zigzag varints, relative to the previous point drawn (the "pen"); a line, rectangle or
+ *    outline's second point is relative to its first, and the pen ends up on the second point
+ *  - circle and ellipse radii are zigzag varints (x then y for ellipses), after the center
+ *  - a polygon is its winding rule and point count (varints), then its points, each relative to the last
+ * The commands end with an END byte.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class CompiledDrawing
+{
+	static final byte[] MAGIC = {'M', 'P', 'B'};
+	static final int VERSION = 3; //bumped when commands are added, so drawings cached by older versions (which dropped them) are compiled again
+	static final int HEADER_SIZE = 16;
+
+	static final int END = 0; //end of the commands
+	static final int LINE_TO = 0x40; //endX, endY; a line starting at the pen (as polylines are)
+
+	private int[] _coords; //polygon points, reused between polygons
+	private ByteBuffer _buf;
+	private int _pos;
+	private int _limit;
+
+	/**
+	 * Replays a compiled drawing file (which is memory-mapped rather than read)
+	 * @param file the compiled drawing
+	 * @param sink where to send the commands
+	 * @return the number of commands sent to the sink
+	 */
+	public int replay(File file, PaintCommandSink sink) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), sink);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Replays the compiled drawing between the buffer's position and limit (the buffer's position is left alone)
+	 * @param buf the compiled drawing
+	 * @param sink where to send the commands
+	 * @return the number of commands sent to the sink
+	 */
+	public int replay(ByteBuffer buf, PaintCommandSink sink) throws IOException
+	{
+		int start = buf.position();
+		if(!isCompiled(buf))
+			throw new IOException("Not a compiled drawing (version "+VERSION+")");
+		_buf = buf;
+		_pos = start + HEADER_SIZE;
+		_limit = buf.limit();
+
+		int commands = 0;
+		int penX = 0; //last point drawn
+		int penY = 0;
+		try {
+			while(true)
+			{
+				int op = readByte();
+				switch(op) {
+				case END:
+					return commands;
+				case PaintCommand.COLOR:
+					sink.setColor(readColor());
+					break;
+				case PaintCommand.CLEAR:
+					sink.clear(readColor());
+					break;
+				case PaintCommand.POINT:
+				case PaintCommand.FLOOD_FILL:
+				case PaintCommand.AIRBRUSH:
+					penX += readVarint();
+					penY += readVarint();
+					if(op == PaintCommand.POINT)
+						sink.drawPoint(penX, penY);
+					else if(op == PaintCommand.FLOOD_FILL)
+						sink.floodFill(penX, penY);
+					else
+						sink.airBrush(penX, penY);
+					break;
+				case PaintCommand.CIRCLE:
+				case PaintCommand.FILLED_CIRCLE:
+					penX += readVarint();
+					penY += readVarint();
+					if(op == PaintCommand.CIRCLE)
+						sink.drawCircle(penX, penY, readVarint());
+					else
+						sink.fillCircle(penX, penY, readVarint());
+					break;
+				case PaintCommand.ELLIPSE:
+				case PaintCommand.FILLED_ELLIPSE:
+				{
+					penX += readVarint();
+					penY += readVarint();
+					int radiusX = readVarint();
+					int radiusY = readVarint();
+					if(op == PaintCommand.ELLIPSE)
+						sink.drawEllipse(penX, penY, radiusX, radiusY);
+					else
+						sink.fillEllipse(penX, penY, radiusX, radiusY);
+					break;
+				}
+				case PaintCommand.LINE:
+				case PaintCommand.RECTANGLE:
+				case PaintCommand.RECTANGLE_OUTLINE:
+				case LINE_TO:
+				{
+					int startX = penX;
+					int startY = penY;
+					if(op != LINE_TO) {
+						startX += readVarint();
+						startY += readVarint();
+					}
+					penX = startX + readVarint();
+					penY = startY + readVarint();
+					if(op == PaintCommand.RECTANGLE)
+						sink.drawRectangle(startX, startY, penX, penY);
+					else if(op == PaintCommand.RECTANGLE_OUTLINE)
+						sink.strokeRectangle(startX, startY, penX, penY);
+					else
+						sink.drawLine(startX, startY, penX, penY);
+					break;
+				}
+				case PaintCommand.POLYGON:
+				{
+					int rule = readVarint();
+					int points = readVarint();
+					if(points < 0 || points > (_limit - _pos)/2) //each point takes at least two bytes
+						throw new IOException("Bad polygon point count "+points+" at byte "+(_pos-start));
+					if(_coords == null || _coords.length < 2*points)
+						_coords = new int[Math.max(2*points, 64)];
+					for(int i = 0; i < points; i++)
+					{
+						penX += readVarint();
+						penY += readVarint();
+						_coords[2*i] = penX;
+						_coords[2*i+1] = penY;
+					}
+					sink.fillPolygon(_coords, 0, points, rule);
+					break;
+				}
+				default:
+					throw new IOException("Unknown opcode "+op+" at byte "+(_pos-1-start));
+				}
+				commands++;
+			}
+		}
+		finally {
+			_buf = null;
+		}
+	}
+
+	/**
+	 * @return the number of commands in a compiled drawing, from its header
+	 */
+	public static int getCommandCount(ByteBuffer buf)
+	{
+		return buf.getInt(buf.position() + 4);
+	}
+
+	/**
+	 * @return the hash of the source text a compiled drawing was made from, from its header
+	 */
+	public static long getSourceHash(ByteBuffer buf)
+	{
+		return buf.getLong(buf.position() + 8);
+	}
+
+	/**
+	 * @return whether the buffer starts with the header of a compiled drawing in the current version
+	 */
+	public static boolean isCompiled(ByteBuffer buf)
+	{
+		int start = buf.position();
+		if(buf.limit() - start < HEADER_SIZE)
+			return false;
+		for(int i = 0; i < MAGIC.length; i++)
+			if(buf.get(start+i) != MAGIC[i])
+				return false;
+		return buf.get(start+3) == VERSION;
+	}
+
+	private int readByte() throws IOException
+	{
+		if(_pos >= _limit)
+			throw new IOException("Compiled drawing is truncated");
+		return _buf.get(_pos++) & 0xFF;
+	}
+
+	private int readColor() throws IOException
+	{
+		return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+	}
+
+	/**
+	 * Reads a zigzag-encoded varint (7 bits per byte, low bits first; the high bit means more follow)
+	 */
+	private int readVarint() throws IOException
+	{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7)
+		{
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if(b < 0x80)
+				return (value >>> 1) ^ -(value & 1);
+		}
+		throw new IOException("Bad varint in compiled drawing");
+	}
+}
@@ -0,0 +1,131 @@
+package cs315.yourname.hwk2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A directory of compiled .minipaint drawings, named by a hash of their source text. Replaying a drawing
+ * that's been seen before just memory-maps its compiled file; otherwise the text is compiled (and saved for
+ * next time) first.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class CompiledDrawingCache
+{
+	private static final String SUFFIX = ".mpb";
+
+	private File _dir;
+	private MiniPaintCompiler _compiler;
+	private CompiledDrawing _drawing;
+	private boolean _lastWasHit;
+
+	/**
+	 * @param dir directory to keep compiled drawings in (created if needed)
+	 */
+	public CompiledDrawingCache(File dir)
+	{
+		_dir = dir;
+		_compiler = new MiniPaintCompiler();
+		_drawing = new CompiledDrawing();
+	}
+
+	/**
+	 * Replays a .minipaint drawing, using the compiled copy if there is one
+	 * @param source the .minipaint text
+	 * @param sink where to send the commands
+	 * @return the number of commands sent to the sink
+	 */
+	public int replay(byte[] source, PaintCommandSink sink) throws IOException
+	{
+		long hash = hash(source);
+		File file = new File(_dir, Long.toHexString(hash) + SUFFIX);
+
+		ByteBuffer cached = file.exists() ? map(file) : null;
+		if(cached != null && CompiledDrawing.isCompiled(cached) && CompiledDrawing.getSourceHash(cached) == hash) {
+			_lastWasHit = true;
+			return _drawing.replay(cached, sink);
+		}
+
+		_lastWasHit = false;
+		byte[] compiled = _compiler.compile(ByteBuffer.wrap(source), hash); //throws (before saving) if the text is bad
+		save(file, compiled);
+		return _drawing.replay(ByteBuffer.wrap(compiled), sink);
+	}
+
+	/**
+	 * @return whether the last replay() found the drawing already compiled
+	 */
+	public boolean wasHit()
+	{
+		return _lastWasHit;
+	}
+
+	/**
+	 * Deletes all the compiled drawings
+	 */
+	public void clear()
+	{
+		File[] files = _dir.listFiles();
+		if(files == null)
+			return;
+		for(File f : files)
+			if(f.getName().endsWith(SUFFIX))
+				f.delete();
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the source text
+	 */
+	public static long hash(byte[] source)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < source.length; i++)
+		{
+			hash ^= source[i] & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private ByteBuffer map(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a compiled drawing to a temporary file and renames it into place, so a half-written file is
+	 * never mistaken for a compiled one. Failing to save isn't an error; it just won't be cached.
+	 */
+	private void save(File file, byte[] compiled)
+	{
+		if(!_dir.isDirectory() && !_dir.mkdirs())
+			return;
+		File temp = new File(_dir, file.getName() + ".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(compiled);
+			}
+			finally {
+				out.close();
+			}
+			if(!temp.renameTo(file))
+				temp.delete();
+		}
+		catch(IOException e) {
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package cs315.yourname.hwk2;
+
+/**
+ * Keeps track of the part of a surface that has changed since it was last presented, as the bounding box
+ * (union) of all the regions that were marked.
+ * 
+ * This is shared between the thread that draws and the thread that presents, so all methods are synchronized;
+ * the presenting thread can also wait here until something is marked.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class DirtyRegion
+{
+	private boolean _empty;
+	private int _left; //bounds, inclusive
+	private int _top;
+	private int _right;
+	private int _bottom;
+
+	public DirtyRegion()
+	{
+		_empty = true;
+	}
+
+	/**
+	 * Marks a box as changed, and wakes up anyone waiting for changes
+	 * @param left x-coord of the left edge
+	 * @param top y-coord of the top edge
+	 * @param right x-coord of the right edge (inclusive)
+	 * @param bottom y-coord of the bottom edge (inclusive)
+	 */
+	public synchronized void add(int left, int top, int right, int bottom)
+	{
+		if(left > right || top > bottom)
+			return;
+		if(_empty) {
+			_left = left;
+			_top = top;
+			_right = right;
+			_bottom = bottom;
+			_empty = false;
+			notifyAll();
+		}
+		else {
+			if(left < _left) _left = left;
+			if(top < _top) _top = top;
+			if(right > _right) _right = right;
+			if(bottom > _bottom) _bottom = bottom;
+		}
+	}
+
+	public synchronized boolean isEmpty()
+	{
+		return _empty;
+	}
+
+	/**
+	 * Takes the current dirty box, leaving the region empty
+	 * @param bounds array to put {left, top, right, bottom} (inclusive) into
+	 * @return false if nothing was dirty (bounds is left alone)
+	 */
+	public synchronized boolean take(int[] bounds)
+	{
+		if(_empty)
+			return false;
+		bounds[0] = _left;
+		bounds[1] = _top;
+		bounds[2] = _right;
+		bounds[3] = _bottom;
+		_empty = true;
+		return true;
+	}
+
+	/**
+	 * Waits until something is dirty (or until the timeout passes, or someone calls wake()), then takes it
+	 * @param bounds array to put {left, top, right, bottom} (inclusive) into
+	 * @param timeout longest time to wait, in ms
+	 * @return false if nothing was dirty
+	 */
+	public synchronized boolean waitAndTake(int[] bounds, long timeout) throws InterruptedException
+	{
+		if(_empty)
+			wait(timeout);
+		return take(bounds);
+	}
+
+	/**
+	 * Wakes up anyone waiting in waitAndTake(), e.g., so a thread can notice it's been asked to stop
+	 */
+	public synchronized void wake()
+	{
+		notifyAll();
+	}
+}
@@ -0,0 +1,213 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+
+/**
+ * A scanline flood fill. Starting from a seed pixel, fills the connected region of pixels that match the
+ * seed's color, one horizontal span at a time.
+ * 
+ * Seeds are kept on a primitive int stack, and the stack (and visited bitset, when one is needed) is reused
+ * between fills, so filling does no per-pixel allocation.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class FloodFill
+{
+	public static final int CONNECT_4 = 4; //fill through edges only
+	public static final int CONNECT_8 = 8; //also fill through diagonal corners
+
+	private int _connectivity;
+	private int _tolerance; //max difference allowed in any channel to count as a match; 0 for exact matching
+
+	private IntStack _seeds; //pending (x,y) seeds
+	private long[] _visited; //one bit per pixel, only used when filled pixels would still match the target
+	private boolean _useVisited;
+	private int[] _bounds; //{left, top, right, bottom} of the last fill
+
+	//state for the fill in progress
+	private PixelSurface _surface;
+	private int _width;
+	private int _target;
+
+	public FloodFill()
+	{
+		_connectivity = CONNECT_4;
+		_tolerance = 0;
+		_seeds = new IntStack(256);
+		_visited = new long[0];
+		_bounds = new int[4];
+	}
+
+	/**
+	 * Sets whether regions connect through edges only (CONNECT_4) or through corners as well (CONNECT_8)
+	 */
+	public void setConnectivity(int connectivity)
+	{
+		if(connectivity != CONNECT_4 && connectivity != CONNECT_8)
+			throw new IllegalArgumentException("Connectivity must be 4 or 8: "+connectivity);
+		_connectivity = connectivity;
+	}
+
+	public int getConnectivity()
+	{
+		return _connectivity;
+	}
+
+	/**
+	 * Sets how close a pixel's color needs to be to the seed color to get filled
+	 * @param tolerance the largest difference allowed in any single channel (0-255); 0 only fills exact matches
+	 */
+	public void setTolerance(int tolerance)
+	{
+		if(tolerance < 0 || tolerance > 255)
+			throw new IllegalArgumentException("Tolerance must be between 0 and 255: "+tolerance);
+		_tolerance = tolerance;
+	}
+
+	public int getTolerance()
+	{
+		return _tolerance;
+	}
+
+	/**
+	 * Flood-fills the region containing the given pixel
+	 * @param surface the surface to fill on
+	 * @param x x-coord to start filling from (must be in bounds)
+	 * @param y y-coord to start filling from (must be in bounds)
+	 * @param replacement the ARGB color to fill with
+	 * @return the number of pixels filled
+	 */
+	public int fill(PixelSurface surface, int x, int y, int replacement)
+	{
+		_surface = surface;
+		_width = surface.getWidth();
+		int height = surface.getHeight();
+		_target = surface.getPixel(x, y);
+		_bounds[0] = _bounds[1] = Integer.MAX_VALUE; //empty
+		_bounds[2] = _bounds[3] = Integer.MIN_VALUE;
+
+		//once a pixel is filled it normally stops matching, so it won't be visited again. If the replacement
+		//would still match, we need to keep track of what we've filled ourselves. What counts is the color a
+		//filled pixel reads back as, which on a compact surface (e.g., RGB565) can be a little different
+		_useVisited = matches(replacement) || matches(surface.quantize(replacement));
+		if(_useVisited) {
+			if(_tolerance == 0) //replacing a color with itself; nothing to do
+				return 0;
+			int words = (int)(((long)_width*height + 63) >> 6);
+			if(_visited.length < words)
+				_visited = new long[words];
+			else
+				Arrays.fill(_visited, 0, words, 0L);
+		}
+
+		int extra = _connectivity == CONNECT_8 ? 1 : 0; //how far past a span to look for diagonal neighbors
+		int filled = 0;
+		_seeds.clear();
+		_seeds.push(x, y);
+		while(!_seeds.isEmpty())
+		{
+			int sy = _seeds.pop();
+			int sx = _seeds.pop();
+			if(!fillable(sx, sy)) //may have been filled since it was pushed
+				continue;
+
+			//find the extent of the span containing the seed
+			int left = sx;
+			while(left > 0 && fillable(left-1, sy))
+				left--;
+			int right = sx;
+			while(right < _width-1 && fillable(right+1, sy))
+				right++;
+
+			surface.fillSpan(sy, left, right, replacement);
+			if(_useVisited)
+				markVisited(sy, left, right);
+			filled += right - left + 1;
+			if(left < _bounds[0]) _bounds[0] = left;
+			if(sy < _bounds[1]) _bounds[1] = sy;
+			if(right > _bounds[2]) _bounds[2] = right;
+			if(sy > _bounds[3]) _bounds[3] = sy;
+
+			//seed each run of fillable pixels in the rows above and below
+			int scanLeft = Math.max(left - extra, 0);
+			int scanRight = Math.min(right + extra, _width-1);
+			if(sy > 0)
+				pushRuns(sy-1, scanLeft, scanRight);
+			if(sy < height-1)
+				pushRuns(sy+1, scanLeft, scanRight);
+		}
+		_surface = null;
+		return filled;
+	}
+
+	/**
+	 * @return the bounding box {left, top, right, bottom} (inclusive) of the pixels changed by the last fill;
+	 *  left > right if nothing was filled. The array is reused by the next fill.
+	 */
+	public int[] getLastBounds()
+	{
+		return _bounds;
+	}
+
+	/**
+	 * Pushes one seed for every run of fillable pixels between left and right (inclusive) on row y
+	 */
+	private void pushRuns(int y, int left, int right)
+	{
+		boolean inRun = false;
+		for(int x = left; x <= right; x++)
+		{
+			if(fillable(x, y)) {
+				if(!inRun) {
+					_seeds.push(x, y);
+					inRun = true;
+				}
+			}
+			else
+				inRun = false;
+		}
+	}
+
+	private boolean fillable(int x, int y)
+	{
+		if(_useVisited) {
+			long bit = (long)y*_width + x;
+			if((_visited[(int)(bit >> 6)] & (1L << bit)) != 0)
+				return false;
+		}
+		return matches(_surface.getPixel(x, y));
+	}
+
+	private void markVisited(int y, int left, int right)
+	{
+		long row = (long)y*_width;
+		for(long bit = row+left; bit <= row+right; bit++)
+			_visited[(int)(bit >> 6)] |= 1L << bit;
+	}
+
+	/**
+	 * @return whether the given color is close enough to the target color to be filled
+	 */
+	private boolean matches(int color)
+	{
+		if(_tolerance == 0)
+			return color == _target;
+		return channelDistance(color, _target) <= _tolerance;
+	}
+
+	/**
+	 * @return the largest difference between any one channel (A, R, G or B) of the two colors
+	 */
+	static int channelDistance(int a, int b)
+	{
+		int max = 0;
+		for(int shift = 0; shift < 32; shift += 8)
+		{
+			int d = ((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF);
+			if(d < 0) d = -d;
+			if(d > max) max = d;
+		}
+		return max;
+	}
+}
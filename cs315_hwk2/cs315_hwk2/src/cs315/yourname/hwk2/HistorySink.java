@@ -0,0 +1,43 @@
+package cs315.yourname.hwk2;
+
+/**
+ * A PaintCommandSink that can also undo and redo what's been drawn, a step at a time, and change the
+ * airbrush and flood fill settings in order with the commands around them.
+ * 
+ * Commands that aren't drawing (and so don't have a .minipaint form) are only understood by sinks that
+ * implement this; PaintCommand.dispatch() skips them for other sinks.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public interface HistorySink extends PaintCommandSink
+{
+	/**
+	 * Ends the current step, so everything drawn since the last checkpoint is undone together
+	 */
+	public void checkpoint();
+
+	public void undo();
+
+	public void redo();
+
+	/**
+	 * Forgets the steps that have been undone, so they can't be redone; sent before drawing something new
+	 * after an undo (even if it doesn't change any pixels)
+	 */
+	public void dropRedo();
+
+	/**
+	 * Sets the size and strength of the airbrush, for the commands that follow
+	 * @param radius radius of the brush in pixels
+	 * @param strength how much paint covers the existing color at the center, from 0 to AirBrush.MAX_STRENGTH
+	 */
+	public void setAirBrush(int radius, int strength);
+
+	/**
+	 * Sets how flood fills that follow decide which pixels to fill
+	 * @param connectivity FloodFill.CONNECT_4 or FloodFill.CONNECT_8
+	 * @param tolerance largest per-channel difference from the seed color that still gets filled (0 for exact)
+	 */
+	public void setFillOptions(int connectivity, int tolerance);
+}
@@ -0,0 +1,218 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+
+/**
+ * A PixelSurface that stores each pixel as an 8-bit index into a palette of up to 256 ARGB colors, for a
+ * quarter of the memory and bandwidth of an IntFramebuffer. Drawings mostly use a handful of colors (the
+ * .minipaint ones, plus the blends the airbrush makes), so the palette is built up as colors are drawn;
+ * once it's full, new colors are drawn as the closest color already in it. The palette is expanded back to
+ * ARGB when pixels are read (e.g., to present them).
+ *
+ * The palette starts with just transparent black (index 0), which every pixel starts out as.
+ *
+ * Looking up a color is a single array read when it's in the small cache of recent lookups, so spans and
+ * fills pay for the lookup once and then fill the bytes directly. Several threads may draw at once (on
+ * different pixels), as with IntFramebuffer: adding to the palette is synchronized, and the unsynchronized
+ * cache is only trusted when the palette entry it points at really is the color.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class IndexedFramebuffer implements PixelSurface
+{
+	public static final int MAX_COLORS = 256;
+
+	private static final int CACHE_SIZE = 1024; //recent lookups; a power of two
+
+	private final int _width;
+	private final int _height;
+	private final byte[] _pixels;
+	private final int[] _palette;
+	private volatile int _colors; //how much of the palette is in use
+
+	private final int[] _cache; //palette index + 1 of a recently looked up color, by hash (0 for none)
+	private final int[] _nearestKeys; //colors that aren't in the (full) palette, by hash
+	private final int[] _nearestValues; //and the index of the closest color to each (-1 for none); only used while synchronized
+
+	/**
+	 * Creates a new framebuffer; all pixels start out as 0 (transparent black), like a new Bitmap.
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 */
+	public IndexedFramebuffer(int width, int height)
+	{
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid framebuffer size: "+width+"x"+height);
+		_width = width;
+		_height = height;
+		_pixels = new byte[width*height];
+		_palette = new int[MAX_COLORS];
+		_colors = 1; //transparent black
+		_cache = new int[CACHE_SIZE];
+		_nearestKeys = new int[CACHE_SIZE];
+		_nearestValues = new int[CACHE_SIZE];
+		Arrays.fill(_nearestValues, -1);
+	}
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		return _palette[_pixels[y*_width + x] & 0xFF];
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		_pixels[y*_width + x] = indexOf(color);
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		int row = y*_width;
+		Arrays.fill(_pixels, row+startX, row+endX+1, indexOf(color));
+	}
+
+	public void fill(int color)
+	{
+		Arrays.fill(_pixels, indexOf(color));
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		int[] palette = _palette;
+		for(int row = 0; row < height; row++)
+		{
+			int from = (y+row)*_width + x;
+			int to = offset + row*stride;
+			for(int i = 0; i < width; i++)
+				dst[to+i] = palette[_pixels[from+i] & 0xFF];
+		}
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		for(int row = 0; row < height; row++)
+		{
+			int from = offset + row*stride;
+			int to = (y+row)*_width + x;
+			for(int i = 0; i < width; i++)
+				_pixels[to+i] = indexOf(src[from+i]);
+		}
+	}
+
+	/**
+	 * @return the color itself if it's in the palette or there's room to add it, otherwise the closest color
+	 *  in the palette (without adding anything)
+	 */
+	public synchronized int quantize(int color)
+	{
+		for(int i = 0; i < _colors; i++)
+			if(_palette[i] == color)
+				return color;
+		return _colors < MAX_COLORS ? color : _palette[nearest(color)];
+	}
+
+	/**
+	 * Direct access to the backing array of palette indices (row-major, stride == width); callers should not
+	 * hold on to it.
+	 * @return the backing pixel array
+	 */
+	public byte[] getPixels()
+	{
+		return _pixels;
+	}
+
+	/**
+	 * @return the palette (only the first getColorCount() entries are used); callers should not change it
+	 */
+	public int[] getPalette()
+	{
+		return _palette;
+	}
+
+	/**
+	 * @return how many colors of the palette are in use
+	 */
+	public int getColorCount()
+	{
+		return _colors;
+	}
+
+	/**
+	 * @return the palette index to store for a color
+	 */
+	private byte indexOf(int color)
+	{
+		int slot = hash(color);
+		int index = _cache[slot] - 1;
+		if(index >= 0 && _palette[index] == color)
+			return (byte)index;
+		return (byte)lookUp(color, slot);
+	}
+
+	/**
+	 * Finds (or adds) a color that missed the cache
+	 */
+	private synchronized int lookUp(int color, int slot)
+	{
+		int colors = _colors;
+		for(int i = 0; i < colors; i++)
+		{
+			if(_palette[i] == color) {
+				_cache[slot] = i+1;
+				return i;
+			}
+		}
+		if(colors < MAX_COLORS) {
+			_palette[colors] = color;
+			_colors = colors+1; //(a volatile write, so the new entry is seen before anything that uses it)
+			_cache[slot] = colors+1;
+			return colors;
+		}
+
+		//full: use the closest color, remembering it since the palette won't change now
+		if(_nearestValues[slot] >= 0 && _nearestKeys[slot] == color)
+			return _nearestValues[slot];
+		int nearest = nearest(color);
+		_nearestKeys[slot] = color;
+		_nearestValues[slot] = nearest;
+		return nearest;
+	}
+
+	/**
+	 * @return the index of the palette color closest to the given one (by squared distance over all four channels)
+	 */
+	private int nearest(int color)
+	{
+		int best = 0;
+		long bestDistance = Long.MAX_VALUE;
+		for(int i = 0; i < _colors; i++)
+		{
+			long distance = 0;
+			for(int shift = 0; shift < 32; shift += 8)
+			{
+				int d = ((color >>> shift) & 0xFF) - ((_palette[i] >>> shift) & 0xFF);
+				distance += d*d;
+			}
+			if(distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	private static int hash(int color)
+	{
+		return ((color * 0x9E3779B1) >>> 22) & (CACHE_SIZE-1);
+	}
+}
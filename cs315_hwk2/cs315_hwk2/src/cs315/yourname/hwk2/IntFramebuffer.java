@@ -0,0 +1,91 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+
+/**
+ * A PixelSurface backed by a plain int[] of ARGB values, stored row-major (index = y*width + x).
+ * 
+ * Primitives write straight into the array, so there is no per-pixel JNI call like with Bitmap.setPixel().
+ * The array is pushed to a Bitmap in bulk (with Bitmap.setPixels()) only when a frame is presented.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class IntFramebuffer implements PixelSurface
+{
+	private final int _width;
+	private final int _height;
+	private final int[] _pixels;
+
+	/**
+	 * Creates a new framebuffer; all pixels start out as 0 (transparent black), like a new Bitmap.
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 */
+	public IntFramebuffer(int width, int height)
+	{
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid framebuffer size: "+width+"x"+height);
+		_width = width;
+		_height = height;
+		_pixels = new int[width*height];
+	}
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		return _pixels[y*_width + x];
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		_pixels[y*_width + x] = color;
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		int row = y*_width;
+		Arrays.fill(_pixels, row+startX, row+endX+1, color);
+	}
+
+	public void fill(int color)
+	{
+		Arrays.fill(_pixels, color);
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		for(int row = 0; row < height; row++)
+			System.arraycopy(_pixels, (y+row)*_width + x, dst, offset + row*stride, width);
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		for(int row = 0; row < height; row++)
+			System.arraycopy(src, offset + row*stride, _pixels, (y+row)*_width + x, width);
+	}
+
+	public int quantize(int color)
+	{
+		return color; //stored as is
+	}
+
+	/**
+	 * Direct access to the backing array (row-major, stride == width). Used for presenting the
+	 * frame with Bitmap.setPixels() and for bulk operations; callers should not hold on to it.
+	 * @return the backing pixel array
+	 */
+	public int[] getPixels()
+	{
+		return _pixels;
+	}
+}
@@ -0,0 +1,88 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+
+/**
+ * A growable stack of primitive ints, so the fill algorithms don't box (or allocate) per entry.
+ * The backing array is kept between uses; clear() just resets the size.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+class IntStack
+{
+	private int[] _data;
+	private int _size;
+
+	public IntStack(int initialCapacity)
+	{
+		_data = new int[Math.max(initialCapacity, 2)];
+		_size = 0;
+	}
+
+	public void push(int value)
+	{
+		if(_size == _data.length)
+			grow(1);
+		_data[_size++] = value;
+	}
+
+	/**
+	 * Pushes two values at once (e.g., an x,y pair); pop them back off in reverse order.
+	 */
+	public void push(int a, int b)
+	{
+		if(_size + 2 > _data.length)
+			grow(2);
+		_data[_size++] = a;
+		_data[_size++] = b;
+	}
+
+	/**
+	 * Pushes three values at once (e.g., a y,left,right span); pop them back off in reverse order.
+	 */
+	public void push(int a, int b, int c)
+	{
+		if(_size + 3 > _data.length)
+			grow(3);
+		_data[_size++] = a;
+		_data[_size++] = b;
+		_data[_size++] = c;
+	}
+
+	private void grow(int needed)
+	{
+		_data = Arrays.copyOf(_data, Math.max(_data.length*2, _size + needed));
+	}
+
+	/**
+	 * Removes and returns the top value. The stack must not be empty.
+	 */
+	public int pop()
+	{
+		return _data[--_size];
+	}
+
+	/**
+	 * Gets a value without removing it, counting up from the bottom (so the stack can be read in push order)
+	 */
+	public int get(int index)
+	{
+		return _data[index];
+	}
+
+	public boolean isEmpty()
+	{
+		return _size == 0;
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	public void clear()
+	{
+		_size = 0;
+	}
+}
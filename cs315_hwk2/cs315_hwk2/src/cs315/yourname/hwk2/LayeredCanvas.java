@@ -0,0 +1,447 @@
+package cs315.yourname.hwk2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A canvas of several layers, each with its own opacity and blend mode (see Blend), composited over an
+ * opaque background color. As a PixelSurface it's the active layer: that's what gets drawn on (and read, by
+ * flood fills and the airbrush). composite() gives the picture with all the layers blended together.
+ *
+ * The composite is kept between calls and only redone in the tiles (TILE_SIZE pixels square) that have
+ * changed. It's exactly what blending the layers one at a time, bottom to top, gives (each blend rounded on
+ * its own), whichever layer is active. To keep editing one layer cheap however many there are, each tile
+ * also keeps:
+ *  - the background and the layers under the active one, already blended together
+ *  - which of the layers over the active one show anywhere in the tile
+ *  - where an opaque normal layer over the active one hides it, the finished color
+ *  - what the active layer blended onto the ones under it came to, the last time the tile was composited
+ * so recompositing a pixel is one blend, plus (if that came out differently) one more for each layer over
+ * the active one that shows through there. Over an opaque layer or where the layers over it are
+ * transparent, that's no more than a single layer costs; under layers that are partly see-through it grows
+ * with how many there are for the pixels that actually changed, since each of their blends rounds on its
+ * own and they can't be merged into one function exactly. Those caches are only
+ * rebuilt (going through all the layers) for tiles that change after the active layer, or a layer other than
+ * the active one, changes; switching layers doesn't change the picture, so nothing is recomposited for it.
+ *
+ * Several threads may draw at once, as with a TiledReplay's workers, but composite() and the layer settings
+ * must not be used while anything is drawing.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class LayeredCanvas implements PixelSurface
+{
+	public static final int TILE_SIZE = 16;
+
+	private static final int TILE_SHIFT = 4;
+
+	private final int _width;
+	private final int _height;
+	private final int _tilesX;
+	private final int _tilesY;
+	private final int _background; //opaque color under all the layers
+
+	private final ArrayList<Layer> _layers; //bottom first
+	private int _active; //index of the layer being drawn on
+	private int[] _pixels; //its pixels
+
+	private final IntFramebuffer _composite;
+	private final int[] _below; //for each pixel, the background and the (visible) layers under the active one, blended
+	private final int[] _over; //for each pixel, the finished color if an opaque normal layer over the active one hides it, or 0
+	private final int[][] _showing; //for each tile, the layers over the active one that show in it (bottom first)
+	private final int[] _showingCount;
+	private final int[] _input; //for each pixel, the active layer blended onto _below, as of the last composite
+	private final int[] _changed = new int[TILE_SIZE*TILE_SIZE]; //scratch for compose(): the pixels in a tile whose input changed
+	private final boolean[] _dirty; //for each tile, whether the composite is out of date (one flag per tile, so threads drawing different tiles don't share)
+	private final boolean[] _stale; //for each tile, whether _below, _over and _showing are out of date
+
+	/**
+	 * One layer of the canvas
+	 */
+	private static class Layer
+	{
+		final IntFramebuffer pixels;
+		int opacity = 255;
+		int mode = Blend.NORMAL;
+		boolean visible = true;
+
+		Layer(IntFramebuffer pixels)
+		{
+			this.pixels = pixels;
+		}
+	}
+
+	/**
+	 * Creates a canvas with one layer, which is active
+	 * @param bottom the pixels of the bottom layer (used, not copied)
+	 * @param background opaque color shown through where the layers are transparent
+	 */
+	public LayeredCanvas(IntFramebuffer bottom, int background)
+	{
+		_width = bottom.getWidth();
+		_height = bottom.getHeight();
+		_tilesX = (_width + TILE_SIZE - 1) >> TILE_SHIFT;
+		_tilesY = (_height + TILE_SIZE - 1) >> TILE_SHIFT;
+		_background = background | 0xFF000000;
+		_layers = new ArrayList<Layer>();
+		_layers.add(new Layer(bottom));
+		_active = 0;
+		_pixels = bottom.getPixels();
+		_composite = new IntFramebuffer(_width, _height);
+		_below = new int[_width*_height];
+		_over = new int[_width*_height];
+		_showing = new int[_tilesX*_tilesY][];
+		_showingCount = new int[_tilesX*_tilesY];
+		_input = new int[_width*_height];
+		_dirty = new boolean[_tilesX*_tilesY];
+		_stale = new boolean[_tilesX*_tilesY];
+		invalidate();
+	}
+
+	/**
+	 * @return a canvas of another size with the same layers (cut off or padded with transparent pixels, on the
+	 *  right and bottom)
+	 */
+	public LayeredCanvas resized(int width, int height)
+	{
+		LayeredCanvas canvas = null;
+		int w = Math.min(width, _width), h = Math.min(height, _height);
+		for(Layer layer : _layers)
+		{
+			IntFramebuffer pixels = new IntFramebuffer(width, height);
+			layer.pixels.readPixels(0, 0, w, h, pixels.getPixels(), 0, width);
+			if(canvas == null)
+				canvas = new LayeredCanvas(pixels, _background);
+			else
+				canvas._layers.add(new Layer(pixels));
+			Layer copy = canvas._layers.get(canvas._layers.size()-1);
+			copy.opacity = layer.opacity;
+			copy.mode = layer.mode;
+			copy.visible = layer.visible;
+		}
+		canvas.setActiveLayer(_active);
+		return canvas;
+	}
+
+	/******** Layers ********/
+
+	public int getLayerCount()
+	{
+		return _layers.size();
+	}
+
+	/**
+	 * Adds a transparent layer just over the active one, and makes it active
+	 * @return its index
+	 */
+	public int addLayer()
+	{
+		_layers.add(_active+1, new Layer(new IntFramebuffer(_width, _height)));
+		setActiveLayer(_active+1);
+		return _active;
+	}
+
+	/**
+	 * Removes a layer (there must be at least one left). If it was the active one, the one under it (if any)
+	 * becomes active.
+	 */
+	public void removeLayer(int index)
+	{
+		layer(index);
+		if(_layers.size() == 1)
+			throw new IllegalStateException("Can't remove the only layer");
+		_layers.remove(index);
+		int active = _active > index || (_active == index && index > 0) ? _active-1 : _active;
+		_active = -1; //(so the caches are rebuilt, even if the index stays the same)
+		setActiveLayer(active);
+		invalidate();
+	}
+
+	/**
+	 * Sets which layer is drawn on
+	 */
+	public void setActiveLayer(int index)
+	{
+		Layer layer = layer(index);
+		if(index == _active)
+			return;
+		_active = index;
+		_pixels = layer.pixels.getPixels();
+		Arrays.fill(_stale, true); //(the picture's the same, so only the tiles drawn on from now on are redone)
+	}
+
+	public int getActiveLayer()
+	{
+		return _active;
+	}
+
+	/**
+	 * @param opacity 0 (not showing) to 255 (as opaque as its pixels)
+	 */
+	public void setOpacity(int index, int opacity)
+	{
+		if(opacity < 0 || opacity > 255)
+			throw new IllegalArgumentException("Invalid opacity: "+opacity);
+		Layer layer = layer(index);
+		if(opacity != layer.opacity) {
+			layer.opacity = opacity;
+			changed(index);
+		}
+	}
+
+	public int getOpacity(int index)
+	{
+		return layer(index).opacity;
+	}
+
+	/**
+	 * @param mode how the layer blends with the ones under it (one of the Blend modes)
+	 */
+	public void setBlendMode(int index, int mode)
+	{
+		if(mode < 0 || mode >= Blend.MODES)
+			throw new IllegalArgumentException("Unknown blend mode: "+mode);
+		Layer layer = layer(index);
+		if(mode != layer.mode) {
+			layer.mode = mode;
+			changed(index);
+		}
+	}
+
+	public int getBlendMode(int index)
+	{
+		return layer(index).mode;
+	}
+
+	public void setVisible(int index, boolean visible)
+	{
+		Layer layer = layer(index);
+		if(visible != layer.visible) {
+			layer.visible = visible;
+			changed(index);
+		}
+	}
+
+	public boolean isVisible(int index)
+	{
+		return layer(index).visible;
+	}
+
+	/**
+	 * @return the pixels of a layer, for reading; draw on a layer by making it active and drawing on the canvas,
+	 *  so the composite knows what's changed
+	 */
+	public PixelSurface getLayer(int index)
+	{
+		return layer(index).pixels;
+	}
+
+	/******** Compositing ********/
+
+	/**
+	 * Brings the composite up to date, redoing just the tiles that have changed
+	 * @return the layers blended together (opaque)
+	 */
+	public IntFramebuffer composite()
+	{
+		for(int tile = 0; tile < _dirty.length; tile++)
+		{
+			if(_dirty[tile]) {
+				_dirty[tile] = false;
+				boolean stale = _stale[tile];
+				if(stale)
+					rebuild(tile);
+				compose(tile, stale);
+			}
+		}
+		return _composite;
+	}
+
+	/**
+	 * Marks every tile as needing to be recomposited, with its caches rebuilt
+	 */
+	public void invalidate()
+	{
+		Arrays.fill(_stale, true);
+		Arrays.fill(_dirty, true);
+	}
+
+	/**
+	 * Blends the background and the layers under the active one for a tile, finds which layers over it show
+	 * there, and works out the color wherever one of those hides it
+	 */
+	private void rebuild(int tile)
+	{
+		int left = (tile % _tilesX) << TILE_SHIFT, top = (tile / _tilesX) << TILE_SHIFT;
+		int right = Math.min(left + TILE_SIZE, _width), bottom = Math.min(top + TILE_SIZE, _height);
+		for(int y = top; y < bottom; y++)
+		{
+			Arrays.fill(_below, y*_width + left, y*_width + right, _background);
+			Arrays.fill(_over, y*_width + left, y*_width + right, 0);
+		}
+		if(_showing[tile] == null || _showing[tile].length < _layers.size())
+			_showing[tile] = new int[_layers.size()];
+		int count = 0;
+		for(int l = 0; l < _layers.size(); l++)
+		{
+			Layer layer = _layers.get(l);
+			if(l == _active || !layer.visible || layer.opacity == 0)
+				continue;
+			int[] pixels = layer.pixels.getPixels();
+			if(l < _active) {
+				for(int y = top; y < bottom; y++)
+				{
+					for(int i = y*_width + left, end = y*_width + right; i < end; i++)
+						_below[i] = Blend.blend(_below[i], pixels[i], layer.mode, layer.opacity);
+				}
+				continue;
+			}
+			boolean shows = false;
+			for(int y = top; y < bottom; y++)
+			{
+				for(int i = y*_width + left, end = y*_width + right; i < end; i++)
+				{
+					int src = pixels[i];
+					if(src >>> 24 == 0)
+						continue;
+					shows = true;
+					if(src >>> 24 == 255 && layer.opacity == 255 && layer.mode == Blend.NORMAL)
+						_over[i] = src | 0xFF000000; //hides everything under it
+					else if(_over[i] != 0)
+						_over[i] = Blend.blend(_over[i], src, layer.mode, layer.opacity);
+				}
+			}
+			if(shows)
+				_showing[tile][count++] = l;
+		}
+		_showingCount[tile] = count;
+		_stale[tile] = false;
+	}
+
+	/**
+	 * Recomposites a tile from its caches and the active layer, blending the layers over it one at a time
+	 * where they aren't hidden and what's under them has changed
+	 * @param all whether to redo every pixel (the caches have just been rebuilt), rather than just the ones
+	 *  whose input has changed
+	 */
+	private void compose(int tile, boolean all)
+	{
+		int left = (tile % _tilesX) << TILE_SHIFT, top = (tile / _tilesX) << TILE_SHIFT;
+		int right = Math.min(left + TILE_SIZE, _width), bottom = Math.min(top + TILE_SIZE, _height);
+		int[] out = _composite.getPixels();
+		Layer active = _layers.get(_active);
+		boolean showing = active.visible && active.opacity > 0;
+		int changed = 0;
+		for(int y = top; y < bottom; y++)
+		{
+			for(int i = y*_width + left, end = y*_width + right; i < end; i++)
+			{
+				if(_over[i] != 0) {
+					out[i] = _over[i];
+					continue;
+				}
+				int color = showing ? Blend.blend(_below[i], _pixels[i], active.mode, active.opacity) : _below[i];
+				if(color == _input[i] && !all)
+					continue; //(so the layers over it come out the same too)
+				_input[i] = color;
+				out[i] = color;
+				_changed[changed++] = i;
+			}
+		}
+		for(int k = 0; k < _showingCount[tile]; k++)
+		{
+			Layer layer = _layers.get(_showing[tile][k]);
+			int[] pixels = layer.pixels.getPixels();
+			for(int c = 0; c < changed; c++)
+			{
+				int i = _changed[c];
+				out[i] = Blend.blend(out[i], pixels[i], layer.mode, layer.opacity);
+			}
+		}
+	}
+
+	/**
+	 * Marks what needs redoing after a layer's settings change
+	 */
+	private void changed(int index)
+	{
+		if(index != _active)
+			Arrays.fill(_stale, true);
+		Arrays.fill(_dirty, true);
+	}
+
+	private Layer layer(int index)
+	{
+		if(index < 0 || index >= _layers.size())
+			throw new IllegalArgumentException("No layer "+index+" (there are "+_layers.size()+")");
+		return _layers.get(index);
+	}
+
+	/**
+	 * Marks the tiles covering a box (inclusive) as needing to be recomposited
+	 */
+	private void markDirty(int left, int top, int right, int bottom)
+	{
+		for(int ty = top >> TILE_SHIFT; ty <= bottom >> TILE_SHIFT; ty++)
+		{
+			for(int tx = left >> TILE_SHIFT; tx <= right >> TILE_SHIFT; tx++)
+				_dirty[ty*_tilesX + tx] = true;
+		}
+	}
+
+	/******** PixelSurface (the active layer) ********/
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		return _pixels[y*_width + x];
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		_pixels[y*_width + x] = color;
+		_dirty[(y >> TILE_SHIFT)*_tilesX + (x >> TILE_SHIFT)] = true;
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		Arrays.fill(_pixels, y*_width + startX, y*_width + endX + 1, color);
+		markDirty(startX, y, endX, y);
+	}
+
+	public void fill(int color)
+	{
+		Arrays.fill(_pixels, color);
+		Arrays.fill(_dirty, true);
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		for(int row = 0; row < height; row++)
+			System.arraycopy(_pixels, (y + row)*_width + x, dst, offset + row*stride, width);
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		if(width <= 0 || height <= 0)
+			return;
+		for(int row = 0; row < height; row++)
+			System.arraycopy(src, offset + row*stride, _pixels, (y + row)*_width + x, width);
+		markDirty(x, y, x + width - 1, y + height - 1);
+	}
+
+	public int quantize(int color)
+	{
+		return color; //stored as is
+	}
+}
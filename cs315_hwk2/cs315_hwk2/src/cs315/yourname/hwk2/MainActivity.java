@@ -1,10 +1,12 @@
 package cs315.yourname.hwk2;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -31,6 +33,8 @@ import cs315.kdybdal.hwk2.R;
 public class MainActivity extends Activity implements OnItemSelectedListener
 {
 	private static final String TAG = "MiniPaint"; //for logging/debugging
+	private static final String SAVE_FILE = "drawing.mpt"; //where the drawing is autosaved
+	private static final long AUTOSAVE_INTERVAL = 30000; //ms between autosaves
 	
 	private MiniPaintView paintView; //the view we'll be drawing on (for later reference). Cast the variable to make more specific
 
@@ -41,6 +45,8 @@ public class MainActivity extends Activity implements OnItemSelectedListener
 	private HashMap<String,Integer> colorsByName;
 	private HashMap<String,Integer> fileResources; //for opening minipaint files
 	private int fileResId;
+	private CompiledDrawingCache drawingCache; //compiled copies of the files, so they only get parsed once
+	private ExecutorService parser; //reads and decodes files off the UI thread (one at a time, so they're drawn in order)
 	
 	
 	/**
@@ -84,6 +90,32 @@ public class MainActivity extends Activity implements OnItemSelectedListener
 		fileResources.put("flower", R.raw.flower);
 		fileResources.put("house", R.raw.house);		
 		fileResId = -1;
+		drawingCache = new CompiledDrawingCache(new File(getCacheDir(), "minipaint"));
+		parser = Executors.newSingleThreadExecutor();
+
+		//pick up the drawing where we left off, and keep saving it
+		File saved = new File(getFilesDir(), SAVE_FILE);
+		if(saved.exists()) {
+			try {
+				paintView.load(saved);
+			}
+			catch(IOException ioe) {
+				Toast toast = Toast.makeText(getApplicationContext(), "Error loading drawing: "+ioe.getMessage(), Toast.LENGTH_SHORT);
+				toast.show();
+				Log.d(TAG,ioe.toString());
+			}
+		}
+		paintView.setAutosave(saved, AUTOSAVE_INTERVAL);
+	}
+
+	/**
+	 * Called when the activity is finished
+	 */
+	@Override
+	protected void onDestroy()
+	{
+		parser.shutdownNow();
+		super.onDestroy();
 	}
 
 	/**
@@ -93,6 +125,22 @@ public class MainActivity extends Activity implements OnItemSelectedListener
 	{
 		paintView.clearDrawing();
 	}
+
+	/**
+	 * If the undo button is pressed
+	 */
+	public void undoButton(View view)
+	{
+		paintView.undo();
+	}
+
+	/**
+	 * If the redo button is pressed
+	 */
+	public void redoButton(View view)
+	{
+		paintView.redo();
+	}
 	
 	/**
 	 * If the file button is pressed
@@ -152,86 +200,70 @@ public class MainActivity extends Activity implements OnItemSelectedListener
 	 * Provided method that parses a .minipaint file (a set of drawing commands)
 	 * @param resource the Android resource id of the file.
 	 */
-	public void parse(int resource)
+	public void parse(final int resource)
 	{
 		Log.d(TAG,"Parsing "+resource);
 		if(resource == -1) //if undefined, return
 			return;
 		
-		InputStream inputStream = getResources().openRawResource(resource);
-		BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
-		
-		try
-		{
-			String line = in.readLine();
-			while(line != null) //read line by line
-			{
-				Log.d(TAG,line);
-				String[] args = line.split(" ");
-				if(args[0].equals("COLOR")){
-					if(args[1].equals("black"))
-						paintView.setColor(Color.BLACK);
-					else if(args[1].equals("white"))
-						paintView.setColor(Color.WHITE);
-					else if(args[1].equals("red"))
-						paintView.setColor(Color.RED);
-					else if(args[1].equals("green"))
-						paintView.setColor(Color.GREEN);
-					else if(args[1].equals("blue"))
-						paintView.setColor(Color.BLUE);
-				}
-				else if(args[0].equals("P")){
-					paintView.drawPoint(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
-				}
-				else if(args[0].equals("L")){
-					paintView.drawLine(
-							Integer.parseInt(args[1]), 
-							Integer.parseInt(args[2]),
-							Integer.parseInt(args[3]),
-							Integer.parseInt(args[4]));
-				}
-				else if(args[0].equals("C")){
-					paintView.drawCircle(
-							Integer.parseInt(args[1]), 
-							Integer.parseInt(args[2]),
-							Integer.parseInt(args[3]));
-				}
-				else if(args[0].equals("Y")){
-					int[] coords = new int[args.length-1]; //store the coords to avoid duplicate parsing
-					for(int i=1; i<args.length; i++)
-						coords[i-1] = Integer.parseInt(args[i]);
-					
-					for(int i=0; i<coords.length-3; i+=2) //draw line to every two coords
-						paintView.drawLine(coords[i], coords[i+1], coords[i+2], coords[i+3]);
-				}
-				else if(args[0].equals("END")){
-					break; //exit the loop
+		parser.execute(new Runnable() { //reading, compiling (or loading the cached copy) and decoding all happen here
+			public void run() {
+				try
+				{
+					final CommandBuffer commands = new CommandBuffer();
+					final int count = drawingCache.replay(readResource(resource), commands);
+					final boolean cached = drawingCache.wasHit();
+					runOnUiThread(new Runnable() { //so all that's left for the UI thread is handing the commands over
+						public void run() {
+							try {
+								paintView.draw(commands); //as one step, so the whole file is undone at once
+								Log.d(TAG,"Replayed "+count+" commands ("+(cached ? "cached" : "compiled")+")");
+							}
+							catch(IllegalStateException ise) { //too much still waiting to be drawn
+								showError("Error drawing file: ", ise);
+							}
+						}
+					});
 				}
-				else if(args[0].equals("R")){
-					paintView.drawRectangle(
-							Integer.parseInt(args[1]), 
-							Integer.parseInt(args[2]),
-							Integer.parseInt(args[3]),
-							Integer.parseInt(args[4]));
-				}
-				else if(args[0].equals("F")){
-					paintView.floodFill(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
-				}
-				else if(args[0].equals("A")){
-					paintView.airBrush(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
-				}
-				else {
-					Log.d(TAG,"Unhandled command: "+line);
+				catch(IOException ioe) //in case something goes wrong (including errors in the file, which say what line they're on)
+				{
+					showError("Error parsing file: ", ioe);
 				}
+			}
+		});
+	}
 
-				line = in.readLine(); //grab the next line!
+	/**
+	 * Shows (and logs) an error message; safe to call from any thread
+	 */
+	private void showError(final String message, final Exception e)
+	{
+		Log.d(TAG,e.toString());
+		runOnUiThread(new Runnable() {
+			public void run() {
+				Toast toast = Toast.makeText(getApplicationContext(), message+e.getMessage(), Toast.LENGTH_SHORT);
+				toast.show();
 			}
+		});
+	}
+
+	/**
+	 * Reads the whole contents of a raw resource
+	 * @param resource the Android resource id of the file.
+	 */
+	private byte[] readResource(int resource) throws IOException
+	{
+		InputStream in = getResources().openRawResource(resource);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 256));
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
 		}
-		catch(IOException ioe) //in case something goes wrong
-		{
-			Toast toast = Toast.makeText(getApplicationContext(), "Error parsing file: "+ioe.toString(), Toast.LENGTH_SHORT);
-			toast.show();
-			Log.d(TAG,ioe.toString());
+		finally {
+			in.close();
 		}
 	}
 }
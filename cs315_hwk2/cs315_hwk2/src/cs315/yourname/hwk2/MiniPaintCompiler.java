@@ -0,0 +1,236 @@
+package cs315.yourname.hwk2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compiles .minipaint text into the compact binary form that CompiledDrawing replays (see there for the
+ * format). Works as a PaintCommandSink, so it's fed by a MiniPaintParser (or anything else that draws).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class MiniPaintCompiler implements PaintCommandSink
+{
+	private MiniPaintParser _parser;
+	private byte[] _out;
+	private int _size;
+	private int _commands;
+	private int _penX; //last point drawn, which coordinates are relative to
+	private int _penY;
+
+	public MiniPaintCompiler()
+	{
+		_parser = new MiniPaintParser();
+		_out = new byte[1024];
+		reset(0);
+	}
+
+	/**
+	 * Compiles .minipaint text (between the buffer's position and limit)
+	 * @param text the source text
+	 * @param sourceHash hash of the text, recorded in the header
+	 * @return the compiled drawing
+	 */
+	public byte[] compile(ByteBuffer text, long sourceHash) throws MiniPaintParseException
+	{
+		reset(sourceHash);
+		_parser.parse(text, this);
+		return finish();
+	}
+
+	/**
+	 * Starts a new compiled drawing; commands sent to this sink are added to it until finish() is called
+	 * @param sourceHash hash of the source, recorded in the header
+	 */
+	public void reset(long sourceHash)
+	{
+		_size = 0;
+		_commands = 0;
+		_penX = 0;
+		_penY = 0;
+		for(int i = 0; i < CompiledDrawing.MAGIC.length; i++)
+			writeByte(CompiledDrawing.MAGIC[i]);
+		writeByte(CompiledDrawing.VERSION);
+		writeInt(0); //command count, filled in by finish()
+		writeInt((int)(sourceHash >>> 32));
+		writeInt((int)sourceHash);
+	}
+
+	/**
+	 * Ends the drawing started by reset()
+	 * @return the compiled drawing
+	 */
+	public byte[] finish()
+	{
+		writeByte(CompiledDrawing.END);
+		ByteBuffer.wrap(_out).putInt(4, _commands);
+		byte[] compiled = new byte[_size];
+		System.arraycopy(_out, 0, compiled, 0, _size);
+		return compiled;
+	}
+
+	/**
+	 * @return the number of lines the parser skipped in the last compile()
+	 */
+	public int getSkippedLines()
+	{
+		return _parser.getSkippedLines();
+	}
+
+	/******** PaintCommandSink ********/
+
+	public void setColor(int color)
+	{
+		writeByte(PaintCommand.COLOR);
+		writeInt(color);
+		_commands++;
+	}
+
+	public void drawPoint(int x, int y)
+	{
+		writePoint(PaintCommand.POINT, x, y);
+	}
+
+	public void drawLine(int startX, int startY, int endX, int endY)
+	{
+		if(startX == _penX && startY == _penY) { //continues from the last point, as polylines do
+			writeByte(CompiledDrawing.LINE_TO);
+			writeDelta(endX, endY);
+			_commands++;
+		}
+		else
+			writeTwoPoints(PaintCommand.LINE, startX, startY, endX, endY);
+	}
+
+	public void drawCircle(int x, int y, int radius)
+	{
+		writePoint(PaintCommand.CIRCLE, x, y);
+		writeVarint(radius);
+	}
+
+	public void fillCircle(int x, int y, int radius)
+	{
+		writePoint(PaintCommand.FILLED_CIRCLE, x, y);
+		writeVarint(radius);
+	}
+
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		writePoint(PaintCommand.ELLIPSE, x, y);
+		writeVarint(radiusX);
+		writeVarint(radiusY);
+	}
+
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		writePoint(PaintCommand.FILLED_ELLIPSE, x, y);
+		writeVarint(radiusX);
+		writeVarint(radiusY);
+	}
+
+	public void drawRectangle(int startX, int startY, int endX, int endY)
+	{
+		writeTwoPoints(PaintCommand.RECTANGLE, startX, startY, endX, endY);
+	}
+
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		writeTwoPoints(PaintCommand.RECTANGLE_OUTLINE, startX, startY, endX, endY);
+	}
+
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		writeByte(PaintCommand.POLYGON);
+		writeVarint(rule);
+		writeVarint(points);
+		for(int i = 0; i < points; i++)
+			writeDelta(coords[offset + 2*i], coords[offset + 2*i + 1]);
+		_commands++;
+	}
+
+	/**
+	 * Stamps are written as separate points or airbrushes (the .minipaint format has no strokes)
+	 */
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		for(int i = offset; i < offset + 2*points; i += 2)
+			writePoint(brush == PaintCommand.AIRBRUSH ? PaintCommand.AIRBRUSH : PaintCommand.POINT, coords[i], coords[i+1]);
+	}
+
+	public void floodFill(int x, int y)
+	{
+		writePoint(PaintCommand.FLOOD_FILL, x, y);
+	}
+
+	public void airBrush(int x, int y)
+	{
+		writePoint(PaintCommand.AIRBRUSH, x, y);
+	}
+
+	public void clear(int color)
+	{
+		writeByte(PaintCommand.CLEAR);
+		writeInt(color);
+		_commands++;
+	}
+
+	/******** Encoding ********/
+
+	private void writePoint(int op, int x, int y)
+	{
+		writeByte(op);
+		writeDelta(x, y);
+		_commands++;
+	}
+
+	private void writeTwoPoints(int op, int startX, int startY, int endX, int endY)
+	{
+		writeByte(op);
+		writeDelta(startX, startY);
+		writeDelta(endX, endY);
+		_commands++;
+	}
+
+	/**
+	 * Writes a point relative to the pen, and moves the pen there
+	 */
+	private void writeDelta(int x, int y)
+	{
+		writeVarint(x - _penX);
+		writeVarint(y - _penY);
+		_penX = x;
+		_penY = y;
+	}
+
+	/**
+	 * Writes a zigzag-encoded varint, so small numbers of either sign take a single byte
+	 */
+	private void writeVarint(int value)
+	{
+		int zigzag = (value << 1) ^ (value >> 31);
+		while((zigzag & ~0x7F) != 0)
+		{
+			writeByte((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		writeByte(zigzag);
+	}
+
+	private void writeInt(int value)
+	{
+		writeByte(value >>> 24);
+		writeByte(value >>> 16);
+		writeByte(value >>> 8);
+		writeByte(value);
+	}
+
+	private void writeByte(int b)
+	{
+		if(_size == _out.length) {
+			byte[] bigger = new byte[_size*2];
+			System.arraycopy(_out, 0, bigger, 0, _size);
+			_out = bigger;
+		}
+		_out[_size++] = (byte)b;
+	}
+}
@@ -0,0 +1,34 @@
+package cs315.yourname.hwk2;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a .minipaint file can't be parsed; says which line the problem is on.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class MiniPaintParseException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final int _line;
+
+	/**
+	 * @param line the (1-based) line number the problem is on
+	 * @param message what went wrong
+	 */
+	public MiniPaintParseException(int line, String message)
+	{
+		super("Line "+line+": "+message);
+		_line = line;
+	}
+
+	/**
+	 * @return the (1-based) line number the problem is on
+	 */
+	public int getLine()
+	{
+		return _line;
+	}
+}
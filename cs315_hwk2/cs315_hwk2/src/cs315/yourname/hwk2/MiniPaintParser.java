@@ -0,0 +1,351 @@
+package cs315.yourname.hwk2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A streaming parser for .minipaint files (a set of drawing commands, one per line).
+ *
+ * Works directly on the bytes of the file (in a ByteBuffer, which can be a memory-mapped file): commands and
+ * numbers are recognized and parsed in place and sent straight to a PaintCommandSink, so no Strings or other
+ * objects are created per command. Polylines ("Y") are sent as a series of lines. Besides the original
+ * commands there are filled circles ("CF x y r"), ellipses ("E x y rx ry", filled "EF x y rx ry") and
+ * filled polygons, which take the same coordinates as a polyline: "YF" fills by the even-odd rule and "YW"
+ * by the nonzero winding rule.
+ *
+ * Blank lines and unknown commands are skipped (and counted); malformed commands throw a
+ * MiniPaintParseException with the line number.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class MiniPaintParser
+{
+	//colors named by the COLOR command
+	public static final int BLACK = 0xFF000000;
+	public static final int WHITE = 0xFFFFFFFF;
+	public static final int RED = 0xFFFF0000;
+	public static final int GREEN = 0xFF00FF00;
+	public static final int BLUE = 0xFF0000FF;
+
+	private static final byte[] COLOR = ascii("COLOR");
+	private static final byte[] END = ascii("END");
+	private static final byte[] FILLED_CIRCLE = ascii("CF");
+	private static final byte[] FILLED_ELLIPSE = ascii("EF");
+	private static final byte[] POLYGON_EVEN_ODD = ascii("YF");
+	private static final byte[] POLYGON_NON_ZERO = ascii("YW");
+	private static final byte[][] COLOR_NAMES = {ascii("black"), ascii("white"), ascii("red"), ascii("green"), ascii("blue")};
+	private static final int[] COLOR_VALUES = {BLACK, WHITE, RED, GREEN, BLUE};
+
+	private ByteBuffer _buf;
+	private int _pos; //next byte to read
+	private int _limit;
+	private int _line; //current line number (1-based)
+	private int _tokenStart; //bounds of the most recently read token
+	private int _tokenEnd;
+
+	private int[] _coords; //polyline coordinates, reused between lines
+	private int _skipped; //lines skipped in the last parse
+
+	public MiniPaintParser()
+	{
+		_coords = new int[64];
+	}
+
+	/**
+	 * Parses the commands in a file (which is memory-mapped rather than read)
+	 * @param file the .minipaint file
+	 * @param sink where to send the commands
+	 * @return the number of commands sent to the sink
+	 */
+	public int parse(File file, PaintCommandSink sink) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), sink);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the commands between the buffer's position and limit (the buffer's position is left alone)
+	 * @param buf the contents of a .minipaint file, as ASCII
+	 * @param sink where to send the commands
+	 * @return the number of commands sent to the sink
+	 */
+	public int parse(ByteBuffer buf, PaintCommandSink sink) throws MiniPaintParseException
+	{
+		_buf = buf;
+		_pos = buf.position();
+		_limit = buf.limit();
+		_line = 1;
+		_skipped = 0;
+		int commands = 0;
+
+		try {
+			while(nextToken())
+			{
+				int length = _tokenEnd - _tokenStart;
+				int op = length == 1 ? _buf.get(_tokenStart) : 0;
+				if(op == 'P') {
+					sink.drawPoint(nextInt(), nextInt());
+				}
+				else if(op == 'L') {
+					sink.drawLine(nextInt(), nextInt(), nextInt(), nextInt());
+				}
+				else if(op == 'C') {
+					sink.drawCircle(nextInt(), nextInt(), nextInt());
+				}
+				else if(tokenIs(FILLED_CIRCLE)) {
+					sink.fillCircle(nextInt(), nextInt(), nextInt());
+				}
+				else if(op == 'E') {
+					sink.drawEllipse(nextInt(), nextInt(), nextInt(), nextInt());
+				}
+				else if(tokenIs(FILLED_ELLIPSE)) {
+					sink.fillEllipse(nextInt(), nextInt(), nextInt(), nextInt());
+				}
+				else if(tokenIs(POLYGON_EVEN_ODD) || tokenIs(POLYGON_NON_ZERO)) {
+					int rule = tokenIs(POLYGON_EVEN_ODD) ? PolygonFill.EVEN_ODD : PolygonFill.NON_ZERO;
+					sink.fillPolygon(_coords, 0, readCoords()/2, rule);
+				}
+				else if(op == 'Y') {
+					commands += polyline(sink) - 1; //counted as one below
+				}
+				else if(op == 'R') {
+					sink.drawRectangle(nextInt(), nextInt(), nextInt(), nextInt());
+				}
+				else if(op == 'F') {
+					sink.floodFill(nextInt(), nextInt());
+				}
+				else if(op == 'A') {
+					sink.airBrush(nextInt(), nextInt());
+				}
+				else if(tokenIs(COLOR)) {
+					sink.setColor(nextColor());
+				}
+				else if(tokenIs(END)) {
+					break; //exit the loop
+				}
+				else { //unhandled command
+					_skipped++;
+					skipLine();
+					continue;
+				}
+				commands++;
+				skipLine(); //ignore anything extra on the line
+			}
+		}
+		finally {
+			_buf = null;
+		}
+		return commands;
+	}
+
+	/**
+	 * @return how many non-blank lines the last parse skipped because it didn't recognize the command
+	 */
+	public int getSkippedLines()
+	{
+		return _skipped;
+	}
+
+	/**
+	 * Parses the coordinates of a "Y" command, and draws a line between each pair of points
+	 * @return the number of lines drawn
+	 */
+	private int polyline(PaintCommandSink sink) throws MiniPaintParseException
+	{
+		int count = readCoords();
+		for(int i=0; i<count-3; i+=2) //draw line to every two coords
+			sink.drawLine(_coords[i], _coords[i+1], _coords[i+2], _coords[i+3]);
+		return Math.max(count/2 - 1, 0);
+	}
+
+	/**
+	 * Parses the rest of the line as pairs of coordinates, into _coords
+	 * @return the number of coordinates (twice the number of points)
+	 */
+	private int readCoords() throws MiniPaintParseException
+	{
+		int count = 0;
+		while(nextTokenOnLine())
+		{
+			if(count == _coords.length) {
+				int[] bigger = new int[count*2];
+				System.arraycopy(_coords, 0, bigger, 0, count);
+				_coords = bigger;
+			}
+			_coords[count++] = tokenInt();
+		}
+		if(count % 2 != 0)
+			throw new MiniPaintParseException(_line, "Odd number of coordinates");
+		return count;
+	}
+
+	/**
+	 * Moves to the next token (the command at the start of the next non-blank line)
+	 * @return false if there's nothing left
+	 */
+	private boolean nextToken()
+	{
+		while(_pos < _limit)
+		{
+			byte b = _buf.get(_pos);
+			if(b == '\n') {
+				_line++;
+				_pos++;
+			}
+			else if(isSpace(b))
+				_pos++;
+			else {
+				readToken();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves to the next token on the current line
+	 * @return false if the line has no more tokens
+	 */
+	private boolean nextTokenOnLine()
+	{
+		while(_pos < _limit)
+		{
+			byte b = _buf.get(_pos);
+			if(b == '\n')
+				return false;
+			if(!isSpace(b)) {
+				readToken();
+				return true;
+			}
+			_pos++;
+		}
+		return false;
+	}
+
+	private void readToken()
+	{
+		_tokenStart = _pos;
+		while(_pos < _limit)
+		{
+			byte b = _buf.get(_pos);
+			if(b == '\n' || isSpace(b))
+				break;
+			_pos++;
+		}
+		_tokenEnd = _pos;
+	}
+
+	/**
+	 * Skips to the end of the current line (not past the newline, so it still gets counted)
+	 */
+	private void skipLine()
+	{
+		while(_pos < _limit && _buf.get(_pos) != '\n')
+			_pos++;
+	}
+
+	/**
+	 * Reads the next token on the line as an integer
+	 */
+	private int nextInt() throws MiniPaintParseException
+	{
+		if(!nextTokenOnLine())
+			throw new MiniPaintParseException(_line, "Missing argument");
+		return tokenInt();
+	}
+
+	/**
+	 * Parses the current token as a (decimal, optionally signed) integer
+	 */
+	private int tokenInt() throws MiniPaintParseException
+	{
+		int i = _tokenStart;
+		boolean negative = false;
+		byte first = _buf.get(i);
+		if(first == '-' || first == '+') {
+			negative = first == '-';
+			i++;
+		}
+		if(i == _tokenEnd)
+			throw badNumber();
+
+		long value = 0; //accumulate negatively so Integer.MIN_VALUE fits
+		for(; i < _tokenEnd; i++)
+		{
+			int digit = _buf.get(i) - '0';
+			if(digit < 0 || digit > 9)
+				throw badNumber();
+			value = value*10 - digit;
+			if(value < Integer.MIN_VALUE)
+				throw badNumber();
+		}
+		if(!negative) {
+			if(value == Integer.MIN_VALUE)
+				throw badNumber();
+			value = -value;
+		}
+		return (int)value;
+	}
+
+	/**
+	 * Reads the next token on the line as a color name
+	 */
+	private int nextColor() throws MiniPaintParseException
+	{
+		if(!nextTokenOnLine())
+			throw new MiniPaintParseException(_line, "Missing color");
+		for(int i = 0; i < COLOR_NAMES.length; i++)
+			if(tokenIs(COLOR_NAMES[i]))
+				return COLOR_VALUES[i];
+		throw new MiniPaintParseException(_line, "Unknown color: "+tokenString());
+	}
+
+	private boolean tokenIs(byte[] word)
+	{
+		if(_tokenEnd - _tokenStart != word.length)
+			return false;
+		for(int i = 0; i < word.length; i++)
+			if(_buf.get(_tokenStart+i) != word[i])
+				return false;
+		return true;
+	}
+
+	private MiniPaintParseException badNumber()
+	{
+		return new MiniPaintParseException(_line, "Not a valid integer: "+tokenString());
+	}
+
+	/**
+	 * @return the current token as a String (only used for error messages)
+	 */
+	private String tokenString()
+	{
+		char[] chars = new char[_tokenEnd - _tokenStart];
+		for(int i = 0; i < chars.length; i++)
+			chars[i] = (char)(_buf.get(_tokenStart+i) & 0xFF);
+		return new String(chars);
+	}
+
+	private static boolean isSpace(byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static byte[] ascii(String s)
+	{
+		byte[] bytes = new byte[s.length()];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)s.charAt(i);
+		return bytes;
+	}
+}
@@ -1,17 +1,17 @@
 package cs315.yourname.hwk2;
 
-import java.util.LinkedList;
-import java.util.Stack;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Point;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.view.DragEvent;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -19,13 +19,18 @@ import android.view.SurfaceView;
 /**
  * A starter template for an Android scan conversion mini-painter. Includes the logic for doing the scan conversions
  * 
- * This class provides a dedicated thread for drawing, though the actual work is still in the UI thread,
- * because it is user driven.
+ * Drawing requests (from touches or files) are queued up as commands on the UI thread and rasterized on a
+ * dedicated RasterizerThread, so the UI never waits on a slow shape; a separate DrawingThread presents the results.
+ * On multi-core devices the rasterizer thread splits each batch of commands into tiles drawn by a thread pool.
+ * 
+ * The canvas is normally the size of the screen; it can also be given a size of its own (see setCanvasSize()),
+ * in which case only the part in the viewport is shown, and dragging with two fingers pans around it.
+ * Drawings can be saved (and autosaved) to a file of compressed tiles, and loaded back lazily.
  * 
  * @author Joel and Kyle Dybdal, adapted from code by Dave Akers
  * @version Fall 2013
  */
-public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
+public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback, PaintCommandSink
 {
 	private static final String TAG = "MiniPaintView";
 
@@ -36,25 +41,83 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	public static final int RECTANGLE_MODE = 4;
 	public static final int FLOOD_FILL_MODE = 5;
 	public static final int AIRBRUSH_MODE = 6;
+	public static final int RECTANGLE_OUTLINE_MODE = 7;
+	public static final int FILLED_CIRCLE_MODE = 8;
+	public static final int ELLIPSE_MODE = 9;
+	public static final int FILLED_ELLIPSE_MODE = 10;
+	public static final int POLYGON_MODE = 11;
+
+	public static final int FORMAT_ARGB_8888 = 0; //how the frame buffer stores pixels (see setPixelFormat())
+	public static final int FORMAT_RGB_565 = 1;
+	public static final int FORMAT_INDEXED_8 = 2;
 
 	private static final int PIXEL_SIZE = 2; //how "big" to make each pixel; change this for debugging
-	private boolean DELAY_MODE = false; //whether to show a delay on the drawing (for debugging)
-	private static final int DELAY_TIME = 5; //how long to pause between pixels; delay in ms; 5 is short, 50 is long
+	private static final boolean TRACE_MODE = false; //whether to record the pixels drawn, to play back (for debugging); see setTracing()
+	private static final long TRACE_FRAME = 16; //time between steps when playing a trace back, in ms
+	private static final long IDLE_WAIT = 250; //how long the drawing thread sleeps between checks when nothing has changed, in ms
+	private static final float DEFAULT_STROKE_SPACING = 0.25f; //distance between brush stamps along a stroke, as a fraction of the brush's width
+	private static final int CLOSE_DISTANCE = 10; //how close (in frame buffer pixels) a tap has to be to a polygon's first point to close it
+	private static final int REPLAY_BUDGET = 8; //on resize, redraw the log if it costs at most this many pixels per frame buffer pixel
+	private static final int SAVE_BATCH = 64; //most tiles to pick up for saving per hold of the rasterizer's lock
 
 	private SurfaceHolder _holder; //basic drawing structure
 	private DrawingThread _thread;
 	private Context _context;
 	
-	private Bitmap _bmp; //frame buffer
+	private PixelSurface _fb; //frame buffer that the primitives draw into
+	private int _pixelFormat = FORMAT_ARGB_8888; //what kind of frame buffer _fb is
+	private UndoHistory _history; //draws through to _fb, remembering what changed
+	private LayeredCanvas _layers; //_fb, once the drawing has layers; null otherwise
+	private volatile Bitmap _bmp; //bitmap the frame buffer is copied to for presenting
+	private Rasterizer _raster; //does the actual scan conversion
+	private CommandQueue _commands; //drawing commands waiting for the rasterizer thread
+	private RasterizerThread _rasterThread;
+	private CommandLog _log; //everything drawn, for redrawing after a resize
+	private boolean _redrawPending; //whether the rasterizer thread still has to redraw the log on the new frame buffer (guarded by _raster)
+	private final Runnable _redraw = new Runnable() { public void run() { redrawLog(); } };
+	private TiledReplay _replay; //null on single-core devices
+	private ExecutorService _pool; //for drawing tiles in parallel; null on single-core devices
+	private ParallelFloodFill _parallelFill; //null on single-core devices
 	private int _width; //size of the image buffer
 	private int _height;
-	private Matrix _scaleM; //scale based on pixel size
+	private int _canvasWidth; //size asked for with setCanvasSize(), or 0 to fit the screen
+	private int _canvasHeight;
+	private int _viewWidth; //size of the part of the canvas that fits on the screen (and of _bmp)
+	private int _viewHeight;
+	private volatile int _viewX; //where that part is on the canvas (set on the UI thread, read when presenting)
+	private volatile int _viewY;
+
+	private final Object _saveLock = new Object(); //held while saving, so saves don't overlap
+	private TileFile _saveFile; //where the drawing was last saved, or null
+	private TileFile _source; //saved drawing the canvas is reading its tiles from, or null
+	private TileFile _pendingLoad; //saved drawing to load once there's a surface to size the view by
+	private AutosaveThread _autosave; //null if not autosaving
+
+	private volatile RasterMetrics _metrics; //null unless metrics are on
+	private volatile RasterMetrics.Recorder _presentRecorder; //the drawing thread's, in _metrics
+	private MetricsLogger _metricsLogger; //null if not logging metrics
+
+	private boolean _tracing; //whether to record the pixels drawn
+	private TracingSurface _trace; //wraps _fb while tracing, null otherwise
+	private TracePlayer _player; //trace being played back on _fb, or null
+	private TracePlayback _playback; //null unless playing a trace back
+
+	private volatile int _lastPresentedPixels; //frame buffer pixels pushed to the screen in the last frame
+	private volatile long _framesPresented;
 
 	private int _mode; //drawing mode
-	private int _color; //current painting color
 	
 	private int _startX; //starting points for multi-click operations
 	private int _startY;
+	private int[] _polygon = new int[64]; //points of the polygon being tapped out, as x, y pairs
+	private int _polygonPoints;
+	private StrokeBuilder _stroke = new StrokeBuilder(); //stamps along the path of a point or airbrush stroke
+	private float _strokeSpacing = DEFAULT_STROKE_SPACING;
+	private int _airBrushRadius; //as last set (the rasterizer's may still be behind, waiting in the queue)
+	private boolean _undone; //whether there's been an undo since the last drawing (so there may be steps to redo)
+	private boolean _panning; //whether the current gesture is a two-finger pan
+	private float _panX; //where the pan last was, in screen pixels
+	private float _panY;
 	
 
 	/**
@@ -63,12 +126,18 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	@Override
 	public boolean onTouchEvent(MotionEvent event)
 	{
-		int x = (int)event.getX()/PIXEL_SIZE; //scale event to the size of the frame buffer!
-		int y = (int)event.getY()/PIXEL_SIZE;
+		if(event.getPointerCount() > 1 || _panning) { //two fingers move the viewport instead of drawing
+			pan(event);
+			return true; //(so the second finger's moves keep coming)
+		}
+		if(_mode != POINT_MODE && _mode != AIRBRUSH_MODE && event.getActionMasked() != MotionEvent.ACTION_DOWN)
+			return true; //the other modes go by taps, so only where each touch went down matters
+		int x = (int)event.getX()/PIXEL_SIZE + _viewX; //scale event to the size of the frame buffer (and move it to where the view is on the canvas)!
+		int y = (int)event.getY()/PIXEL_SIZE + _viewY;
 
 		switch(_mode) {
 		case POINT_MODE:
-			drawPoint(x,y);
+			stroke(event, PaintCommand.POINT);
 			break;
 		case LINE_MODE: 
 			if(_startX < 0) { //see if we have a "first click" set of coords
@@ -124,17 +193,165 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 			
 			break;
 		case AIRBRUSH_MODE:
+			stroke(event, PaintCommand.AIRBRUSH);
+			break;
+		case RECTANGLE_OUTLINE_MODE:
 			if(_startX < 0) { //see if we have a "first click" set of coords
 				_startX = x; 
 				_startY = y;
-				airBrush(x,y);
+			}
+			else{
+				strokeRectangle(_startX,_startY,x,y);
 				_startX = -1;
 			}
-			
+
+			break;
+		case FILLED_CIRCLE_MODE:
+			if(_startX < 0) { //see if we have a "first click" set of coords
+				_startX = x; 
+				_startY = y;
+			}
+			else {
+				int radius = (int) Math.sqrt((x - _startX)*(x - _startX) + (y - _startY)*(y - _startY));
+				fillCircle(_startX, _startY, radius);
+				_startX = -1;
+			}
+			break;
+		case ELLIPSE_MODE:
+		case FILLED_ELLIPSE_MODE:
+			if(_startX < 0) { //first click is the center
+				_startX = x; 
+				_startY = y;
+			}
+			else { //second is a corner of its bounding box
+				if(_mode == ELLIPSE_MODE)
+					drawEllipse(_startX, _startY, Math.abs(x - _startX), Math.abs(y - _startY));
+				else
+					fillEllipse(_startX, _startY, Math.abs(x - _startX), Math.abs(y - _startY));
+				_startX = -1;
+			}
+			break;
+		case POLYGON_MODE: //outlined like a polyline, then filled when it's closed by tapping near the first point
+			if(_polygonPoints >= 3 && Math.abs(x - _polygon[0]) <= CLOSE_DISTANCE && Math.abs(y - _polygon[1]) <= CLOSE_DISTANCE) {
+				drawLine(_polygon[2*_polygonPoints-2], _polygon[2*_polygonPoints-1], _polygon[0], _polygon[1]);
+				fillPolygon(_polygon, 0, _polygonPoints, PolygonFill.EVEN_ODD);
+				_polygonPoints = 0;
+			}
+			else {
+				if(_polygonPoints > 0)
+					drawLine(_polygon[2*_polygonPoints-2], _polygon[2*_polygonPoints-1], x, y);
+				if(2*_polygonPoints == _polygon.length) {
+					int[] bigger = new int[_polygon.length*2];
+					System.arraycopy(_polygon, 0, bigger, 0, _polygon.length);
+					_polygon = bigger;
+				}
+				_polygon[2*_polygonPoints] = x;
+				_polygon[2*_polygonPoints+1] = y;
+				_polygonPoints++;
+			}
 			break;
 		}
+		if(!_stroke.isActive())
+			_commands.checkpoint(); //each touch (or whole stroke) is its own step to undo (nothing's saved if it didn't draw anything)
 
-		return super.onTouchEvent(event); //pass up the tree, as needed
+		return true; //consumed, so the rest of the gesture (its moves, with their history, and the lift) comes here too
+	}
+
+	/**
+	 * Continues a stroke with a touch event: every sample since the last event (including the historical ones
+	 * batched into a move) is joined up, and the brush is stamped along the way with a single command
+	 * @param brush PaintCommand.POINT or PaintCommand.AIRBRUSH
+	 */
+	private void stroke(MotionEvent event, int brush)
+	{
+		int width = brush == PaintCommand.AIRBRUSH ? 2*_airBrushRadius + 1 : 1;
+		_stroke.setSpacing(_strokeSpacing*width);
+		int action = event.getActionMasked();
+		if(action == MotionEvent.ACTION_DOWN)
+			_stroke.begin(event.getX()/PIXEL_SIZE + _viewX, event.getY()/PIXEL_SIZE + _viewY);
+		else {
+			for(int i = 0; i < event.getHistorySize(); i++)
+				_stroke.lineTo(event.getHistoricalX(i)/PIXEL_SIZE + _viewX, event.getHistoricalY(i)/PIXEL_SIZE + _viewY);
+			_stroke.lineTo(event.getX()/PIXEL_SIZE + _viewX, event.getY()/PIXEL_SIZE + _viewY);
+		}
+		if(action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)
+			_stroke.end();
+
+		if(_stroke.getStampCount() > 0) {
+			stamp(_stroke.getStamps(), 0, _stroke.getStampCount(), brush);
+			_stroke.clearStamps();
+		}
+	}
+
+	/**
+	 * Moves the viewport with a two-finger drag. Whatever the first finger had started (a stroke, or the first
+	 * click of a shape) is dropped, and the rest of the gesture only pans, even once a finger is lifted.
+	 */
+	private void pan(MotionEvent event)
+	{
+		int action = event.getActionMasked();
+		if(!_panning) {
+			_panning = true;
+			_stroke.end();
+			_startX = -1;
+			_startY = -1;
+		}
+		if(action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+			_panning = false;
+			return;
+		}
+		if(action == MotionEvent.ACTION_MOVE) { //follow the first finger
+			int dx = (int)((_panX - event.getX(0))/PIXEL_SIZE);
+			int dy = (int)((_panY - event.getY(0))/PIXEL_SIZE);
+			_panX -= dx*PIXEL_SIZE; //(keeping the part of a pixel left over)
+			_panY -= dy*PIXEL_SIZE;
+			if(dx != 0 || dy != 0)
+				panTo(_viewX + dx, _viewY + dy);
+		}
+		else { //a finger went down or up, so start following whichever finger is first now
+			int first = action == MotionEvent.ACTION_POINTER_UP && event.getActionIndex() == 0 ? 1 : 0;
+			_panX = event.getX(first);
+			_panY = event.getY(first);
+		}
+	}
+
+	/**
+	 * Moves the viewport, so the given canvas pixel is at the top left of the screen (as near as it can be
+	 * while keeping the screen on the canvas). Doesn't wait for the rasterizer: the presenting thread picks up
+	 * the new offset, and a frame caught halfway through the move is drawn again since it's all marked dirty.
+	 */
+	public void panTo(int x, int y)
+	{
+		int viewX = Math.max(0, Math.min(x, _width - _viewWidth));
+		int viewY = Math.max(0, Math.min(y, _height - _viewHeight));
+		_viewX = viewX;
+		_viewY = viewY;
+		_raster.getDirtyRegion().add(viewX, viewY, viewX + _viewWidth - 1, viewY + _viewHeight - 1); //show it all again (after the move, so it can't be missed)
+	}
+
+	/**
+	 * @return the x-coord of the canvas pixel at the left of the screen
+	 */
+	public int getViewX()
+	{
+		return _viewX;
+	}
+
+	/**
+	 * @return the y-coord of the canvas pixel at the top of the screen
+	 */
+	public int getViewY()
+	{
+		return _viewY;
+	}
+
+	/**
+	 * Sets how far apart the brush is stamped along point and airbrush strokes
+	 * @param spacing the distance as a fraction of the brush's width (anything under a pixel is a pixel)
+	 */
+	public void setStrokeSpacing(float spacing)
+	{
+		_strokeSpacing = spacing;
 	}
 
 	/**
@@ -144,12 +361,11 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void drawPoint(int x, int y)
 	{
-		setPixel(x, y); //I've done this one for you. You're welcome ;)
+		drawing().drawPoint(x, y);
 	}
 
 	/**
 	 * Draws a line on the screen in the current paint color
-	 * code derived from the example at http://tech-algorithm.com/articles/drawing-line-using-bresenham-algorithm/
 	 * @param startX x-coord of starting point
 	 * @param startY y-coord of starting point
 	 * @param endX x-coord of ending point
@@ -157,138 +373,66 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void drawLine(int startX, int startY, int endX, int endY)
 	{
-
-		int dx = endX - startX;
-		int dy = endY - startY;
-		int dstartX = 0, dstartY = 0, dendX = 0, dendY = 0 ;
-		//horizontal line
-		if(startY == endY){
-			if(dx >= 0){
-				for(int i = startX; i<=endX; i++){
-					setPixel(i, startY);
-				}
-			}
-			else{
-				for(int i = endX; i<=startX; i++){
-					setPixel(i, startY);
-				}
-			}
-		}
-		// vertical line
-		if(startX == endX){
-			if(dy>=0){
-				for(int i = startY; i<=endY; i++){
-					setPixel(startX, i);
-				}
-			}
-			else{
-				for(int i = endY; i<=startY; i++){
-					setPixel(startX, i);
-				}
-			}
-		}
-		// neither horizontal nor vertical
-		else{
-			// checks to see which octant it is, and assigns counting variables based upon that
-			if (dx<0){
-				dstartX = -1;
-			}
-			else if (dx>0){
-				dstartX = 1 ;
-			}
-			if (dy<0){
-				dstartY = -1;
-			}
-			else if (dy>0){
-				dstartY = 1;
-			}
-			if (dx<0){
-				dendX = -1;
-			}
-			else if (dx>0){ 
-				dendX = 1; 
-			}
-			// horizontal is longest in the first octant, but that's not always the case
-			int longest = Math.abs(dx);
-			int shortest = Math.abs(dy);
-			// if we have a steep slope, switch longest and shortest
-			if (!(longest>shortest)) {
-				longest = Math.abs(dy);
-				shortest = Math.abs(dx);
-				// if the slope is negative, we're counting down
-				if (dy<0){ 
-					dendY = -1;
-				}  
-				else if (dy>0){
-					dendY = 1 ;
-				}
-				dendX = 0 ;            
-			}
-			//longest divided by 2
-			int numerator = longest >>1 ;
-				// standard bresenham
-				for (int i = 0; i <= longest; i++) {
-					setPixel(startX, startY);
-					numerator += shortest ;
-					if (!(numerator<longest)) {
-						numerator -= longest;
-						startX += dstartX;
-						startY += dstartY;
-					} else {
-						startX += dendX;
-						startY += dendY;
-					}
-				}
-		}
+		drawing().drawLine(startX, startY, endX, endY);
 	}
 
 	/**
 	 * Draws a circle on the screen in the current paint color
-	 * code derived from example (which doesn't actually work) at: 
-	 * https://en.wikipedia.org/wiki/Midpoint_circle_algorithm/
 	 * @param x x-coord of circle center
 	 * @param y y-coord of circle center
 	 * @param radius radius of the circle
 	 */
 	public void drawCircle(int x, int y, int radius)
 	{
-		//System.out.println("drawing circle");
-		int error = 1 - radius;
-		int errorY = 1;
-		int errorX = -2 * radius;
-		int x1 = 0;
-		int y1 = radius;
-		
-		//draw 4 starting points
-		setPixel(x, y + radius);
-		setPixel(x, y - radius);
-		setPixel(x + radius, y);
-		setPixel(x - radius, y);
-
-		while(x1 < y1)
-		{
-			if(error > 0)
-			{
-				y1--;
-				errorX += 2;
-				error += errorX;
-			}
-			x1++;
-			errorY += 2;
-			error += errorY; 
-			//draw each of the octants
-			setPixel(x + x1, y + y1);
-			setPixel(x - x1, y + y1);
-			setPixel(x + x1, y - y1);
-			setPixel(x - x1, y - y1);
-			setPixel(x + y1, y + x1);
-			setPixel(x - y1, y + x1);
-			setPixel(x + y1, y - x1);
-			setPixel(x - y1, y - x1);
-			//System.out.println("here");
-		}
+		drawing().drawCircle(x, y, radius);
 	}
 
+	/**
+	 * Draws a filled circle on the screen in the current paint color
+	 * @param x x-coord of circle center
+	 * @param y y-coord of circle center
+	 * @param radius radius of the circle
+	 */
+	public void fillCircle(int x, int y, int radius)
+	{
+		drawing().fillCircle(x, y, radius);
+	}
+
+	/**
+	 * Draws the outline of an axis-aligned ellipse on the screen in the current paint color
+	 * @param x x-coord of the center
+	 * @param y y-coord of the center
+	 * @param radiusX horizontal radius
+	 * @param radiusY vertical radius
+	 */
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		drawing().drawEllipse(x, y, radiusX, radiusY);
+	}
+
+	/**
+	 * Draws a filled axis-aligned ellipse on the screen in the current paint color
+	 * @param x x-coord of the center
+	 * @param y y-coord of the center
+	 * @param radiusX horizontal radius
+	 * @param radiusY vertical radius
+	 */
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		drawing().fillEllipse(x, y, radiusX, radiusY);
+	}
+
+	/**
+	 * Fills a polygon on the screen in the current paint color
+	 * @param coords the points of the polygon, as x0, y0, x1, y1, ...; the last point joins back up to the first
+	 * @param offset where the points start in coords
+	 * @param points how many points there are
+	 * @param rule PolygonFill.EVEN_ODD or PolygonFill.NON_ZERO
+	 */
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		drawing().fillPolygon(coords, offset, points, rule);
+	}
 
 	/**
 	 * Draws a rectangle on the screen in the current paint color
@@ -299,36 +443,19 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void drawRectangle(int startX, int startY, int endX, int endY)
 	{
-		//draw the four sides of the rectangle
-//		this.drawLine(startX, startY, endX, startY);
-//		this.drawLine(endX, startY, endX, endY);
-//		this.drawLine(startX, endY, endX, endY);
-//		this.drawLine(startX, startY, startX, endY);
-		
-		//System.out.println("Start X is: " + startX + ", start y is: " + startY);
-		//System.out.println("end X is: " + endX + ", end y is: " + endY);
-		
-		int temp = 0;
-		//fill form the upper left hand corner 
-		if(startX - endX > 0){
-			temp = startX;
-			startX = endX;
-			endX = temp;
-		}
-		if(endY - startY < 0){
-			temp = startY;
-			startY = endY;
-			endY = temp;
-		}
-		//System.out.println("new Start X is: " + startX + ", start y is: " + startY);
-		//System.out.println("new end X is: " + endX + ", end y is: " + endY);
-		for(int i = startY; i<=endY; i++){
-//			for(int j = startX; j <=endX; j++){
-//				setPixel(j,i);
-//			}
-			drawLine(startX, i, endX, i);
-		}
+		drawing().drawRectangle(startX, startY, endX, endY);
+	}
 
+	/**
+	 * Draws the outline of a rectangle on the screen in the current paint color
+	 * @param startX x-coord of first corner (i.e., upper left)
+	 * @param startY y-coord of first corner
+	 * @param endX x-coord of second corner (i.e., lower right)
+	 * @param endY y-coord of second corner
+	 */
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		drawing().strokeRectangle(startX, startY, endX, endY);
 	}
 
 	/**
@@ -336,65 +463,20 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 * @param x x-coord to start filling from
 	 * @param y y-coord to start filling from
 	 */
-	public void floodFill(int x1, int y1)
-	{
-//		Stack<Point> testQ = new Stack<Point>();
-//		testQ.add(new Point(0,0));
-//		System.out.println(testQ.contains(new Point(0,0)));
-		Point node = new Point(x1,y1);
-		System.out.println("starting flood fill");
-		int width = _bmp.getWidth();
-		int height = _bmp.getHeight();
-		int target = 0;
-		int replacement = _color;
-		if (target != replacement) {
-			Stack<Point> stack = new Stack<Point>();
-			stack.push(new Point(-1,-1)); //pop throws an exception if the stack is empty.
-			do {
-				System.out.println(stack.size());
-				int x = node.x;
-				int y = node.y;
-				//System.out.println(node);
-				//System.out.println("in the do while loop, x is: " + x + ". y id: " + y);
-				while (x > 0 && _bmp.getPixel(x - 1, y) == target) {
-					//System.out.println("in little while");
-					x--;
-				}
-				boolean spanUp = false;
-				boolean spanDown = false;
-				while (x < width && _bmp.getPixel(x, y) == target) {
-					setPixel(x, y);
-					if (!spanUp && y > 0 && _bmp.getPixel(x, y - 1) == target) {
-							stack.push(new Point(x, y - 1));
-						spanUp = true;
-					} else if (spanUp && y > 0
-							&& _bmp.getPixel(x, y - 1) != target) {
-						spanUp = false;
-					}
-					if (!spanDown && y < height - 1
-							&& _bmp.getPixel(x, y + 1) == target) {
-						if(!stack.contains(new Point(x, y + 1)))
-						{
-							stack.push(new Point(x, y + 1));
-						}
-						spanDown = true;
-					} else if (spanDown && y < height - 1
-							&& _bmp.getPixel(x, y + 1) != target) {
-						spanDown = false;
-					}
-					x++;
-				}
-				try{
-				node = stack.pop();
-				}
-				catch(Exception e){
-					System.out.println(e);
-				}
-			} while(!node.equals(-1,-1));
-			//System.out.println(node + ", " + stack.poll());
-		}
+	public void floodFill(int x, int y)
+	{
+		drawing().floodFill(x, y);
+	}
+
+	/**
+	 * Sets how flood fills decide which pixels to fill
+	 * @param connectivity FloodFill.CONNECT_4 or FloodFill.CONNECT_8
+	 * @param tolerance largest per-channel difference from the seed color that still gets filled (0 for exact)
+	 */
+	public void setFillOptions(int connectivity, int tolerance)
+	{
+		_commands.setFillOptions(connectivity, tolerance); //queued, so it applies to the fills after it
 	}
-	
 
 	/**
 	 * Draws an airbrushed blob in the current paint color (blending with existing colors)
@@ -403,37 +485,35 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void airBrush(int x, int y)
 	{
-		int RADIUS = 50;
-		int r = Color.red(_color);
-		int g = Color.green(_color);
-		int b = Color.blue(_color);
-		
-		for(int i = -RADIUS+x; i <RADIUS+x; i++)
-		{
-			for(int j = -RADIUS+y; j< RADIUS+y;j++)
-			{
-				double distance = Math.sqrt((i-x)*(i-x)+(j-y)*(j-y));
-				if(distance <= 50)
-				{
-					int pix = getPixel(i,j);
-					int shadeR = (int)(r-(distance/50*r));
-					int shadeG = (int)(g-(distance/50*g));
-					int shadeB = (int)(b-(distance/50*b));
-					
-					int avgR = (Color.red(pix)+shadeR)/2;
-					int avgG = (Color.green(pix)+shadeG)/2;
-					int avgB = (Color.blue(pix)+shadeB)/2;
-					int nColor = Color.rgb(avgR,avgG,avgB);
-					setPixel(i,j, nColor);
-				}
-			}
-		}
-		
+		drawing().airBrush(x, y);
+	}
+
+	/**
+	 * Stamps a brush in the current paint color at each of a series of points (e.g., along a stroke)
+	 * @param coords the points, as x0, y0, x1, y1, ...
+	 * @param offset where the points start in coords
+	 * @param points how many points there are
+	 * @param brush PaintCommand.POINT or PaintCommand.AIRBRUSH
+	 */
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		drawing().stamp(coords, offset, points, brush);
+	}
+
+	/**
+	 * Sets the size and strength of the airbrush
+	 * @param radius radius of the brush in pixels
+	 * @param strength how much paint covers the existing color at the center, from 0 to AirBrush.MAX_STRENGTH
+	 */
+	public void setAirBrush(int radius, int strength)
+	{
+		_airBrushRadius = radius;
+		_commands.setAirBrush(radius, strength);
 	}
 
 
 	/*********
-	 * You shouldn't need to modify anything below this point!
+	 * Setup, saving and loading, and the threads that rasterize and present the drawing
 	 ********/
 	
 	/**
@@ -463,12 +543,13 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 		_holder.addCallback(this);
 		_thread = new DrawingThread(_holder, this);
 
-		_scaleM = new Matrix();
-		_scaleM.setScale(PIXEL_SIZE, PIXEL_SIZE);
-		DELAY_MODE = false;
-		
 		_mode = POINT_MODE;
-		_color = Color.WHITE;
+		_raster = new Rasterizer(new IntFramebuffer(1, 1)); //placeholder until we know the surface size
+		_raster.setColor(Color.WHITE);
+		_commands = new CommandQueue();
+		_log = new CommandLog(_raster, _raster);
+		_airBrushRadius = _raster.getAirBrushRadius();
+		_tracing = TRACE_MODE;
 
 		_startX = -1; //initialize as invalid
 		_startY = -1;
@@ -485,6 +566,8 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 		_mode = mode;
 		_startX = -1;
 		_startY = -1;
+		_polygonPoints = 0;
+		_stroke.end();
 		//Toast toast = Toast.makeText(_context, "Mode set: "+_mode, Toast.LENGTH_SHORT);
 		//toast.show();
 	}
@@ -494,7 +577,7 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void setColor(int color)
 	{
-		_color = color;
+		_commands.setColor(color);
 		//Toast toast = Toast.makeText(_context, "Color set: "+_color, Toast.LENGTH_SHORT);
 		//toast.show();
 	}
@@ -504,86 +587,868 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public void clearDrawing()
 	{
-		for(int i=0; i<_width; i++)
-			for(int j=0; j<_height; j++)
-				_bmp.setPixel(i, j, Color.BLACK);
+		clear(Color.BLACK);
+	}
+
+	/**
+	 * Resets all pixels to the given color
+	 */
+	public void clear(int color)
+	{
+		drawing().clear(color);
+		_commands.checkpoint();
+	}
+
+	/**
+	 * Ends the current step of drawing, so it can be undone on its own
+	 */
+	public void checkpoint()
+	{
+		_commands.checkpoint();
+	}
+
+	/**
+	 * Draws a list of commands (e.g., a whole file) as a single step to undo
+	 * @throws IllegalStateException if there isn't room left to queue them
+	 */
+	public void draw(CommandBuffer commands)
+	{
+		drawing().putAll(commands);
+		_commands.checkpoint();
+	}
+
+	/**
+	 * Undoes the last step of drawing (queued, so it comes after anything still being drawn)
+	 */
+	public void undo()
+	{
+		_commands.undo();
+		_undone = true;
+	}
+
+	/**
+	 * Redoes the last step that was undone
+	 */
+	public void redo()
+	{
+		_commands.redo();
+	}
+
+	/**
+	 * @return the queue, for a command that draws; drawing something new after an undo means the undone
+	 * steps can't be redone any more, so the first one drops them (even if it doesn't change any pixels)
+	 */
+	private CommandQueue drawing()
+	{
+		if(_undone) {
+			_commands.dropRedo();
+			_undone = false;
+		}
+		return _commands;
 	}
 
 	/**
 	 * Helper method to set a single pixel to a given color.
-	 * Performed clipping, and includes debug settings to introduce a delay in pixel drawing
+	 * Performs clipping
 	 * @param x x-coord of pixel
 	 * @param y y-coord of pixel
 	 * @param color color to apply to pixel
 	 */
 	public void setPixel(int x, int y, int color)
 	{
-		/*Can comment out this block to make things go even faster*/
-		if(DELAY_MODE) //if we're in delay mode, then pause while drawing
-		{
-			try{
-				Thread.sleep(DELAY_TIME);
-			} catch (InterruptedException e){}
+		synchronized (_raster) {
+			_raster.setPixel(x, y, color);
 		}
-		
-		if(x >= 0 && x < _width && y >= 0 && y < _height) //clipping for generated shapes (so we don't try and draw outside the bmp)
-			_bmp.setPixel(x, y, color);
 	}
 
 	/**
 	 * Helper method to set a single pixel to the current paint color.
-	 * Performed clipping, and includes debug settings to introduce a delay in pixel drawing
+	 * Performs clipping
 	 * @param x x-coord of pixel
 	 * @param y y-coord of pixel
 	 */
 	public void setPixel(int x, int y)
 	{
-		setPixel(x,y,_color);
+		drawing().drawPoint(x, y); //queued, so it uses the color from any queued setColor()
 	}
 	
 	/**
-	 * Convenience method to get the color of a specific pixel
+	 * Convenience method to get the color of a specific pixel, as it was last shown on the screen (so it
+	 * doesn't wait for the rasterizer, or include commands still queued)
 	 * @param x x-coord of pixel
 	 * @param y y-coord of pixel
-	 * @return The color of the pixel
+	 * @return The color of the pixel, or 0 if it isn't on the screen
 	 */
 	public int getPixel(int x, int y)
 	{
-		return _bmp.getPixel(x,y);
+		Bitmap bmp = _bmp;
+		x -= _viewX;
+		y -= _viewY;
+		if(bmp == null || x < 0 || y < 0 || x >= bmp.getWidth() || y >= bmp.getHeight())
+			return 0;
+		return bmp.getPixel(x, y);
 	}
 	
+	/**
+	 * @return how many frame buffer pixels were copied to the screen in the most recent frame
+	 */
+	public int getLastPresentedPixels()
+	{
+		return _lastPresentedPixels;
+	}
+
+	/**
+	 * @return how many frames have been presented; frames are only presented when something has changed
+	 */
+	public long getFramesPresented()
+	{
+		return _framesPresented;
+	}
+
+	/**
+	 * Turns on (or off) timing and counting what the rasterizer draws and what's presented; see getMetrics()
+	 */
+	public void setMetricsEnabled(boolean enabled)
+	{
+		if(!RasterMetrics.ENABLED || enabled == (_metrics != null))
+			return;
+		RasterMetrics metrics = enabled ? new RasterMetrics() : null;
+		synchronized (_raster) {
+			_raster.setMetrics(metrics); //(a TiledReplay's workers pick it up from here)
+		}
+		_presentRecorder = metrics != null ? metrics.newRecorder() : null;
+		_metrics = metrics;
+	}
+
+	/**
+	 * @return the metrics so far (see setMetricsEnabled()), or null if they're off
+	 */
+	public RasterMetrics.Snapshot getMetrics()
+	{
+		RasterMetrics metrics = _metrics;
+		return metrics != null ? metrics.snapshot() : null;
+	}
+
+	/**
+	 * Logs what's changed in the metrics every so often (turning them on)
+	 * @param interval time between logs, in ms, or 0 to stop logging
+	 */
+	public void setMetricsLogging(long interval)
+	{
+		if(_metricsLogger != null) {
+			_metricsLogger.setRunning(false);
+			_metricsLogger = null;
+		}
+		if(interval > 0 && RasterMetrics.ENABLED) {
+			setMetricsEnabled(true);
+			_metricsLogger = new MetricsLogger(interval);
+			_metricsLogger.setRunning(true);
+			_metricsLogger.start();
+		}
+	}
+
+	/**
+	 * Turns on (or off) recording every pixel drawn, with the command that drew it, so the drawing can be
+	 * played back pixel by pixel with stepTrace() or playTrace(). Only the last TracingSurface.DEFAULT_CAPACITY
+	 * writes are kept. While tracing, commands are drawn on one thread. Sparse canvases aren't traced.
+	 */
+	public void setTracing(boolean enabled)
+	{
+		synchronized (_raster) {
+			if(enabled == _tracing)
+				return;
+			_tracing = enabled;
+			if(_fb != null)
+				traceFramebuffer();
+		}
+	}
+
+	public boolean isTracing()
+	{
+		return _tracing;
+	}
+
+	/**
+	 * Steps through what's been traced (see setTracing()) on the canvas itself. The first step puts the canvas
+	 * back to how it was before the oldest write in the trace; each one after that plays the next few writes.
+	 * Once they've all been played, the canvas is as it was before stepping, plus anything drawn in between
+	 * (which is drawn on whatever's showing at the time).
+	 * @param writes most writes to play (each is a pixel or a run of pixels along a row)
+	 * @return how many writes are left to play
+	 */
+	public int stepTrace(int writes)
+	{
+		synchronized (_raster) {
+			if(_trace == null)
+				return 0;
+			if(_player == null) {
+				_player = new TracePlayer(_trace);
+				_player.reset(_fb);
+				_raster.getDirtyRegion().add(0, 0, _width-1, _height-1);
+				if(_player.size() == 0)
+					finishTrace(); //nothing to play
+				return _player != null ? _player.size() : 0;
+			}
+			int[] bounds = new int[4];
+			_player.step(_fb, writes, bounds);
+			if(bounds[0] <= bounds[2])
+				_raster.getDirtyRegion().add(bounds[0], bounds[1], bounds[2], bounds[3]);
+			int left = _player.size() - _player.getPosition();
+			if(left == 0)
+				finishTrace();
+			return left;
+		}
+	}
+
+	/**
+	 * Plays back what's been traced, as with stepTrace(), a step per frame
+	 * @param writesPerSecond how fast to play, or 0 to stop (putting the canvas back as it should be)
+	 */
+	public void playTrace(int writesPerSecond)
+	{
+		if(_playback != null) {
+			_playback.setRunning(false);
+			_playback = null;
+		}
+		if(writesPerSecond > 0) {
+			_playback = new TracePlayback((int)Math.max(writesPerSecond*TRACE_FRAME/1000, 1));
+			_playback.setRunning(true);
+			_playback.start();
+		}
+		else {
+			synchronized (_raster) {
+				finishTrace();
+			}
+		}
+	}
+
+	/**
+	 * Ends any playback, putting back the canvas as it's been traced (which includes anything drawn while
+	 * playing). Must hold the rasterizer's lock.
+	 */
+	private void finishTrace()
+	{
+		if(_player == null)
+			return;
+		_player = null;
+		TracePlayer current = new TracePlayer(_trace);
+		current.reset(_fb);
+		current.step(_fb, current.size(), null);
+		_raster.getDirtyRegion().add(0, 0, _width-1, _height-1);
+		_history.markUnsaved(); //in case a save picked up tiles partway through
+	}
+
+	/**
+	 * Wraps the frame buffer in a TracingSurface if tracing (or unwraps it if not), and sends commands to
+	 * match. Must hold the rasterizer's lock.
+	 */
+	private void traceFramebuffer()
+	{
+		finishTrace();
+		_trace = _tracing && !(_fb instanceof SparseTiledCanvas) ? new TracingSurface(_fb, TracingSurface.DEFAULT_CAPACITY) : null;
+		_history.setSurface(_trace != null ? _trace : _fb);
+		chooseTarget();
+	}
+
 	//called when the surface changes (like sizes changes due to rotate). Will need to respond accordingly.
 	@Override
 	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
 	{
 		//store new size for our BitMap
-		_width = width/2;
-		_height = height/2;
+		synchronized (_raster) { //swap everything at once so the drawing thread never sees mismatched sizes
+			_viewWidth = (width + PIXEL_SIZE - 1)/PIXEL_SIZE;
+			_viewHeight = (height + PIXEL_SIZE - 1)/PIXEL_SIZE;
+			resizeCanvas();
+		}
+	}
 
-		//create a properly-sized bitmap to draw on
-		_bmp = Bitmap.createBitmap(_width, _height, Bitmap.Config.ARGB_8888);
+	/**
+	 * Gives the canvas a size of its own, independent of the screen; the screen then shows a viewport onto it,
+	 * which can be moved with panTo() (or a two-finger drag). These canvases are sparse: only the tiles that
+	 * have been drawn on take up memory, and the least recently used of those are evicted to a scratch file,
+	 * so they can be much bigger than the screen (e.g., 32768x32768). They always store ARGB, whatever the
+	 * pixel format. The drawing is carried over to the new canvas.
+	 * @param width width in pixels, or 0 to go back to a canvas the size of the screen
+	 * @param height height in pixels, or 0 to go back to a canvas the size of the screen
+	 */
+	public void setCanvasSize(int width, int height)
+	{
+		if(width < 0 || height < 0 || (width == 0) != (height == 0))
+			throw new IllegalArgumentException("Invalid canvas size: "+width+"x"+height);
+		synchronized (_raster) {
+			_canvasWidth = width;
+			_canvasHeight = height;
+			if(_viewWidth > 0) //otherwise, wait for the surface
+				resizeCanvas();
+		}
+	}
+
+	/**
+	 * Saves the drawing to a file, as compressed tiles. Saving to the same file again only adds the tiles that
+	 * have changed since (the file is compacted once it's mostly old copies); saving somewhere else, or after
+	 * the canvas has changed size, writes the whole drawing.
+	 * 
+	 * This can be called from any thread, and drawing carries on while it runs: the rasterizer's lock is only
+	 * held while picking up a few tiles at a time, and they're compressed and written after letting go. A
+	 * tile drawn on in the meantime is saved as it was when it was picked up, and again next time.
+	 */
+	public void save(File file) throws IOException
+	{
+		synchronized (_saveLock) {
+			UndoHistory history;
+			TileFile store;
+			int background;
+			synchronized (_raster) {
+				if(_history == null)
+					return; //nothing to save yet
+				boolean sameSize = _saveFile != null && _saveFile.getWidth() == _width && _saveFile.getHeight() == _height
+						&& _saveFile.isScreenSized() == (_canvasWidth == 0);
+				if(!sameSize || !_saveFile.getFile().equals(file)) {
+					if(_saveFile != null && _saveFile != _source)
+						_saveFile.close();
+					_saveFile = null;
+					if(_source != null && _source.getFile().equals(file)) //(not written over, as the canvas is still reading from it)
+						_saveFile = _source;
+					else
+						_saveFile = TileFile.create(file, _width, _height, getBackground(), _canvasWidth == 0);
+					_history.markUnsaved();
+				}
+				history = _history;
+				store = _saveFile;
+				background = getBackground();
+			}
+
+			IntStack tiles = new IntStack(SAVE_BATCH);
+			int[][] pixels = new int[SAVE_BATCH][];
+			boolean changed = store.getBackground() != background;
+			boolean saved = false;
+			store.setBackground(background);
+			try {
+				int next = 0;
+				while(next >= 0)
+				{
+					tiles.clear();
+					synchronized (_raster) {
+						if(_history != history || getBackground() != background)
+							return; //replaced or cleared, so it all needs saving again anyway
+						next = history.takeUnsaved(tiles, next, SAVE_BATCH);
+						SparseTiledCanvas sparse = _fb instanceof SparseTiledCanvas ? (SparseTiledCanvas)_fb : null;
+						for(int i = 0; i < tiles.size(); i++) //(blank tiles of a sparse canvas needn't be read at all)
+						{
+							if(sparse != null && sparse.isBlank(tiles.get(i)))
+								pixels[i] = null;
+							else
+								pixels[i] = _layers != null ? copyTile(_layers.composite(), tiles.get(i)) : history.snapshot(tiles.get(i));
+						}
+					}
+					for(int i = 0; i < tiles.size(); i++)
+					{
+						store.put(tiles.get(i), pixels[i]);
+						pixels[i] = null;
+						changed = true;
+					}
+				}
+				if(changed)
+					store.commit();
+				saved = true;
+			}
+			finally {
+				if(!saved) { //what was picked up still needs saving
+					synchronized (_raster) {
+						history.markUnsaved();
+					}
+				}
+			}
+			if(store.needsCompaction())
+				store.compact();
+		}
+	}
+
+	/**
+	 * Replaces the drawing with one saved by save(). A drawing that had a canvas size of its own gets that
+	 * size again (as with setCanvasSize()), and its tiles are only read from the file once they're needed
+	 * (e.g., panned into view); one that was the size of the screen is read onto a canvas the size of the
+	 * screen. Saving to the same file afterwards just adds to it. Undo starts over from the loaded drawing.
+	 */
+	public void load(File file) throws IOException
+	{
+		TileFile loaded = TileFile.open(file);
+		synchronized (_saveLock) {
+			synchronized (_raster) {
+				if(_pendingLoad != null)
+					_pendingLoad.close();
+				if(_saveFile != null && _saveFile != _source)
+					_saveFile.close();
+				_saveFile = loaded;
+				_pendingLoad = loaded;
+				_canvasWidth = loaded.isScreenSized() ? 0 : loaded.getWidth();
+				_canvasHeight = loaded.isScreenSized() ? 0 : loaded.getHeight();
+				if(_viewWidth > 0) //otherwise, wait for the surface
+					resizeCanvas();
+			}
+		}
+	}
+
+	/**
+	 * Saves the drawing to a file every so often, on a low-priority thread of its own (see save())
+	 * @param file where to save, or null to stop autosaving
+	 * @param interval time between saves, in ms
+	 */
+	public void setAutosave(File file, long interval)
+	{
+		if(_autosave != null) {
+			_autosave.setRunning(false);
+			_autosave = null;
+		}
+		if(file != null) {
+			_autosave = new AutosaveThread(file, interval);
+			_autosave.setRunning(true);
+			_autosave.start();
+		}
+	}
+
+	/**
+	 * @return a copy of a tile of a surface, as saved (row-major, TileFile.TILE_SIZE*TileFile.TILE_SIZE)
+	 */
+	private int[] copyTile(PixelSurface surface, int tile)
+	{
+		int size = TileFile.TILE_SIZE;
+		int tilesX = (_width + size - 1)/size;
+		int left = (tile % tilesX)*size, top = (tile / tilesX)*size;
+		int[] copy = new int[size*size];
+		surface.readPixels(left, top, Math.min(size, _width - left), Math.min(size, _height - top), copy, 0, size);
+		return copy;
+	}
+
+	/**
+	 * @return the color of the parts of the canvas that haven't been drawn on (for a canvas the size of the
+	 *  screen, the color a new frame buffer starts out as). Must hold the rasterizer's lock.
+	 */
+	private int getBackground()
+	{
+		return _fb instanceof SparseTiledCanvas ? ((SparseTiledCanvas)_fb).getBackground() : Color.TRANSPARENT;
+	}
+
+	/**
+	 * @return the width of the canvas, in pixels
+	 */
+	public int getCanvasWidth()
+	{
+		return _width;
+	}
+
+	/**
+	 * @return the height of the canvas, in pixels
+	 */
+	public int getCanvasHeight()
+	{
+		return _height;
+	}
+
+	/**
+	 * Sets how the frame buffer stores pixels: FORMAT_ARGB_8888 (an int per pixel, exact), FORMAT_RGB_565 (a
+	 * short per pixel, with fewer shades and no alpha) or FORMAT_INDEXED_8 (a byte per pixel, indexing a
+	 * palette of up to 256 colors). The compact formats take a half or a quarter of the memory and
+	 * bandwidth. The drawing is carried over to the new frame buffer.
+	 */
+	public void setPixelFormat(int format)
+	{
+		if(format != FORMAT_ARGB_8888 && format != FORMAT_RGB_565 && format != FORMAT_INDEXED_8)
+			throw new IllegalArgumentException("Unknown pixel format: "+format);
+		if(format == _pixelFormat)
+			return;
+		_pixelFormat = format;
+		if(_fb != null) {
+			synchronized (_raster) {
+				if(_fb instanceof SparseTiledCanvas) //(which stays ARGB, so only the bitmap changes)
+					_bmp = createBitmap();
+				else
+					replaceFramebuffer();
+				panTo(_viewX, _viewY);
+			}
+		}
+	}
+
+	public int getPixelFormat()
+	{
+		return _pixelFormat;
+	}
+
+	/**
+	 * Adds a transparent layer over the one being drawn on, and draws on it from now on (see LayeredCanvas);
+	 * the first one added puts the drawing so far on a layer of its own underneath. Layers need an ARGB canvas
+	 * the size of the screen: changing to another pixel format, a sparse canvas or a loaded drawing flattens
+	 * them, as does saving. Changes of layer take effect right away (commands still queued are drawn on the new
+	 * layer), and undo only goes back as far as the last one.
+	 * @return the index of the new layer
+	 */
+	public int addLayer()
+	{
+		synchronized (_raster) {
+			if(_fb == null || _pixelFormat != FORMAT_ARGB_8888 || _canvasWidth > 0)
+				throw new IllegalStateException("Layers need an ARGB canvas the size of the screen");
+			finishTrace(); //(onto the layer it was traced on)
+			if(_layers == null) {
+				_layers = new LayeredCanvas((IntFramebuffer)_fb, Color.BLACK);
+				_fb = _layers;
+			}
+			int index = _layers.addLayer();
+			resetHistory();
+			return index;
+		}
+	}
+
+	/**
+	 * Removes a layer (see addLayer()); if it was being drawn on, the one under it is drawn on instead
+	 */
+	public void removeLayer(int index)
+	{
+		synchronized (_raster) {
+			if(_layers == null)
+				throw new IllegalArgumentException("No layer "+index+" (there are no layers)");
+			int active = _layers.getActiveLayer();
+			finishTrace();
+			_layers.removeLayer(index);
+			if(active == index)
+				resetHistory();
+			layersChanged();
+		}
+	}
+
+	/**
+	 * @return how many layers the drawing has (1 until one is added)
+	 */
+	public int getLayerCount()
+	{
+		synchronized (_raster) {
+			return _layers != null ? _layers.getLayerCount() : 1;
+		}
+	}
+
+	/**
+	 * Sets which layer is drawn on (see addLayer())
+	 */
+	public void setActiveLayer(int index)
+	{
+		synchronized (_raster) {
+			if(_layers == null) {
+				if(index != 0)
+					throw new IllegalArgumentException("No layer "+index+" (there are no layers)");
+				return;
+			}
+			if(index != _layers.getActiveLayer()) {
+				finishTrace();
+				_layers.setActiveLayer(index);
+				resetHistory();
+			}
+		}
+	}
+
+	public int getActiveLayer()
+	{
+		synchronized (_raster) {
+			return _layers != null ? _layers.getActiveLayer() : 0;
+		}
+	}
+
+	/**
+	 * Sets how a layer blends with the ones under it
+	 * @param opacity 0 (hidden) to 255
+	 * @param mode one of the Blend modes
+	 */
+	public void setLayerBlending(int index, int opacity, int mode)
+	{
+		synchronized (_raster) {
+			if(_layers == null)
+				throw new IllegalArgumentException("No layer "+index+" (there are no layers)");
+			_layers.setOpacity(index, opacity);
+			_layers.setBlendMode(index, mode);
+			layersChanged();
+		}
+	}
+
+	public void setLayerVisible(int index, boolean visible)
+	{
+		synchronized (_raster) {
+			if(_layers == null)
+				throw new IllegalArgumentException("No layer "+index+" (there are no layers)");
+			_layers.setVisible(index, visible);
+			layersChanged();
+		}
+	}
+
+	/**
+	 * Shows the whole composite again, and saves it again, after the layers change. Must hold the
+	 * rasterizer's lock.
+	 */
+	private void layersChanged()
+	{
+		_raster.getDirtyRegion().add(0, 0, _width-1, _height-1);
+		_history.markUnsaved();
+	}
+
+	/**
+	 * Starts a new undo history (when a different layer is drawn on, since the steps so far were on another).
+	 * Must hold the rasterizer's lock.
+	 */
+	private void resetHistory()
+	{
+		_history = new UndoHistory(_fb);
+		_raster.setSurface(_history);
+		_log.setHistory(_history);
+		_log.discard(); //the log can't redraw layers
+		traceFramebuffer();
+	}
+
+	/**
+	 * Makes sure the canvas is the size asked for (or the size of the screen) and the bitmap is the size of the
+	 * screen, keeping the drawing. Must hold the rasterizer's lock.
+	 */
+	private void resizeCanvas()
+	{
+		int width = _canvasWidth > 0 ? _canvasWidth : _viewWidth;
+		int height = _canvasHeight > 0 ? _canvasHeight : _viewHeight;
+		boolean sparse = _canvasWidth > 0;
+		if(_fb == null || width != _width || height != _height || sparse != (_fb instanceof SparseTiledCanvas) || _pendingLoad != null) {
+			_width = width;
+			_height = height;
+			replaceFramebuffer();
+		}
+		else if(_bmp.getWidth() != _viewWidth || _bmp.getHeight() != _viewHeight) //same canvas, new screen
+			_bmp = createBitmap();
+		panTo(_viewX, _viewY); //keep the view on the canvas, and show it all again on the (new) surface
+	}
+
+	/**
+	 * Creates a frame buffer of the current size and format to draw on (with the drawing carried over), and a
+	 * bitmap to present it with. Must hold the rasterizer's lock.
+	 */
+	private void replaceFramebuffer()
+	{
+		PixelSurface old = _fb;
+		LayeredCanvas layers = _layers;
+		_layers = null;
+		_player = null; //(the old trace goes with the old frame buffer)
+		_trace = null;
+		TileFile source = _pendingLoad;
+		_pendingLoad = null;
+		if(_canvasWidth > 0) {
+			SparseTiledCanvas canvas = new SparseTiledCanvas(_width, _height, source != null ? source.getBackground() : Color.TRANSPARENT,
+					SparseTiledCanvas.DEFAULT_MAX_RESIDENT, _context.getCacheDir());
+			canvas.setTileSource(source);
+			_fb = canvas;
+		}
+		else if(_pixelFormat == FORMAT_RGB_565)
+			_fb = new Rgb565Framebuffer(_width, _height);
+		else if(_pixelFormat == FORMAT_INDEXED_8)
+			_fb = new IndexedFramebuffer(_width, _height);
+		else if(layers != null && source == null)
+			_fb = _layers = layers.resized(_width, _height);
+		else
+			_fb = new IntFramebuffer(_width, _height);
+		_bmp = createBitmap();
+		_raster.setSurface(_fb);
+		chooseTarget();
+		if(source != null) {
+			if(!(_fb instanceof SparseTiledCanvas))
+				readTiles(source);
+			_log.discard(); //the log can't redraw what was loaded
+			_redrawPending = false;
+		}
+		else if(old != null && _layers == null) //(layers were copied over)
+			restoreDrawing(old);
+		if(old instanceof SparseTiledCanvas)
+			((SparseTiledCanvas)old).close();
+		if(_source != null && _source != _saveFile) //only the old canvas was reading from it
+			_source.close();
+		_source = _fb instanceof SparseTiledCanvas ? source : null; //(otherwise it's all been read)
+		_history = new UndoHistory(_fb); //steps from the old size don't fit the new one
+		if(source != null && source == _saveFile)
+			_history.markSaved(); //it's all in the file already
+		_raster.setSurface(_history);
+		_log.setHistory(_history);
+		_log.compact();
+		traceFramebuffer();
+	}
+
+	/**
+	 * Reads a saved drawing onto the frame buffer, all at once (as much of it as fits). Must hold the
+	 * rasterizer's lock.
+	 */
+	private void readTiles(TileFile source)
+	{
+		int size = TileFile.TILE_SIZE;
+		int tilesX = (source.getWidth() + size - 1)/size;
+		int w = Math.min(_width, source.getWidth());
+		int h = Math.min(_height, source.getHeight());
+		int[] block = new int[size*size];
+		try {
+			for(int y = 0; y < h; y += size)
+			{
+				for(int x = 0; x < w; x += size)
+				{
+					source.readTile((y/size)*tilesX + x/size, block);
+					_fb.writePixels(x, y, Math.min(size, w - x), Math.min(size, h - y), block, 0, size);
+				}
+			}
+		}
+		catch(IOException e) { //keep what was read
+			Log.d(TAG, e.toString());
+		}
+	}
+
+	/**
+	 * @return a bitmap the size of the viewport to present the frame buffer with (RGB_565 for that format,
+	 *  otherwise ARGB_8888, since there's no indexed Bitmap and the palette is expanded when presenting)
+	 */
+	private Bitmap createBitmap()
+	{
+		Bitmap.Config config = _pixelFormat == FORMAT_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+		return Bitmap.createBitmap(_viewWidth, _viewHeight, config);
+	}
+
+	/**
+	 * Sends commands to the tile workers if there are any and the frame buffer can be drawn on by several
+	 * threads at once (a sparse canvas can't, and a trace shouldn't have its writes interleaved), or straight
+	 * to the rasterizer otherwise. Must hold the rasterizer's lock.
+	 */
+	private void chooseTarget()
+	{
+		boolean parallel = _replay != null && !(_fb instanceof SparseTiledCanvas) && _trace == null;
+		if(_trace != null)
+			_log.setTarget(_trace.tag(_raster));
+		else
+			_log.setTarget(parallel ? _replay : _raster);
+		_raster.setParallelFill(parallel ? _parallelFill : null);
+	}
+
+	/**
+	 * Puts the drawing back on a new frame buffer after a resize or a change of format. If the frame buffer
+	 * got bigger or changed format, the log is redrawn (bringing back anything that had been off the edge, and
+	 * any colors the old format couldn't hold) as long as that's cheap enough; that's left to the rasterizer
+	 * thread, before it draws anything else. Otherwise the old pixels are copied over as they were. Must hold
+	 * the rasterizer's lock.
+	 */
+	private void restoreDrawing(PixelSurface old)
+	{
+		if(old instanceof LayeredCanvas)
+			old = ((LayeredCanvas)old).composite(); //flattened
+		boolean grew = _width > old.getWidth() || _height > old.getHeight();
+		boolean converted = old.getClass() != _fb.getClass();
+		if(_redrawPending //(then the old frame buffer hasn't been drawn on yet)
+				|| _log.isComplete() && (grew || converted) && _log.getReplayCost(_width, _height) <= (long)REPLAY_BUDGET*_width*_height) {
+			_redrawPending = true;
+			if(_rasterThread != null)
+				_rasterThread.runFirst(_redraw); //(otherwise it's picked up when the thread starts)
+		}
+		else { //a tile at a time, so a sparse canvas reads each of its tiles in just once
+			int w = Math.min(_width, old.getWidth());
+			int h = Math.min(_height, old.getHeight());
+			int size = SparseTiledCanvas.TILE_SIZE;
+			int[] block = new int[size*size];
+			for(int y = 0; y < h; y += size)
+			{
+				for(int x = 0; x < w; x += size)
+				{
+					int bw = Math.min(size, w - x), bh = Math.min(size, h - y);
+					old.readPixels(x, y, bw, bh, block, 0, size);
+					_fb.writePixels(x, y, bw, bh, block, 0, size);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Redraws the log for restoreDrawing(), if that's still waiting. Runs on the rasterizer thread, holding its
+	 * lock. The drawing goes straight under the history, since it's where the new history starts.
+	 */
+	private void redrawLog()
+	{
+		if(!_redrawPending)
+			return;
+		_redrawPending = false;
+		if(!_log.isComplete())
+			return;
+		PixelSurface history = _raster.getSurface();
+		_raster.setSurface(_history.getSurface());
+		try {
+			_log.replay(_raster, _fb instanceof SparseTiledCanvas ? null : _replay);
+		}
+		finally {
+			_raster.setSurface(history);
+		}
+		Log.d(TAG, "Redrew "+_log.size()+" ints of commands at "+_width+"x"+_height);
 	}
 
 	@Override
 	public void surfaceCreated(SurfaceHolder holder) { //initialization stuff
+		int cores = Runtime.getRuntime().availableProcessors();
+		if(cores > 1) {
+			_pool = Executors.newFixedThreadPool(cores);
+			synchronized (_raster) {
+				_replay = new TiledReplay(_raster, _pool, cores);
+				_parallelFill = new ParallelFloodFill(_pool);
+			}
+		}
+		_rasterThread = new RasterizerThread(_commands, _raster, _replay, _log);
+		synchronized (_raster) {
+			chooseTarget();
+			if(_redrawPending)
+				_rasterThread.runFirst(_redraw);
+		}
+		_rasterThread.setRunning(true);
+		_rasterThread.start();
 		_thread.setRunning(true);
 		_thread.start();
 	}
 
 	@Override
 	public void surfaceDestroyed(SurfaceHolder holder) { //cleanup
-		//Tell the thread to shut down, but wait for it to stop!
+		//Tell the threads to shut down, but wait for them to stop! (queued commands stay queued for next time)
+		_rasterThread.setRunning(false);
 		_thread.setRunning(false);
 		boolean retry = true;
 		while(retry) {
 			try {
+				_rasterThread.join();
 				_thread.join();
 				retry = false;
 			} catch (InterruptedException e) {
 				//will try again...
 			}
 		}
-		Log.d(TAG, "Drawing thread shut down.");
+		if(_pool != null) {
+			synchronized (_raster) {
+				_replay = null;
+				_parallelFill = null;
+				chooseTarget();
+			}
+			_pool.shutdown();
+			_pool = null;
+		}
+		Log.d(TAG, "Drawing threads shut down.");
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		setAutosave(null, 0);
+		setMetricsLogging(0);
+		playTrace(0);
+		synchronized (_saveLock) {
+			synchronized (_raster) { //a sparse canvas's scratch file shouldn't outlive the view
+				if(_fb instanceof SparseTiledCanvas) {
+					((SparseTiledCanvas)_fb).close();
+					_fb = null;
+				}
+				if(_source != null)
+					_source.close();
+				if(_saveFile != null && _saveFile != _source)
+					_saveFile.close();
+				_source = null;
+				_saveFile = null;
+			}
+		}
 	}
 
 	/**
@@ -592,7 +1457,7 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 	 */
 	public class DrawingThread extends Thread 
 	{
-		private boolean _isRunning; //whether we're running or not (so we can "stop" the thread)
+		private volatile boolean _isRunning; //whether we're running or not (so we can "stop" the thread)
 		private SurfaceHolder _holder; //the holder we're going to post updates to
 		private MiniPaintView _view; //the view that has drawing details
 
@@ -611,19 +1476,76 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 
 		/**
 		 * Executed when we call thread.start()
+		 * Sleeps until the rasterizer marks something dirty, then redraws only that part of the screen.
 		 */
 		@Override
 		public void run()
 		{
-			Canvas canvas;
+			int[] dirty = new int[4];
+			int[] expanded = new int[0]; //the dirty part of a frame buffer that isn't an IntFramebuffer, as ARGB
+			Rect screenDirty = new Rect();
+			Rect src = new Rect();
+			Rect dst = new Rect();
+			DirtyRegion region = _raster.getDirtyRegion();
 			while(_isRunning)
 			{
-				canvas = null;
 				try {
-					canvas = _holder.lockCanvas();
-					synchronized (_holder) {
-						canvas.drawBitmap(_bmp,_scaleM,null); //draw the _bitmap onto the canvas. Note that filling the bitmap occurs elsewhere
+					if(!region.waitAndTake(dirty, IDLE_WAIT))
+						continue; //nothing to do
+				} catch (InterruptedException e) {
+					continue;
+				}
+
+				Canvas canvas = null;
+				try {
+					int viewX = _viewX, viewY = _viewY; //(if the view pans before we lock, it's all redrawn next time anyway)
+					screenDirty.set((dirty[0]-viewX)*PIXEL_SIZE, (dirty[1]-viewY)*PIXEL_SIZE, (dirty[2]+1-viewX)*PIXEL_SIZE, (dirty[3]+1-viewY)*PIXEL_SIZE);
+					if(!screenDirty.intersect(0, 0, _viewWidth*PIXEL_SIZE, _viewHeight*PIXEL_SIZE))
+						continue; //none of it is on the screen
+					long start = RasterMetrics.ENABLED ? System.nanoTime() : 0;
+					canvas = _holder.lockCanvas(screenDirty); //may grow screenDirty, if more of the screen needs redrawing
+					if(canvas == null) { //surface isn't ready; try again later
+						region.add(dirty[0], dirty[1], dirty[2], dirty[3]);
+						sleep(IDLE_WAIT);
+						continue;
 					}
+
+					Bitmap bmp;
+					synchronized (_raster) { //so we don't copy a half-drawn shape
+						PixelSurface fb = _layers != null ? _layers.composite() : _fb;
+						bmp = _bmp;
+						if(fb == null)
+							continue;
+						//convert the (possibly grown) screen rect back to canvas pixels, keeping to the part in the viewport
+						viewX = _viewX;
+						viewY = _viewY;
+						int w = fb.getWidth();
+						int left = Math.max(screenDirty.left/PIXEL_SIZE, 0) + viewX;
+						int top = Math.max(screenDirty.top/PIXEL_SIZE, 0) + viewY;
+						int right = Math.min(Math.min((screenDirty.right+PIXEL_SIZE-1)/PIXEL_SIZE, bmp.getWidth()) + viewX, w);
+						int bottom = Math.min(Math.min((screenDirty.bottom+PIXEL_SIZE-1)/PIXEL_SIZE, bmp.getHeight()) + viewY, fb.getHeight());
+						if(right <= left || bottom <= top)
+							continue;
+						int rw = right-left, rh = bottom-top;
+						if(fb instanceof IntFramebuffer)
+							bmp.setPixels(((IntFramebuffer)fb).getPixels(), top*w + left, w, left-viewX, top-viewY, rw, rh); //bulk copy of just the dirty part
+						else { //other frame buffers are expanded to ARGB first (again, just the dirty part; for a sparse canvas, only its tiles in view are read)
+							if(expanded.length < rw*rh)
+								expanded = new int[rw*rh];
+							fb.readPixels(left, top, rw, rh, expanded, 0, rw);
+							bmp.setPixels(expanded, 0, rw, left-viewX, top-viewY, rw, rh);
+						}
+						src.set(left-viewX, top-viewY, right-viewX, bottom-viewY); //in bitmap pixels
+					}
+					dst.set(src.left*PIXEL_SIZE, src.top*PIXEL_SIZE, src.right*PIXEL_SIZE, src.bottom*PIXEL_SIZE);
+					canvas.drawBitmap(bmp, src, dst, null); //draw the _bitmap onto the canvas. Note that filling the frame buffer occurs elsewhere
+					_lastPresentedPixels = (src.right-src.left)*(src.bottom-src.top);
+					_framesPresented++;
+					RasterMetrics.Recorder recorder = _presentRecorder;
+					if(RasterMetrics.ENABLED && recorder != null)
+						recorder.record(RasterMetrics.PRESENT, System.nanoTime() - start, _lastPresentedPixels, 0);
+				} catch (InterruptedException e) {
+					//check whether we're still running
 				} finally { //no matter what (even if something goes wrong), make sure to push the drawing so isn't inconsistent
 					if (canvas != null) {
 						_holder.unlockCanvasAndPost(canvas);
@@ -638,6 +1560,127 @@ public class MiniPaintView extends SurfaceView implements SurfaceHolder.Callback
 		 */
 		public void setRunning(boolean isRunning){
 			this._isRunning = isRunning;
+			_raster.getDirtyRegion().wake(); //in case we're sleeping
+		}
+	}
+
+	/**
+	 * A thread that does something every so often. It's only woken up to stop between times, never
+	 * interrupted, since interrupting file I/O would close the file.
+	 */
+	public abstract class PeriodicThread extends Thread
+	{
+		private volatile boolean _isRunning;
+		private final long _interval; //in ms
+
+		public PeriodicThread(String name, long interval)
+		{
+			super(name);
+			_interval = interval;
+			setPriority(MIN_PRIORITY); //drawing comes first
+		}
+
+		/**
+		 * Does whatever it is, once per interval
+		 */
+		protected abstract void tick();
+
+		@Override
+		public void run()
+		{
+			while(_isRunning)
+			{
+				synchronized (this) {
+					try {
+						wait(_interval);
+					} catch (InterruptedException e) {
+						//check whether we're still running
+					}
+				}
+				if(!_isRunning)
+					break;
+				tick();
+			}
+		}
+
+		/**
+		 * Public toggle for whether the thread is running.
+		 */
+		public synchronized void setRunning(boolean isRunning)
+		{
+			_isRunning = isRunning;
+			notifyAll(); //in case we're waiting
+		}
+	}
+
+	/**
+	 * A thread that saves the drawing every so often
+	 */
+	public class AutosaveThread extends PeriodicThread
+	{
+		private final File _file;
+
+		public AutosaveThread(File file, long interval)
+		{
+			super("Autosave", interval);
+			_file = file;
+		}
+
+		@Override
+		protected void tick()
+		{
+			try {
+				save(_file);
+			} catch (IOException e) {
+				Log.e(TAG, "Autosave failed: "+e);
+			}
+		}
+	}
+
+	/**
+	 * A thread that logs what's changed in the metrics every so often
+	 */
+	public class MetricsLogger extends PeriodicThread
+	{
+		private RasterMetrics _lastMetrics; //what _last was taken of
+		private RasterMetrics.Snapshot _last;
+
+		public MetricsLogger(long interval)
+		{
+			super("Metrics", interval);
+		}
+
+		@Override
+		protected void tick()
+		{
+			RasterMetrics metrics = _metrics;
+			if(metrics == null)
+				return;
+			RasterMetrics.Snapshot snapshot = metrics.snapshot();
+			Log.d(TAG, "Raster metrics:\n"+(metrics == _lastMetrics ? snapshot.since(_last) : snapshot));
+			_lastMetrics = metrics;
+			_last = snapshot;
+		}
+	}
+
+	/**
+	 * A thread that plays back a trace, a step every frame
+	 */
+	public class TracePlayback extends PeriodicThread
+	{
+		private final int _writes; //per step
+
+		public TracePlayback(int writes)
+		{
+			super("Trace playback", TRACE_FRAME);
+			_writes = writes;
+		}
+
+		@Override
+		protected void tick()
+		{
+			if(stepTrace(_writes) == 0)
+				setRunning(false); //done
 		}
 	}
 }
@@ -0,0 +1,156 @@
+package cs315.yourname.hwk2;
+
+/**
+ * The drawing commands as plain ints, so they can be stored in queues and logs without allocating an
+ * object per command. A command is an opcode followed by a fixed number of int arguments (see argCount()),
+ * in the same order as the matching PaintCommandSink method. The exceptions are POLYGON and STAMP, whose
+ * length depends on their point count: rule (or brush), points, then the x and y of each point.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public final class PaintCommand
+{
+	public static final int COLOR = 1; //color
+	public static final int POINT = 2; //x, y
+	public static final int LINE = 3; //startX, startY, endX, endY
+	public static final int CIRCLE = 4; //x, y, radius
+	public static final int RECTANGLE = 5; //startX, startY, endX, endY
+	public static final int RECTANGLE_OUTLINE = 6; //startX, startY, endX, endY
+	public static final int FLOOD_FILL = 7; //x, y
+	public static final int AIRBRUSH = 8; //x, y
+	public static final int CLEAR = 9; //color
+	public static final int CHECKPOINT = 10; //(none); these last three are only for HistorySinks
+	public static final int UNDO = 11; //(none)
+	public static final int REDO = 12; //(none)
+	public static final int FILLED_CIRCLE = 13; //x, y, radius
+	public static final int ELLIPSE = 14; //x, y, radiusX, radiusY
+	public static final int FILLED_ELLIPSE = 15; //x, y, radiusX, radiusY
+	public static final int POLYGON = 16; //rule, points, x0, y0, x1, y1, ...
+	public static final int STAMP = 17; //brush (POINT or AIRBRUSH), points, x0, y0, x1, y1, ...
+	public static final int AIRBRUSH_SETTINGS = 18; //radius, strength; these two are only for HistorySinks too
+	public static final int FILL_SETTINGS = 19; //connectivity, tolerance
+	public static final int DROP_REDO = 20; //(none); also only for HistorySinks
+
+	public static final int MAX_ARGS = 4; //most arguments any fixed-length command takes
+
+	private PaintCommand() {} //just constants and helpers
+
+	/**
+	 * @return how many int arguments follow the given opcode (for POLYGON and STAMP, the fewest: no points)
+	 */
+	public static int argCount(int op)
+	{
+		switch(op) {
+		case POLYGON:
+		case STAMP:
+			return 2;
+		case CHECKPOINT:
+		case UNDO:
+		case REDO:
+		case DROP_REDO:
+			return 0;
+		case COLOR:
+		case CLEAR:
+			return 1;
+		case POINT:
+		case FLOOD_FILL:
+		case AIRBRUSH:
+		case AIRBRUSH_SETTINGS:
+		case FILL_SETTINGS:
+			return 2;
+		case CIRCLE:
+		case FILLED_CIRCLE:
+			return 3;
+		case LINE:
+		case RECTANGLE:
+		case RECTANGLE_OUTLINE:
+		case ELLIPSE:
+		case FILLED_ELLIPSE:
+			return 4;
+		default:
+			throw new IllegalArgumentException("Unknown paint command: "+op);
+		}
+	}
+
+	/**
+	 * Sends a command to a sink
+	 * @param op the opcode
+	 * @param args array holding the arguments
+	 * @param offset where the arguments start in args
+	 * @param sink where to send the command
+	 */
+	public static void dispatch(int op, int[] args, int offset, PaintCommandSink sink)
+	{
+		switch(op) {
+		case COLOR:
+			sink.setColor(args[offset]);
+			break;
+		case POINT:
+			sink.drawPoint(args[offset], args[offset+1]);
+			break;
+		case LINE:
+			sink.drawLine(args[offset], args[offset+1], args[offset+2], args[offset+3]);
+			break;
+		case CIRCLE:
+			sink.drawCircle(args[offset], args[offset+1], args[offset+2]);
+			break;
+		case FILLED_CIRCLE:
+			sink.fillCircle(args[offset], args[offset+1], args[offset+2]);
+			break;
+		case ELLIPSE:
+			sink.drawEllipse(args[offset], args[offset+1], args[offset+2], args[offset+3]);
+			break;
+		case FILLED_ELLIPSE:
+			sink.fillEllipse(args[offset], args[offset+1], args[offset+2], args[offset+3]);
+			break;
+		case RECTANGLE:
+			sink.drawRectangle(args[offset], args[offset+1], args[offset+2], args[offset+3]);
+			break;
+		case RECTANGLE_OUTLINE:
+			sink.strokeRectangle(args[offset], args[offset+1], args[offset+2], args[offset+3]);
+			break;
+		case FLOOD_FILL:
+			sink.floodFill(args[offset], args[offset+1]);
+			break;
+		case AIRBRUSH:
+			sink.airBrush(args[offset], args[offset+1]);
+			break;
+		case CLEAR:
+			sink.clear(args[offset]);
+			break;
+		case POLYGON:
+			sink.fillPolygon(args, offset+2, args[offset+1], args[offset]);
+			break;
+		case STAMP:
+			sink.stamp(args, offset+2, args[offset+1], args[offset]);
+			break;
+		case CHECKPOINT:
+			if(sink instanceof HistorySink)
+				((HistorySink)sink).checkpoint();
+			break;
+		case UNDO:
+			if(sink instanceof HistorySink)
+				((HistorySink)sink).undo();
+			break;
+		case REDO:
+			if(sink instanceof HistorySink)
+				((HistorySink)sink).redo();
+			break;
+		case DROP_REDO:
+			if(sink instanceof HistorySink)
+				((HistorySink)sink).dropRedo();
+			break;
+		case AIRBRUSH_SETTINGS:
+			if(sink instanceof HistorySink)
+				((HistorySink)sink).setAirBrush(args[offset], args[offset+1]);
+			break;
+		case FILL_SETTINGS:
+			if(sink instanceof HistorySink)
+				((HistorySink)sink).setFillOptions(args[offset], args[offset+1]);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown paint command: "+op);
+		}
+	}
+}
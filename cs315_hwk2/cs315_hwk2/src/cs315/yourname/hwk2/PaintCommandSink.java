@@ -0,0 +1,49 @@
+package cs315.yourname.hwk2;
+
+/**
+ * Something that accepts the mini-painter's drawing commands: the Rasterizer itself, or anything that
+ * queues, records or forwards commands on their way to one.
+ * 
+ * These match the .minipaint command set (polylines are sent as a series of lines).
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public interface PaintCommandSink
+{
+	public void setColor(int color);
+
+	public void drawPoint(int x, int y);
+
+	public void drawLine(int startX, int startY, int endX, int endY);
+
+	public void drawCircle(int x, int y, int radius);
+
+	public void fillCircle(int x, int y, int radius);
+
+	public void drawEllipse(int x, int y, int radiusX, int radiusY);
+
+	public void fillEllipse(int x, int y, int radiusX, int radiusY);
+
+	/**
+	 * @param coords x0, y0, x1, y1, ... (only read during the call, so the array can be reused)
+	 * @param rule PolygonFill.EVEN_ODD or PolygonFill.NON_ZERO
+	 */
+	public void fillPolygon(int[] coords, int offset, int points, int rule);
+
+	public void drawRectangle(int startX, int startY, int endX, int endY);
+
+	public void strokeRectangle(int startX, int startY, int endX, int endY);
+
+	public void floodFill(int x, int y);
+
+	public void airBrush(int x, int y);
+
+	/**
+	 * @param coords x0, y0, x1, y1, ... (only read during the call, so the array can be reused)
+	 * @param brush PaintCommand.POINT or PaintCommand.AIRBRUSH
+	 */
+	public void stamp(int[] coords, int offset, int points, int brush);
+
+	public void clear(int color);
+}
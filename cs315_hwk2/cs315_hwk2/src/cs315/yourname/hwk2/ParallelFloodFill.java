@@ -0,0 +1,375 @@
+package cs315.yourname.hwk2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A flood fill for very large canvases that spreads the work across a thread pool.
+ *
+ * The canvas is split into square tiles. Each tile runs its own scanline fill, confined to the tile, on a
+ * worker thread. Whenever a filled span touches the edge of its tile, the tile hands a seed segment to the
+ * neighboring tile instead of crossing over. Rounds repeat (with a barrier between them) until no tile has
+ * any seeds left. Since every tile only ever reads and writes its own pixels, tiles never need to lock, and
+ * the filled region is exactly the connected region the serial FloodFill finds.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class ParallelFloodFill
+{
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	private final ExecutorService _pool;
+	private final int _tileSize;
+
+	private int _connectivity;
+	private int _tolerance;
+
+	//state for the fill in progress
+	private PixelSurface _surface;
+	private int _width;
+	private int _height;
+	private int _tilesX;
+	private int _tilesY;
+	private Tile[] _tiles; //kept between fills of the same size canvas, so tiles can reuse their buffers
+	private int _target;
+	private int _replacement;
+	private boolean _useVisited;
+	private int[] _bounds; //{left, top, right, bottom} of the last fill
+
+	/**
+	 * @param pool the threads to fill with (not shut down by this class)
+	 */
+	public ParallelFloodFill(ExecutorService pool)
+	{
+		this(pool, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * @param pool the threads to fill with (not shut down by this class)
+	 * @param tileSize width and height of each tile, in pixels
+	 */
+	public ParallelFloodFill(ExecutorService pool, int tileSize)
+	{
+		if(tileSize < 8)
+			throw new IllegalArgumentException("Tile size too small: "+tileSize);
+		_pool = pool;
+		_tileSize = tileSize;
+		_connectivity = FloodFill.CONNECT_4;
+		_tolerance = 0;
+		_bounds = new int[4];
+	}
+
+	/**
+	 * @see FloodFill#setConnectivity(int)
+	 */
+	public void setConnectivity(int connectivity)
+	{
+		if(connectivity != FloodFill.CONNECT_4 && connectivity != FloodFill.CONNECT_8)
+			throw new IllegalArgumentException("Connectivity must be 4 or 8: "+connectivity);
+		_connectivity = connectivity;
+	}
+
+	/**
+	 * @see FloodFill#setTolerance(int)
+	 */
+	public void setTolerance(int tolerance)
+	{
+		if(tolerance < 0 || tolerance > 255)
+			throw new IllegalArgumentException("Tolerance must be between 0 and 255: "+tolerance);
+		_tolerance = tolerance;
+	}
+
+	/**
+	 * Flood-fills the region containing the given pixel. Produces exactly the same pixels as FloodFill.fill()
+	 * @param surface the surface to fill on; must be safe to write to from several threads at once, as long
+	 *  as they touch different pixels (true for IntFramebuffer)
+	 * @param x x-coord to start filling from (must be in bounds)
+	 * @param y y-coord to start filling from (must be in bounds)
+	 * @param replacement the ARGB color to fill with
+	 * @return the number of pixels filled
+	 */
+	public int fill(PixelSurface surface, int x, int y, int replacement)
+	{
+		_surface = surface;
+		_target = surface.getPixel(x, y);
+		_replacement = replacement;
+		_bounds[0] = _bounds[1] = Integer.MAX_VALUE; //empty
+		_bounds[2] = _bounds[3] = Integer.MIN_VALUE;
+		_useVisited = matches(replacement) || matches(surface.quantize(replacement)); //see FloodFill
+		if(_useVisited && _tolerance == 0) //replacing a color with itself; nothing to do
+			return 0;
+		setupTiles(surface.getWidth(), surface.getHeight());
+
+		List<Tile> active = new ArrayList<Tile>();
+		List<Tile> next = new ArrayList<Tile>();
+		Tile first = tileAt(x, y);
+		first.inbox.push(y, x, x);
+		first.queued = true;
+		active.add(first);
+
+		int filled = 0;
+		while(!active.isEmpty())
+		{
+			runRound(active);
+
+			//hand the seeds that crossed tile edges over to their new tiles
+			for(Tile tile : active)
+				tile.queued = false;
+			for(Tile tile : active)
+			{
+				filled += tile.filled;
+				tile.filled = 0;
+				if(tile.minX < _bounds[0]) _bounds[0] = tile.minX;
+				if(tile.minY < _bounds[1]) _bounds[1] = tile.minY;
+				if(tile.maxX > _bounds[2]) _bounds[2] = tile.maxX;
+				if(tile.maxY > _bounds[3]) _bounds[3] = tile.maxY;
+				IntStack out = tile.outbox;
+				while(!out.isEmpty())
+				{
+					int right = out.pop();
+					int left = out.pop();
+					int row = out.pop();
+					route(row, left, right, next);
+				}
+			}
+			List<Tile> swap = active;
+			active = next;
+			next = swap;
+			next.clear();
+		}
+		_surface = null;
+		return filled;
+	}
+
+	/**
+	 * @see FloodFill#getLastBounds()
+	 */
+	public int[] getLastBounds()
+	{
+		return _bounds;
+	}
+
+	/**
+	 * Runs one round of filling on the given tiles, returning once they are all done
+	 */
+	private void runRound(List<Tile> active)
+	{
+		if(active.size() == 1) { //no point paying for a hand-off
+			active.get(0).call();
+			return;
+		}
+
+		try {
+			List<Future<Void>> results = _pool.invokeAll(active);
+			for(Future<Void> result : results)
+				result.get(); //rethrows anything that went wrong on a worker
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while filling", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Fill failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Adds a seed segment (row y, from left to right inclusive) to the inboxes of the tiles it lands in,
+	 * queueing those tiles for the next round
+	 */
+	private void route(int y, int left, int right, List<Tile> next)
+	{
+		int ty = y / _tileSize;
+		for(int tx = left / _tileSize; tx <= right / _tileSize; tx++)
+		{
+			Tile tile = _tiles[ty*_tilesX + tx];
+			tile.inbox.push(y, Math.max(left, tile.left), Math.min(right, tile.right));
+			if(!tile.queued) {
+				tile.queued = true;
+				next.add(tile);
+			}
+		}
+	}
+
+	private Tile tileAt(int x, int y)
+	{
+		return _tiles[(y / _tileSize)*_tilesX + x / _tileSize];
+	}
+
+	private void setupTiles(int width, int height)
+	{
+		if(_tiles != null && width == _width && height == _height) {
+			for(Tile tile : _tiles)
+				tile.reset();
+			return;
+		}
+		_width = width;
+		_height = height;
+		_tilesX = (width + _tileSize - 1) / _tileSize;
+		_tilesY = (height + _tileSize - 1) / _tileSize;
+		_tiles = new Tile[_tilesX*_tilesY];
+		for(int ty = 0; ty < _tilesY; ty++)
+			for(int tx = 0; tx < _tilesX; tx++)
+				_tiles[ty*_tilesX + tx] = new Tile(tx*_tileSize, ty*_tileSize,
+						Math.min((tx+1)*_tileSize, width) - 1, Math.min((ty+1)*_tileSize, height) - 1);
+	}
+
+	private boolean matches(int color)
+	{
+		if(_tolerance == 0)
+			return color == _target;
+		return FloodFill.channelDistance(color, _target) <= _tolerance;
+	}
+
+	/**
+	 * One tile of the canvas: a scanline fill that stays within its bounds
+	 */
+	private class Tile implements Callable<Void>
+	{
+		final int left, top, right, bottom; //bounds, inclusive
+		final IntStack inbox; //(y, left, right) segments handed over by the previous round
+		final IntStack outbox; //(y, left, right) segments for neighboring tiles
+		final IntStack seeds; //(x, y) seeds within this tile
+		long[] visited; //one bit per pixel of the tile, allocated the first time it's needed
+		boolean queued; //whether we're already in the next round's list
+		int filled; //pixels filled this round
+		int minX, minY, maxX, maxY; //bounds of what we've filled
+
+		Tile(int left, int top, int right, int bottom)
+		{
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+			inbox = new IntStack(24);
+			outbox = new IntStack(24);
+			seeds = new IntStack(64);
+			reset();
+		}
+
+		void reset()
+		{
+			inbox.clear();
+			outbox.clear();
+			queued = false;
+			filled = 0;
+			minX = minY = Integer.MAX_VALUE;
+			maxX = maxY = Integer.MIN_VALUE;
+			if(visited != null)
+				Arrays.fill(visited, 0L);
+		}
+
+		public Void call()
+		{
+			if(_useVisited && visited == null)
+				visited = new long[((right-left+1)*(bottom-top+1) + 63) >> 6];
+
+			while(!inbox.isEmpty())
+			{
+				int segRight = inbox.pop();
+				int segLeft = inbox.pop();
+				int segY = inbox.pop();
+				pushRuns(segY, segLeft, segRight);
+			}
+
+			int extra = _connectivity == FloodFill.CONNECT_8 ? 1 : 0;
+			while(!seeds.isEmpty())
+			{
+				int sy = seeds.pop();
+				int sx = seeds.pop();
+				if(!fillable(sx, sy))
+					continue;
+
+				int spanLeft = sx;
+				while(spanLeft > left && fillable(spanLeft-1, sy))
+					spanLeft--;
+				int spanRight = sx;
+				while(spanRight < right && fillable(spanRight+1, sy))
+					spanRight++;
+
+				_surface.fillSpan(sy, spanLeft, spanRight, _replacement);
+				if(_useVisited)
+					markVisited(sy, spanLeft, spanRight);
+				filled += spanRight - spanLeft + 1;
+				if(spanLeft < minX) minX = spanLeft;
+				if(sy < minY) minY = sy;
+				if(spanRight > maxX) maxX = spanRight;
+				if(sy > maxY) maxY = sy;
+
+				//the span might continue into the tiles to either side
+				if(spanLeft == left && left > 0)
+					outbox.push(sy, left-1, left-1);
+				if(spanRight == right && right < _width-1)
+					outbox.push(sy, right+1, right+1);
+
+				int scanLeft = Math.max(spanLeft - extra, 0);
+				int scanRight = Math.min(spanRight + extra, _width-1);
+				if(sy > 0)
+					seedRow(sy-1, scanLeft, scanRight);
+				if(sy < _height-1)
+					seedRow(sy+1, scanLeft, scanRight);
+			}
+			return null;
+		}
+
+		/**
+		 * Seeds a neighboring row segment: the part inside this tile is seeded locally, anything outside
+		 * goes to the outbox for the neighbors to check
+		 */
+		private void seedRow(int y, int scanLeft, int scanRight)
+		{
+			if(y < top || y > bottom) {
+				outbox.push(y, scanLeft, scanRight);
+				return;
+			}
+			if(scanLeft < left) {
+				outbox.push(y, scanLeft, left-1);
+				scanLeft = left;
+			}
+			if(scanRight > right) {
+				outbox.push(y, right+1, scanRight);
+				scanRight = right;
+			}
+			pushRuns(y, scanLeft, scanRight);
+		}
+
+		private void pushRuns(int y, int runLeft, int runRight)
+		{
+			boolean inRun = false;
+			for(int x = runLeft; x <= runRight; x++)
+			{
+				if(fillable(x, y)) {
+					if(!inRun) {
+						seeds.push(x, y);
+						inRun = true;
+					}
+				}
+				else
+					inRun = false;
+			}
+		}
+
+		private boolean fillable(int x, int y)
+		{
+			if(_useVisited) {
+				int bit = (y-top)*(right-left+1) + (x-left);
+				if((visited[bit >> 6] & (1L << bit)) != 0)
+					return false;
+			}
+			return matches(_surface.getPixel(x, y));
+		}
+
+		private void markVisited(int y, int spanLeft, int spanRight)
+		{
+			int row = (y-top)*(right-left+1) - left;
+			for(int bit = row+spanLeft; bit <= row+spanRight; bit++)
+				visited[bit >> 6] |= 1L << bit;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package cs315.yourname.hwk2;
+
+/**
+ * A block of pixels that the scan conversion primitives can draw into.
+ * 
+ * Colors are always passed in and out as packed ARGB ints (the same format as android.graphics.Color),
+ * whatever the surface stores internally. Implementations do NOT clip: callers (i.e., the Rasterizer)
+ * are responsible for only touching coordinates inside the surface.
+ * 
+ * Nothing in here depends on Android, so surfaces can be used on a plain JVM for testing and benchmarking.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public interface PixelSurface
+{
+	/**
+	 * @return the width of the surface in pixels
+	 */
+	public int getWidth();
+
+	/**
+	 * @return the height of the surface in pixels
+	 */
+	public int getHeight();
+
+	/**
+	 * Gets the color of a single pixel. The coordinates must be in bounds.
+	 * @param x x-coord of pixel
+	 * @param y y-coord of pixel
+	 * @return the ARGB color of the pixel
+	 */
+	public int getPixel(int x, int y);
+
+	/**
+	 * Sets the color of a single pixel. The coordinates must be in bounds.
+	 * @param x x-coord of pixel
+	 * @param y y-coord of pixel
+	 * @param color ARGB color to apply to pixel
+	 */
+	public void setPixel(int x, int y, int color);
+
+	/**
+	 * Sets a horizontal run of pixels to the same color. The whole span must be in bounds.
+	 * @param y y-coord of the row
+	 * @param startX x-coord of the first pixel to set
+	 * @param endX x-coord of the last pixel to set (inclusive; must be >= startX)
+	 * @param color ARGB color to apply to the span
+	 */
+	public void fillSpan(int y, int startX, int endX, int color);
+
+	/**
+	 * Sets every pixel on the surface to the given color
+	 * @param color ARGB color to fill with
+	 */
+	public void fill(int color);
+
+	/**
+	 * Copies a block of pixels out of the surface, as ARGB. The whole block must be in bounds.
+	 * @param x x-coord of the left edge of the block
+	 * @param y y-coord of the top edge of the block
+	 * @param width width of the block
+	 * @param height height of the block
+	 * @param dst array to copy into; row r of the block goes to dst[offset + r*stride]
+	 * @param offset where the first row starts in dst
+	 * @param stride distance between rows in dst
+	 */
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride);
+
+	/**
+	 * Copies a block of ARGB pixels into the surface. The whole block must be in bounds.
+	 * @param x x-coord of the left edge of the block
+	 * @param y y-coord of the top edge of the block
+	 * @param width width of the block
+	 * @param height height of the block
+	 * @param src array to copy from; row r of the block comes from src[offset + r*stride]
+	 * @param offset where the first row starts in src
+	 * @param stride distance between rows in src
+	 */
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride);
+
+	/**
+	 * Works out what a color reads back as once it's stored, without storing it (e.g., RGB565 loses the low
+	 * bits of each channel)
+	 * @param color ARGB color
+	 * @return the ARGB color getPixel() would give for a pixel set to it
+	 */
+	public int quantize(int color);
+}
@@ -0,0 +1,251 @@
+package cs315.yourname.hwk2;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Fills polygons (concave and self-intersecting ones included) a scanline at a time, using an active edge
+ * table, under either the even-odd or the nonzero winding rule.
+ *
+ * The edges are sorted by the first row they cross, and each row keeps a list of just the edges crossing
+ * it, stepped down from the row before and re-sorted by x (an insertion sort, since the order rarely
+ * changes between rows). The spans between crossings are written straight to the surface, so each pixel
+ * is written at most once however many edges overlap, and a polygon with thousands of vertices still takes
+ * a single pass down the rows. Edges are stepped exactly, with a whole part and a remainder, so there's no
+ * rounding drift on long edges.
+ *
+ * The vertices are the centers of pixels, and a pixel is filled if its center is inside the polygon; one
+ * exactly on an edge belongs to the polygon if the edge is on its left or top, so polygons that share an
+ * edge don't overlap.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class PolygonFill
+{
+	public static final int EVEN_ODD = 0; //inside where an odd number of edges are crossed to get out
+	public static final int NON_ZERO = 1; //inside where the edges wind around the point at all
+
+	//each edge is stored as EDGE_SIZE longs in _edges
+	private static final int EDGE_SIZE = 7;
+	private static final int END = 0; //row below the last one the edge crosses
+	private static final int X = 1; //floor of the edge's x on the current row
+	private static final int REMAINDER = 2; //the rest of x, in units of 1/HEIGHT (0 <= remainder < height)
+	private static final int HEIGHT = 3; //rows the edge spans (from the top vertex to the bottom one)
+	private static final int STEP = 4; //floor of how far x moves per row
+	private static final int STEP_REMAINDER = 5; //the rest of the step, in units of 1/HEIGHT
+	private static final int WINDING = 6; //+1 for edges going down, -1 for edges going up
+
+	private long[] _edges;
+	private long[] _order; //(first row << 32) | edge, sorted so edges are added in row order
+	private int[] _active; //edges crossing the current row, sorted by x
+	private long[] _crossings; //where each active edge crosses the current row (the first pixel right of it)
+	private int[] _bounds; //bounding box of the last fill
+
+	public PolygonFill()
+	{
+		_edges = new long[EDGE_SIZE*64];
+		_order = new long[64];
+		_active = new int[64];
+		_crossings = new long[64];
+		_bounds = new int[4];
+	}
+
+	/**
+	 * Fills a polygon; the last point joins back up to the first
+	 * @param surface the surface to draw on
+	 * @param coords the points of the polygon, as x0, y0, x1, y1, ...
+	 * @param offset where the points start in coords
+	 * @param points how many points there are
+	 * @param rule EVEN_ODD or NON_ZERO
+	 * @param color the color to fill with
+	 * @param clipLeft box to clip to (inclusive; it should be within the surface)
+	 * @return the number of pixels filled
+	 */
+	public int fill(PixelSurface surface, int[] coords, int offset, int points, int rule, int color,
+			int clipLeft, int clipTop, int clipRight, int clipBottom)
+	{
+		if(rule != EVEN_ODD && rule != NON_ZERO)
+			throw new IllegalArgumentException("Unknown winding rule: "+rule);
+		_bounds[0] = Integer.MAX_VALUE; //empty until something's filled
+		_bounds[1] = Integer.MAX_VALUE;
+		_bounds[2] = Integer.MIN_VALUE;
+		_bounds[3] = Integer.MIN_VALUE;
+		int edges = buildEdges(coords, offset, points, clipTop, clipBottom);
+		if(edges == 0)
+			return 0;
+		Arrays.sort(_order, 0, edges);
+
+		int next = 0; //next edge (in _order) to add to the active list
+		int active = 0;
+		int filled = 0;
+		for(int y = (int)(_order[0] >> 32); y <= clipBottom; y++)
+		{
+			//drop edges that have ended, and step the rest down to this row
+			int kept = 0;
+			for(int i = 0; i < active; i++)
+			{
+				int e = _active[i]*EDGE_SIZE;
+				if(_edges[e+END] > y) {
+					step(e);
+					_active[kept++] = _active[i];
+				}
+			}
+			active = kept;
+
+			//add edges that start on this row (already set up for it)
+			if(active == 0) {
+				if(next == edges)
+					break; //nothing left below
+				y = Math.max(y, (int)(_order[next] >> 32)); //skip ahead to where the next edge starts
+			}
+			while(next < edges && (int)(_order[next] >> 32) == y)
+			{
+				if(active == _active.length)
+					growActive();
+				_active[active++] = (int)_order[next++];
+			}
+
+			//sort by where the edges cross this row
+			for(int i = 0; i < active; i++)
+			{
+				int e = _active[i]*EDGE_SIZE;
+				_crossings[i] = _edges[e+X] + (_edges[e+REMAINDER] > 0 ? 1 : 0); //first pixel center at or right of the edge
+			}
+			for(int i = 1; i < active; i++)
+			{
+				long crossing = _crossings[i];
+				int edge = _active[i];
+				int j = i - 1;
+				while(j >= 0 && _crossings[j] > crossing)
+				{
+					_crossings[j+1] = _crossings[j];
+					_active[j+1] = _active[j];
+					j--;
+				}
+				_crossings[j+1] = crossing;
+				_active[j+1] = edge;
+			}
+
+			//fill from each crossing that goes inside to the next one that goes back out
+			int winding = 0;
+			long left = 0;
+			for(int i = 0; i < active; i++)
+			{
+				int before = winding;
+				if(rule == EVEN_ODD)
+					winding ^= 1;
+				else
+					winding += (int)_edges[_active[i]*EDGE_SIZE+WINDING];
+				if(before == 0 && winding != 0)
+					left = Math.max(_crossings[i], clipLeft);
+				else if(before != 0 && winding == 0) {
+					long right = Math.min(_crossings[i] - 1, clipRight);
+					if(left <= right) {
+						surface.fillSpan(y, (int)left, (int)right, color);
+						filled += right - left + 1;
+						_bounds[0] = (int)Math.min(_bounds[0], left);
+						_bounds[1] = Math.min(_bounds[1], y);
+						_bounds[2] = (int)Math.max(_bounds[2], right);
+						_bounds[3] = y;
+					}
+				}
+			}
+		}
+		return filled;
+	}
+
+	/**
+	 * @return the bounding box {left, top, right, bottom} (inclusive) of the pixels changed by the last fill;
+	 *  left > right if nothing was filled. The array is reused by the next fill.
+	 */
+	public int[] getLastBounds()
+	{
+		return _bounds;
+	}
+
+	/**
+	 * Sets up the edges of the polygon that cross the rows between clipTop and clipBottom (horizontal edges
+	 * never cross a row center, so they're left out), each starting on the first of those rows it crosses
+	 * @return how many edges there are
+	 */
+	private int buildEdges(int[] coords, int offset, int points, int clipTop, int clipBottom)
+	{
+		if(_edges.length < points*EDGE_SIZE) {
+			_edges = new long[points*EDGE_SIZE];
+			_order = new long[points];
+		}
+		int edges = 0;
+		for(int p = 0; p < points; p++)
+		{
+			int q = p + 1 < points ? p + 1 : 0;
+			long x0 = coords[offset + 2*p], y0 = coords[offset + 2*p + 1];
+			long x1 = coords[offset + 2*q], y1 = coords[offset + 2*q + 1];
+			int winding = 1;
+			if(y0 > y1) { //always walk from the top vertex down
+				long t = x0; x0 = x1; x1 = t;
+				t = y0; y0 = y1; y1 = t;
+				winding = -1;
+			}
+			long first = Math.max(y0, clipTop); //rows y0 <= y < y1, within the clip
+			long end = Math.min(y1, (long)clipBottom + 1);
+			if(first >= end)
+				continue;
+
+			long height = y1 - y0;
+			long dx = x1 - x0;
+			int e = edges*EDGE_SIZE;
+			_edges[e+END] = end;
+			_edges[e+HEIGHT] = height;
+			_edges[e+STEP] = floorDiv(dx, height);
+			_edges[e+STEP_REMAINDER] = dx - _edges[e+STEP]*height;
+			long rows = first - y0;
+			long x = mulDiv(rows, dx, height);
+			_edges[e+X] = x0 + x;
+			_edges[e+REMAINDER] = rows*dx - x*height; //the exact remainder, even if the products wrapped around
+			_edges[e+WINDING] = winding;
+			_order[edges] = (first << 32) | edges;
+			edges++;
+		}
+		return edges;
+	}
+
+	/**
+	 * Moves an edge down a row
+	 */
+	private void step(int e)
+	{
+		_edges[e+X] += _edges[e+STEP];
+		_edges[e+REMAINDER] += _edges[e+STEP_REMAINDER];
+		if(_edges[e+REMAINDER] >= _edges[e+HEIGHT]) {
+			_edges[e+REMAINDER] -= _edges[e+HEIGHT];
+			_edges[e+X]++;
+		}
+	}
+
+	private void growActive()
+	{
+		_active = Arrays.copyOf(_active, _active.length*2);
+		_crossings = Arrays.copyOf(_crossings, _crossings.length*2);
+	}
+
+	/**
+	 * @return floor(a / b) for b > 0
+	 */
+	private static long floorDiv(long a, long b)
+	{
+		long q = a / b;
+		return (a % b != 0 && a < 0) ? q - 1 : q;
+	}
+
+	/**
+	 * @return floor(a*b / c) for c > 0 (a*b can be past the range of a long when coordinates are huge)
+	 */
+	private static long mulDiv(long a, long b, long c)
+	{
+		if(Math.abs(a) <= Integer.MAX_VALUE && Math.abs(b) <= Integer.MAX_VALUE)
+			return floorDiv(a*b, c);
+		BigInteger[] qr = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).divideAndRemainder(BigInteger.valueOf(c));
+		return qr[1].signum() < 0 ? qr[0].longValue() - 1 : qr[0].longValue();
+	}
+}
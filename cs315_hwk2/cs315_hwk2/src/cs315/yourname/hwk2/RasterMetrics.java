@@ -0,0 +1,243 @@
+package cs315.yourname.hwk2;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for where drawing time goes: for each of the Rasterizer's primitives (and for presenting frames),
+ * how many times it ran, the time it took, the pixels it wrote and the pixels it clipped, plus a histogram of
+ * how long each call took (in power-of-two buckets of ns).
+ *
+ * Pixels clipped are exact for points, lines and rectangles; for the other shapes they're the part of the
+ * shape's bounding box outside the clip. Flood fills are never clipped. A TiledReplay's workers draw each
+ * shape once per tile it touches, clipped to that tile, so there each of those counts as a call.
+ *
+ * Each Rasterizer records into its own Recorder (see Rasterizer.setMetrics()), so threads drawing at once
+ * don't share counters; snapshot() adds them all up. A snapshot taken while drawing is going on may be
+ * partway through a call's counts.
+ *
+ * Setting ENABLED to false compiles the instrumentation out of the Rasterizer altogether; otherwise a
+ * Rasterizer without metrics only pays a null check per primitive (and keeps a running count of the pixels
+ * it writes).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class RasterMetrics
+{
+	public static final boolean ENABLED = true; //false to compile the instrumentation out
+
+	//what's measured: the primitives, by their PaintCommand opcodes, and presenting
+	public static final int PRESENT = PaintCommand.STAMP + 1;
+	public static final int SLOTS = PRESENT + 1;
+	public static final int BUCKETS = 40; //histogram buckets: bucket b counts calls taking [2^(b-1), 2^b) ns; the last one, anything longer
+
+	//counters kept per slot
+	private static final int COUNT = 0;
+	private static final int NANOS = 1;
+	private static final int PIXELS = 2;
+	private static final int CLIPPED = 3;
+	private static final int COUNTERS = 4;
+
+	private final ArrayList<Recorder> _recorders;
+	private final long _created;
+
+	public RasterMetrics()
+	{
+		_recorders = new ArrayList<Recorder>();
+		_created = System.nanoTime();
+	}
+
+	/**
+	 * @return a new recorder for one thread to record into (they're all counted by snapshot())
+	 */
+	public synchronized Recorder newRecorder()
+	{
+		Recorder recorder = new Recorder();
+		_recorders.add(recorder);
+		return recorder;
+	}
+
+	/**
+	 * @return the totals so far, across every recorder
+	 */
+	public Snapshot snapshot()
+	{
+		Snapshot snapshot = new Snapshot(System.nanoTime() - _created);
+		Recorder[] recorders;
+		synchronized (this) {
+			recorders = _recorders.toArray(new Recorder[_recorders.size()]);
+		}
+		for(Recorder recorder : recorders)
+		{
+			for(int i = 0; i < snapshot._counters.length; i++)
+				snapshot._counters[i] += recorder._counters.get(i);
+			for(int i = 0; i < snapshot._histograms.length; i++)
+				snapshot._histograms[i] += recorder._histograms.get(i);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the name of a slot (e.g., "line", "present")
+	 */
+	public static String name(int slot)
+	{
+		switch(slot) {
+		case PaintCommand.POINT: return "point";
+		case PaintCommand.LINE: return "line";
+		case PaintCommand.CIRCLE: return "circle";
+		case PaintCommand.FILLED_CIRCLE: return "fillCircle";
+		case PaintCommand.ELLIPSE: return "ellipse";
+		case PaintCommand.FILLED_ELLIPSE: return "fillEllipse";
+		case PaintCommand.POLYGON: return "polygon";
+		case PaintCommand.RECTANGLE: return "rectangle";
+		case PaintCommand.RECTANGLE_OUTLINE: return "strokeRectangle";
+		case PaintCommand.FLOOD_FILL: return "floodFill";
+		case PaintCommand.AIRBRUSH: return "airBrush";
+		case PaintCommand.STAMP: return "stamp";
+		case PaintCommand.CLEAR: return "clear";
+		case PRESENT: return "present";
+		default: return "#"+slot;
+		}
+	}
+
+	/**
+	 * Counts for one thread. Only its own thread writes to it, so updates are just a read and an ordered
+	 * write (no locking, and nothing for other recorders to contend on).
+	 */
+	public static class Recorder
+	{
+		private final AtomicLongArray _counters = new AtomicLongArray(SLOTS*COUNTERS);
+		private final AtomicLongArray _histograms = new AtomicLongArray(SLOTS*BUCKETS);
+
+		/**
+		 * Records one call
+		 * @param slot what was called (a PaintCommand opcode, or PRESENT)
+		 * @param nanos how long it took
+		 * @param pixels how many pixels it wrote (or presented)
+		 * @param clipped how many pixels were clipped away
+		 */
+		public void record(int slot, long nanos, long pixels, long clipped)
+		{
+			int c = slot*COUNTERS;
+			add(_counters, c+COUNT, 1);
+			add(_counters, c+NANOS, nanos);
+			add(_counters, c+PIXELS, pixels);
+			add(_counters, c+CLIPPED, clipped);
+			int bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)), BUCKETS-1);
+			add(_histograms, slot*BUCKETS + bucket, 1);
+		}
+
+		private static void add(AtomicLongArray array, int i, long value)
+		{
+			array.lazySet(i, array.get(i) + value);
+		}
+	}
+
+	/**
+	 * Totals at some point in time
+	 */
+	public static class Snapshot
+	{
+		private final long _elapsed; //ns since the metrics were created
+		private final long[] _counters = new long[SLOTS*COUNTERS];
+		private final long[] _histograms = new long[SLOTS*BUCKETS];
+
+		private Snapshot(long elapsed)
+		{
+			_elapsed = elapsed;
+		}
+
+		/**
+		 * @return what's changed since an earlier snapshot of the same metrics
+		 */
+		public Snapshot since(Snapshot earlier)
+		{
+			Snapshot delta = new Snapshot(_elapsed - earlier._elapsed);
+			for(int i = 0; i < _counters.length; i++)
+				delta._counters[i] = _counters[i] - earlier._counters[i];
+			for(int i = 0; i < _histograms.length; i++)
+				delta._histograms[i] = _histograms[i] - earlier._histograms[i];
+			return delta;
+		}
+
+		/**
+		 * @return the time covered, in ns (since the metrics were created, or between two snapshots)
+		 */
+		public long getElapsedNanos()
+		{
+			return _elapsed;
+		}
+
+		public long getCount(int slot)
+		{
+			return _counters[slot*COUNTERS + COUNT];
+		}
+
+		public long getNanos(int slot)
+		{
+			return _counters[slot*COUNTERS + NANOS];
+		}
+
+		public long getPixels(int slot)
+		{
+			return _counters[slot*COUNTERS + PIXELS];
+		}
+
+		public long getClipped(int slot)
+		{
+			return _counters[slot*COUNTERS + CLIPPED];
+		}
+
+		/**
+		 * @return how many calls fell in a histogram bucket (see BUCKETS)
+		 */
+		public long getHistogram(int slot, int bucket)
+		{
+			return _histograms[slot*BUCKETS + bucket];
+		}
+
+		/**
+		 * @return an upper bound on how long the given fraction of calls took, in ns (the top of the histogram
+		 *  bucket the percentile falls in), or 0 if there were no calls
+		 */
+		public long getPercentile(int slot, double fraction)
+		{
+			long count = getCount(slot);
+			if(count == 0)
+				return 0;
+			long wanted = (long)Math.ceil(count*fraction);
+			long seen = 0;
+			for(int bucket = 0; bucket < BUCKETS; bucket++)
+			{
+				seen += getHistogram(slot, bucket);
+				if(seen >= wanted)
+					return (1L << bucket) - 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		/**
+		 * @return a table of the slots that were used, one per line
+		 */
+		@Override
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("%-16s %9s %10s %12s %12s %9s %9s %9s", "over "+_elapsed/1000000+" ms", "calls", "ms",
+					"pixels", "clipped", "ns/pixel", "p50 ns", "p99 ns"));
+			for(int slot = 0; slot < SLOTS; slot++)
+			{
+				long count = getCount(slot);
+				if(count == 0)
+					continue;
+				long pixels = getPixels(slot);
+				sb.append(String.format("%n%-16s %9d %10.2f %12d %12d %9s %9d %9d", name(slot), count, getNanos(slot)/1e6,
+						pixels, getClipped(slot), pixels > 0 ? String.format("%.2f", (double)getNanos(slot)/pixels) : "-",
+						getPercentile(slot, 0.5), getPercentile(slot, 0.99)));
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,1050 @@
+package cs315.yourname.hwk2;
+
+import java.math.BigInteger;
+
+/**
+ * The scan conversion logic for the mini-painter, pulled out of MiniPaintView so it can run against any
+ * PixelSurface (including on a plain JVM, with no Android classes).
+ *
+ * All the primitives clip against the bounds of the surface, so they can be called with any coordinates.
+ * They can also be clipped to a smaller box (see setClip()), so several rasterizers can draw different
+ * parts of the same surface at once.
+ *
+ * If the surface is an UndoHistory, checkpoint(), undo() and redo() work through it; otherwise they do nothing.
+ *
+ * The primitives can be timed and counted into RasterMetrics (see setMetrics()).
+ *
+ * @author Joel and Kyle Dybdal, adapted from code by Dave Akers
+ * @version Fall 2013
+ */
+public class Rasterizer implements HistorySink
+{
+	private static final int PARALLEL_FILL_MIN_PIXELS = 1 << 21; //smaller canvases fill faster on one thread
+	private static final long MAX_ELLIPSE_RADIUS = 1 << 15; //larger radii would overflow the midpoint ellipse walk
+
+	private PixelSurface _surface; //where we draw
+	private UndoHistory _history; //the surface, if it keeps a history
+	private int _width; //cached size of the surface
+	private int _height;
+	private int _clipLeft; //box the primitives are clipped to (inclusive); the whole surface unless setClip() is used
+	private int _clipTop;
+	private int _clipRight;
+	private int _clipBottom;
+
+	private int _color; //current painting color
+
+	private FloodFill _fill; //reused between fills, so it can keep its buffers
+	private ParallelFloodFill _parallelFill; //used for very large surfaces, if set
+	private AirBrush _airBrush; //caches its kernel between sprays
+	private PolygonFill _polygon; //reused between polygons, so it can keep its edge tables
+
+	private DirtyRegion _dirty; //what's changed since the surface was last presented
+
+	private RasterMetrics _metrics; //null if not recording
+	private RasterMetrics.Recorder _recorder; //ours, in _metrics
+	private long _written; //pixels written so far (for metrics)
+	private long _startWritten; //_written when the primitive being timed started
+
+	/**
+	 * Creates a new rasterizer drawing into the given surface
+	 * @param surface the surface to draw on
+	 */
+	public Rasterizer(PixelSurface surface)
+	{
+		_dirty = new DirtyRegion();
+		setSurface(surface);
+		_color = 0xFFFFFFFF; //white
+		_fill = new FloodFill();
+		_airBrush = new AirBrush();
+		_polygon = new PolygonFill();
+	}
+
+	/**
+	 * Changes the surface we're drawing on (e.g., when the view is resized)
+	 */
+	public void setSurface(PixelSurface surface)
+	{
+		_surface = surface;
+		_history = surface instanceof UndoHistory ? (UndoHistory)surface : null;
+		_width = surface.getWidth();
+		_height = surface.getHeight();
+		resetClip();
+		_dirty.add(0, 0, _width-1, _height-1); //all of it needs to be shown
+	}
+
+	public PixelSurface getSurface()
+	{
+		return _surface;
+	}
+
+	/**
+	 * Limits drawing to a box (inclusive) within the surface. Flood fills are the exception: they only need
+	 * their starting point to be inside the box, since the region they fill isn't known in advance.
+	 */
+	public void setClip(int left, int top, int right, int bottom)
+	{
+		_clipLeft = Math.max(left, 0);
+		_clipTop = Math.max(top, 0);
+		_clipRight = Math.min(right, _width-1);
+		_clipBottom = Math.min(bottom, _height-1);
+	}
+
+	/**
+	 * Lets the primitives draw anywhere on the surface again
+	 */
+	public void resetClip()
+	{
+		_clipLeft = 0;
+		_clipTop = 0;
+		_clipRight = _width-1;
+		_clipBottom = _height-1;
+	}
+
+	/**
+	 * @return the region of the surface the primitives have changed, for presenting
+	 */
+	public DirtyRegion getDirtyRegion()
+	{
+		return _dirty;
+	}
+
+	/**
+	 * Sets the painting color (ARGB)
+	 */
+	public void setColor(int color)
+	{
+		_color = color;
+	}
+
+	public int getColor()
+	{
+		return _color;
+	}
+
+	/**
+	 * Resets all pixels (within the clip) to the given color
+	 */
+	public void clear(int color)
+	{
+		long start = begin();
+		if(_clipLeft == 0 && _clipTop == 0 && _clipRight == _width-1 && _clipBottom == _height-1)
+			_surface.fill(color);
+		else
+			for(int y = _clipTop; y <= _clipBottom; y++)
+				_surface.fillSpan(y, _clipLeft, _clipRight, color);
+		if(RasterMetrics.ENABLED)
+			_written += (long)(_clipRight - _clipLeft + 1)*(_clipBottom - _clipTop + 1);
+		markDirty(0, 0, _width-1, _height-1);
+		end(PaintCommand.CLEAR, start, 0, 0, _width-1, _height-1);
+	}
+
+	/**
+	 * Ends the current undo step
+	 */
+	public void checkpoint()
+	{
+		if(_history != null)
+			_history.checkpoint();
+	}
+
+	/**
+	 * Undoes the last step of drawing, if the surface keeps a history
+	 */
+	public void undo()
+	{
+		int[] bounds = new int[4];
+		if(_history != null && _history.undo(bounds))
+			_dirty.add(bounds[0], bounds[1], bounds[2], bounds[3]);
+	}
+
+	/**
+	 * Forgets the steps that have been undone, if the surface keeps a history
+	 */
+	public void dropRedo()
+	{
+		if(_history != null)
+			_history.dropRedo();
+	}
+
+	/**
+	 * Redoes the last step that was undone, if the surface keeps a history
+	 */
+	public void redo()
+	{
+		int[] bounds = new int[4];
+		if(_history != null && _history.redo(bounds))
+			_dirty.add(bounds[0], bounds[1], bounds[2], bounds[3]);
+	}
+
+	/**
+	 * Draws a single point in the current paint color
+	 * @param x x-coord of the point
+	 * @param y y-coord of the point
+	 */
+	public void drawPoint(int x, int y)
+	{
+		long start = begin();
+		plot(x, y, _color);
+		markDirty(x, y, x, y);
+		end(PaintCommand.POINT, start, 1);
+	}
+
+	/**
+	 * Draws a line in the current paint color
+	 * code derived from the example at http://tech-algorithm.com/articles/drawing-line-using-bresenham-algorithm/
+	 *
+	 * Rather than stepping along the whole line and checking each pixel, the line is clipped first: the
+	 * Bresenham walk takes floor((longest/2 + i*shortest) / longest) minor steps in its first i steps, so the
+	 * range of steps that land inside the clip box can be worked out directly, and only those are walked.
+	 * @param startX x-coord of starting point
+	 * @param startY y-coord of starting point
+	 * @param endX x-coord of ending point
+	 * @param endY y-coord of ending point
+	 */
+	public void drawLine(int startX, int startY, int endX, int endY)
+	{
+		long start = begin();
+		line(startX, startY, endX, endY);
+		end(PaintCommand.LINE, start, Math.max(Math.abs((long)endX - startX), Math.abs((long)endY - startY)) + 1);
+	}
+
+	private void line(int startX, int startY, int endX, int endY)
+	{
+		markDirty(Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+
+		//horizontal line
+		if(startY == endY) {
+			if(startY >= _clipTop && startY <= _clipBottom)
+				span(startY, Math.max(Math.min(startX, endX), _clipLeft), Math.min(Math.max(startX, endX), _clipRight));
+			return;
+		}
+		//vertical line
+		if(startX == endX) {
+			if(startX >= _clipLeft && startX <= _clipRight)
+				for(int y = Math.max(Math.min(startY, endY), _clipTop), last = Math.min(Math.max(startY, endY), _clipBottom); y <= last; y++)
+					put(startX, y);
+			return;
+		}
+
+		// neither horizontal nor vertical: longs, so lines between far-apart points don't overflow
+		long dx = (long)endX - startX;
+		long dy = (long)endY - startY;
+		boolean steep = Math.abs(dx) <= Math.abs(dy); //the longest direction is the one we always step in
+		long longest = steep ? Math.abs(dy) : Math.abs(dx);
+		long shortest = steep ? Math.abs(dx) : Math.abs(dy);
+		int majorStep = (steep ? dy : dx) < 0 ? -1 : 1;
+		int minorStep = (steep ? dx : dy) < 0 ? -1 : 1;
+		long major = steep ? startY : startX;
+		long minor = steep ? startX : startY;
+		long numerator = longest >> 1; //longest divided by 2
+
+		//steps i (0 to longest) whose major coordinate is inside the clip
+		long firstStep = Math.max(0, majorStep > 0 ? (steep ? _clipTop : _clipLeft) - major : major - (steep ? _clipBottom : _clipRight));
+		long lastStep = Math.min(longest, majorStep > 0 ? (steep ? _clipBottom : _clipRight) - major : major - (steep ? _clipTop : _clipLeft));
+		//minor steps taken (0 to shortest) whose minor coordinate is inside the clip
+		long firstMinor = Math.max(0, minorStep > 0 ? (steep ? _clipLeft : _clipTop) - minor : minor - (steep ? _clipRight : _clipBottom));
+		long lastMinor = Math.min(shortest, minorStep > 0 ? (steep ? _clipRight : _clipBottom) - minor : minor - (steep ? _clipLeft : _clipTop));
+		if(firstStep > lastStep || firstMinor > lastMinor)
+			return;
+		//steps that have taken between firstMinor and lastMinor minor steps
+		firstStep = Math.max(firstStep, -mulAddDiv(-firstMinor, longest, numerator, shortest)); //ceiling
+		lastStep = Math.min(lastStep, mulAddDiv(lastMinor+1, longest, -numerator-1, shortest));
+		if(firstStep > lastStep)
+			return;
+
+		//jump to the first visible step, and do standard bresenham from there
+		long minorTaken = mulAddDiv(firstStep, shortest, numerator, longest);
+		numerator = numerator + firstStep*shortest - minorTaken*longest; //exact, even if the products overflowed
+		int ma = (int)(major + majorStep*firstStep);
+		int mi = (int)(minor + minorStep*minorTaken);
+		for(long i = firstStep; i <= lastStep; i++) {
+			if(steep)
+				put(mi, ma);
+			else
+				put(ma, mi);
+			numerator += shortest;
+			if(numerator >= longest) {
+				numerator -= longest;
+				mi += minorStep;
+			}
+			ma += majorStep;
+		}
+	}
+
+	/**
+	 * Draws a circle in the current paint color
+	 * code derived from example (which doesn't actually work) at:
+	 * https://en.wikipedia.org/wiki/Midpoint_circle_algorithm/
+	 *
+	 * The midpoint walk goes from (0, r) to the 45 degree point, drawing each point (x1, y1) in all eight
+	 * octants. Before the last step, y1 is the largest y with x1^2 + y^2 - y <= r^2, so for each octant the
+	 * range of x1 that lands inside the clip box can be worked out directly, and only those are walked.
+	 * Each pixel is drawn once, including where the octants meet.
+	 * @param x x-coord of circle center
+	 * @param y y-coord of circle center
+	 * @param radius radius of the circle
+	 */
+	public void drawCircle(int x, int y, int radius)
+	{
+		long start = begin();
+		circle(x, y, radius);
+		long r = Math.abs((long)radius);
+		end(PaintCommand.CIRCLE, start, x - r, y - r, x + r, y + r);
+	}
+
+	private void circle(int x, int y, int radius)
+	{
+		int r = Math.abs(radius);
+		markDirty((long)x - r, (long)y - r, (long)x + r, (long)y + r);
+		if((long)x + r < _clipLeft || (long)x - r > _clipRight || (long)y + r < _clipTop || (long)y - r > _clipBottom)
+			return; //entirely clipped
+
+		if(radius == 0) {
+			putClipped(x, y); //all 4 starting points are the center
+			return;
+		}
+		//draw 4 starting points
+		putClipped((long)x, (long)y + radius);
+		putClipped((long)x, (long)y - radius);
+		putClipped((long)x + radius, (long)y);
+		putClipped((long)x - radius, (long)y);
+		if(radius <= 0)
+			return;
+
+		long r2 = (long)radius*radius;
+		long last = circleSteps(r2); //the walk draws x1 = 1 to last
+
+		//all steps but the last, one octant at a time
+		for(int octant = 0; octant < 8; octant++)
+			circleOctant(x, y, radius, r2, last-1, octant);
+
+		//the last step, which can cross the 45 degree line (so doesn't follow the formula)
+		long y1 = lastCircleY(radius, r2, last);
+		int octants = 8;
+		if(y1 == last)
+			octants = 4; //on the 45 degree line, where each pair of octants meets
+		else if(y1 < last && circleY(y1, radius, r2) == last)
+			octants = 0; //crossed over onto a point already drawn (mirrored) at step y1
+		for(int octant = 0; octant < octants; octant++)
+			putClipped(x + octantX(octant, last, y1), y + octantY(octant, last, y1));
+	}
+
+	/**
+	 * Draws a filled circle in the current paint color: exactly the pixels of drawCircle() and everything
+	 * inside them. Each row of the circle is worked out directly from the midpoint walk and filled as a
+	 * single span, so only the rows inside the clip are touched and no pixel is drawn twice.
+	 * @param x x-coord of circle center
+	 * @param y y-coord of circle center
+	 * @param radius radius of the circle
+	 */
+	public void fillCircle(int x, int y, int radius)
+	{
+		long start = begin();
+		filledCircle(x, y, radius);
+		long r = Math.abs((long)radius);
+		end(PaintCommand.FILLED_CIRCLE, start, x - r, y - r, x + r, y + r);
+	}
+
+	private void filledCircle(int x, int y, int radius)
+	{
+		int r = Math.abs(radius);
+		markDirty((long)x - r, (long)y - r, (long)x + r, (long)y + r);
+		if((long)x + r < _clipLeft || (long)x - r > _clipRight || (long)y + r < _clipTop || (long)y - r > _clipBottom)
+			return; //entirely clipped
+
+		long r2 = (long)r*r;
+		long last = r > 0 ? circleSteps(r2) : 0;
+		long lastY = r > 0 ? lastCircleY(r, r2, last) : 0;
+		long top = Math.max((long)y - r, _clipTop);
+		long bottom = Math.min((long)y + r, _clipBottom);
+		for(long row = top; row <= bottom; row++)
+		{
+			long dy = Math.abs(row - y);
+			long half; //how far the row reaches either side of the center
+			if(dy == 0)
+				half = r;
+			else if(dy < last)
+				half = circleY(dy, r, r2); //the walk's point (y1, x1) at step x1 = dy
+			else if(dy == last)
+				half = lastY;
+			else //the last step x1 that's still on this row
+				half = Math.min(isqrt(r2 - dy*dy + dy), last - 1);
+			spanClipped(row, x - half, x + half);
+		}
+	}
+
+	/**
+	 * Draws the steps x1 = 1 to lastStep of a circle in one octant, walking only the ones inside the clip
+	 */
+	private void circleOctant(int x, int y, int radius, long r2, long lastStep, int octant)
+	{
+		boolean swapped = (octant & 4) != 0; //whether x1 goes along y (and y1 along x)
+		int signX = (octant & 1) != 0 ? -1 : 1;
+		int signY = (octant & 2) != 0 ? -1 : 1;
+
+		//range of offsets from the center that are inside the clip, along x and y
+		long loX = signX > 0 ? (long)_clipLeft - x : (long)x - _clipRight;
+		long hiX = signX > 0 ? (long)_clipRight - x : (long)x - _clipLeft;
+		long loY = signY > 0 ? (long)_clipTop - y : (long)y - _clipBottom;
+		long hiY = signY > 0 ? (long)_clipBottom - y : (long)y - _clipTop;
+
+		long first = Math.max(1, swapped ? loY : loX); //x1 range from its own axis
+		long last = Math.min(lastStep, swapped ? hiY : hiX);
+		long loY1 = Math.max(1, swapped ? loX : loY); //y1 range from the other axis
+		long hiY1 = Math.min(radius, swapped ? hiX : hiY);
+		if(first > last || loY1 > hiY1)
+			return;
+		//y1 >= loY1 until x1^2 passes r^2 - loY1^2 + loY1, and y1 <= hiY1 once x1^2 passes r^2 - hiY1^2 - hiY1
+		last = Math.min(last, isqrt(r2 - loY1*loY1 + loY1));
+		long below = r2 - hiY1*hiY1 - hiY1;
+		if(below >= 0)
+			first = Math.max(first, isqrt(below) + 1);
+		if(first > last)
+			return;
+
+		//midpoint walk from the step before first
+		long x1 = first - 1;
+		long y1 = circleY(x1, radius, r2);
+		long error = (x1+1)*(x1+1) + y1*y1 - y1 - r2;
+		while(x1 < last)
+		{
+			if(error > 0)
+			{
+				y1--;
+				error -= 2*y1;
+			}
+			x1++;
+			error += 2*x1 + 1;
+			put((int)(x + octantX(octant, x1, y1)), (int)(y + octantY(octant, x1, y1)));
+		}
+	}
+
+	/**
+	 * @return the x offset of point (x1, y1) of the first octant, reflected into the given octant
+	 */
+	private static long octantX(int octant, long x1, long y1)
+	{
+		long offset = (octant & 4) != 0 ? y1 : x1;
+		return (octant & 1) != 0 ? -offset : offset;
+	}
+
+	/**
+	 * @return the y offset of point (x1, y1) of the first octant, reflected into the given octant
+	 */
+	private static long octantY(int octant, long x1, long y1)
+	{
+		long offset = (octant & 4) != 0 ? x1 : y1;
+		return (octant & 2) != 0 ? -offset : offset;
+	}
+
+	/**
+	 * @return how many steps the midpoint walk takes for a circle of radius^2 r2: it stops at the first x1
+	 *  with x1 >= y1, which is the first with 2*x1^2 + x1 > r^2
+	 */
+	private static long circleSteps(long r2)
+	{
+		long steps = isqrt(r2/2);
+		while(2*steps*steps + steps > r2)
+			steps--;
+		while(2*steps*steps + steps <= r2)
+			steps++;
+		return Math.max(steps, 1);
+	}
+
+	/**
+	 * @return y1 at the last step of the midpoint walk
+	 */
+	private static long lastCircleY(int radius, long r2, long last)
+	{
+		long y1 = circleY(last-1, radius, r2);
+		if(last*last + y1*y1 - y1 - r2 > 0)
+			y1--;
+		return y1;
+	}
+
+	/**
+	 * @return y1 at step x1 of the midpoint walk (for any step but the last): the largest y with
+	 *  x1^2 + y^2 - y <= r^2
+	 */
+	private static long circleY(long x1, int radius, long r2)
+	{
+		if(x1 == 0)
+			return radius;
+		long y = isqrt(r2 - x1*x1) + 1; //y^2 - y <= r^2 - x1^2 makes y about sqrt(r^2 - x1^2) + 1/2
+		while(y*y - y > r2 - x1*x1)
+			y--;
+		while((y+1)*(y+1) - (y+1) <= r2 - x1*x1)
+			y++;
+		return y;
+	}
+
+	/**
+	 * @return floor(sqrt(n)), or -1 if n is negative
+	 */
+	private static long isqrt(long n)
+	{
+		if(n < 0)
+			return -1;
+		long s = (long)Math.sqrt((double)n);
+		while(s*s > n)
+			s--;
+		while((s+1)*(s+1) <= n)
+			s++;
+		return s;
+	}
+
+	/**
+	 * @return floor((a*b + c) / d) for d > 0, exactly (a*b only overflows a long for lines whose ends are
+	 *  billions of pixels apart in both directions, which fall back to BigInteger)
+	 */
+	private static long mulAddDiv(long a, long b, long c, long d)
+	{
+		if(Math.abs(a) <= Integer.MAX_VALUE && Math.abs(b) <= Integer.MAX_VALUE) {
+			long n = a*b + c;
+			long q = n / d;
+			return (n % d != 0 && n < 0) ? q - 1 : q;
+		}
+		BigInteger n = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).add(BigInteger.valueOf(c));
+		BigInteger[] qr = n.divideAndRemainder(BigInteger.valueOf(d));
+		return qr[1].signum() < 0 ? qr[0].longValue() - 1 : qr[0].longValue();
+	}
+
+	/**
+	 * Draws the outline of an axis-aligned ellipse in the current paint color, using the midpoint ellipse
+	 * algorithm: the walk goes from the top of the ellipse (0, ry) to the side (rx, 0), stepping along x
+	 * while the curve is shallow and then along y, and each point is drawn in all four quadrants (once
+	 * each, so the points on the axes aren't doubled up).
+	 * Radii over 32768 pixels are clamped, which keeps the walk's arithmetic within a long.
+	 * @param x x-coord of the center
+	 * @param y y-coord of the center
+	 * @param radiusX horizontal radius
+	 * @param radiusY vertical radius
+	 */
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		long start = begin();
+		ellipse(x, y, radiusX, radiusY, false);
+		endEllipse(PaintCommand.ELLIPSE, start, x, y, radiusX, radiusY);
+	}
+
+	/**
+	 * Draws a filled axis-aligned ellipse in the current paint color: the pixels of drawEllipse() and
+	 * everything inside them, one span per row (so no pixel is drawn twice)
+	 * @param x x-coord of the center
+	 * @param y y-coord of the center
+	 * @param radiusX horizontal radius
+	 * @param radiusY vertical radius
+	 */
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		long start = begin();
+		ellipse(x, y, radiusX, radiusY, true);
+		endEllipse(PaintCommand.FILLED_ELLIPSE, start, x, y, radiusX, radiusY);
+	}
+
+	private void endEllipse(int op, long start, int x, int y, int radiusX, int radiusY)
+	{
+		long rx = Math.min(Math.abs((long)radiusX), MAX_ELLIPSE_RADIUS);
+		long ry = Math.min(Math.abs((long)radiusY), MAX_ELLIPSE_RADIUS);
+		end(op, start, x - rx, y - ry, x + rx, y + ry);
+	}
+
+	private void ellipse(int x, int y, int radiusX, int radiusY, boolean filled)
+	{
+		long rx = Math.min(Math.abs((long)radiusX), MAX_ELLIPSE_RADIUS);
+		long ry = Math.min(Math.abs((long)radiusY), MAX_ELLIPSE_RADIUS);
+		markDirty(x - rx, y - ry, x + rx, y + ry);
+		if(x + rx < _clipLeft || x - rx > _clipRight || y + ry < _clipTop || y - ry > _clipBottom)
+			return; //entirely clipped
+		if(ry == 0) { //flat: just the one row
+			spanClipped(y, x - rx, x + rx);
+			return;
+		}
+
+		long rx2 = rx*rx;
+		long ry2 = ry*ry;
+		long ex = 0; //current point, relative to the center
+		long ey = ry;
+		long dx = 0; //2*ry^2*ex and 2*rx^2*ey, the slopes
+		long dy = 2*rx2*ey;
+		if(!filled)
+			ellipsePoints(x, y, ex, ey);
+
+		//region 1, stepping along x until the slope passes -1; the decision variable is 4x the usual one, to keep it whole
+		long p = 4*ry2 - 4*rx2*ry + rx2;
+		while(dx < dy)
+		{
+			if(filled && p >= 0) //about to step down, so this row is done
+				ellipseRow(x, y, ex, ey);
+			ex++;
+			dx += 2*ry2;
+			if(p < 0)
+				p += 4*(ry2 + dx);
+			else {
+				ey--;
+				dy -= 2*rx2;
+				p += 4*(ry2 + dx - dy);
+			}
+			if(!filled)
+				ellipsePoints(x, y, ex, ey);
+		}
+		if(filled && ey > 0) //region 2 steps down right away
+			ellipseRow(x, y, ex, ey);
+
+		//region 2, stepping along y (in this order, the terms stay within a long)
+		p = ry2*(2*ex + 1)*(2*ex + 1) - 4*rx2*ry2 + 4*rx2*(ey - 1)*(ey - 1);
+		while(ey > 0)
+		{
+			ey--;
+			dy -= 2*rx2;
+			if(p > 0)
+				p += 4*(rx2 - dy);
+			else {
+				ex++;
+				dx += 2*ry2;
+				p += 4*(rx2 - dy + dx);
+			}
+			if(!filled)
+				ellipsePoints(x, y, ex, ey);
+			else if(ey > 0)
+				ellipseRow(x, y, ex, ey);
+		}
+
+		//a thin ellipse can reach the middle row short of rx (even in region 1), so finish it out to (rx, 0)
+		if(filled)
+			ellipseRow(x, y, rx, 0);
+		else
+			while(ex < rx)
+			{
+				ex++;
+				ellipsePoints(x, y, ex, 0);
+			}
+	}
+
+	/**
+	 * Draws a point of the ellipse walk in each quadrant (once, if it's on an axis)
+	 */
+	private void ellipsePoints(long x, long y, long ex, long ey)
+	{
+		putClipped(x + ex, y + ey);
+		if(ex > 0)
+			putClipped(x - ex, y + ey);
+		if(ey > 0) {
+			putClipped(x + ex, y - ey);
+			if(ex > 0)
+				putClipped(x - ex, y - ey);
+		}
+	}
+
+	/**
+	 * Fills the rows ey above and below the center of a filled ellipse, reaching ex either side
+	 */
+	private void ellipseRow(long x, long y, long ex, long ey)
+	{
+		spanClipped(y + ey, x - ex, x + ex);
+		if(ey > 0)
+			spanClipped(y - ey, x - ex, x + ex);
+	}
+
+	/**
+	 * Draws a filled rectangle in the current paint color
+	 * @param startX x-coord of first corner (i.e., upper left)
+	 * @param startY y-coord of first corner
+	 * @param endX x-coord of second corner (i.e., lower right)
+	 * @param endY y-coord of second corner
+	 */
+	public void drawRectangle(int startX, int startY, int endX, int endY)
+	{
+		long start = begin();
+		//corners can come in any order
+		fillRect(Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+		end(PaintCommand.RECTANGLE, start, Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+	}
+
+	/**
+	 * Draws the outline of a rectangle (1 pixel wide) in the current paint color
+	 * @param startX x-coord of first corner (i.e., upper left)
+	 * @param startY y-coord of first corner
+	 * @param endX x-coord of second corner (i.e., lower right)
+	 * @param endY y-coord of second corner
+	 */
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		long start = begin();
+		int left = Math.min(startX, endX);
+		int right = Math.max(startX, endX);
+		int top = Math.min(startY, endY);
+		int bottom = Math.max(startY, endY);
+
+		fillRect(left, top, right, top); //top edge
+		if(bottom > top)
+			fillRect(left, bottom, right, bottom); //bottom edge
+		if(bottom - top > 1) { //sides, not including the corners we've already drawn
+			fillRect(left, top+1, left, bottom-1);
+			if(right > left)
+				fillRect(right, top+1, right, bottom-1);
+		}
+		long width = (long)right - left + 1, height = (long)bottom - top + 1;
+		end(PaintCommand.RECTANGLE_OUTLINE, start, width > 2 && height > 2 ? 2*(width + height) - 4 : width*height);
+	}
+
+	/**
+	 * Fills the given (inclusive, already sorted) box in the current paint color. The box is clipped
+	 * once, and then each row is filled as a single span.
+	 */
+	private void fillRect(int left, int top, int right, int bottom)
+	{
+		if(left < _clipLeft) left = _clipLeft;
+		if(top < _clipTop) top = _clipTop;
+		if(right > _clipRight) right = _clipRight;
+		if(bottom > _clipBottom) bottom = _clipBottom;
+		if(left > right || top > bottom) //entirely off the surface
+			return;
+
+		for(int y = top; y <= bottom; y++)
+			_surface.fillSpan(y, left, right, _color);
+		if(RasterMetrics.ENABLED)
+			_written += (long)(right - left + 1)*(bottom - top + 1);
+		_dirty.add(left, top, right, bottom);
+	}
+
+	/**
+	 * Flood-fills the region around the given point (everything connected to it that matches its color)
+	 * in the current paint color
+	 * @param x x-coord to start filling from
+	 * @param y y-coord to start filling from
+	 */
+	public void floodFill(int x, int y)
+	{
+		if(x < _clipLeft || x > _clipRight || y < _clipTop || y > _clipBottom)
+			return;
+		long start = begin();
+		int[] bounds;
+		int filled;
+		if(_parallelFill != null && (long)_width*_height >= PARALLEL_FILL_MIN_PIXELS) {
+			filled = _parallelFill.fill(_surface, x, y, _color);
+			bounds = _parallelFill.getLastBounds();
+		}
+		else {
+			filled = _fill.fill(_surface, x, y, _color);
+			bounds = _fill.getLastBounds();
+		}
+		if(RasterMetrics.ENABLED)
+			_written += filled;
+		_dirty.add(bounds[0], bounds[1], bounds[2], bounds[3]);
+		end(PaintCommand.FLOOD_FILL, start, filled);
+	}
+
+	/**
+	 * Sets how floodFill() decides which pixels belong to the region
+	 * @param connectivity FloodFill.CONNECT_4 or FloodFill.CONNECT_8
+	 * @param tolerance largest per-channel difference from the seed color that still gets filled (0 for exact)
+	 */
+	public void setFillOptions(int connectivity, int tolerance)
+	{
+		_fill.setConnectivity(connectivity);
+		_fill.setTolerance(tolerance);
+		if(_parallelFill != null) {
+			_parallelFill.setConnectivity(connectivity);
+			_parallelFill.setTolerance(tolerance);
+		}
+	}
+
+	public int getFillConnectivity()
+	{
+		return _fill.getConnectivity();
+	}
+
+	public int getFillTolerance()
+	{
+		return _fill.getTolerance();
+	}
+
+	/**
+	 * Turns on the parallel fill mode: floodFill() on surfaces of a few megapixels or more will be split
+	 * across the given fill's thread pool. Takes on the current fill options.
+	 * @param fill the parallel fill to use, or null to always fill on the calling thread
+	 */
+	public void setParallelFill(ParallelFloodFill fill)
+	{
+		_parallelFill = fill;
+		if(fill != null) {
+			fill.setConnectivity(_fill.getConnectivity());
+			fill.setTolerance(_fill.getTolerance());
+		}
+	}
+
+	/**
+	 * Fills a polygon in the current paint color, a scanline at a time (see PolygonFill)
+	 * @param coords the points of the polygon, as x0, y0, x1, y1, ...; the last point joins back up to the first
+	 * @param offset where the points start in coords
+	 * @param points how many points there are
+	 * @param rule PolygonFill.EVEN_ODD or PolygonFill.NON_ZERO
+	 */
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		long start = begin();
+		int filled = _polygon.fill(_surface, coords, offset, points, rule, _color, _clipLeft, _clipTop, _clipRight, _clipBottom);
+		if(RasterMetrics.ENABLED)
+			_written += filled;
+		int[] bounds = _polygon.getLastBounds();
+		_dirty.add(bounds[0], bounds[1], bounds[2], bounds[3]);
+		if(RasterMetrics.ENABLED && _recorder != null && points > 0) { //clipped: the part of the polygon's bounding box outside the clip
+			long left = Long.MAX_VALUE, top = Long.MAX_VALUE, right = Long.MIN_VALUE, bottom = Long.MIN_VALUE;
+			for(int i = offset; i < offset + 2*points; i += 2)
+			{
+				left = Math.min(left, coords[i]);
+				right = Math.max(right, coords[i]);
+				top = Math.min(top, coords[i+1]);
+				bottom = Math.max(bottom, coords[i+1]);
+			}
+			end(PaintCommand.POLYGON, start, left, top, right, bottom);
+		}
+	}
+
+	/**
+	 * Draws an airbrushed blob in the current paint color (blending with existing colors)
+	 * @param x x-coord to center the airbrush
+	 * @param y y-coord to center the airbrush
+	 */
+	public void airBrush(int x, int y)
+	{
+		int r = _airBrush.getRadius();
+		long start = begin();
+		if(x + r >= _clipLeft && x - r <= _clipRight && y + r >= _clipTop && y - r <= _clipBottom) { //(otherwise entirely clipped)
+			int painted = _airBrush.spray(_surface, x, y, _color, _clipLeft, _clipTop, _clipRight, _clipBottom);
+			if(RasterMetrics.ENABLED)
+				_written += painted;
+			markDirty((long)x - r, (long)y - r, (long)x + r, (long)y + r);
+		}
+		end(PaintCommand.AIRBRUSH, start, (long)x - r, (long)y - r, (long)x + r, (long)y + r);
+	}
+
+	/**
+	 * Stamps a brush at each of a series of points (e.g., along a stroke), as one call with the dirty
+	 * region worked out once for all of them
+	 * @param coords the points, as x0, y0, x1, y1, ...
+	 * @param offset where the points start in coords
+	 * @param points how many points there are
+	 * @param brush PaintCommand.POINT for single pixels or PaintCommand.AIRBRUSH for the airbrush
+	 */
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		if(brush != PaintCommand.POINT && brush != PaintCommand.AIRBRUSH)
+			throw new IllegalArgumentException("Not a brush: "+brush);
+		int r = brush == PaintCommand.AIRBRUSH ? _airBrush.getRadius() : 0;
+		long start = begin();
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		for(int i = offset; i < offset + 2*points; i += 2)
+		{
+			int x = coords[i];
+			int y = coords[i+1];
+			if((long)x + r < _clipLeft || (long)x - r > _clipRight || (long)y + r < _clipTop || (long)y - r > _clipBottom)
+				continue; //entirely clipped
+			if(brush == PaintCommand.POINT)
+				put(x, y);
+			else {
+				int painted = _airBrush.spray(_surface, x, y, _color, _clipLeft, _clipTop, _clipRight, _clipBottom);
+				if(RasterMetrics.ENABLED)
+					_written += painted;
+			}
+			left = Math.min(left, x - r);
+			top = Math.min(top, y - r);
+			right = Math.max(right, x + r);
+			bottom = Math.max(bottom, y + r);
+		}
+		if(left <= right)
+			markDirty(left, top, right, bottom);
+		end(PaintCommand.STAMP, start, brush == PaintCommand.POINT ? points : 0); //(airbrush stamps don't count clipped pixels)
+	}
+
+	/**
+	 * Sets the size and strength of the airbrush
+	 * @param radius radius of the brush in pixels
+	 * @param strength how much paint covers the existing color at the center, from 0 to AirBrush.MAX_STRENGTH
+	 */
+	public void setAirBrush(int radius, int strength)
+	{
+		_airBrush.setRadius(radius);
+		_airBrush.setStrength(strength);
+	}
+
+	public int getAirBrushRadius()
+	{
+		return _airBrush.getRadius();
+	}
+
+	public int getAirBrushStrength()
+	{
+		return _airBrush.getStrength();
+	}
+
+	/**
+	 * @return whether the given pixel is on the surface
+	 */
+	public boolean inBounds(int x, int y)
+	{
+		return x >= 0 && x < _width && y >= 0 && y < _height;
+	}
+
+	/**
+	 * Sets a single pixel to a given color (and marks it dirty).
+	 * Performs clipping
+	 * @param x x-coord of pixel
+	 * @param y y-coord of pixel
+	 * @param color color to apply to pixel
+	 */
+	public void setPixel(int x, int y, int color)
+	{
+		plot(x, y, color);
+		markDirty(x, y, x, y);
+	}
+
+	/**
+	 * Sets a single pixel to the current paint color (and marks it dirty).
+	 * @param x x-coord of pixel
+	 * @param y y-coord of pixel
+	 */
+	public void setPixel(int x, int y)
+	{
+		setPixel(x,y,_color);
+	}
+
+	/**
+	 * Helper method the primitives use to draw a single pixel; they mark the whole shape dirty themselves.
+	 * Performs clipping (to watch drawing pixel by pixel, draw on a TracingSurface)
+	 */
+	private void plot(int x, int y, int color)
+	{
+		if(x >= _clipLeft && x <= _clipRight && y >= _clipTop && y <= _clipBottom) { //clipping for generated shapes (so we don't try and draw outside the surface)
+			_surface.setPixel(x, y, color);
+			if(RasterMetrics.ENABLED)
+				_written++;
+		}
+	}
+
+	/**
+	 * Helper method the primitives use to draw a pixel in the current color once they've clipped it
+	 * themselves, so there's no bounds check
+	 */
+	private void put(int x, int y)
+	{
+		_surface.setPixel(x, y, _color);
+		if(RasterMetrics.ENABLED)
+			_written++;
+	}
+
+	/**
+	 * Draws a single pixel in the current color if it's inside the clip (for the odd pixel that isn't
+	 * worth clipping analytically)
+	 */
+	private void putClipped(long x, long y)
+	{
+		if(x >= _clipLeft && x <= _clipRight && y >= _clipTop && y <= _clipBottom)
+			put((int)x, (int)y);
+	}
+
+	/**
+	 * Draws a horizontal run of pixels in the current color, clipping it first
+	 */
+	private void spanClipped(long y, long left, long right)
+	{
+		if(y < _clipTop || y > _clipBottom)
+			return;
+		span((int)y, (int)Math.max(left, _clipLeft), (int)Math.min(right, _clipRight));
+	}
+
+	/**
+	 * Draws a clipped horizontal run of pixels in the current color
+	 */
+	private void span(int y, int left, int right)
+	{
+		if(left <= right) {
+			_surface.fillSpan(y, left, right, _color);
+			if(RasterMetrics.ENABLED)
+				_written += right - left + 1;
+		}
+	}
+
+	/******** Metrics ********/
+
+	/**
+	 * Times and counts the primitives into the given metrics (with a recorder of this rasterizer's own)
+	 * @param metrics where to record, or null to stop recording
+	 */
+	public void setMetrics(RasterMetrics metrics)
+	{
+		if(!RasterMetrics.ENABLED || metrics == _metrics)
+			return;
+		_metrics = metrics;
+		_recorder = metrics != null ? metrics.newRecorder() : null;
+	}
+
+	public RasterMetrics getMetrics()
+	{
+		return _metrics;
+	}
+
+	/**
+	 * Starts timing a primitive
+	 * @return the time it started, for end()
+	 */
+	private long begin()
+	{
+		if(!RasterMetrics.ENABLED || _recorder == null)
+			return 0;
+		_startWritten = _written;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a primitive that would have written the given number of pixels if none were clipped
+	 */
+	private void end(int op, long start, long unclipped)
+	{
+		if(!RasterMetrics.ENABLED || _recorder == null)
+			return;
+		long written = _written - _startWritten;
+		_recorder.record(op, System.nanoTime() - start, written, Math.max(unclipped - written, 0));
+	}
+
+	/**
+	 * Records a primitive with the given bounding box (inclusive); the part outside the clip counts as clipped
+	 */
+	private void end(int op, long start, long left, long top, long right, long bottom)
+	{
+		if(!RasterMetrics.ENABLED || _recorder == null)
+			return;
+		long nanos = System.nanoTime() - start;
+		long inside = Math.max(Math.min(right, _clipRight) - Math.max(left, _clipLeft) + 1, 0)
+				* Math.max(Math.min(bottom, _clipBottom) - Math.max(top, _clipTop) + 1, 0);
+		long area = (long)Math.min((right - left + 1.0)*(bottom - top + 1.0), Long.MAX_VALUE); //(huge circles' boxes don't fit a long)
+		_recorder.record(op, nanos, _written - _startWritten, area - inside);
+	}
+
+	/**
+	 * Marks a box (inclusive) as changed, clipped
+	 */
+	private void markDirty(long left, long top, long right, long bottom)
+	{
+		left = Math.max(left, _clipLeft); //(in long, as a center plus a radius can be past the int range)
+		top = Math.max(top, _clipTop);
+		right = Math.min(right, _clipRight);
+		bottom = Math.min(bottom, _clipBottom);
+		if(left <= right && top <= bottom) //(so what's left is on the surface, and fits an int)
+			_dirty.add((int)left, (int)top, (int)right, (int)bottom);
+	}
+
+	/**
+	 * Gets the color of a specific pixel
+	 * @param x x-coord of pixel
+	 * @param y y-coord of pixel
+	 * @return The color of the pixel, or 0 if it is off the surface
+	 */
+	public int getPixel(int x, int y)
+	{
+		if(!inBounds(x, y))
+			return 0;
+		return _surface.getPixel(x, y);
+	}
+}
@@ -0,0 +1,105 @@
+package cs315.yourname.hwk2;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread that drains a CommandQueue into a Rasterizer, so the (possibly slow) scan conversion happens off
+ * the UI thread. Commands are run in batches while holding the rasterizer's lock, which is the same lock the
+ * presenting thread takes to copy the frame, so a frame never shows half of a batch. If given a TiledReplay,
+ * each batch is split across its thread pool. If given a CommandLog, commands go through it first.
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class RasterizerThread extends Thread
+{
+	private static final int BATCH_SIZE = 64; //most commands to run per lock, so presenting can get a turn
+	private static final long IDLE_WAIT = 250000000L; //longest time to sleep between checks with nothing queued, in ns
+
+	private final CommandQueue _queue;
+	private final Rasterizer _raster;
+	private final TiledReplay _replay; //null to run commands directly on _raster
+	private final PaintCommandSink _sink; //where the queue is drained to
+	private Runnable _task; //to run before the next batch, or null (guarded by _raster)
+	private volatile boolean _isRunning;
+
+	/**
+	 * @param queue the commands to run; this thread is the queue's only consumer
+	 * @param raster the rasterizer to run them on
+	 */
+	public RasterizerThread(CommandQueue queue, Rasterizer raster)
+	{
+		this(queue, raster, null);
+	}
+
+	/**
+	 * @param queue the commands to run; this thread is the queue's only consumer
+	 * @param raster the rasterizer to run them on
+	 * @param replay for running each batch in parallel (targeting raster), or null
+	 */
+	public RasterizerThread(CommandQueue queue, Rasterizer raster, TiledReplay replay)
+	{
+		this(queue, raster, replay, null);
+	}
+
+	/**
+	 * @param queue the commands to run; this thread is the queue's only consumer
+	 * @param raster the rasterizer to run them on
+	 * @param replay for running each batch in parallel (targeting raster), or null
+	 * @param log to record the commands in (which should pass them on to replay, or raster), or null
+	 */
+	public RasterizerThread(CommandQueue queue, Rasterizer raster, TiledReplay replay, CommandLog log)
+	{
+		super("Rasterizer");
+		_queue = queue;
+		_raster = raster;
+		_replay = replay;
+		if(log != null)
+			_sink = log;
+		else if(replay != null)
+			_sink = replay;
+		else
+			_sink = raster;
+		_isRunning = false;
+	}
+
+	@Override
+	public void run()
+	{
+		while(_isRunning)
+		{
+			int drained;
+			synchronized (_raster) {
+				if(_task != null) {
+					Runnable task = _task;
+					_task = null;
+					task.run();
+				}
+				drained = _queue.drain(_sink, BATCH_SIZE);
+				if(_replay != null)
+					_replay.flush();
+			}
+			if(drained == 0)
+				_queue.awaitCommands(IDLE_WAIT);
+		}
+	}
+
+	/**
+	 * Has this thread run a task (holding the rasterizer's lock) before it drains any more commands, in place
+	 * of any task still waiting. Must hold the rasterizer's lock.
+	 */
+	public void runFirst(Runnable task)
+	{
+		_task = task;
+		LockSupport.unpark(this); //(leaves a permit if it isn't parked yet, so it can't miss this)
+	}
+
+	/**
+	 * Public toggle for whether the thread is running.
+	 */
+	public void setRunning(boolean isRunning)
+	{
+		_isRunning = isRunning;
+		_queue.wake();
+	}
+}
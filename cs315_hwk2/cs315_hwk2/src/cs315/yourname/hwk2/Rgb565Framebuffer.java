@@ -0,0 +1,123 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+
+/**
+ * A PixelSurface that stores each pixel in 16 bits, as RGB565 (5 bits of red, 6 of green, 5 of blue, no
+ * alpha), for half the memory and bandwidth of an IntFramebuffer. The layout matches Bitmap.Config.RGB_565.
+ *
+ * Colors are converted on the way in (dropping alpha and the low bits of each channel) and expanded back to
+ * opaque ARGB on the way out, so a color may not read back exactly as it was set. Spans and fills convert
+ * their color once and then fill the shorts directly.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class Rgb565Framebuffer implements PixelSurface
+{
+	private final int _width;
+	private final int _height;
+	private final short[] _pixels;
+
+	/**
+	 * Creates a new framebuffer; all pixels start out black
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 */
+	public Rgb565Framebuffer(int width, int height)
+	{
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid framebuffer size: "+width+"x"+height);
+		_width = width;
+		_height = height;
+		_pixels = new short[width*height];
+	}
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		return toArgb(_pixels[y*_width + x]);
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		_pixels[y*_width + x] = toRgb565(color);
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		int row = y*_width;
+		Arrays.fill(_pixels, row+startX, row+endX+1, toRgb565(color));
+	}
+
+	public void fill(int color)
+	{
+		Arrays.fill(_pixels, toRgb565(color));
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		for(int row = 0; row < height; row++)
+		{
+			int from = (y+row)*_width + x;
+			int to = offset + row*stride;
+			for(int i = 0; i < width; i++)
+				dst[to+i] = toArgb(_pixels[from+i]);
+		}
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		for(int row = 0; row < height; row++)
+		{
+			int from = offset + row*stride;
+			int to = (y+row)*_width + x;
+			for(int i = 0; i < width; i++)
+				_pixels[to+i] = toRgb565(src[from+i]);
+		}
+	}
+
+	public int quantize(int color)
+	{
+		return toArgb(toRgb565(color));
+	}
+
+	/**
+	 * Direct access to the backing array (row-major, stride == width), e.g. for copying to an RGB_565
+	 * Bitmap with copyPixelsFromBuffer(); callers should not hold on to it.
+	 * @return the backing pixel array
+	 */
+	public short[] getPixels()
+	{
+		return _pixels;
+	}
+
+	/**
+	 * @return the RGB565 value closest to an ARGB color (alpha is dropped)
+	 */
+	public static short toRgb565(int argb)
+	{
+		return (short)(((argb >> 8) & 0xF800) | ((argb >> 5) & 0x07E0) | ((argb >> 3) & 0x001F));
+	}
+
+	/**
+	 * @return an RGB565 value as opaque ARGB, with each channel's top bits repeated into its low bits (so
+	 *  full intensity stays full: 0x1F becomes 0xFF, not 0xF8)
+	 */
+	public static int toArgb(short rgb565)
+	{
+		int r = (rgb565 >> 11) & 0x1F;
+		int g = (rgb565 >> 5) & 0x3F;
+		int b = rgb565 & 0x1F;
+		return 0xFF000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+	}
+}
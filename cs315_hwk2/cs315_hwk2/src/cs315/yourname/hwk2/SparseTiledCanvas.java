@@ -0,0 +1,387 @@
+package cs315.yourname.hwk2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A PixelSurface for drawings far bigger than the screen (e.g., 32768x32768), that only keeps the parts
+ * actually in use in memory.
+ *
+ * The canvas is split into 64x64 tiles of ARGB ints. A tile that has never been drawn on doesn't exist at
+ * all: it reads as the background color, and only gets its pixels on the first write that changes it. At
+ * most a fixed number of tiles are held in memory; past that, the least recently used tile is evicted to
+ * a scratch file (memory-mapped, a chunk at a time) and read back in when it's next used. A tile that
+ * hasn't changed since it was last written out is just dropped.
+ *
+ * The canvas can also start out as a saved drawing (see setTileSource()): each tile is then read from the
+ * source the first time it's used, rather than all up front.
+ *
+ * Since any access can evict a tile, only one thread may use the canvas at a time (unlike IntFramebuffer,
+ * it can't be drawn on by a TiledReplay's workers).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class SparseTiledCanvas implements PixelSurface
+{
+	public static final int TILE_SIZE = 64;
+	public static final int DEFAULT_MAX_RESIDENT = 1024; //tiles to keep in memory (16MB)
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private static final int TILE_INTS = TILE_SIZE*TILE_SIZE;
+	private static final int CHUNK_TILES = 256; //tiles per mapped chunk of the scratch file (4MB)
+	private static final int NONE = -1;
+
+	private final int _width;
+	private final int _height;
+	private final int _tilesX;
+	private int _background; //color of the tiles that don't exist
+	private final int _maxResident;
+
+	private final int[][] _tiles; //pixels of each tile that's in memory (null if it isn't)
+	private final int[] _slots; //where each tile was last written in the scratch file (NONE if it never was)
+	private final boolean[] _dirty; //whether a tile in memory has changed since it was read in
+	private final int[] _newer; //the tiles in memory, as a list from the most recently used to the least
+	private final int[] _older;
+	private int _newest;
+	private int _oldest;
+	private int _resident; //how many tiles are in memory
+	private int[] _spare; //pixels of the last tile evicted, for reuse
+	private TileSource _source; //where tiles that haven't been drawn on come from (null if they're background)
+
+	private final File _dir; //where to make the scratch file
+	private File _file; //created on the first eviction
+	private RandomAccessFile _scratch;
+	private IntBuffer[] _chunks; //mapped parts of the scratch file
+	private int _nextSlot;
+	private long _evictions;
+
+	/**
+	 * Creates a new canvas; all pixels start out as the background color
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 * @param background the color of the canvas before anything is drawn
+	 * @param maxResident most tiles to keep in memory
+	 * @param dir directory to put the scratch file in (only made once tiles are evicted), or null for the default temporary directory
+	 */
+	public SparseTiledCanvas(int width, int height, int background, int maxResident, File dir)
+	{
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid canvas size: "+width+"x"+height);
+		if(maxResident < 1)
+			throw new IllegalArgumentException("Must keep at least one tile in memory: "+maxResident);
+		_width = width;
+		_height = height;
+		_tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+		int tiles = _tilesX*((height + TILE_MASK) >> TILE_SHIFT);
+		_background = background;
+		_maxResident = maxResident;
+		_tiles = new int[tiles][];
+		_slots = new int[tiles];
+		Arrays.fill(_slots, NONE);
+		_dirty = new boolean[tiles];
+		_newer = new int[tiles];
+		_older = new int[tiles];
+		_newest = NONE;
+		_oldest = NONE;
+		_dir = dir;
+		_chunks = new IntBuffer[(tiles + CHUNK_TILES - 1)/CHUNK_TILES];
+	}
+
+	/**
+	 * @return the color of the parts of the canvas that haven't been drawn on
+	 */
+	public int getBackground()
+	{
+		return _background;
+	}
+
+	/**
+	 * Sets where the tiles that haven't been drawn on yet get their pixels from, instead of being the
+	 * background color; fill() lets go of it. Should be set before anything is drawn.
+	 */
+	public void setTileSource(TileSource source)
+	{
+		_source = source;
+	}
+
+	/**
+	 * @return whether a tile has never been drawn on (since the last fill()) and isn't in the source, so it's
+	 *  all the background color. Tiles are numbered row-major, like the source's.
+	 */
+	public boolean isBlank(int tile)
+	{
+		return _tiles[tile] == null && _slots[tile] == NONE && (_source == null || !_source.hasTile(tile));
+	}
+
+	/**
+	 * @return how many tiles are in memory
+	 */
+	public int getResidentTiles()
+	{
+		return _resident;
+	}
+
+	/**
+	 * @return how many times a tile has been evicted from memory
+	 */
+	public long getEvictions()
+	{
+		return _evictions;
+	}
+
+	/**
+	 * Deletes the scratch file. The canvas can't be used after this.
+	 */
+	public void close()
+	{
+		_chunks = new IntBuffer[_chunks.length];
+		if(_scratch != null) {
+			try {
+				_scratch.close();
+			} catch (IOException e) {
+				//nothing more we can do; it's going anyway
+			}
+			_scratch = null;
+			_file.delete();
+		}
+	}
+
+	/******** PixelSurface ********/
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		int[] pixels = tile((y >> TILE_SHIFT)*_tilesX + (x >> TILE_SHIFT), false);
+		return pixels != null ? pixels[((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)] : _background;
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		int tile = (y >> TILE_SHIFT)*_tilesX + (x >> TILE_SHIFT);
+		int[] pixels = tile(tile, color != _background);
+		if(pixels == null)
+			return; //no change to a blank tile
+		pixels[((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)] = color;
+		_dirty[tile] = true;
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		int row = (y >> TILE_SHIFT)*_tilesX;
+		int offset = (y & TILE_MASK) << TILE_SHIFT;
+		for(int tx = startX >> TILE_SHIFT; tx <= endX >> TILE_SHIFT; tx++)
+		{
+			int[] pixels = tile(row + tx, color != _background);
+			if(pixels == null)
+				continue;
+			int left = Math.max(startX, tx << TILE_SHIFT) & TILE_MASK;
+			int right = Math.min(endX, (tx << TILE_SHIFT) | TILE_MASK) & TILE_MASK;
+			Arrays.fill(pixels, offset + left, offset + right + 1, color);
+			_dirty[row + tx] = true;
+		}
+	}
+
+	/**
+	 * Drops every tile, so the whole canvas is the new background color
+	 */
+	public void fill(int color)
+	{
+		for(int tile = _newest; tile != NONE; tile = _older[tile])
+			_tiles[tile] = null;
+		_newest = NONE;
+		_oldest = NONE;
+		_resident = 0;
+		Arrays.fill(_slots, NONE);
+		_nextSlot = 0; //what's in the scratch file isn't needed anymore
+		_source = null;
+		_background = color;
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		for(int ty = y >> TILE_SHIFT; ty <= (y + height - 1) >> TILE_SHIFT; ty++)
+		{
+			int top = Math.max(y, ty << TILE_SHIFT);
+			int bottom = Math.min(y + height, (ty + 1) << TILE_SHIFT);
+			for(int tx = x >> TILE_SHIFT; tx <= (x + width - 1) >> TILE_SHIFT; tx++)
+			{
+				int left = Math.max(x, tx << TILE_SHIFT);
+				int right = Math.min(x + width, (tx + 1) << TILE_SHIFT);
+				int[] pixels = tile(ty*_tilesX + tx, false);
+				for(int r = top; r < bottom; r++)
+				{
+					int to = offset + (r - y)*stride + (left - x);
+					if(pixels != null)
+						System.arraycopy(pixels, ((r & TILE_MASK) << TILE_SHIFT) | (left & TILE_MASK), dst, to, right - left);
+					else
+						Arrays.fill(dst, to, to + right - left, _background);
+				}
+			}
+		}
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		for(int ty = y >> TILE_SHIFT; ty <= (y + height - 1) >> TILE_SHIFT; ty++)
+		{
+			int top = Math.max(y, ty << TILE_SHIFT);
+			int bottom = Math.min(y + height, (ty + 1) << TILE_SHIFT);
+			for(int tx = x >> TILE_SHIFT; tx <= (x + width - 1) >> TILE_SHIFT; tx++)
+			{
+				int left = Math.max(x, tx << TILE_SHIFT);
+				int right = Math.min(x + width, (tx + 1) << TILE_SHIFT);
+				int tile = ty*_tilesX + tx;
+				if(isBlank(tile) && isBackground(src, offset + (top - y)*stride + (left - x), right - left, bottom - top, stride))
+					continue; //writing background onto background; the tile can stay blank
+				int[] pixels = tile(tile, true);
+				for(int r = top; r < bottom; r++)
+					System.arraycopy(src, offset + (r - y)*stride + (left - x), pixels, ((r & TILE_MASK) << TILE_SHIFT) | (left & TILE_MASK), right - left);
+				_dirty[tile] = true;
+			}
+		}
+	}
+
+	public int quantize(int color)
+	{
+		return color; //stored as is
+	}
+
+	/******** Tiles ********/
+
+	private boolean isBackground(int[] src, int offset, int width, int height, int stride)
+	{
+		for(int r = 0; r < height; r++)
+			for(int i = offset + r*stride; i < offset + r*stride + width; i++)
+				if(src[i] != _background)
+					return false;
+		return true;
+	}
+
+	/**
+	 * Gets the pixels of a tile, reading it back in if it was evicted, and marks it as the most recently used
+	 * @param create whether to make pixels for a blank tile
+	 * @return the tile's pixels (row-major, stride TILE_SIZE), or null if it's blank and create is false
+	 */
+	private int[] tile(int tile, boolean create)
+	{
+		int[] pixels = _tiles[tile];
+		if(pixels != null) {
+			if(tile != _newest) {
+				unlink(tile);
+				link(tile);
+			}
+			return pixels;
+		}
+		boolean fromSource = _slots[tile] == NONE && _source != null && _source.hasTile(tile);
+		if(_slots[tile] == NONE && !fromSource && !create)
+			return null;
+
+		if(_resident == _maxResident)
+			evict(_oldest);
+		pixels = _spare != null ? _spare : new int[TILE_INTS];
+		_spare = null;
+		if(fromSource) {
+			try {
+				_source.readTile(tile, pixels);
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't read tile "+tile, e);
+			}
+		}
+		else if(_slots[tile] == NONE)
+			Arrays.fill(pixels, _background);
+		else {
+			IntBuffer chunk = chunk(_slots[tile] / CHUNK_TILES);
+			chunk.position((_slots[tile] % CHUNK_TILES)*TILE_INTS);
+			chunk.get(pixels);
+		}
+		_tiles[tile] = pixels;
+		_dirty[tile] = false;
+		_resident++;
+		link(tile);
+		return pixels;
+	}
+
+	/**
+	 * Takes a tile out of memory, writing it to the scratch file first if it has changed
+	 */
+	private void evict(int tile)
+	{
+		int[] pixels = _tiles[tile];
+		if(_dirty[tile]) {
+			if(_slots[tile] == NONE)
+				_slots[tile] = _nextSlot++;
+			IntBuffer chunk = chunk(_slots[tile] / CHUNK_TILES);
+			chunk.position((_slots[tile] % CHUNK_TILES)*TILE_INTS);
+			chunk.put(pixels);
+		}
+		unlink(tile);
+		_tiles[tile] = null;
+		_resident--;
+		_spare = pixels;
+		_evictions++;
+	}
+
+	/**
+	 * @return a chunk of the scratch file, mapped (and the file made) if it hasn't been yet
+	 */
+	private IntBuffer chunk(int index)
+	{
+		if(_chunks[index] == null) {
+			try {
+				if(_scratch == null) {
+					_file = File.createTempFile("canvas", ".tiles", _dir);
+					_file.deleteOnExit(); //in case close() is never called
+					_scratch = new RandomAccessFile(_file, "rw");
+				}
+				long size = (long)CHUNK_TILES*TILE_INTS*4;
+				_chunks[index] = _scratch.getChannel().map(FileChannel.MapMode.READ_WRITE, index*size, size)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't map the canvas's scratch file", e);
+			}
+		}
+		return _chunks[index];
+	}
+
+	/**
+	 * Adds a tile to the front (most recently used end) of the list
+	 */
+	private void link(int tile)
+	{
+		_older[tile] = _newest;
+		_newer[tile] = NONE;
+		if(_newest != NONE)
+			_newer[_newest] = tile;
+		else
+			_oldest = tile;
+		_newest = tile;
+	}
+
+	private void unlink(int tile)
+	{
+		if(_newer[tile] != NONE)
+			_older[_newer[tile]] = _older[tile];
+		else
+			_newest = _older[tile];
+		if(_older[tile] != NONE)
+			_newer[_older[tile]] = _newer[tile];
+		else
+			_oldest = _newer[tile];
+	}
+}
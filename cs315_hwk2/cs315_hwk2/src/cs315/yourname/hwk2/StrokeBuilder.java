@@ -0,0 +1,139 @@
+package cs315.yourname.hwk2;
+
+/**
+ * Turns the touch samples of a stroke into evenly spaced brush stamps, so a fast stroke is drawn as a
+ * continuous path rather than a dot wherever a touch event happened to land.
+ *
+ * The samples are joined with straight lines, and a stamp is placed every spacing pixels along them
+ * (carrying the distance left over from one segment, and one event, to the next). Stamps are collected
+ * as x, y pairs for sending to the rasterizer all at once; the same pixel is never stamped twice in a row.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class StrokeBuilder
+{
+	private float _spacing; //distance between stamps, in pixels
+	private boolean _active; //whether a stroke is under way
+	private float _lastX; //last sample
+	private float _lastY;
+	private float _travelled; //distance along the path since the last stamp
+
+	private int[] _stamps; //stamps since the last clearStamps(), as x, y pairs
+	private int _count;
+	private int _stampX; //last stamp, so it isn't repeated
+	private int _stampY;
+
+	public StrokeBuilder()
+	{
+		_spacing = 1;
+		_stamps = new int[256];
+	}
+
+	/**
+	 * @param spacing distance between stamps along the stroke, in pixels (at least 1); takes effect on the next segment
+	 */
+	public void setSpacing(float spacing)
+	{
+		_spacing = Math.max(spacing, 1);
+	}
+
+	public float getSpacing()
+	{
+		return _spacing;
+	}
+
+	/**
+	 * Starts a stroke, stamping its first point
+	 */
+	public void begin(float x, float y)
+	{
+		_active = true;
+		_lastX = x;
+		_lastY = y;
+		_travelled = 0;
+		_stampX = Integer.MIN_VALUE;
+		addStamp(x, y);
+	}
+
+	/**
+	 * Continues the stroke to the given point, stamping along the way
+	 */
+	public void lineTo(float x, float y)
+	{
+		if(!_active) {
+			begin(x, y);
+			return;
+		}
+		float dx = x - _lastX;
+		float dy = y - _lastY;
+		float length = (float)Math.sqrt(dx*dx + dy*dy);
+		if(length == 0)
+			return;
+		float next = Math.max(_spacing - _travelled, 0); //distance along this segment to the next stamp
+		while(next <= length)
+		{
+			float t = next / length;
+			addStamp(_lastX + dx*t, _lastY + dy*t);
+			next += _spacing;
+		}
+		_travelled = length - (next - _spacing);
+		_lastX = x;
+		_lastY = y;
+	}
+
+	/**
+	 * Ends the stroke (its stamps stay until clearStamps())
+	 */
+	public void end()
+	{
+		_active = false;
+	}
+
+	public boolean isActive()
+	{
+		return _active;
+	}
+
+	/**
+	 * @return the stamps added since the last clearStamps(), as x0, y0, x1, y1, ... (the array is reused)
+	 */
+	public int[] getStamps()
+	{
+		return _stamps;
+	}
+
+	/**
+	 * @return how many stamps getStamps() holds
+	 */
+	public int getStampCount()
+	{
+		return _count;
+	}
+
+	/**
+	 * Forgets the stamps collected so far (e.g., once they've been drawn), without ending the stroke
+	 */
+	public void clearStamps()
+	{
+		_count = 0;
+	}
+
+	private void addStamp(float x, float y)
+	{
+		int sx = Math.round(x);
+		int sy = Math.round(y);
+		if(sx == _stampX && sy == _stampY)
+			return;
+		if(2*_count == _stamps.length) {
+			int[] bigger = new int[_stamps.length*2];
+			System.arraycopy(_stamps, 0, bigger, 0, _stamps.length);
+			_stamps = bigger;
+		}
+		_stamps[2*_count] = sx;
+		_stamps[2*_count+1] = sy;
+		_count++;
+		_stampX = sx;
+		_stampY = sy;
+	}
+}
@@ -0,0 +1,452 @@
+package cs315.yourname.hwk2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A saved drawing, stored as independently compressed tiles so it can be saved a few tiles at a time and
+ * loaded lazily (it's a TileSource for a SparseTiledCanvas).
+ *
+ * The file is a log: each save appends the tiles that changed, then a new index of where every tile's latest
+ * copy is, and only then points the header at that index. So a save that doesn't finish leaves the last one
+ * intact, and saving never rewrites anything in place except the header. Tiles that are all the background
+ * color aren't stored at all. The copies that later saves have replaced are garbage, and once they take up
+ * more of the file than the live tiles, compact() copies just the live ones to a new file.
+ *
+ * Layout (all big-endian):
+ *   header:  magic, version, width, height (ints), offset of the latest index (long; 0 before the first save),
+ *            flags (int; SCREEN_SIZED)
+ *   tile:    tile number, compressed size (ints), then the tile's ARGB ints, deflated
+ *   index:   magic, background color, tile count (ints), then for each tile: number (int), offset (long), size (int)
+ *
+ * One thread may save (put(), commit() and compact()) while others read tiles.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class TileFile implements TileSource
+{
+	public static final int TILE_SIZE = SparseTiledCanvas.TILE_SIZE;
+
+	private static final int MAGIC = 0x4D505446; //"MPTF"
+	private static final int VERSION = 1;
+	private static final int INDEX_MAGIC = 0x4D504958; //"MPIX"
+	private static final int HEADER_SIZE = 28;
+	private static final int INDEX_OFFSET = 16; //where the header keeps the index's offset
+	private static final int FLAGS = 24; //where the header keeps the flags
+	private static final int SCREEN_SIZED = 1; //flag for a drawing that was the size of the screen, rather than of a canvas size asked for
+	private static final int RECORD_HEADER = 8; //tile number and size
+	private static final int INDEX_ENTRY = 16;
+	private static final int TILE_BYTES = TILE_SIZE*TILE_SIZE*4;
+	private static final long MIN_COMPACT_SIZE = 1 << 20; //don't bother compacting files smaller than this
+
+	private File _file;
+	private RandomAccessFile _raf;
+	private FileChannel _channel;
+	private final int _width;
+	private final int _height;
+	private final int _tilesX;
+	private int _background;
+	private boolean _screenSized;
+
+	private long[] _offsets; //where each tile's record is (-1 if it's background)
+	private int[] _sizes; //compressed size of each tile
+	private int _stored; //how many tiles are in the index
+	private long _liveBytes; //size of the records the index points at
+	private long _end; //where the next record goes
+
+	//for compressing (the saving thread) and decompressing (synchronized)
+	private final Deflater _deflater;
+	private final ByteBuffer _raw;
+	private byte[] _compressed;
+	private final Inflater _inflater;
+	private final ByteBuffer _inflated;
+	private byte[] _record;
+
+	private TileFile(File file, RandomAccessFile raf, int width, int height, int background)
+	{
+		_file = file;
+		_raf = raf;
+		_channel = raf.getChannel();
+		_width = width;
+		_height = height;
+		_tilesX = (width + TILE_SIZE - 1)/TILE_SIZE;
+		int tiles = _tilesX*((height + TILE_SIZE - 1)/TILE_SIZE);
+		_background = background;
+		_offsets = new long[tiles];
+		Arrays.fill(_offsets, -1);
+		_sizes = new int[tiles];
+		_end = HEADER_SIZE;
+		_deflater = new Deflater(Deflater.BEST_SPEED);
+		_raw = ByteBuffer.allocate(TILE_BYTES);
+		_compressed = new byte[TILE_BYTES];
+		_inflater = new Inflater();
+		_inflated = ByteBuffer.allocate(TILE_BYTES);
+		_record = new byte[256];
+	}
+
+	/**
+	 * Starts a new, empty file (replacing any that's there)
+	 * @param background the color of every tile until it's saved
+	 * @param screenSized whether the drawing is the size of the screen (rather than a canvas size asked for)
+	 */
+	public static TileFile create(File file, int width, int height, int background, boolean screenSized) throws IOException
+	{
+		if(width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid canvas size: "+width+"x"+height);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		TileFile tiles = new TileFile(file, raf, width, height, background);
+		tiles._screenSized = screenSized;
+		try {
+			raf.setLength(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putLong(0).putInt(screenSized ? SCREEN_SIZED : 0).flip();
+			tiles.write(header, 0);
+			tiles.commit();
+		}
+		catch(IOException e) {
+			tiles.close();
+			throw e;
+		}
+		return tiles;
+	}
+
+	/**
+	 * Opens a saved file, reading its index (the tiles themselves are read as they're asked for)
+	 */
+	public static TileFile open(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		TileFile tiles = null;
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if(channel.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC)
+				throw new IOException("Not a saved drawing: "+file);
+			if(header.getInt(4) != VERSION)
+				throw new IOException("Unknown version "+header.getInt(4)+": "+file);
+			tiles = new TileFile(file, raf, header.getInt(8), header.getInt(12), 0);
+			tiles._screenSized = (header.getInt(FLAGS) & SCREEN_SIZED) != 0;
+			tiles.readIndex(header.getLong(INDEX_OFFSET));
+			return tiles;
+		}
+		catch(IOException e) {
+			closeAfterFailure(raf, tiles);
+			throw e;
+		}
+		catch(RuntimeException e) { //e.g., a nonsense size
+			closeAfterFailure(raf, tiles);
+			throw new IOException("Damaged file: "+file);
+		}
+	}
+
+	private static void closeAfterFailure(RandomAccessFile raf, TileFile tiles) throws IOException
+	{
+		if(tiles != null)
+			tiles.close(); //(which frees its compressor too)
+		else
+			raf.close();
+	}
+
+	public File getFile()
+	{
+		return _file;
+	}
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	/**
+	 * @return whether the drawing was the size of the screen when it was saved, rather than a canvas size
+	 *  asked for (see MiniPaintView.setCanvasSize())
+	 */
+	public boolean isScreenSized()
+	{
+		return _screenSized;
+	}
+
+	/**
+	 * @return the color of the tiles that aren't stored
+	 */
+	public int getBackground()
+	{
+		return _background;
+	}
+
+	/**
+	 * Changes the color of the tiles that aren't stored, from the next put() on (so tiles stored as
+	 * background under the old color should be put again before the next commit())
+	 */
+	public void setBackground(int color)
+	{
+		_background = color;
+	}
+
+	/**
+	 * @return the size of the file, in bytes
+	 */
+	public long getSize()
+	{
+		return _end;
+	}
+
+	/**
+	 * Closes the file and frees the compressor's native memory
+	 */
+	public void close()
+	{
+		try {
+			_raf.close();
+		} catch (IOException e) {
+			//nothing to lose; everything's been written already
+		}
+		_deflater.end();
+		synchronized (this) { //(not while a tile is being read)
+			_inflater.end();
+		}
+	}
+
+	/******** Saving ********/
+
+	/**
+	 * Writes the latest copy of a tile (it's only part of the saved drawing once commit() is called)
+	 * @param tile the tile's number
+	 * @param pixels its ARGB pixels (row-major, TILE_SIZE*TILE_SIZE; pixels past the edge of the canvas are
+	 *  ignored), or null if it's all background
+	 */
+	public void put(int tile, int[] pixels) throws IOException
+	{
+		if(pixels == null || isBackground(tile, pixels)) {
+			setEntry(tile, -1, 0);
+			return;
+		}
+		_raw.clear();
+		_raw.asIntBuffer().put(pixels, 0, TILE_SIZE*TILE_SIZE);
+		_deflater.reset();
+		_deflater.setInput(_raw.array(), 0, TILE_BYTES);
+		_deflater.finish();
+		int size = 0;
+		while(!_deflater.finished())
+		{
+			if(size == _compressed.length)
+				_compressed = Arrays.copyOf(_compressed, size*2);
+			size += _deflater.deflate(_compressed, size, _compressed.length - size);
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + size);
+		record.putInt(tile).putInt(size).put(_compressed, 0, size).flip();
+		long offset = _end;
+		write(record, offset);
+		_end += RECORD_HEADER + size;
+		setEntry(tile, offset, size);
+	}
+
+	/**
+	 * Makes everything put() so far part of the saved drawing, by writing a new index (and waiting for it to
+	 * reach the disk)
+	 */
+	public void commit() throws IOException
+	{
+		ByteBuffer index = ByteBuffer.allocate(12 + _stored*INDEX_ENTRY);
+		index.putInt(INDEX_MAGIC).putInt(_background).putInt(_stored);
+		for(int tile = 0; tile < _offsets.length; tile++)
+			if(_offsets[tile] >= 0)
+				index.putInt(tile).putLong(_offsets[tile]).putInt(_sizes[tile]);
+		index.flip();
+		long offset = _end;
+		write(index, offset);
+		_channel.force(false);
+		ByteBuffer pointer = ByteBuffer.allocate(8);
+		pointer.putLong(offset).flip();
+		write(pointer, INDEX_OFFSET); //only now is the new index the one that counts
+		_channel.force(false);
+		_end = offset + index.limit();
+	}
+
+	/**
+	 * @return whether most of the file is copies of tiles that have since been replaced
+	 */
+	public boolean needsCompaction()
+	{
+		return _end > MIN_COMPACT_SIZE && _end > 2*(HEADER_SIZE + _liveBytes + 12 + (long)_stored*INDEX_ENTRY);
+	}
+
+	/**
+	 * Rewrites the file with just the latest copy of each tile (still compressed, so this is mostly copying).
+	 * The new file is written next to this one and then renamed over it; anything put() but not committed is
+	 * dropped.
+	 */
+	public void compact() throws IOException
+	{
+		File temp = new File(_file.getPath() + ".tmp");
+		TileFile compacted = create(temp, _width, _height, _background, _screenSized);
+		try {
+			for(int tile = 0; tile < _offsets.length; tile++)
+			{
+				long offset;
+				int size;
+				synchronized (this) {
+					offset = _offsets[tile];
+					size = _sizes[tile];
+				}
+				if(offset < 0)
+					continue;
+				long copied = 0; //(a raw copy: the record is the same in the new file)
+				while(copied < RECORD_HEADER + size)
+					copied += _channel.transferTo(offset + copied, RECORD_HEADER + size - copied, compacted._channel.position(compacted._end + copied));
+				compacted.setEntry(tile, compacted._end, size);
+				compacted._end += RECORD_HEADER + size;
+			}
+			compacted.commit();
+		}
+		catch(IOException e) {
+			compacted.close();
+			temp.delete();
+			throw e;
+		}
+
+		synchronized (this) { //swap the files over, so readers go to the new one
+			if(!temp.renameTo(_file)) {
+				compacted.close();
+				temp.delete();
+				throw new IOException("Couldn't replace "+_file);
+			}
+			_raf.close();
+			_raf = compacted._raf;
+			_channel = compacted._channel;
+			_offsets = compacted._offsets;
+			_sizes = compacted._sizes;
+			_stored = compacted._stored;
+			_liveBytes = compacted._liveBytes;
+			_end = compacted._end;
+		}
+		compacted._deflater.end(); //(its file is this one's now, so it isn't closed)
+		compacted._inflater.end();
+	}
+
+	/**
+	 * @return whether a tile's pixels (the part on the canvas) are all the background color
+	 */
+	private boolean isBackground(int tile, int[] pixels)
+	{
+		int w = Math.min(TILE_SIZE, _width - (tile % _tilesX)*TILE_SIZE);
+		int h = Math.min(TILE_SIZE, _height - (tile / _tilesX)*TILE_SIZE);
+		for(int y = 0; y < h; y++)
+			for(int i = y*TILE_SIZE; i < y*TILE_SIZE + w; i++)
+				if(pixels[i] != _background)
+					return false;
+		return true;
+	}
+
+	private synchronized void setEntry(int tile, long offset, int size)
+	{
+		if(_offsets[tile] >= 0) {
+			_stored--;
+			_liveBytes -= RECORD_HEADER + _sizes[tile];
+		}
+		_offsets[tile] = offset;
+		_sizes[tile] = size;
+		if(offset >= 0) {
+			_stored++;
+			_liveBytes += RECORD_HEADER + size;
+		}
+	}
+
+	private void write(ByteBuffer buffer, long offset) throws IOException
+	{
+		while(buffer.hasRemaining())
+			offset += _channel.write(buffer, offset);
+	}
+
+	/******** Loading ********/
+
+	private void readIndex(long offset) throws IOException
+	{
+		if(offset == 0) //never saved
+			return;
+		ByteBuffer header = ByteBuffer.allocate(12);
+		read(header, offset);
+		if(header.getInt(0) != INDEX_MAGIC || header.getInt(8) < 0 || header.getInt(8) > _offsets.length)
+			throw new IOException("Damaged index: "+_file);
+		_background = header.getInt(4);
+		int count = header.getInt(8);
+		ByteBuffer index = ByteBuffer.allocate(count*INDEX_ENTRY);
+		read(index, offset + 12);
+		for(int i = 0; i < count; i++)
+		{
+			int tile = index.getInt();
+			long recordOffset = index.getLong();
+			int size = index.getInt();
+			if(tile < 0 || tile >= _offsets.length || recordOffset < HEADER_SIZE || recordOffset + RECORD_HEADER + size > offset || size < 0)
+				throw new IOException("Damaged index: "+_file);
+			setEntry(tile, recordOffset, size);
+		}
+		_end = offset + 12 + count*INDEX_ENTRY; //(anything after an index that didn't get committed is written over)
+	}
+
+	public synchronized boolean hasTile(int tile)
+	{
+		return _offsets[tile] >= 0;
+	}
+
+	public synchronized void readTile(int tile, int[] pixels) throws IOException
+	{
+		if(_offsets[tile] < 0) {
+			Arrays.fill(pixels, 0, TILE_SIZE*TILE_SIZE, _background);
+			return;
+		}
+		int size = _sizes[tile];
+		if(_record.length < RECORD_HEADER + size)
+			_record = new byte[RECORD_HEADER + size];
+		ByteBuffer record = ByteBuffer.wrap(_record, 0, RECORD_HEADER + size);
+		read(record, _offsets[tile]);
+		if(record.getInt(0) != tile || record.getInt(4) != size)
+			throw new IOException("Damaged tile "+tile+": "+_file);
+
+		_inflater.reset();
+		_inflater.setInput(_record, RECORD_HEADER, size);
+		try {
+			int inflated = 0;
+			while(inflated < TILE_BYTES && !_inflater.finished())
+			{
+				int n = _inflater.inflate(_inflated.array(), inflated, TILE_BYTES - inflated);
+				if(n == 0 && (_inflater.needsInput() || _inflater.needsDictionary()))
+					break;
+				inflated += n;
+			}
+			if(inflated != TILE_BYTES)
+				throw new IOException("Damaged tile "+tile+": "+_file);
+		}
+		catch(DataFormatException e) {
+			throw new IOException("Damaged tile "+tile+": "+_file);
+		}
+		_inflated.clear();
+		_inflated.asIntBuffer().get(pixels, 0, TILE_SIZE*TILE_SIZE);
+	}
+
+	private void read(ByteBuffer buffer, long offset) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			int n = _channel.read(buffer, offset);
+			if(n < 0)
+				throw new IOException("Unexpected end of "+_file);
+			offset += n;
+		}
+		buffer.rewind();
+	}
+}
@@ -0,0 +1,27 @@
+package cs315.yourname.hwk2;
+
+import java.io.IOException;
+
+/**
+ * Somewhere a SparseTiledCanvas can read the starting contents of its tiles from (e.g., a saved drawing), so
+ * they're only decoded once they're used.
+ *
+ * Tiles are SparseTiledCanvas.TILE_SIZE pixels square, and numbered row-major across the canvas.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public interface TileSource
+{
+	/**
+	 * @return whether the source has pixels for a tile (if not, it's the canvas's background color)
+	 */
+	public boolean hasTile(int tile);
+
+	/**
+	 * Reads a tile's ARGB pixels
+	 * @param tile the tile's number
+	 * @param pixels array to read into (row-major, TILE_SIZE*TILE_SIZE)
+	 */
+	public void readTile(int tile, int[] pixels) throws IOException;
+}
@@ -0,0 +1,412 @@
+package cs315.yourname.hwk2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs batches of drawing commands on a Rasterizer's surface using a thread pool.
+ *
+ * Commands sent to this sink are recorded (with their color and bounding box) until flush(). The surface is
+ * split into square tiles, and each command is binned into every tile its box overlaps. Each worker then
+ * takes tiles one at a time and runs that tile's commands, in their original order, on its own Rasterizer
+ * clipped to the tile. Since every primitive writes each pixel based only on that pixel (the airbrush reads
+ * just the pixel it's blending into), running the commands tile by tile gives exactly the same image as
+ * running them all in order.
+ *
+ * Flood fills are the exception, since a fill can spread anywhere and depends on everything drawn before
+ * it: they act as a barrier, flushing what's been recorded and then filling on the target rasterizer.
+ * Small batches are run directly on the target, as handing them out would cost more than it saves. Undo,
+ * redo and checkpoints also flush first, and then go to the target.
+ *
+ * The target's surface and airbrush settings shouldn't change between recording commands and flush().
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class TiledReplay implements HistorySink
+{
+	public static final int DEFAULT_TILE_SIZE = 128;
+
+	private static final int RECORD_SIZE = 2 + PaintCommand.MAX_ARGS; //opcode, color, arguments
+	private static final int MIN_PARALLEL_COMMANDS = 4; //smaller batches just run on the target
+
+	private final Rasterizer _target;
+	private final ExecutorService _pool;
+	private final int _tileSize;
+	private final List<Worker> _workers;
+
+	//recorded commands
+	private int[] _records;
+	private int[] _boxes; //{left, top, right, bottom} of each command, clipped to the surface
+	private int _count;
+
+	//tiles for the batch being run
+	private PixelSurface _surface;
+	private int _tilesX;
+	private IntStack[] _bins; //indices of the commands touching each tile, in order
+	private IntStack _activeTiles; //tiles with any commands
+	private final AtomicInteger _nextTile; //next entry in _activeTiles for a worker to take
+
+	/**
+	 * @param target the rasterizer whose surface gets drawn on
+	 * @param pool the threads to draw with (not shut down by this class), or null to always draw on the target
+	 * @param threads how many workers to split each batch between (usually the size of the pool)
+	 */
+	public TiledReplay(Rasterizer target, ExecutorService pool, int threads)
+	{
+		this(target, pool, threads, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * @param target the rasterizer whose surface gets drawn on
+	 * @param pool the threads to draw with (not shut down by this class), or null to always draw on the target
+	 * @param threads how many workers to split each batch between (usually the size of the pool)
+	 * @param tileSize width and height of each tile, in pixels
+	 */
+	public TiledReplay(Rasterizer target, ExecutorService pool, int threads, int tileSize)
+	{
+		if(tileSize < 8)
+			throw new IllegalArgumentException("Tile size too small: "+tileSize);
+		_target = target;
+		_pool = pool;
+		_tileSize = tileSize;
+		_workers = new ArrayList<Worker>();
+		if(pool != null)
+			for(int i = 0; i < threads; i++)
+				_workers.add(new Worker());
+		_records = new int[RECORD_SIZE*256];
+		_boxes = new int[4*256];
+		_count = 0;
+		_activeTiles = new IntStack(64);
+		_nextTile = new AtomicInteger();
+	}
+
+	/******** PaintCommandSink ********/
+
+	/**
+	 * Sets the color for the commands that follow (on the target too, so it's there for flood fills)
+	 */
+	public void setColor(int color)
+	{
+		_target.setColor(color);
+	}
+
+	public void drawPoint(int x, int y)
+	{
+		record(PaintCommand.POINT, x, y, 0, 0, x, y, x, y);
+	}
+
+	public void drawLine(int startX, int startY, int endX, int endY)
+	{
+		record(PaintCommand.LINE, startX, startY, endX, endY,
+				Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+	}
+
+	public void drawCircle(int x, int y, int radius)
+	{
+		long r = Math.abs((long)radius);
+		record(PaintCommand.CIRCLE, x, y, radius, 0, x - r, y - r, x + r, y + r);
+	}
+
+	public void fillCircle(int x, int y, int radius)
+	{
+		long r = Math.abs((long)radius);
+		record(PaintCommand.FILLED_CIRCLE, x, y, radius, 0, x - r, y - r, x + r, y + r);
+	}
+
+	public void drawEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		long rx = Math.abs((long)radiusX), ry = Math.abs((long)radiusY);
+		record(PaintCommand.ELLIPSE, x, y, radiusX, radiusY, x - rx, y - ry, x + rx, y + ry);
+	}
+
+	public void fillEllipse(int x, int y, int radiusX, int radiusY)
+	{
+		long rx = Math.abs((long)radiusX), ry = Math.abs((long)radiusY);
+		record(PaintCommand.FILLED_ELLIPSE, x, y, radiusX, radiusY, x - rx, y - ry, x + rx, y + ry);
+	}
+
+	public void drawRectangle(int startX, int startY, int endX, int endY)
+	{
+		record(PaintCommand.RECTANGLE, startX, startY, endX, endY,
+				Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+	}
+
+	public void strokeRectangle(int startX, int startY, int endX, int endY)
+	{
+		record(PaintCommand.RECTANGLE_OUTLINE, startX, startY, endX, endY,
+				Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY));
+	}
+
+	/**
+	 * Flood fills can't be split into tiles, so everything recorded so far is drawn first
+	 */
+	public void floodFill(int x, int y)
+	{
+		flush();
+		_target.floodFill(x, y);
+	}
+
+	/**
+	 * Polygons aren't split into tiles either (each tile would have to set up the whole edge table again),
+	 * so they're filled on the target in one pass after everything recorded so far
+	 */
+	public void fillPolygon(int[] coords, int offset, int points, int rule)
+	{
+		flush();
+		_target.fillPolygon(coords, offset, points, rule);
+	}
+
+	public void airBrush(int x, int y)
+	{
+		long r = _target.getAirBrushRadius();
+		record(PaintCommand.AIRBRUSH, x, y, 0, 0, x - r, y - r, x + r, y + r);
+	}
+
+	/**
+	 * Stamps are recorded one by one, so a stroke is split between tiles like any other drawing
+	 */
+	public void stamp(int[] coords, int offset, int points, int brush)
+	{
+		for(int i = offset; i < offset + 2*points; i += 2)
+		{
+			if(brush == PaintCommand.AIRBRUSH)
+				airBrush(coords[i], coords[i+1]);
+			else
+				drawPoint(coords[i], coords[i+1]);
+		}
+	}
+
+	public void clear(int color)
+	{
+		record(PaintCommand.CLEAR, color, 0, 0, 0, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	public void checkpoint()
+	{
+		flush();
+		_target.checkpoint();
+	}
+
+	public void undo()
+	{
+		flush();
+		_target.undo();
+	}
+
+	public void redo()
+	{
+		flush();
+		_target.redo();
+	}
+
+	public void dropRedo()
+	{
+		flush();
+		_target.dropRedo();
+	}
+
+	/**
+	 * Settings are picked up from the target when drawing, so everything recorded so far is drawn first
+	 */
+	public void setAirBrush(int radius, int strength)
+	{
+		flush();
+		_target.setAirBrush(radius, strength);
+	}
+
+	public void setFillOptions(int connectivity, int tolerance)
+	{
+		flush();
+		_target.setFillOptions(connectivity, tolerance);
+	}
+
+	/**
+	 * Records a command (with the current color) and its bounding box; commands entirely off the surface are dropped
+	 */
+	private void record(int op, int a, int b, int c, int d, long left, long top, long right, long bottom)
+	{
+		PixelSurface surface = _target.getSurface();
+		left = Math.max(left, 0); //(in long, as a center plus a radius can be past the int range)
+		top = Math.max(top, 0);
+		right = Math.min(right, surface.getWidth()-1);
+		bottom = Math.min(bottom, surface.getHeight()-1);
+		if(left > right || top > bottom)
+			return;
+
+		if((_count+1)*RECORD_SIZE > _records.length) {
+			int[] bigger = new int[_records.length*2];
+			System.arraycopy(_records, 0, bigger, 0, _count*RECORD_SIZE);
+			_records = bigger;
+			bigger = new int[_boxes.length*2];
+			System.arraycopy(_boxes, 0, bigger, 0, _count*4);
+			_boxes = bigger;
+		}
+		int i = _count*RECORD_SIZE;
+		_records[i] = op;
+		_records[i+1] = _target.getColor();
+		_records[i+2] = a;
+		_records[i+3] = b;
+		_records[i+4] = c;
+		_records[i+5] = d;
+		i = _count*4;
+		_boxes[i] = (int)left;
+		_boxes[i+1] = (int)top;
+		_boxes[i+2] = (int)right;
+		_boxes[i+3] = (int)bottom;
+		_count++;
+	}
+
+	/******** Drawing ********/
+
+	/**
+	 * @return how many commands are waiting for flush()
+	 */
+	public int size()
+	{
+		return _count;
+	}
+
+	/**
+	 * Draws all the recorded commands
+	 */
+	public void flush()
+	{
+		if(_count == 0)
+			return;
+		int color = _target.getColor();
+		try {
+			if(_workers.size() < 2 || _count < MIN_PARALLEL_COMMANDS)
+				drawOnTarget();
+			else
+				drawTiled();
+		}
+		finally {
+			_count = 0;
+			_target.setColor(color); //back to the latest color, for what comes next
+		}
+	}
+
+	private void drawOnTarget()
+	{
+		for(int i = 0; i < _count; i++)
+		{
+			int r = i*RECORD_SIZE;
+			_target.setColor(_records[r+1]);
+			PaintCommand.dispatch(_records[r], _records, r+2, _target);
+		}
+	}
+
+	private void drawTiled()
+	{
+		int dirtyLeft = Integer.MAX_VALUE, dirtyTop = Integer.MAX_VALUE;
+		int dirtyRight = -1, dirtyBottom = -1;
+
+		binTiles();
+		for(int i = 0; i < _count; i++)
+		{
+			int b = i*4;
+			int firstX = _boxes[b]/_tileSize, lastX = _boxes[b+2]/_tileSize;
+			int firstY = _boxes[b+1]/_tileSize, lastY = _boxes[b+3]/_tileSize;
+			for(int ty = firstY; ty <= lastY; ty++)
+			{
+				for(int tx = firstX; tx <= lastX; tx++)
+				{
+					int tile = ty*_tilesX + tx;
+					if(_bins[tile].isEmpty())
+						_activeTiles.push(tile);
+					_bins[tile].push(i);
+				}
+			}
+			dirtyLeft = Math.min(dirtyLeft, _boxes[b]);
+			dirtyTop = Math.min(dirtyTop, _boxes[b+1]);
+			dirtyRight = Math.max(dirtyRight, _boxes[b+2]);
+			dirtyBottom = Math.max(dirtyBottom, _boxes[b+3]);
+		}
+
+		_nextTile.set(0);
+		int radius = _target.getAirBrushRadius();
+		int strength = _target.getAirBrushStrength();
+		for(Worker worker : _workers)
+			worker.prepare(_surface, radius, strength);
+		try {
+			List<Future<Void>> results = _pool.invokeAll(_workers);
+			for(Future<Void> result : results)
+				result.get(); //rethrows anything that went wrong on a worker
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while drawing", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Drawing failed", e.getCause());
+		}
+		finally {
+			for(int i = 0; i < _activeTiles.size(); i++)
+				_bins[_activeTiles.get(i)].clear();
+			_activeTiles.clear();
+		}
+		_target.getDirtyRegion().add(dirtyLeft, dirtyTop, dirtyRight, dirtyBottom);
+	}
+
+	/**
+	 * Makes sure there's an (empty) bin for every tile of the target's surface
+	 */
+	private void binTiles()
+	{
+		PixelSurface surface = _target.getSurface();
+		int tilesX = (surface.getWidth() + _tileSize - 1) / _tileSize;
+		int tilesY = (surface.getHeight() + _tileSize - 1) / _tileSize;
+		if(_bins == null || _bins.length < tilesX*tilesY) {
+			_bins = new IntStack[tilesX*tilesY];
+			for(int i = 0; i < _bins.length; i++)
+				_bins[i] = new IntStack(16);
+		}
+		_surface = surface;
+		_tilesX = tilesX;
+	}
+
+	/**
+	 * Draws tiles (taking the next unclaimed one each time) until they're all done
+	 */
+	private class Worker implements Callable<Void>
+	{
+		private Rasterizer _raster; //kept between batches, so it can keep its airbrush kernel
+
+		void prepare(PixelSurface surface, int radius, int strength)
+		{
+			if(_raster == null)
+				_raster = new Rasterizer(surface);
+			else if(_raster.getSurface() != surface)
+				_raster.setSurface(surface);
+			_raster.setAirBrush(radius, strength);
+			_raster.setMetrics(_target.getMetrics()); //each worker records its own share
+		}
+
+		public Void call()
+		{
+			int tileCount = _activeTiles.size();
+			for(int next = _nextTile.getAndIncrement(); next < tileCount; next = _nextTile.getAndIncrement())
+			{
+				int tile = _activeTiles.get(next);
+				int left = (tile % _tilesX)*_tileSize;
+				int top = (tile / _tilesX)*_tileSize;
+				_raster.setClip(left, top, left + _tileSize - 1, top + _tileSize - 1);
+
+				IntStack bin = _bins[tile];
+				for(int i = 0; i < bin.size(); i++)
+				{
+					int r = bin.get(i)*RECORD_SIZE;
+					_raster.setColor(_records[r+1]);
+					PaintCommand.dispatch(_records[r], _records, r+2, _raster);
+				}
+			}
+			return null;
+		}
+	}
+}
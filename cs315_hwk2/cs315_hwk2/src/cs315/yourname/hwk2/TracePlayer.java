@@ -0,0 +1,122 @@
+package cs315.yourname.hwk2;
+
+/**
+ * Plays back the writes recorded by a TracingSurface, a few at a time, onto another surface: it starts out
+ * as the trace's base (the surface before its oldest write), and after the last write it's the surface as it
+ * was when the player was made. How many writes make up each step is up to the caller, so the drawing can be
+ * stepped through a pixel at a time or played at any speed.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class TracePlayer
+{
+	private final int _width;
+	private final int _height;
+	private final int[] _base;
+	private final int[] _entries;
+	private final int _size; //writes in the trace
+	private int _position; //writes played so far
+
+	/**
+	 * Takes a copy of a trace, so tracing can carry on (or stop) while it's played
+	 */
+	public TracePlayer(TracingSurface trace)
+	{
+		_width = trace.getWidth();
+		_height = trace.getHeight();
+		_base = new int[_width*_height];
+		trace.copyBase(_base);
+		_size = trace.size();
+		_entries = new int[_size*TracingSurface.ENTRY_INTS];
+		trace.copyEntries(_entries);
+	}
+
+	/**
+	 * @return how many writes there are to play
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * @return how many writes have been played
+	 */
+	public int getPosition()
+	{
+		return _position;
+	}
+
+	public boolean isFinished()
+	{
+		return _position == _size;
+	}
+
+	/**
+	 * Puts the base of the trace on a surface (the same size as the traced one), to play onto from the start
+	 */
+	public void reset(PixelSurface target)
+	{
+		target.writePixels(0, 0, _width, _height, _base, 0, _width);
+		_position = 0;
+	}
+
+	/**
+	 * Plays the next few writes onto the surface reset() was given
+	 * @param writes most writes to play
+	 * @param bounds if not null, gets the {left, top, right, bottom} (inclusive) of the pixels written;
+	 *  left > right if there weren't any
+	 * @return how many writes were played
+	 */
+	public int step(PixelSurface target, int writes, int[] bounds)
+	{
+		int end = (int)Math.min((long)_position + writes, _size);
+		if(bounds != null) {
+			bounds[0] = bounds[1] = Integer.MAX_VALUE;
+			bounds[2] = bounds[3] = Integer.MIN_VALUE;
+		}
+		int played = end - _position;
+		for(; _position < end; _position++)
+		{
+			int e = _position*TracingSurface.ENTRY_INTS;
+			int x = _entries[e+TracingSurface.X];
+			int y = _entries[e+TracingSurface.Y];
+			int length = _entries[e+TracingSurface.LENGTH];
+			if(length == 1)
+				target.setPixel(x, y, _entries[e+TracingSurface.COLOR]);
+			else
+				target.fillSpan(y, x, x + length - 1, _entries[e+TracingSurface.COLOR]);
+			if(bounds != null) {
+				bounds[0] = Math.min(bounds[0], x);
+				bounds[1] = Math.min(bounds[1], y);
+				bounds[2] = Math.max(bounds[2], x + length - 1);
+				bounds[3] = Math.max(bounds[3], y);
+			}
+		}
+		return played;
+	}
+
+	/**
+	 * @return the PaintCommand opcode of the command that made the next write (e.g., to step a command at a
+	 *  time), or -1 at the end of the trace
+	 */
+	public int getNextOp()
+	{
+		return isFinished() ? -1 : _entries[_position*TracingSurface.ENTRY_INTS + TracingSurface.COMMAND] & ((1 << TracingSurface.OP_BITS) - 1);
+	}
+
+	/**
+	 * @return how many of the next writes were made by the same command as the next one
+	 */
+	public int getCommandLength()
+	{
+		int length = 0;
+		if(isFinished())
+			return 0;
+		int command = _entries[_position*TracingSurface.ENTRY_INTS + TracingSurface.COMMAND];
+		while(_position + length < _size && _entries[(_position + length)*TracingSurface.ENTRY_INTS + TracingSurface.COMMAND] == command)
+			length++;
+		return length;
+	}
+}
@@ -0,0 +1,247 @@
+package cs315.yourname.hwk2;
+
+/**
+ * A PixelSurface that passes writes on to another one, recording each write (where, what color, and which
+ * command it was drawing) in a ring buffer, so drawing can be played back afterwards at any speed (see
+ * TracePlayer). This is for debugging, and replaces pausing inside the rasterizer between pixels: the
+ * rasterizer itself has no debug code in its write path, and tracing costs nothing unless the surface is
+ * wrapped in one of these.
+ *
+ * Each write is one entry of ENTRY_INTS ints, however many pixels it covers: a pixel, or a run of one color
+ * along a row (spans, and runs within writePixels()). Once the ring is full the oldest writes are dropped,
+ * but first applied to a copy of the surface (the base), so the base plus the writes still in the ring
+ * always make up the surface as it is now.
+ *
+ * Writes are tagged with the command set by setCommand() (see tag(), which does that for every command sent
+ * through it). Only one thread may draw on it at a time.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class TracingSurface implements PixelSurface
+{
+	public static final int DEFAULT_CAPACITY = 1 << 17; //writes kept
+
+	//the ints of an entry
+	static final int X = 0;
+	static final int Y = 1;
+	static final int LENGTH = 2; //pixels in the run
+	static final int COLOR = 3;
+	static final int COMMAND = 4; //sequence number << OP_BITS | opcode
+	static final int ENTRY_INTS = 5;
+	static final int OP_BITS = 5; //enough for any PaintCommand opcode
+
+	private final PixelSurface _surface;
+	private final int _width;
+	private final int _height;
+	private final int[] _ring;
+	private final int _capacity;
+	private long _written; //writes recorded so far (so the next goes in slot _written % _capacity)
+	private final int[] _base; //the surface before the oldest write still in the ring (row-major ARGB)
+	private int _command; //tag for the writes being made now
+	private int _sequence; //commands seen so far
+
+	/**
+	 * @param surface the surface to draw on (its current pixels are the start of the trace)
+	 * @param capacity most writes to keep
+	 */
+	public TracingSurface(PixelSurface surface, int capacity)
+	{
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Invalid capacity: "+capacity);
+		_surface = surface;
+		_width = surface.getWidth();
+		_height = surface.getHeight();
+		_capacity = capacity;
+		_ring = new int[capacity*ENTRY_INTS];
+		_base = new int[_width*_height];
+		surface.readPixels(0, 0, _width, _height, _base, 0, _width);
+	}
+
+	/**
+	 * @return the surface being drawn on
+	 */
+	public PixelSurface getSurface()
+	{
+		return _surface;
+	}
+
+	/**
+	 * Tags the writes that follow with a command
+	 * @param op the command's PaintCommand opcode
+	 */
+	public void setCommand(int op)
+	{
+		_sequence++;
+		_command = _sequence << OP_BITS | op;
+	}
+
+	/**
+	 * @return a sink that tags each command with setCommand() before passing it on
+	 */
+	public HistorySink tag(HistorySink target)
+	{
+		return new Tagger(target);
+	}
+
+	/******** PixelSurface ********/
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		return _surface.getPixel(x, y);
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		_surface.setPixel(x, y, color);
+		record(x, y, 1, color);
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		_surface.fillSpan(y, startX, endX, color);
+		record(startX, y, endX - startX + 1, color);
+	}
+
+	public void fill(int color)
+	{
+		_surface.fill(color);
+		for(int y = 0; y < _height; y++)
+			record(0, y, _width, color);
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		_surface.readPixels(x, y, width, height, dst, offset, stride);
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		_surface.writePixels(x, y, width, height, src, offset, stride);
+		for(int row = 0; row < height; row++) //(as runs of one color, which is most of a drawing)
+		{
+			int from = offset + row*stride;
+			int start = 0;
+			for(int i = 1; i <= width; i++)
+			{
+				if(i == width || src[from+i] != src[from+start]) {
+					record(x + start, y + row, i - start, src[from+start]);
+					start = i;
+				}
+			}
+		}
+	}
+
+	public int quantize(int color)
+	{
+		return _surface.quantize(color);
+	}
+
+	/******** Trace ********/
+
+	/**
+	 * @return how many writes are in the ring (at most the capacity)
+	 */
+	public int size()
+	{
+		return (int)Math.min(_written, _capacity);
+	}
+
+	/**
+	 * @return how many writes have been recorded in all, including those dropped from the ring
+	 */
+	public long getWriteCount()
+	{
+		return _written;
+	}
+
+	/**
+	 * Copies the base (the surface before the oldest write in the ring) into an array
+	 * @param dst where to copy it (row-major, width*height)
+	 */
+	void copyBase(int[] dst)
+	{
+		System.arraycopy(_base, 0, dst, 0, _base.length);
+	}
+
+	/**
+	 * Copies the writes in the ring, oldest first
+	 * @param dst where to copy them (size()*ENTRY_INTS ints)
+	 */
+	void copyEntries(int[] dst)
+	{
+		int size = size();
+		int oldest = (int)((_written - size) % _capacity);
+		int first = Math.min(size, _capacity - oldest); //up to the end of the ring
+		System.arraycopy(_ring, oldest*ENTRY_INTS, dst, 0, first*ENTRY_INTS);
+		System.arraycopy(_ring, 0, dst, first*ENTRY_INTS, (size - first)*ENTRY_INTS);
+	}
+
+	private void record(int x, int y, int length, int color)
+	{
+		int e = (int)(_written % _capacity)*ENTRY_INTS;
+		if(_written >= _capacity) //drop the oldest, applying it to the base
+			apply(_ring, e, _base, _width);
+		_ring[e+X] = x;
+		_ring[e+Y] = y;
+		_ring[e+LENGTH] = length;
+		_ring[e+COLOR] = color;
+		_ring[e+COMMAND] = _command;
+		_written++;
+	}
+
+	/**
+	 * Applies an entry to row-major pixels
+	 */
+	static void apply(int[] entries, int e, int[] pixels, int width)
+	{
+		int start = entries[e+Y]*width + entries[e+X];
+		int color = entries[e+COLOR];
+		for(int i = start; i < start + entries[e+LENGTH]; i++)
+			pixels[i] = color;
+	}
+
+	/**
+	 * Tags each command with the opcode it's drawing before passing it on
+	 */
+	private class Tagger implements HistorySink
+	{
+		private final HistorySink _target;
+
+		Tagger(HistorySink target)
+		{
+			_target = target;
+		}
+
+		public void setColor(int color) { _target.setColor(color); }
+		public void drawPoint(int x, int y) { setCommand(PaintCommand.POINT); _target.drawPoint(x, y); }
+		public void drawLine(int startX, int startY, int endX, int endY) { setCommand(PaintCommand.LINE); _target.drawLine(startX, startY, endX, endY); }
+		public void drawCircle(int x, int y, int radius) { setCommand(PaintCommand.CIRCLE); _target.drawCircle(x, y, radius); }
+		public void fillCircle(int x, int y, int radius) { setCommand(PaintCommand.FILLED_CIRCLE); _target.fillCircle(x, y, radius); }
+		public void drawEllipse(int x, int y, int radiusX, int radiusY) { setCommand(PaintCommand.ELLIPSE); _target.drawEllipse(x, y, radiusX, radiusY); }
+		public void fillEllipse(int x, int y, int radiusX, int radiusY) { setCommand(PaintCommand.FILLED_ELLIPSE); _target.fillEllipse(x, y, radiusX, radiusY); }
+		public void fillPolygon(int[] coords, int offset, int points, int rule) { setCommand(PaintCommand.POLYGON); _target.fillPolygon(coords, offset, points, rule); }
+		public void drawRectangle(int startX, int startY, int endX, int endY) { setCommand(PaintCommand.RECTANGLE); _target.drawRectangle(startX, startY, endX, endY); }
+		public void strokeRectangle(int startX, int startY, int endX, int endY) { setCommand(PaintCommand.RECTANGLE_OUTLINE); _target.strokeRectangle(startX, startY, endX, endY); }
+		public void floodFill(int x, int y) { setCommand(PaintCommand.FLOOD_FILL); _target.floodFill(x, y); }
+		public void airBrush(int x, int y) { setCommand(PaintCommand.AIRBRUSH); _target.airBrush(x, y); }
+		public void stamp(int[] coords, int offset, int points, int brush) { setCommand(PaintCommand.STAMP); _target.stamp(coords, offset, points, brush); }
+		public void clear(int color) { setCommand(PaintCommand.CLEAR); _target.clear(color); }
+		public void checkpoint() { setCommand(PaintCommand.CHECKPOINT); _target.checkpoint(); }
+		public void undo() { setCommand(PaintCommand.UNDO); _target.undo(); }
+		public void redo() { setCommand(PaintCommand.REDO); _target.redo(); }
+		public void dropRedo() { _target.dropRedo(); }
+		public void setAirBrush(int radius, int strength) { _target.setAirBrush(radius, strength); }
+		public void setFillOptions(int connectivity, int tolerance) { _target.setFillOptions(connectivity, tolerance); }
+	}
+}
@@ -0,0 +1,460 @@
+package cs315.yourname.hwk2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A PixelSurface that remembers what's drawn on it, so drawing can be undone and redone.
+ *
+ * The surface is split into 64x64 tiles. The first time a tile is written to after a checkpoint, a copy of
+ * it is taken before the write goes through (copy-on-write), so each step of the history only holds the
+ * tiles that step changed: their contents before and after. Undoing or redoing a step just copies those
+ * tiles back, however much work it took to draw them.
+ *
+ * Snapshots are shared where they can be: the latest copy of each tile is remembered while the tile stays
+ * unchanged, so a step's "before" is usually the same array as an earlier step's "after" rather than a new
+ * copy. The oldest steps are dropped once the history uses more than its memory budget; a single step that
+ * changes more than the whole budget (e.g., a flood fill across a huge canvas) can't be undone at all, and
+ * becomes the new bottom of the history.
+ *
+ * The history also keeps track of which tiles have changed since they were last saved (see takeUnsaved()),
+ * so saving only has to write those.
+ *
+ * Several threads may draw at once (e.g., a TiledReplay's workers), as long as no two of them write to the
+ * same tile; checkpoint(), undo() and redo() must not run while anything is drawing.
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class UndoHistory implements PixelSurface
+{
+	public static final int TILE_SIZE = 64;
+	public static final long DEFAULT_BUDGET = 16L << 20; //bytes of snapshots to keep
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE_BYTES = TILE_SIZE*TILE_SIZE*4;
+
+	private PixelSurface _surface; //where the pixels actually live
+	private final int _width;
+	private final int _height;
+	private final int _tilesX;
+
+	private final int[][] _latest; //for each tile, a snapshot matching its current contents (if known)
+	private final int[] _touched; //for each tile, the step it was last copied for
+	private int _step; //number of the step in progress (i.e., since the last checkpoint)
+	private Step _open; //what's been changed since the last checkpoint
+	private boolean _overflowed; //whether the current step got too big to keep
+
+	private final ArrayList<Step> _steps; //oldest first
+	private int _position; //how many of _steps are done (the rest have been undone, and can be redone)
+	private long _budget;
+	private long _bytes; //size of the snapshots held by _steps
+	private int _baseId; //id of the last step dropped from the bottom of the history, or 0
+	private final long[] _unsaved; //a bit for each tile that's changed since takeUnsaved() took it
+
+	/**
+	 * Tiles changed by one step of the history, with their contents before and after
+	 */
+	private static class Step
+	{
+		int id;
+		IntStack tiles = new IntStack(16);
+		ArrayList<int[]> before = new ArrayList<int[]>();
+		ArrayList<int[]> after = new ArrayList<int[]>();
+
+		long bytes()
+		{
+			return (long)(before.size() + after.size())*TILE_BYTES;
+		}
+	}
+
+	/**
+	 * @param surface the surface to draw on, which starts out as the bottom of the history
+	 */
+	public UndoHistory(PixelSurface surface)
+	{
+		this(surface, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param surface the surface to draw on, which starts out as the bottom of the history
+	 * @param budget most bytes of tile snapshots to keep (at least the latest step is always kept)
+	 */
+	public UndoHistory(PixelSurface surface, long budget)
+	{
+		_surface = surface;
+		_width = surface.getWidth();
+		_height = surface.getHeight();
+		_tilesX = (_width + TILE_SIZE - 1) >> TILE_SHIFT;
+		int tilesY = (_height + TILE_SIZE - 1) >> TILE_SHIFT;
+		_latest = new int[_tilesX*tilesY][];
+		_touched = new int[_tilesX*tilesY];
+		_step = 1;
+		_open = new Step();
+		_steps = new ArrayList<Step>();
+		_position = 0;
+		_budget = budget;
+		_unsaved = new long[(_touched.length + 63) >> 6];
+		markUnsaved(); //nothing's been saved yet
+	}
+
+	/**
+	 * @return the surface being drawn on
+	 */
+	public PixelSurface getSurface()
+	{
+		return _surface;
+	}
+
+	/**
+	 * Draws on another surface with the same pixels from now on (e.g., the same one wrapped in a
+	 * TracingSurface), keeping the history
+	 */
+	public void setSurface(PixelSurface surface)
+	{
+		if(surface.getWidth() != _width || surface.getHeight() != _height)
+			throw new IllegalArgumentException("Surface is "+surface.getWidth()+"x"+surface.getHeight()+", not "+_width+"x"+_height);
+		_surface = surface;
+	}
+
+	/**
+	 * Sets how many bytes of tile snapshots to keep; the oldest steps are dropped to get under it
+	 */
+	public void setBudget(long budget)
+	{
+		_budget = budget;
+		trim();
+	}
+
+	/**
+	 * @return how many bytes the history's snapshots take up (counting a snapshot shared by two steps twice,
+	 *  so this errs on the high side)
+	 */
+	public long getBytes()
+	{
+		return _bytes;
+	}
+
+	public boolean canUndo()
+	{
+		return _position > 0 || !_open.tiles.isEmpty();
+	}
+
+	public boolean canRedo()
+	{
+		return _position < _steps.size();
+	}
+
+	/**
+	 * @return an id for the last step that's currently done (unique for this history), or 0 if there's nothing before it
+	 */
+	public int getStepId()
+	{
+		return _position > 0 ? _steps.get(_position-1).id : _baseId;
+	}
+
+	/**
+	 * Ends the current step, so everything drawn since the last checkpoint is undone together
+	 * @return whether anything had been drawn
+	 */
+	public boolean checkpoint()
+	{
+		if(_overflowed) { //nothing kept, but it's still a step
+			_overflowed = false;
+			_baseId = _step;
+			_open = new Step();
+			_step++;
+			return true;
+		}
+		Step step = _open;
+		if(step.tiles.isEmpty())
+			return false;
+		for(int i = 0; i < step.tiles.size(); i++)
+		{
+			int tile = step.tiles.get(i);
+			int[] after = copyTile(tile);
+			step.after.add(after);
+			_latest[tile] = after;
+		}
+
+		dropRedo(); //drawing something new drops what could have been redone
+		step.id = _step;
+		_steps.add(step);
+		_position++;
+		_bytes += step.bytes();
+		trim();
+
+		_open = new Step();
+		_step++;
+		return true;
+	}
+
+	/**
+	 * Undoes the last step (ending the current one first, if anything's been drawn)
+	 * @param bounds array to put the {left, top, right, bottom} (inclusive) of the restored pixels into
+	 * @return whether there was anything to undo
+	 */
+	public boolean undo(int[] bounds)
+	{
+		checkpoint();
+		if(_position == 0)
+			return false;
+		Step step = _steps.get(--_position);
+		restore(step, step.before, bounds);
+		return true;
+	}
+
+	/**
+	 * Redoes the last step that was undone
+	 * @param bounds array to put the {left, top, right, bottom} (inclusive) of the restored pixels into
+	 * @return whether there was anything to redo
+	 */
+	public boolean redo(int[] bounds)
+	{
+		if(!_open.tiles.isEmpty() || _position == _steps.size()) //can't redo once something new is drawn
+			return false;
+		Step step = _steps.get(_position++);
+		restore(step, step.after, bounds);
+		return true;
+	}
+
+	/**
+	 * Forgets the steps that have been undone, so they can't be redone
+	 */
+	public void dropRedo()
+	{
+		while(_steps.size() > _position)
+			_bytes -= _steps.remove(_steps.size()-1).bytes();
+	}
+
+	/**
+	 * Forgets all the steps; what's on the surface now becomes the bottom of the history
+	 */
+	public void clearHistory()
+	{
+		checkpoint();
+		_baseId = getStepId();
+		_steps.clear();
+		_position = 0;
+		_bytes = 0;
+	}
+
+	/******** Saving ********/
+
+	/**
+	 * Takes tiles that have changed since they were last taken, for saving; tiles changed in the step in
+	 * progress are left to be taken again, since they may change some more. Tiles are numbered row-major.
+	 * @param tiles gets the numbers of the tiles taken
+	 * @param from the first tile to look at
+	 * @param max most tiles to take
+	 * @return the tile to look from next time, or -1 if all the tiles have been looked at
+	 */
+	public int takeUnsaved(IntStack tiles, int from, int max)
+	{
+		for(int tile = from; tile < _touched.length; tile++)
+		{
+			if(tiles.size() == max)
+				return tile;
+			long bit = 1L << tile;
+			if((_unsaved[tile >> 6] & bit) == 0) {
+				if(_unsaved[tile >> 6] == 0)
+					tile |= 63; //skip the rest of the word
+				continue;
+			}
+			tiles.push(tile);
+			if(_touched[tile] != _step)
+				_unsaved[tile >> 6] &= ~bit;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the current contents of a tile (row-major, TILE_SIZE*TILE_SIZE), which mustn't be changed: the
+	 *  history's own snapshot of it if there is one, otherwise a new copy
+	 */
+	public int[] snapshot(int tile)
+	{
+		int[] latest = _latest[tile];
+		return latest != null ? latest : copyTile(tile);
+	}
+
+	/**
+	 * Marks every tile as needing to be saved (e.g., when saving somewhere new)
+	 */
+	public void markUnsaved()
+	{
+		Arrays.fill(_unsaved, -1L);
+		if((_touched.length & 63) != 0)
+			_unsaved[_unsaved.length-1] = (1L << _touched.length) - 1;
+	}
+
+	/**
+	 * Marks every tile as saved (e.g., when the surface was just loaded)
+	 */
+	public void markSaved()
+	{
+		Arrays.fill(_unsaved, 0L);
+	}
+
+	/**
+	 * Copies a step's snapshots back onto the surface
+	 */
+	private void restore(Step step, ArrayList<int[]> snapshots, int[] bounds)
+	{
+		bounds[0] = Integer.MAX_VALUE;
+		bounds[1] = Integer.MAX_VALUE;
+		bounds[2] = -1;
+		bounds[3] = -1;
+		for(int i = 0; i < step.tiles.size(); i++)
+		{
+			int tile = step.tiles.get(i);
+			int[] snapshot = snapshots.get(i);
+			int left = (tile % _tilesX) << TILE_SHIFT;
+			int top = (tile / _tilesX) << TILE_SHIFT;
+			int w = Math.min(TILE_SIZE, _width - left);
+			int h = Math.min(TILE_SIZE, _height - top);
+			_surface.writePixels(left, top, w, h, snapshot, 0, TILE_SIZE);
+			_latest[tile] = snapshot;
+			_unsaved[tile >> 6] |= 1L << tile;
+
+			bounds[0] = Math.min(bounds[0], left);
+			bounds[1] = Math.min(bounds[1], top);
+			bounds[2] = Math.max(bounds[2], left + w - 1);
+			bounds[3] = Math.max(bounds[3], top + h - 1);
+		}
+	}
+
+	/**
+	 * Drops the oldest steps until the snapshots fit in the budget
+	 */
+	private void trim()
+	{
+		while(_bytes > _budget && _steps.size() > 1 && _position > 0)
+		{
+			Step dropped = _steps.remove(0);
+			_bytes -= dropped.bytes();
+			_baseId = dropped.id;
+			_position--;
+		}
+	}
+
+	/******** Copy-on-write ********/
+
+	/**
+	 * Makes sure the tile holding the given pixel has been copied for the current step
+	 */
+	private void touch(int x, int y)
+	{
+		int tile = (y >> TILE_SHIFT)*_tilesX + (x >> TILE_SHIFT);
+		if(_touched[tile] != _step)
+			copyOnWrite(tile);
+	}
+
+	/**
+	 * Makes sure every tile in a box has been copied for the current step
+	 */
+	private void touch(int left, int top, int right, int bottom)
+	{
+		for(int ty = top >> TILE_SHIFT; ty <= bottom >> TILE_SHIFT; ty++)
+			for(int tx = left >> TILE_SHIFT; tx <= right >> TILE_SHIFT; tx++)
+				if(_touched[ty*_tilesX + tx] != _step)
+					copyOnWrite(ty*_tilesX + tx);
+	}
+
+	/**
+	 * Keeps the current contents of a tile as its "before" for this step (synchronized, as workers drawing
+	 * different tiles can get here at the same time; it only happens once per tile per step)
+	 */
+	private synchronized void copyOnWrite(int tile)
+	{
+		if(_touched[tile] == _step)
+			return;
+		if(!_overflowed && (long)(_open.before.size() + 1)*TILE_BYTES > _budget)
+			overflow();
+		if(!_overflowed) {
+			int[] before = _latest[tile];
+			if(before == null)
+				before = copyTile(tile);
+			_open.tiles.push(tile);
+			_open.before.add(before);
+		}
+		_latest[tile] = null; //about to change
+		_touched[tile] = _step;
+		_unsaved[tile >> 6] |= 1L << tile;
+	}
+
+	/**
+	 * Gives up on keeping the current step, which is too big for the budget: it won't be undoable, and so
+	 * neither will anything before it
+	 */
+	private void overflow()
+	{
+		_overflowed = true;
+		_open = new Step();
+		_steps.clear();
+		_position = 0;
+		_bytes = 0;
+	}
+
+	private int[] copyTile(int tile)
+	{
+		int left = (tile % _tilesX) << TILE_SHIFT;
+		int top = (tile / _tilesX) << TILE_SHIFT;
+		int[] copy = new int[TILE_SIZE*TILE_SIZE];
+		_surface.readPixels(left, top, Math.min(TILE_SIZE, _width - left), Math.min(TILE_SIZE, _height - top), copy, 0, TILE_SIZE);
+		return copy;
+	}
+
+	/******** PixelSurface ********/
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	public int getPixel(int x, int y)
+	{
+		return _surface.getPixel(x, y);
+	}
+
+	public void setPixel(int x, int y, int color)
+	{
+		touch(x, y);
+		_surface.setPixel(x, y, color);
+	}
+
+	public void fillSpan(int y, int startX, int endX, int color)
+	{
+		touch(startX, y, endX, y);
+		_surface.fillSpan(y, startX, endX, color);
+	}
+
+	public void fill(int color)
+	{
+		if((long)_touched.length*TILE_BYTES > _budget) //(e.g., a huge canvas) no point copying tiles only to throw them away
+			overflow();
+		touch(0, 0, _width-1, _height-1);
+		_surface.fill(color);
+	}
+
+	public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride)
+	{
+		_surface.readPixels(x, y, width, height, dst, offset, stride);
+	}
+
+	public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride)
+	{
+		touch(x, y, x + width - 1, y + height - 1);
+		_surface.writePixels(x, y, width, height, src, offset, stride);
+	}
+
+	public int quantize(int color)
+	{
+		return _surface.quantize(color);
+	}
+}
@@ -0,0 +1,286 @@
+package cs315.yourname.hwk2;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Renders .minipaint files to images without Android, using the same parser and Rasterizer as the app, on a
+ * plain IntFramebuffer (or one of the compact frame buffers). Files are rendered in parallel (each worker keeps its own frame buffer and
+ * rasterizer), and written as binary PPM (RGB) or raw RGBA bytes. Each drawing starts like the app's does:
+ * black, drawing in white.
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.BatchRenderer [options] (directory | file | glob)...
+ * with options
+ *   -o dir        where to write the images (default: next to each file)
+ *   -f ppm|rgba   output format (default ppm)
+ *   -s WxH        frame buffer size (default 640x480)
+ *   -p format     frame buffer pixel format: argb, rgb565, indexed or sparse (a SparseTiledCanvas, for huge
+ *                 sizes; default argb)
+ *   -t threads    worker threads (default: one per core)
+ *   -q            don't list each file
+ * A directory means every .minipaint file in it; a glob can use * and ? in the file name (e.g. "drawings/*.minipaint").
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class BatchRenderer
+{
+	private static final String EXTENSION = ".minipaint";
+
+	private File _outDir; //null to write next to the input
+	private boolean _rgba;
+	private int _width = 640;
+	private int _height = 480;
+	private String _pixelFormat = "argb";
+	private int _threads = Runtime.getRuntime().availableProcessors();
+	private boolean _quiet;
+
+	public static void main(String[] args) throws Exception
+	{
+		BatchRenderer renderer = new BatchRenderer();
+		List<File> files = new ArrayList<File>();
+		for(int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if(arg.equals("-o"))
+				renderer._outDir = new File(args[++i]);
+			else if(arg.equals("-f")) {
+				String format = args[++i];
+				if(!format.equals("ppm") && !format.equals("rgba"))
+					usage("Unknown format: "+format);
+				renderer._rgba = format.equals("rgba");
+			}
+			else if(arg.equals("-s")) {
+				String[] size = args[++i].split("x");
+				renderer._width = Integer.parseInt(size[0]);
+				renderer._height = Integer.parseInt(size[1]);
+			}
+			else if(arg.equals("-p")) {
+				renderer._pixelFormat = args[++i];
+				createSurface(renderer._pixelFormat, 1, 1); //check it
+			}
+			else if(arg.equals("-t"))
+				renderer._threads = Integer.parseInt(args[++i]);
+			else if(arg.equals("-q"))
+				renderer._quiet = true;
+			else if(arg.startsWith("-"))
+				usage("Unknown option: "+arg);
+			else
+				expand(arg, files);
+		}
+		if(files.isEmpty())
+			usage("No .minipaint files found");
+		if(renderer._outDir != null && !renderer._outDir.isDirectory() && !renderer._outDir.mkdirs())
+			usage("Can't create "+renderer._outDir);
+
+		if(!renderer.render(files))
+			System.exit(1);
+	}
+
+	private static void usage(String problem)
+	{
+		System.err.println(problem);
+		System.err.println("usage: BatchRenderer [-o dir] [-f ppm|rgba] [-s WxH] [-p argb|rgb565|indexed|sparse] [-t threads] [-q] (directory | file | glob)...");
+		System.exit(2);
+	}
+
+	/**
+	 * @return a frame buffer in the given pixel format: argb, rgb565, indexed or sparse
+	 * @throws IllegalArgumentException if the format isn't one of those
+	 */
+	static PixelSurface createSurface(String format, int width, int height)
+	{
+		if(format.equals("argb"))
+			return new IntFramebuffer(width, height);
+		if(format.equals("rgb565"))
+			return new Rgb565Framebuffer(width, height);
+		if(format.equals("indexed"))
+			return new IndexedFramebuffer(width, height);
+		if(format.equals("sparse"))
+			return new SparseTiledCanvas(width, height, 0, SparseTiledCanvas.DEFAULT_MAX_RESIDENT, null);
+		throw new IllegalArgumentException("Unknown pixel format: "+format);
+	}
+
+	/**
+	 * Adds the files a command-line argument names: everything in a directory, the matches of a glob, or just the file
+	 */
+	static void expand(String arg, List<File> files)
+	{
+		File file = new File(arg);
+		if(file.isDirectory()) {
+			File[] contents = file.listFiles();
+			Arrays.sort(contents);
+			for(File f : contents)
+				if(f.isFile() && f.getName().endsWith(EXTENSION))
+					files.add(f);
+		}
+		else if(file.getName().indexOf('*') >= 0 || file.getName().indexOf('?') >= 0) {
+			File dir = file.getParentFile() != null ? file.getParentFile() : new File(".");
+			Pattern pattern = globPattern(file.getName());
+			File[] contents = dir.listFiles();
+			if(contents == null)
+				return;
+			Arrays.sort(contents);
+			for(File f : contents)
+				if(f.isFile() && pattern.matcher(f.getName()).matches())
+					files.add(f);
+		}
+		else
+			files.add(file);
+	}
+
+	/**
+	 * Turns a file name glob (with * and ?) into a regex
+	 */
+	static Pattern globPattern(String glob)
+	{
+		StringBuilder regex = new StringBuilder();
+		int start = 0;
+		for(int i = 0; i < glob.length(); i++)
+		{
+			char c = glob.charAt(i);
+			if(c == '*' || c == '?') {
+				if(i > start)
+					regex.append(Pattern.quote(glob.substring(start, i)));
+				regex.append(c == '*' ? ".*" : ".");
+				start = i+1;
+			}
+		}
+		if(start < glob.length())
+			regex.append(Pattern.quote(glob.substring(start)));
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Renders all the files on a pool of workers, printing the throughput
+	 * @return whether every file rendered
+	 */
+	boolean render(List<File> files) throws InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(_threads);
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		final ThreadLocal<Rasterizer> rasters = new ThreadLocal<Rasterizer>() {
+			@Override
+			protected Rasterizer initialValue()
+			{
+				return new Rasterizer(createSurface(_pixelFormat, _width, _height));
+			}
+		};
+
+		System.out.println("Rendering "+files.size()+" files at "+_width+"x"+_height+" ("+_pixelFormat+") on "+_threads+" threads");
+		long t0 = System.nanoTime();
+		try {
+			for(final File file : files)
+			{
+				results.add(pool.submit(new Callable<Result>() {
+					public Result call() throws IOException
+					{
+						return renderFile(file, rasters.get());
+					}
+				}));
+			}
+
+			int rendered = 0;
+			long commands = 0;
+			for(int i = 0; i < results.size(); i++)
+			{
+				try {
+					Result result = results.get(i).get();
+					rendered++;
+					commands += result.commands;
+					if(!_quiet)
+						System.out.printf("%-40s %8d commands  %8.2f ms  %,14.0f pixels/s%n", files.get(i).getPath(),
+								result.commands, result.nanos/1e6, (double)_width*_height/(result.nanos/1e9));
+				}
+				catch(ExecutionException e) {
+					System.out.println(files.get(i).getPath()+": "+e.getCause().getMessage());
+				}
+			}
+			double seconds = (System.nanoTime() - t0)/1e9;
+			System.out.printf("%d of %d files, %d commands in %.2f s: %,.1f files/s, %,.0f pixels/s%n", rendered,
+					files.size(), commands, seconds, rendered/seconds, (double)rendered*_width*_height/seconds);
+			return rendered == files.size();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Draws one file on a cleared frame buffer and writes the image
+	 */
+	Result renderFile(File file, Rasterizer raster) throws IOException
+	{
+		long t0 = System.nanoTime();
+		raster.clear(MiniPaintParser.BLACK);
+		raster.setColor(MiniPaintParser.WHITE);
+		int commands = new MiniPaintParser().parse(file, raster);
+		PixelSurface fb = raster.getSurface();
+
+		String name = file.getName();
+		if(name.endsWith(EXTENSION))
+			name = name.substring(0, name.length() - EXTENSION.length());
+		File out = new File(_outDir != null ? _outDir : file.getAbsoluteFile().getParentFile(), name + (_rgba ? ".rgba" : ".ppm"));
+		write(fb, out, _rgba);
+
+		Result result = new Result();
+		result.commands = commands;
+		result.nanos = System.nanoTime() - t0;
+		return result;
+	}
+
+	/**
+	 * Writes a frame buffer as a binary PPM (P6, dropping alpha) or as raw RGBA bytes, row by row
+	 */
+	static void write(PixelSurface fb, File file, boolean rgba) throws IOException
+	{
+		int width = fb.getWidth();
+		int height = fb.getHeight();
+		int[] pixels = new int[width];
+		int bytesPerPixel = rgba ? 4 : 3;
+		byte[] row = new byte[width*bytesPerPixel];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			if(!rgba)
+				out.write(("P6\n"+width+" "+height+"\n255\n").getBytes("US-ASCII"));
+			for(int y = 0; y < height; y++)
+			{
+				fb.readPixels(0, y, width, 1, pixels, 0, width);
+				int i = 0;
+				int b = 0;
+				for(int x = 0; x < width; x++)
+				{
+					int argb = pixels[i++];
+					row[b++] = (byte)(argb >> 16);
+					row[b++] = (byte)(argb >> 8);
+					row[b++] = (byte)argb;
+					if(rgba)
+						row[b++] = (byte)(argb >>> 24);
+				}
+				out.write(row);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	static class Result
+	{
+		int commands;
+		long nanos;
+	}
+}
@@ -0,0 +1,235 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the Rasterizer's clipped lines and circles against the original pixel-at-a-time versions (which
+ * step along the whole shape and bounds-check every pixel), on shapes that are mostly or entirely off the
+ * canvas. First checks that the clipped versions draw exactly the same pixels, on random shapes and clip boxes.
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.ClipBenchmark [width] [height] [scale]
+ * where scale is how far off the canvas the pathological shapes reach (default 10,000,000 pixels).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class ClipBenchmark
+{
+	private static final int RUNS = 5;
+	private static final int CHECKS = 20000;
+	private static final int COLOR = 0xFFFFFFFF;
+
+	public static void main(String[] args)
+	{
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 640;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 480;
+		final int scale = args.length > 2 ? Integer.parseInt(args[2]) : 10000000;
+
+		if(!check(width, height, new Random(315)))
+			System.exit(1);
+
+		final IntFramebuffer fb = new IntFramebuffer(width, height);
+		final Rasterizer raster = new Rasterizer(fb);
+		raster.setColor(COLOR);
+		final int w = width, h = height;
+
+		System.out.println("Off-canvas shapes on "+width+"x"+height+", reaching "+scale+" pixels out");
+		compare("line crossing the canvas", new Runnable() {
+			public void run() { raster.drawLine(-scale, -scale/3, w + scale, h + scale/3); }
+		}, new Runnable() {
+			public void run() { Legacy.drawLine(fb, -scale, -scale/3, w + scale, h + scale/3, COLOR); }
+		});
+		compare("line entirely off canvas", new Runnable() {
+			public void run() { raster.drawLine(-scale, h + 10, w + scale, h + 10 + scale/7); }
+		}, new Runnable() {
+			public void run() { Legacy.drawLine(fb, -scale, h + 10, w + scale, h + 10 + scale/7, COLOR); }
+		});
+		compare("circle with an arc on canvas", new Runnable() {
+			public void run() { raster.drawCircle(w/2, h/2 + scale/10, scale/10); }
+		}, new Runnable() {
+			public void run() { Legacy.drawCircle(fb, w/2, h/2 + scale/10, scale/10, COLOR); }
+		});
+		compare("circle around the canvas", new Runnable() {
+			public void run() { raster.drawCircle(w/2, h/2, scale/10); }
+		}, new Runnable() {
+			public void run() { Legacy.drawCircle(fb, w/2, h/2, scale/10, COLOR); }
+		});
+	}
+
+	/**
+	 * Draws random shapes (many reaching far off the canvas) both ways, and checks the pixels match
+	 */
+	private static boolean check(int width, int height, Random rand)
+	{
+		IntFramebuffer clipped = new IntFramebuffer(width, height);
+		IntFramebuffer legacy = new IntFramebuffer(width, height);
+		Rasterizer raster = new Rasterizer(clipped);
+		for(int i = 0; i < CHECKS; i++)
+		{
+			if(i % 3 == 0) { //sometimes clip to a smaller box, as a tile would
+				int left = rand.nextInt(width), top = rand.nextInt(height);
+				int right = Math.min(left + rand.nextInt(width), width-1), bottom = Math.min(top + rand.nextInt(height), height-1);
+				raster.setClip(left, top, right, bottom);
+				Legacy.setClip(left, top, right, bottom);
+			}
+			else {
+				raster.resetClip();
+				Legacy.setClip(0, 0, width-1, height-1);
+			}
+			int color = 0xFF000000 | rand.nextInt(0x1000000);
+			raster.setColor(color);
+
+			int reach = i % 2 == 0 ? 2*width : 100*width; //near the canvas, and far off it
+			int x0 = rand.nextInt(2*reach) - reach, y0 = rand.nextInt(2*reach) - reach;
+			int x1 = rand.nextInt(2*reach) - reach, y1 = rand.nextInt(2*reach) - reach;
+			int kind = rand.nextInt(5);
+			if(kind == 0)
+				y1 = y0; //horizontal
+			else if(kind == 1)
+				x1 = x0; //vertical
+			if(kind <= 2) {
+				raster.drawLine(x0, y0, x1, y1);
+				Legacy.drawLine(legacy, x0, y0, x1, y1, color);
+			}
+			else {
+				if(kind == 3) { //smaller circles near the edges
+					x0 = rand.nextInt(width + 40) - 20;
+					y0 = rand.nextInt(height + 40) - 20;
+					x1 = rand.nextInt(60) - 10;
+				}
+				raster.drawCircle(x0, y0, x1);
+				Legacy.drawCircle(legacy, x0, y0, x1, color);
+			}
+			if(!Arrays.equals(clipped.getPixels(), legacy.getPixels())) {
+				System.out.println("MISMATCH on shape "+i+" ("+(kind <= 2 ? "line" : "circle")+"): "+x0+","+y0+" "+x1+","+y1);
+				return false;
+			}
+		}
+		System.out.println(CHECKS+" random shapes match the unclipped versions");
+		return true;
+	}
+
+	private static void compare(String name, Runnable clipped, Runnable legacy)
+	{
+		double fast = time(clipped);
+		double slow = time(legacy);
+		System.out.printf("%-30s clipped %10.4f ms   unclipped %10.2f ms   (%.0fx)%n", name, fast, slow, slow/fast);
+	}
+
+	/**
+	 * @return the median time of RUNS runs (after one warmup), in ms
+	 */
+	private static double time(Runnable task)
+	{
+		double[] times = new double[RUNS];
+		task.run();
+		for(int i = 0; i < RUNS; i++)
+		{
+			long t0 = System.nanoTime();
+			task.run();
+			times[i] = (System.nanoTime() - t0)/1e6;
+		}
+		Arrays.sort(times);
+		return times[RUNS/2];
+	}
+
+	/**
+	 * The primitives as they were before clipping: every pixel along the shape is bounds-checked
+	 */
+	static class Legacy
+	{
+		private static int clipLeft, clipTop, clipRight = Integer.MAX_VALUE, clipBottom = Integer.MAX_VALUE;
+
+		static void setClip(int left, int top, int right, int bottom)
+		{
+			clipLeft = left;
+			clipTop = top;
+			clipRight = right;
+			clipBottom = bottom;
+		}
+
+		static void plot(PixelSurface surface, int x, int y, int color)
+		{
+			if(x >= clipLeft && x <= clipRight && y >= clipTop && y <= clipBottom
+					&& x < surface.getWidth() && y < surface.getHeight())
+				surface.setPixel(x, y, color);
+		}
+
+		static void drawLine(PixelSurface s, int startX, int startY, int endX, int endY, int color)
+		{
+			int dx = endX - startX;
+			int dy = endY - startY;
+			int dstartX = 0, dstartY = 0, dendX = 0, dendY = 0 ;
+			if(startY == endY){
+				for(int i = Math.min(startX, endX); i<=Math.max(startX, endX); i++)
+					plot(s, i, startY, color);
+			}
+			if(startX == endX){
+				for(int i = Math.min(startY, endY); i<=Math.max(startY, endY); i++)
+					plot(s, startX, i, color);
+			}
+			else{
+				if (dx<0) dstartX = -1; else if (dx>0) dstartX = 1;
+				if (dy<0) dstartY = -1; else if (dy>0) dstartY = 1;
+				if (dx<0) dendX = -1; else if (dx>0) dendX = 1;
+				int longest = Math.abs(dx);
+				int shortest = Math.abs(dy);
+				if (!(longest>shortest)) {
+					longest = Math.abs(dy);
+					shortest = Math.abs(dx);
+					if (dy<0) dendY = -1; else if (dy>0) dendY = 1;
+					dendX = 0 ;
+				}
+				int numerator = longest >>1 ;
+				for (int i = 0; i <= longest; i++) {
+					plot(s, startX, startY, color);
+					numerator += shortest ;
+					if (!(numerator<longest)) {
+						numerator -= longest;
+						startX += dstartX;
+						startY += dstartY;
+					} else {
+						startX += dendX;
+						startY += dendY;
+					}
+				}
+			}
+		}
+
+		static void drawCircle(PixelSurface s, int x, int y, int radius, int color)
+		{
+			int error = 1 - radius;
+			int errorY = 1;
+			int errorX = -2 * radius;
+			int x1 = 0;
+			int y1 = radius;
+			plot(s, x, y + radius, color);
+			plot(s, x, y - radius, color);
+			plot(s, x + radius, y, color);
+			plot(s, x - radius, y, color);
+			while(x1 < y1)
+			{
+				if(error > 0)
+				{
+					y1--;
+					errorX += 2;
+					error += errorX;
+				}
+				x1++;
+				errorY += 2;
+				error += errorY;
+				plot(s, x + x1, y + y1, color);
+				plot(s, x - x1, y + y1, color);
+				plot(s, x + x1, y - y1, color);
+				plot(s, x - x1, y - y1, color);
+				plot(s, x + y1, y + x1, color);
+				plot(s, x - y1, y + x1, color);
+				plot(s, x + y1, y - x1, color);
+				plot(s, x - y1, y - x1, color);
+			}
+		}
+
+	}
+}
@@ -0,0 +1,117 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how ParallelFloodFill scales with the number of threads, compared to the serial FloodFill,
+ * on a few kinds of fill regions. Also checks that every parallel fill matches the serial one pixel for pixel.
+ * 
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.FloodFillBenchmark [width] [height] [maxThreads]
+ * 
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class FloodFillBenchmark
+{
+	private static final int WARMUP = 3;
+	private static final int RUNS = 7;
+	private static final int WALL = 0xFF000000;
+	private static final int FILL_A = 0xFFFF0000;
+	private static final int FILL_B = 0xFF0000FF;
+
+	public static void main(String[] args) throws Exception
+	{
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		System.out.println("Flood fill on "+width+"x"+height+" ("+(width*height/1000000.0)+" MP), up to "+maxThreads+" threads");
+		for(String pattern : new String[] {"open", "maze", "noise"})
+		{
+			int[] start = makePattern(pattern, width, height);
+			IntFramebuffer fb = new IntFramebuffer(width, height);
+
+			//serial baseline
+			FloodFill serial = new FloodFill();
+			double serialMs = time(serial, null, fb, start);
+			int[] expected = fb.getPixels().clone();
+			System.out.printf("%-6s serial      %9.2f ms%n", pattern, serialMs);
+
+			for(int threads = 1; threads <= maxThreads; threads *= 2)
+			{
+				ExecutorService pool = Executors.newFixedThreadPool(threads);
+				try {
+					ParallelFloodFill parallel = new ParallelFloodFill(pool);
+					double ms = time(null, parallel, fb, start);
+					boolean same = Arrays.equals(expected, fb.getPixels());
+					System.out.printf("%-6s %2d threads  %9.2f ms  speedup %5.2fx  %s%n", pattern, threads, ms, serialMs/ms,
+							same ? "matches serial" : "MISMATCH");
+					if(!same)
+						System.exit(1);
+				}
+				finally {
+					pool.shutdown();
+				}
+				if(threads < maxThreads && threads*2 > maxThreads)
+					threads = maxThreads/2; //make sure we try maxThreads itself
+			}
+		}
+	}
+
+	/**
+	 * Times one of the fills (whichever is non-null), returning the median over RUNS runs in ms.
+	 * Leaves the result of the last run in fb.
+	 */
+	private static double time(FloodFill serial, ParallelFloodFill parallel, IntFramebuffer fb, int[] start)
+	{
+		double[] times = new double[RUNS];
+		for(int i = -WARMUP; i < RUNS; i++)
+		{
+			System.arraycopy(start, 0, fb.getPixels(), 0, start.length);
+			long t0 = System.nanoTime();
+			if(serial != null)
+				serial.fill(fb, 1, 1, FILL_A);
+			else
+				parallel.fill(fb, 1, 1, FILL_A);
+			long t1 = System.nanoTime();
+			if(i >= 0)
+				times[i] = (t1-t0)/1e6;
+		}
+		Arrays.sort(times);
+		return times[RUNS/2];
+	}
+
+	/**
+	 * Builds a starting canvas. The fill always starts at (1,1).
+	 *  open: one blank region covering the whole canvas
+	 *  maze: a serpentine corridor, so the region winds back and forth across every tile
+	 *  noise: random walls covering ~30% of the canvas
+	 */
+	static int[] makePattern(String pattern, int width, int height)
+	{
+		int[] pixels = new int[width*height];
+		if(pattern.equals("maze")) {
+			for(int y = 3; y < height; y += 4)
+			{
+				Arrays.fill(pixels, y*width, (y+1)*width, WALL);
+				int gap = (y/4) % 2 == 0 ? width-2 : 1; //alternate the opening between the two sides
+				pixels[y*width + gap] = 0;
+			}
+		}
+		else if(pattern.equals("noise")) {
+			Random rand = new Random(315);
+			for(int i = 0; i < pixels.length; i++)
+				if(rand.nextInt(100) < 30)
+					pixels[i] = WALL;
+			pixels[width+1] = 0;
+		}
+		pixels[width+1] = pixels[width+1] == WALL ? 0 : pixels[width+1];
+		if(pattern.equals("open"))
+			pixels[0] = FILL_B; //one odd pixel so the canvas isn't completely uniform
+		return pixels;
+	}
+}
@@ -0,0 +1,544 @@
+package cs315.yourname.hwk2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Regression check for the rasterizer: draws every .minipaint file in res/raw, plus a generated corpus that
+ * uses the whole command set, and compares each image against golden CRC32 checksums of the whole image and
+ * of each 64x64 tile (so a mismatch says where the pixels changed). Each drawing starts like the app's does:
+ * black, drawing in white.
+ *
+ * Each drawing is drawn twice: parsed straight onto a surface that counts the pixels each primitive writes,
+ * then compiled and replayed onto a plain IntFramebuffer (the app's path) a few times over, timing each
+ * command. Both must give the same image, so the parser and the compiled form are checked against each
+ * other. The timings (the fastest run of each primitive) are reported per primitive, as ns/command and
+ * ns/pixel, in a JSON report along with each drawing's result.
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.GoldenImages [options]
+ * with options
+ *   -r dir        where the .minipaint files are (default res/raw)
+ *   -g file       golden checksums (default tools/golden/WxH.txt)
+ *   -o file       JSON report (default golden-report.json)
+ *   -s WxH        canvas size (default 640x480)
+ *   -n count      generated drawings (default 8)
+ *   -t runs       timed runs of each drawing (default 5)
+ *   -u            write this run's checksums as the new golden ones, instead of checking them
+ * Exits with 1 if any drawing doesn't match (or has no golden checksums).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class GoldenImages
+{
+	private static final int TILE_SIZE = 64;
+	private static final int WARMUP = 2; //untimed runs of each drawing
+	private static final int GENERATED_COMMANDS = 2000; //per generated drawing
+	private static final String[] PRIMITIVES = {"point", "line", "circle", "fillCircle", "ellipse", "fillEllipse",
+		"polygon", "rectangle", "strokeRectangle", "floodFill", "airBrush", "stamp", "clear", "color"};
+
+	private File _rawDir = new File("res/raw");
+	private File _golden;
+	private File _report = new File("golden-report.json");
+	private int _width = 640;
+	private int _height = 480;
+	private int _generated = 8;
+	private int _runs = 5;
+	private boolean _update;
+
+	//totals over all drawings, by primitive (indexed like PRIMITIVES)
+	private final long[] _commands = new long[PRIMITIVES.length];
+	private final long[] _pixels = new long[PRIMITIVES.length];
+	private final long[] _nanos = new long[PRIMITIVES.length];
+
+	public static void main(String[] args) throws IOException
+	{
+		GoldenImages golden = new GoldenImages();
+		for(int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if(arg.equals("-r"))
+				golden._rawDir = new File(args[++i]);
+			else if(arg.equals("-g"))
+				golden._golden = new File(args[++i]);
+			else if(arg.equals("-o"))
+				golden._report = new File(args[++i]);
+			else if(arg.equals("-s")) {
+				String[] size = args[++i].split("x");
+				golden._width = Integer.parseInt(size[0]);
+				golden._height = Integer.parseInt(size[1]);
+			}
+			else if(arg.equals("-n"))
+				golden._generated = Integer.parseInt(args[++i]);
+			else if(arg.equals("-t"))
+				golden._runs = Math.max(1, Integer.parseInt(args[++i]));
+			else if(arg.equals("-u"))
+				golden._update = true;
+			else
+				usage("Unknown option: "+arg);
+		}
+		if(golden._golden == null)
+			golden._golden = new File("tools/golden/"+golden._width+"x"+golden._height+".txt");
+
+		if(!golden.run())
+			System.exit(1);
+	}
+
+	private static void usage(String problem)
+	{
+		System.err.println(problem);
+		System.err.println("usage: GoldenImages [-r dir] [-g file] [-o file] [-s WxH] [-n count] [-t runs] [-u]");
+		System.exit(2);
+	}
+
+	/**
+	 * Draws the corpus, checks (or updates) the golden checksums and writes the report
+	 * @return whether every drawing matched
+	 */
+	boolean run() throws IOException
+	{
+		Map<String,byte[]> corpus = corpus();
+		Map<String,long[]> expected = _update ? new LinkedHashMap<String,long[]>() : readGolden(_golden);
+		Map<String,long[]> actual = new LinkedHashMap<String,long[]>();
+		List<String> results = new ArrayList<String>();
+		boolean passed = true;
+
+		System.out.println("Drawing "+corpus.size()+" files at "+_width+"x"+_height+" ("+_runs+" timed runs each)");
+		CountingSurface counter = new CountingSurface(new IntFramebuffer(_width, _height));
+		IntFramebuffer fb = new IntFramebuffer(_width, _height);
+		for(Map.Entry<String,byte[]> entry : corpus.entrySet())
+		{
+			String name = entry.getKey();
+			byte[] source = entry.getValue();
+
+			//parse straight onto the counting surface
+			Rasterizer raster = new Rasterizer(counter);
+			start(raster);
+			TimingSink counted = new TimingSink(raster, counter);
+			int commands = new MiniPaintParser().parse(ByteBuffer.wrap(source), counted);
+			long[] parsed = checksums(counter);
+
+			//then replay the compiled drawing, as the app does, timing each command
+			byte[] compiled = new MiniPaintCompiler().compile(ByteBuffer.wrap(source), CompiledDrawingCache.hash(source));
+			raster = new Rasterizer(fb);
+			long[] best = new long[PRIMITIVES.length];
+			Arrays.fill(best, Long.MAX_VALUE);
+			long drawing = Long.MAX_VALUE;
+			for(int run = -WARMUP; run < _runs; run++)
+			{
+				start(raster);
+				TimingSink timed = new TimingSink(raster, null);
+				long t0 = System.nanoTime();
+				new CompiledDrawing().replay(ByteBuffer.wrap(compiled), timed);
+				long nanos = System.nanoTime() - t0;
+				if(run < 0)
+					continue;
+				drawing = Math.min(drawing, nanos);
+				for(int i = 0; i < PRIMITIVES.length; i++)
+					best[i] = Math.min(best[i], timed.nanos[i]);
+			}
+			long[] sums = checksums(fb);
+			actual.put(name, sums);
+			for(int i = 0; i < PRIMITIVES.length; i++)
+			{
+				_commands[i] += counted.commands[i];
+				_pixels[i] += counted.pixels[i];
+				_nanos[i] += best[i];
+			}
+
+			//compare
+			String status;
+			List<int[]> badTiles = new ArrayList<int[]>();
+			if(!Arrays.equals(parsed, sums))
+				status = "parser and compiled replay differ";
+			else if(_update)
+				status = "updated";
+			else if(!expected.containsKey(name))
+				status = "no golden checksums";
+			else if(expected.get(name).length != sums.length)
+				status = "golden checksums are for a different size";
+			else {
+				long[] golden = expected.get(name);
+				int tilesX = (_width + TILE_SIZE - 1)/TILE_SIZE;
+				for(int tile = 0; tile + 1 < sums.length; tile++)
+					if(golden[tile+1] != sums[tile+1])
+						badTiles.add(new int[] {tile % tilesX * TILE_SIZE, tile / tilesX * TILE_SIZE});
+				status = golden[0] == sums[0] && badTiles.isEmpty() ? "pass" : "FAIL";
+			}
+			boolean ok = status.equals("pass") || status.equals("updated");
+			passed &= ok;
+			System.out.printf("%-24s %6d commands  %9.3f ms  %08x  %s%s%n", name, commands, drawing/1e6, sums[0], status,
+					badTiles.isEmpty() ? "" : " ("+badTiles.size()+" tiles differ, first at "+badTiles.get(0)[0]+","+badTiles.get(0)[1]+")");
+			results.add(resultJson(name, commands, drawing, sums[0], ok, status, badTiles));
+		}
+
+		printPrimitives();
+		if(_update) {
+			writeGolden(_golden, actual);
+			System.out.println("Wrote "+_golden);
+		}
+		writeReport(results, passed);
+		System.out.println((passed ? "All " : "Not all ")+corpus.size()+" drawings match; report in "+_report);
+		return passed;
+	}
+
+	/**
+	 * Clears the canvas and sets the color, as the app starts out
+	 */
+	private static void start(Rasterizer raster)
+	{
+		raster.clear(MiniPaintParser.BLACK);
+		raster.setColor(MiniPaintParser.WHITE);
+	}
+
+	/**
+	 * @return the drawings to check, by name: the .minipaint files, then the generated ones
+	 */
+	private Map<String,byte[]> corpus() throws IOException
+	{
+		Map<String,byte[]> corpus = new LinkedHashMap<String,byte[]>();
+		List<File> files = new ArrayList<File>();
+		if(_rawDir.isDirectory())
+			BatchRenderer.expand(_rawDir.getPath(), files);
+		else
+			System.out.println("(no drawings found in "+_rawDir+")");
+		for(File file : files)
+			corpus.put(file.getName().replace(".minipaint", ""), readFile(file));
+		for(int i = 1; i <= _generated; i++)
+			corpus.put(String.format("generated-%02d", i), generate(_width, _height, GENERATED_COMMANDS, new Random(i)));
+		return corpus;
+	}
+
+	/**
+	 * Makes a drawing that uses every command, mostly on the canvas but some partly off it
+	 */
+	static byte[] generate(int width, int height, int count, Random rand)
+	{
+		String[] colors = {"black", "white", "red", "green", "blue"};
+		StringBuilder sb = new StringBuilder(count*24);
+		for(int i = 0; i < count; i++)
+		{
+			int kind = rand.nextInt(100);
+			int x = rand.nextInt(width*5/4) - width/8; //(a little off the edges)
+			int y = rand.nextInt(height*5/4) - height/8;
+			int rx = 1 + rand.nextInt(width/6);
+			int ry = 1 + rand.nextInt(height/6);
+			if(kind < 8)
+				sb.append("COLOR ").append(colors[rand.nextInt(colors.length)]);
+			else if(kind < 16)
+				sb.append("P ").append(x).append(' ').append(y);
+			else if(kind < 34)
+				sb.append("L ").append(x).append(' ').append(y).append(' ')
+					.append(x + rand.nextInt(width) - width/2).append(' ').append(y + rand.nextInt(height) - height/2);
+			else if(kind < 42)
+				sb.append("C ").append(x).append(' ').append(y).append(' ').append(rx);
+			else if(kind < 47)
+				sb.append("CF ").append(x).append(' ').append(y).append(' ').append(rx/2);
+			else if(kind < 52)
+				sb.append("E ").append(x).append(' ').append(y).append(' ').append(rx).append(' ').append(ry);
+			else if(kind < 56)
+				sb.append("EF ").append(x).append(' ').append(y).append(' ').append(rx/2).append(' ').append(ry/2);
+			else if(kind < 68) {
+				String[] polys = {"Y", "YF", "YW"};
+				sb.append(polys[rand.nextInt(polys.length)]);
+				int points = 3 + rand.nextInt(6);
+				for(int p = 0; p < points; p++)
+					sb.append(' ').append(x + rand.nextInt(2*rx+1) - rx).append(' ').append(y + rand.nextInt(2*ry+1) - ry);
+			}
+			else if(kind < 78)
+				sb.append("R ").append(x).append(' ').append(y).append(' ')
+					.append(x + rand.nextInt(200) - 100).append(' ').append(y + rand.nextInt(200) - 100);
+			else if(kind < 98)
+				sb.append("A ").append(x).append(' ').append(y);
+			else
+				sb.append("F ").append(rand.nextInt(width)).append(' ').append(rand.nextInt(height));
+			sb.append('\n');
+		}
+		return sb.toString().getBytes();
+	}
+
+	/******** Checksums ********/
+
+	/**
+	 * @return the CRC32 of the whole image, then of each tile (row-major), over the ARGB ints as big-endian bytes
+	 */
+	static long[] checksums(PixelSurface fb)
+	{
+		int width = fb.getWidth();
+		int height = fb.getHeight();
+		int tilesX = (width + TILE_SIZE - 1)/TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1)/TILE_SIZE;
+		int[] pixels = new int[width];
+		ByteBuffer row = ByteBuffer.allocate(width*4);
+		CRC32 image = new CRC32();
+		CRC32[] tiles = new CRC32[tilesX*tilesY];
+		for(int i = 0; i < tiles.length; i++)
+			tiles[i] = new CRC32();
+
+		for(int y = 0; y < height; y++)
+		{
+			fb.readPixels(0, y, width, 1, pixels, 0, width);
+			row.clear();
+			row.asIntBuffer().put(pixels);
+			image.update(row.array(), 0, width*4);
+			for(int tx = 0; tx < tilesX; tx++)
+			{
+				int left = tx*TILE_SIZE;
+				tiles[(y/TILE_SIZE)*tilesX + tx].update(row.array(), left*4, Math.min(TILE_SIZE, width - left)*4);
+			}
+		}
+
+		long[] sums = new long[1 + tiles.length];
+		sums[0] = image.getValue();
+		for(int i = 0; i < tiles.length; i++)
+			sums[i+1] = tiles[i].getValue();
+		return sums;
+	}
+
+	/**
+	 * Reads golden checksums: a line for each drawing, with its name, then the image's checksum and each
+	 * tile's, in hex. Lines starting with # are comments.
+	 */
+	static Map<String,long[]> readGolden(File file) throws IOException
+	{
+		Map<String,long[]> golden = new LinkedHashMap<String,long[]>();
+		if(!file.exists()) {
+			System.out.println("(no golden checksums in "+file+"; run with -u to make them)");
+			return golden;
+		}
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				line = line.trim();
+				if(line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\\s+");
+				long[] sums = new long[fields.length - 1];
+				for(int i = 0; i < sums.length; i++)
+					sums[i] = Long.parseLong(fields[i+1], 16);
+				golden.put(fields[0], sums);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return golden;
+	}
+
+	private void writeGolden(File file, Map<String,long[]> sums) throws IOException
+	{
+		if(file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "US-ASCII"));
+		try {
+			out.println("# Golden checksums for GoldenImages at "+_width+"x"+_height+": name, CRC32 of the image, then of each");
+			out.println("# "+TILE_SIZE+"x"+TILE_SIZE+" tile (row-major). Regenerate with -u only when a change to the pixels is intended.");
+			for(Map.Entry<String,long[]> entry : sums.entrySet())
+			{
+				out.print(entry.getKey());
+				for(long sum : entry.getValue())
+					out.printf(" %08x", sum);
+				out.println();
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/******** Report ********/
+
+	private void printPrimitives()
+	{
+		System.out.printf("%-16s %10s %14s %14s %12s %10s%n", "primitive", "commands", "pixels", "ms", "ns/command", "ns/pixel");
+		for(int i = 0; i < PRIMITIVES.length; i++)
+		{
+			if(_commands[i] == 0)
+				continue;
+			System.out.printf("%-16s %10d %14d %14.3f %12.1f %10s%n", PRIMITIVES[i], _commands[i], _pixels[i], _nanos[i]/1e6,
+					(double)_nanos[i]/_commands[i], _pixels[i] > 0 ? String.format("%.2f", (double)_nanos[i]/_pixels[i]) : "-");
+		}
+	}
+
+	private static String resultJson(String name, int commands, long nanos, long crc, boolean ok, String status, List<int[]> badTiles)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"name\": ").append(quote(name))
+			.append(", \"commands\": ").append(commands)
+			.append(", \"ms\": ").append(String.format("%.3f", nanos/1e6))
+			.append(", \"crc32\": \"").append(String.format("%08x", crc)).append('"')
+			.append(", \"passed\": ").append(ok)
+			.append(", \"status\": ").append(quote(status))
+			.append(", \"badTiles\": [");
+		for(int i = 0; i < badTiles.size(); i++)
+			sb.append(i > 0 ? ", " : "").append('[').append(badTiles.get(i)[0]).append(", ").append(badTiles.get(i)[1]).append(']');
+		return sb.append("]}").toString();
+	}
+
+	private void writeReport(List<String> results, boolean passed) throws IOException
+	{
+		Writer out = new OutputStreamWriter(new FileOutputStream(_report), "UTF-8");
+		try {
+			out.write("{\n");
+			out.write("  \"width\": "+_width+", \"height\": "+_height+", \"tileSize\": "+TILE_SIZE+", \"runs\": "+_runs+",\n");
+			out.write("  \"passed\": "+passed+",\n");
+			out.write("  \"drawings\": [\n");
+			for(int i = 0; i < results.size(); i++)
+				out.write("    "+results.get(i)+(i+1 < results.size() ? ",\n" : "\n"));
+			out.write("  ],\n");
+			out.write("  \"primitives\": {\n");
+			boolean first = true;
+			for(int i = 0; i < PRIMITIVES.length; i++)
+			{
+				if(_commands[i] == 0)
+					continue;
+				out.write(first ? "" : ",\n");
+				first = false;
+				out.write("    "+quote(PRIMITIVES[i])+": {\"commands\": "+_commands[i]+", \"pixels\": "+_pixels[i]
+						+", \"ns\": "+_nanos[i]+", \"nsPerCommand\": "+String.format("%.2f", (double)_nanos[i]/_commands[i])
+						+", \"nsPerPixel\": "+(_pixels[i] > 0 ? String.format("%.3f", (double)_nanos[i]/_pixels[i]) : "null")+"}");
+			}
+			out.write("\n  }\n}\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static String quote(String s)
+	{
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static byte[] readFile(File file) throws IOException
+	{
+		byte[] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while(read < bytes.length)
+			{
+				int n = in.read(bytes, read, bytes.length - read);
+				if(n < 0)
+					throw new IOException("Unexpected end of "+file);
+				read += n;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	/******** Instrumentation ********/
+
+	/**
+	 * Passes commands on to a Rasterizer, timing each one (less the cost of reading the clock) and, if it's
+	 * drawing on a CountingSurface, counting the pixels it writes, by primitive
+	 */
+	static class TimingSink implements PaintCommandSink
+	{
+		private static long overhead = -1; //ns a pair of nanoTime() calls takes
+
+		final long[] commands = new long[PRIMITIVES.length];
+		final long[] pixels = new long[PRIMITIVES.length];
+		final long[] nanos = new long[PRIMITIVES.length];
+		private final Rasterizer _raster;
+		private final CountingSurface _counter; //may be null
+		private long _start;
+		private long _pixelsBefore;
+
+		TimingSink(Rasterizer raster, CountingSurface counter)
+		{
+			_raster = raster;
+			_counter = counter;
+			if(overhead < 0)
+				overhead = measureOverhead();
+		}
+
+		private static long measureOverhead()
+		{
+			long best = Long.MAX_VALUE;
+			for(int i = 0; i < 100000; i++)
+			{
+				long t0 = System.nanoTime();
+				long t1 = System.nanoTime();
+				best = Math.min(best, t1 - t0);
+			}
+			return best;
+		}
+
+		private void begin()
+		{
+			if(_counter != null)
+				_pixelsBefore = _counter.written;
+			_start = System.nanoTime();
+		}
+
+		private void end(int primitive)
+		{
+			long t = System.nanoTime();
+			nanos[primitive] += Math.max(0, t - _start - overhead);
+			commands[primitive]++;
+			if(_counter != null)
+				pixels[primitive] += _counter.written - _pixelsBefore;
+		}
+
+		public void setColor(int color) { begin(); _raster.setColor(color); end(13); }
+		public void drawPoint(int x, int y) { begin(); _raster.drawPoint(x, y); end(0); }
+		public void drawLine(int startX, int startY, int endX, int endY) { begin(); _raster.drawLine(startX, startY, endX, endY); end(1); }
+		public void drawCircle(int x, int y, int radius) { begin(); _raster.drawCircle(x, y, radius); end(2); }
+		public void fillCircle(int x, int y, int radius) { begin(); _raster.fillCircle(x, y, radius); end(3); }
+		public void drawEllipse(int x, int y, int radiusX, int radiusY) { begin(); _raster.drawEllipse(x, y, radiusX, radiusY); end(4); }
+		public void fillEllipse(int x, int y, int radiusX, int radiusY) { begin(); _raster.fillEllipse(x, y, radiusX, radiusY); end(5); }
+		public void fillPolygon(int[] coords, int offset, int points, int rule) { begin(); _raster.fillPolygon(coords, offset, points, rule); end(6); }
+		public void drawRectangle(int startX, int startY, int endX, int endY) { begin(); _raster.drawRectangle(startX, startY, endX, endY); end(7); }
+		public void strokeRectangle(int startX, int startY, int endX, int endY) { begin(); _raster.strokeRectangle(startX, startY, endX, endY); end(8); }
+		public void floodFill(int x, int y) { begin(); _raster.floodFill(x, y); end(9); }
+		public void airBrush(int x, int y) { begin(); _raster.airBrush(x, y); end(10); }
+		public void stamp(int[] coords, int offset, int points, int brush) { begin(); _raster.stamp(coords, offset, points, brush); end(11); }
+		public void clear(int color) { begin(); _raster.clear(color); end(12); }
+	}
+
+	/**
+	 * A PixelSurface that counts the pixels written to it (a pixel written twice counts twice)
+	 */
+	static class CountingSurface implements PixelSurface
+	{
+		long written;
+		private final PixelSurface _surface;
+
+		CountingSurface(PixelSurface surface)
+		{
+			_surface = surface;
+		}
+
+		public int getWidth() { return _surface.getWidth(); }
+		public int getHeight() { return _surface.getHeight(); }
+		public int getPixel(int x, int y) { return _surface.getPixel(x, y); }
+		public void setPixel(int x, int y, int color) { written++; _surface.setPixel(x, y, color); }
+		public void fillSpan(int y, int startX, int endX, int color) { written += endX - startX + 1; _surface.fillSpan(y, startX, endX, color); }
+		public void fill(int color) { written += (long)getWidth()*getHeight(); _surface.fill(color); }
+		public void readPixels(int x, int y, int width, int height, int[] dst, int offset, int stride) { _surface.readPixels(x, y, width, height, dst, offset, stride); }
+		public void writePixels(int x, int y, int width, int height, int[] src, int offset, int stride) { written += (long)width*height; _surface.writePixels(x, y, width, height, src, offset, stride); }
+		public int quantize(int color) { return _surface.quantize(color); }
+	}
+}
@@ -0,0 +1,198 @@
+package cs315.yourname.hwk2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times editing one layer of a LayeredCanvas (drawing a shape, then bringing the composite up to date) with
+ * one layer and with ten, drawing on the bottom, middle and top layer. First checks the blend modes against
+ * floating point, and that the cached composite is exactly what blending every layer one at a time gives.
+ * The timed layers are mostly covered and partly see-through, which is the most drawing under them can cost
+ * (see LayeredCanvas).
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.LayerBenchmark [width] [height] [layers]
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class LayerBenchmark
+{
+	private static final int RUNS = 5;
+	private static final int EDITS = 2000; //shapes drawn per timing run
+	private static final int CHECKS = 300;
+	private static final int BLEND_CHECKS = 1000000;
+	private static final int BACKGROUND = 0xFF000000;
+
+	public static void main(String[] args)
+	{
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 640;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 480;
+		int layers = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		if(!checkBlends(new Random(315)) || !checkComposite(width, height, layers, new Random(315)))
+			System.exit(1);
+
+		System.out.println("Drawing a shape and compositing, "+width+"x"+height);
+		double single = time(build(width, height, 1, 0), false);
+		System.out.printf("%-28s %8.4f ms/edit%n", "1 layer", single);
+		int[] actives = {0, layers/2, layers-1};
+		String[] names = {"bottom", "middle", "top"};
+		for(int i = 0; i < actives.length; i++)
+		{
+			double t = time(build(width, height, layers, actives[i]), false);
+			System.out.printf("%-28s %8.4f ms/edit   (%.2fx one layer)%n", layers+" layers, drawing on "+names[i], t, t/single);
+		}
+		double uncached = time(build(width, height, layers, layers/2), true);
+		System.out.printf("%-28s %8.4f ms/edit   (%.2fx one layer)%n", layers+" layers, without caches", uncached, uncached/single);
+	}
+
+	/**
+	 * @return a canvas with some layers, each half covered in a different mode and opacity
+	 */
+	private static LayeredCanvas build(int width, int height, int layers, int active)
+	{
+		LayeredCanvas canvas = new LayeredCanvas(new IntFramebuffer(width, height), BACKGROUND);
+		Rasterizer raster = new Rasterizer(canvas);
+		raster.setColor(0xFF406080);
+		raster.clear(0xFF406080);
+		Random rand = new Random(layers);
+		for(int l = 1; l < layers; l++)
+		{
+			canvas.addLayer();
+			canvas.setBlendMode(l, l % Blend.MODES);
+			canvas.setOpacity(l, 128 + rand.nextInt(128));
+			raster.setColor(0xFF000000 | rand.nextInt(0x1000000));
+			raster.fillCircle(rand.nextInt(width), rand.nextInt(height), Math.max(width, height)/2);
+		}
+		canvas.setActiveLayer(active);
+		canvas.composite();
+		return canvas;
+	}
+
+	/**
+	 * @param uncached whether to throw away the canvas's caches before each composite, so every layer is
+	 *  blended again in every tile
+	 * @return the median time per edit over RUNS runs (after one warmup), in ms
+	 */
+	private static double time(LayeredCanvas canvas, boolean uncached)
+	{
+		Rasterizer raster = new Rasterizer(canvas);
+		double[] times = new double[RUNS];
+		for(int run = -1; run < RUNS; run++)
+		{
+			Random rand = new Random(run);
+			long t0 = System.nanoTime();
+			for(int i = 0; i < EDITS; i++)
+			{
+				raster.setColor(0xFF000000 | rand.nextInt(0x1000000));
+				raster.fillCircle(rand.nextInt(canvas.getWidth()), rand.nextInt(canvas.getHeight()), 20);
+				if(uncached)
+					canvas.invalidate();
+				canvas.composite();
+			}
+			if(run >= 0)
+				times[run] = (System.nanoTime() - t0)/1e6/EDITS;
+		}
+		Arrays.sort(times);
+		return times[RUNS/2];
+	}
+
+	/**
+	 * Checks each mode against the same blend worked out in floating point
+	 */
+	private static boolean checkBlends(Random rand)
+	{
+		for(int i = 0; i < BLEND_CHECKS; i++)
+		{
+			int dst = rand.nextInt(), src = rand.nextInt();
+			int mode = rand.nextInt(Blend.MODES), opacity = rand.nextInt(256);
+			int fast = Blend.blend(dst, src, mode, opacity);
+			double a = (src >>> 24)/255.0*opacity/255.0;
+			for(int shift = 0; shift <= 16; shift += 8)
+			{
+				double d = ((dst >> shift) & 0xFF)/255.0, s = ((src >> shift) & 0xFF)/255.0, out;
+				if(mode == Blend.NORMAL)
+					out = d*(1-a) + s*a;
+				else if(mode == Blend.ADD)
+					out = Math.min(d + s*a, 1);
+				else if(mode == Blend.MULTIPLY)
+					out = d*(1 - a + s*a);
+				else
+					out = d*(1 - s*a) + s*a;
+				int expected = (int)Math.round(out*255);
+				if(Math.abs(((fast >> shift) & 0xFF) - expected) > 2 || fast >>> 24 != 0xFF) {
+					System.out.printf("MISMATCH blending %08x onto %08x (%s, opacity %d): got %08x, expected %02x in channel %d%n",
+							src, dst, Blend.name(mode), opacity, fast, expected, shift/8);
+					return false;
+				}
+			}
+		}
+		System.out.println(BLEND_CHECKS+" random blends match floating point to within 2 levels");
+		return true;
+	}
+
+	/**
+	 * Draws random shapes on random layers, changing their settings now and then, and checks the composite
+	 */
+	private static boolean checkComposite(int width, int height, int layers, Random rand)
+	{
+		LayeredCanvas canvas = new LayeredCanvas(new IntFramebuffer(width, height), BACKGROUND);
+		Rasterizer raster = new Rasterizer(canvas);
+		while(canvas.getLayerCount() < layers)
+			canvas.addLayer();
+		for(int i = 0; i < CHECKS; i++)
+		{
+			int layer = rand.nextInt(layers);
+			switch(rand.nextInt(6)) {
+			case 0:
+				canvas.setBlendMode(layer, rand.nextInt(Blend.MODES));
+				break;
+			case 1:
+				canvas.setOpacity(layer, rand.nextInt(256));
+				break;
+			case 2:
+				canvas.setVisible(layer, rand.nextInt(4) > 0);
+				break;
+			default:
+				canvas.setActiveLayer(layer);
+				raster.setColor(rand.nextInt()); //(any alpha)
+				if(rand.nextBoolean())
+					raster.fillCircle(rand.nextInt(width), rand.nextInt(height), rand.nextInt(width/4));
+				else
+					raster.drawRectangle(rand.nextInt(width), rand.nextInt(height), rand.nextInt(width), rand.nextInt(height));
+			}
+			int[] cached = canvas.composite().getPixels();
+			int[] expected = blendAll(canvas);
+			for(int p = 0; p < cached.length; p++)
+			{
+				if(cached[p] != expected[p]) {
+					System.out.printf("MISMATCH after change %d at (%d, %d): got %08x, blending layer by layer gives %08x%n",
+							i, p % width, p / width, cached[p], expected[p]);
+					return false;
+				}
+			}
+		}
+		System.out.println(CHECKS+" random changes composite exactly as blending layer by layer does");
+		return true;
+	}
+
+	/**
+	 * @return the layers blended one at a time, bottom to top
+	 */
+	private static int[] blendAll(LayeredCanvas canvas)
+	{
+		int[] out = new int[canvas.getWidth()*canvas.getHeight()];
+		Arrays.fill(out, BACKGROUND);
+		int[] pixels = new int[out.length];
+		for(int l = 0; l < canvas.getLayerCount(); l++)
+		{
+			if(!canvas.isVisible(l))
+				continue;
+			canvas.getLayer(l).readPixels(0, 0, canvas.getWidth(), canvas.getHeight(), pixels, 0, canvas.getWidth());
+			for(int p = 0; p < out.length; p++)
+				out[p] = Blend.blend(out[p], pixels[p], canvas.getBlendMode(l), canvas.getOpacity(l));
+		}
+		return out;
+	}
+}
@@ -0,0 +1,219 @@
+package cs315.yourname.hwk2;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the throughput (commands per second) of the streaming MiniPaintParser against the original
+ * readLine()/split()/parseInt() parser from MainActivity, and against replaying the same drawing compiled
+ * by MiniPaintCompiler, on a generated .minipaint file.
+ * Each feeds a sink that just checksums the commands, so only parsing/decoding is measured.
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.ParserBenchmark [commands]
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class ParserBenchmark
+{
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws IOException
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		byte[] file = generate(count, new Random(315));
+		System.out.println("Generated "+count+" commands ("+file.length/1024+" KB)");
+
+		ChecksumSink legacySink = new ChecksumSink();
+		ChecksumSink streamingSink = new ChecksumSink();
+		ChecksumSink compiledSink = new ChecksumSink();
+		MiniPaintParser parser = new MiniPaintParser();
+		CompiledDrawing drawing = new CompiledDrawing();
+		byte[] compiled = new MiniPaintCompiler().compile(ByteBuffer.wrap(file), CompiledDrawingCache.hash(file));
+		System.out.println("Compiled to "+compiled.length/1024+" KB");
+		double[] legacy = new double[RUNS];
+		double[] streaming = new double[RUNS];
+		double[] replayed = new double[RUNS];
+		for(int run = 0; run < RUNS; run++)
+		{
+			legacySink.reset();
+			long t0 = System.nanoTime();
+			legacyParse(file, legacySink);
+			long t1 = System.nanoTime();
+			legacy[run] = t1-t0;
+
+			streamingSink.reset();
+			t0 = System.nanoTime();
+			parser.parse(ByteBuffer.wrap(file), streamingSink);
+			t1 = System.nanoTime();
+			streaming[run] = t1-t0;
+
+			compiledSink.reset();
+			t0 = System.nanoTime();
+			drawing.replay(ByteBuffer.wrap(compiled), compiledSink);
+			t1 = System.nanoTime();
+			replayed[run] = t1-t0;
+		}
+		if(legacySink.sum != streamingSink.sum || legacySink.commands != streamingSink.commands
+				|| compiledSink.sum != streamingSink.sum || compiledSink.commands != streamingSink.commands) {
+			System.out.println("MISMATCH: parsers produced different commands");
+			System.exit(1);
+		}
+
+		Arrays.sort(legacy);
+		Arrays.sort(streaming);
+		Arrays.sort(replayed);
+		double legacyRate = streamingSink.commands / (legacy[RUNS/2]/1e9);
+		double streamingRate = streamingSink.commands / (streaming[RUNS/2]/1e9);
+		double compiledRate = streamingSink.commands / (replayed[RUNS/2]/1e9);
+		System.out.printf("legacy    %8.1f ms  %,14.0f commands/s%n", legacy[RUNS/2]/1e6, legacyRate);
+		System.out.printf("streaming %8.1f ms  %,14.0f commands/s  (%.1fx)%n", streaming[RUNS/2]/1e6, streamingRate, streamingRate/legacyRate);
+		System.out.printf("compiled  %8.1f ms  %,14.0f commands/s  (%.1fx)%n", replayed[RUNS/2]/1e6, compiledRate, compiledRate/legacyRate);
+	}
+
+	/**
+	 * Makes a file of random commands, in roughly the mix the bundled drawings use
+	 */
+	static byte[] generate(int count, Random rand)
+	{
+		String[] colors = {"black", "white", "red", "green", "blue"};
+		StringBuilder sb = new StringBuilder(count*16);
+		for(int i = 0; i < count; i++)
+		{
+			int kind = rand.nextInt(10);
+			if(kind == 0)
+				sb.append("COLOR ").append(colors[rand.nextInt(colors.length)]);
+			else if(kind < 3)
+				sb.append("P ").append(rand.nextInt(640)).append(' ').append(rand.nextInt(480));
+			else if(kind < 6)
+				sb.append("L ").append(rand.nextInt(640)).append(' ').append(rand.nextInt(480)).append(' ')
+					.append(rand.nextInt(640)).append(' ').append(rand.nextInt(480));
+			else if(kind < 8)
+				sb.append("C ").append(rand.nextInt(640)).append(' ').append(rand.nextInt(480)).append(' ').append(rand.nextInt(100));
+			else if(kind < 9)
+				sb.append("R ").append(rand.nextInt(640)).append(' ').append(rand.nextInt(480)).append(' ')
+					.append(rand.nextInt(640)).append(' ').append(rand.nextInt(480));
+			else
+				sb.append("A ").append(rand.nextInt(640)).append(' ').append(rand.nextInt(480));
+			sb.append('\n');
+		}
+		try {
+			return sb.toString().getBytes("US-ASCII");
+		}
+		catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The original line-by-line parser from MainActivity.parse(), minus the logging
+	 */
+	static void legacyParse(byte[] file, PaintCommandSink paintView) throws IOException
+	{
+		BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file), "US-ASCII"));
+		String line = in.readLine();
+		while(line != null) //read line by line
+		{
+			String[] args = line.split(" ");
+			if(args[0].equals("COLOR")){
+				if(args[1].equals("black"))
+					paintView.setColor(MiniPaintParser.BLACK);
+				else if(args[1].equals("white"))
+					paintView.setColor(MiniPaintParser.WHITE);
+				else if(args[1].equals("red"))
+					paintView.setColor(MiniPaintParser.RED);
+				else if(args[1].equals("green"))
+					paintView.setColor(MiniPaintParser.GREEN);
+				else if(args[1].equals("blue"))
+					paintView.setColor(MiniPaintParser.BLUE);
+			}
+			else if(args[0].equals("P")){
+				paintView.drawPoint(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			}
+			else if(args[0].equals("L")){
+				paintView.drawLine(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+						Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			}
+			else if(args[0].equals("C")){
+				paintView.drawCircle(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			}
+			else if(args[0].equals("Y")){
+				int[] coords = new int[args.length-1];
+				for(int i=1; i<args.length; i++)
+					coords[i-1] = Integer.parseInt(args[i]);
+				for(int i=0; i<coords.length-3; i+=2)
+					paintView.drawLine(coords[i], coords[i+1], coords[i+2], coords[i+3]);
+			}
+			else if(args[0].equals("END")){
+				break;
+			}
+			else if(args[0].equals("R")){
+				paintView.drawRectangle(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+						Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			}
+			else if(args[0].equals("F")){
+				paintView.floodFill(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			}
+			else if(args[0].equals("A")){
+				paintView.airBrush(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			}
+			line = in.readLine();
+		}
+	}
+
+	/**
+	 * Folds every command into a checksum, so the JIT can't skip the work and the two parsers can be compared
+	 */
+	static class ChecksumSink implements PaintCommandSink
+	{
+		long sum;
+		int commands;
+
+		void reset()
+		{
+			sum = 0;
+			commands = 0;
+		}
+
+		private void add(int op, int a, int b, int c, int d)
+		{
+			sum = sum*31 + op;
+			sum = sum*31 + a;
+			sum = sum*31 + b;
+			sum = sum*31 + c;
+			sum = sum*31 + d;
+			commands++;
+		}
+
+		public void setColor(int color) { add(PaintCommand.COLOR, color, 0, 0, 0); }
+		public void drawPoint(int x, int y) { add(PaintCommand.POINT, x, y, 0, 0); }
+		public void drawLine(int startX, int startY, int endX, int endY) { add(PaintCommand.LINE, startX, startY, endX, endY); }
+		public void drawCircle(int x, int y, int radius) { add(PaintCommand.CIRCLE, x, y, radius, 0); }
+		public void fillCircle(int x, int y, int radius) { add(PaintCommand.FILLED_CIRCLE, x, y, radius, 0); }
+		public void drawEllipse(int x, int y, int radiusX, int radiusY) { add(PaintCommand.ELLIPSE, x, y, radiusX, radiusY); }
+		public void fillEllipse(int x, int y, int radiusX, int radiusY) { add(PaintCommand.FILLED_ELLIPSE, x, y, radiusX, radiusY); }
+		public void drawRectangle(int startX, int startY, int endX, int endY) { add(PaintCommand.RECTANGLE, startX, startY, endX, endY); }
+		public void strokeRectangle(int startX, int startY, int endX, int endY) { add(PaintCommand.RECTANGLE_OUTLINE, startX, startY, endX, endY); }
+		public void fillPolygon(int[] coords, int offset, int points, int rule)
+		{
+			for(int i = 0; i < 2*points; i++)
+				sum = sum*31 + coords[offset+i];
+			add(PaintCommand.POLYGON, rule, points, 0, 0);
+		}
+		public void stamp(int[] coords, int offset, int points, int brush)
+		{
+			for(int i = 0; i < 2*points; i++)
+				sum = sum*31 + coords[offset+i];
+			add(PaintCommand.STAMP, brush, points, 0, 0);
+		}
+		public void floodFill(int x, int y) { add(PaintCommand.FLOOD_FILL, x, y, 0, 0); }
+		public void airBrush(int x, int y) { add(PaintCommand.AIRBRUSH, x, y, 0, 0); }
+		public void clear(int color) { add(PaintCommand.CLEAR, color, 0, 0, 0); }
+	}
+}
@@ -0,0 +1,283 @@
+package cs315.yourname.hwk2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmarks for each of the Rasterizer's primitives on a plain IntFramebuffer, in the style of JMH
+ * (which this project can't pull in): each benchmark is warmed up, then timed over several iterations of
+ * enough operations to take ITERATION_MS each, and reported as ns/op along with how many bytes it allocated
+ * per op (so a primitive that starts allocating in its hot path shows up). Also replays each of the bundled
+ * res/raw drawings (compiled once, so only drawing is timed), and times expanding the whole canvas to ARGB
+ * for presenting.
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.PrimitiveBenchmark [sizes] [filter] [rawDir] [formats]
+ * where sizes is a comma-separated list of canvas sizes (default 640x480,2048x2048), filter is a regex that
+ * picks which benchmarks to run by name, rawDir is where the .minipaint files are (default res/raw), and
+ * formats is a comma-separated list of frame buffer pixel formats: argb, rgb565, indexed, sparse (default argb).
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class PrimitiveBenchmark
+{
+	private static final int WARMUP = 3; //iterations
+	private static final int ITERATIONS = 5;
+	private static final long ITERATION_MS = 100; //about how long each iteration runs
+	private static final int COLOR_A = 0xFF00FF00;
+	private static final int COLOR_B = 0xFFFFFF00;
+
+	private static Method allocatedBytes; //com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long), if this JVM has it
+	private static Object threadBean;
+
+	public static void main(String[] args) throws IOException
+	{
+		String sizes = args.length > 0 ? args[0] : "640x480,2048x2048";
+		Pattern filter = Pattern.compile(args.length > 1 ? args[1] : ".*");
+		File rawDir = new File(args.length > 2 ? args[2] : "res/raw");
+		String[] formats = (args.length > 3 ? args[3] : "argb").split(",");
+		initAllocationCounter();
+
+		System.out.printf("%-24s %-10s %-8s %14s %10s %12s%n", "benchmark", "size", "format", "ns/op", "+/-", "B/op");
+		for(String size : sizes.split(","))
+		{
+			String[] wh = size.split("x");
+			int width = Integer.parseInt(wh[0]);
+			int height = Integer.parseInt(wh[1]);
+			for(String format : formats)
+				for(Benchmark benchmark : benchmarks(width, height, rawDir))
+					if(filter.matcher(benchmark.name).find())
+						run(benchmark, width, height, format);
+		}
+	}
+
+	/**
+	 * A single operation to time, on a canvas set up by setUp()
+	 */
+	static abstract class Benchmark
+	{
+		final String name;
+		Rasterizer raster;
+		PixelSurface fb;
+		int ops; //operations run so far, e.g. for alternating colors
+
+		Benchmark(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Prepares the canvas before timing (the default clears it to black and sets the color to white)
+		 */
+		void setUp()
+		{
+			raster.clear(0xFF000000);
+			raster.setColor(0xFFFFFFFF);
+		}
+
+		abstract void op();
+	}
+
+	static List<Benchmark> benchmarks(final int w, final int h, File rawDir) throws IOException
+	{
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new Benchmark("line.short") {
+			void op() { int x = ops++ % (w - 20); raster.drawLine(x, h/2, x + 10, h/2 + 7); }
+		});
+		list.add(new Benchmark("line.long") {
+			void op() { raster.drawLine(0, ops++ % h, w-1, h-1 - ops % h); }
+		});
+		list.add(new Benchmark("line.steep") {
+			void op() { int x = ops++ % (w - 4); raster.drawLine(x, 0, x + 3, h-1); }
+		});
+		list.add(new Benchmark("line.offCanvas") {
+			void op() { ops++; raster.drawLine(-1000000, -333333, w + 1000000, h + 333333); }
+		});
+		list.add(new Benchmark("circle.small") {
+			void op() { raster.drawCircle(w/2, h/2, 5 + ops++ % 4); }
+		});
+		list.add(new Benchmark("circle.canvas") {
+			void op() { raster.drawCircle(w/2, h/2, Math.min(w, h)/2 - ops++ % 4); }
+		});
+		list.add(new Benchmark("circle.huge") {
+			void op() { raster.drawCircle(w/2, h/2 + 1000000, 1000000 - ops++ % 4); }
+		});
+		list.add(new Benchmark("rectangle.small") {
+			void op() { int x = ops++ % (w - 20); raster.drawRectangle(x, h/2, x + 15, h/2 + 15); }
+		});
+		list.add(new Benchmark("rectangle.canvas") {
+			void op() { raster.setColor((ops++ & 1) == 0 ? COLOR_A : COLOR_B); raster.drawRectangle(0, 0, w-1, h-1); }
+		});
+		list.add(new Benchmark("rectangle.outline") {
+			void op() { int i = ops++ % 8; raster.strokeRectangle(i, i, w-1-i, h-1-i); }
+		});
+		for(final String pattern : new String[] {"open", "maze"})
+		{
+			list.add(new Benchmark("floodFill."+pattern) {
+				void setUp()
+				{
+					int[] start = FloodFillBenchmark.makePattern(pattern, w, h);
+					fb.writePixels(0, 0, w, h, start, 0, w);
+				}
+
+				void op() { raster.setColor((ops++ & 1) == 0 ? COLOR_A : COLOR_B); raster.floodFill(1, 1); } //refills the same region each time
+			});
+		}
+		list.add(new Benchmark("airBrush") {
+			void op() { raster.airBrush(ops++ % w, h/2); }
+		});
+		list.add(new Benchmark("present") {
+			int[] argb = new int[w*h];
+
+			void setUp()
+			{
+				super.setUp();
+				raster.setAirBrush(AirBrush.DEFAULT_RADIUS, AirBrush.DEFAULT_STRENGTH);
+				for(int i = 0; i < 64; i++) //a few colors to look up
+					raster.airBrush(i*w/64, i*h/64);
+			}
+
+			void op() { ops++; fb.readPixels(0, 0, w, h, argb, 0, w); } //what presenting a compact frame buffer costs
+		});
+
+		File[] files = rawDir.listFiles();
+		if(files == null) {
+			System.out.println("(no drawings found in "+rawDir+", skipping replays)");
+			return list;
+		}
+		Arrays.sort(files);
+		for(File file : files)
+		{
+			if(!file.getName().endsWith(".minipaint"))
+				continue;
+			byte[] source = readFile(file);
+			final byte[] compiled = new MiniPaintCompiler().compile(ByteBuffer.wrap(source), CompiledDrawingCache.hash(source));
+			final CompiledDrawing drawing = new CompiledDrawing();
+			list.add(new Benchmark("replay."+file.getName().replace(".minipaint", "")) {
+				void op()
+				{
+					ops++;
+					raster.clear(0xFF000000);
+					raster.setColor(0xFFFFFFFF);
+					try {
+						drawing.replay(ByteBuffer.wrap(compiled), raster);
+					}
+					catch(IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		}
+		return list;
+	}
+
+	/**
+	 * Warms up and times a benchmark, printing a line of results
+	 */
+	private static void run(Benchmark benchmark, int width, int height, String format)
+	{
+		benchmark.fb = BatchRenderer.createSurface(format, width, height);
+		benchmark.raster = new Rasterizer(benchmark.fb);
+		benchmark.setUp();
+
+		//find how many ops make up an iteration
+		int batch = 1;
+		while(true)
+		{
+			long t0 = System.nanoTime();
+			for(int i = 0; i < batch; i++)
+				benchmark.op();
+			long ms = (System.nanoTime() - t0)/1000000;
+			if(ms >= ITERATION_MS/4 || batch >= 1 << 28)
+				break;
+			batch *= 2;
+		}
+		double[] nsPerOp = new double[ITERATIONS];
+		long allocated = 0;
+		for(int iteration = -WARMUP; iteration < ITERATIONS; iteration++)
+		{
+			long bytes0 = allocatedBytes();
+			long t0 = System.nanoTime();
+			for(int i = 0; i < batch; i++)
+				benchmark.op();
+			long t1 = System.nanoTime();
+			long bytes1 = allocatedBytes();
+			if(iteration >= 0) {
+				nsPerOp[iteration] = (double)(t1 - t0)/batch;
+				allocated += bytes1 - bytes0;
+			}
+		}
+
+		double mean = 0;
+		for(double ns : nsPerOp)
+			mean += ns;
+		mean /= ITERATIONS;
+		double variance = 0;
+		for(double ns : nsPerOp)
+			variance += (ns - mean)*(ns - mean);
+		double error = Math.sqrt(variance/(ITERATIONS - 1));
+		String perOp = allocatedBytes == null ? "n/a" : String.format("%.1f", (double)allocated/((long)batch*ITERATIONS));
+		System.out.printf("%-24s %-10s %-8s %,14.1f %10.1f %12s%n", benchmark.name, width+"x"+height, format, mean, error, perOp);
+	}
+
+	/**
+	 * Looks up HotSpot's per-thread allocation counter; it's not part of the standard API, hence the reflection
+	 */
+	private static void initAllocationCounter()
+	{
+		try {
+			threadBean = ManagementFactory.getThreadMXBean();
+			Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+			if(sunBean.isInstance(threadBean)) {
+				Method method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+				method.setAccessible(true);
+				method.invoke(threadBean, Thread.currentThread().getId()); //make sure it works
+				allocatedBytes = method;
+			}
+		}
+		catch(Exception e) {
+			allocatedBytes = null; //just don't report allocations
+		}
+	}
+
+	private static long allocatedBytes()
+	{
+		if(allocatedBytes == null)
+			return 0;
+		try {
+			return (Long)allocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+		}
+		catch(Exception e) {
+			return 0;
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException
+	{
+		byte[] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while(read < bytes.length)
+			{
+				int n = in.read(bytes, read, bytes.length - read);
+				if(n < 0)
+					throw new IOException("Unexpected end of "+file);
+				read += n;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,160 @@
+package cs315.yourname.hwk2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how TiledReplay scales with the number of threads, compared to replaying a drawing serially on a
+ * Rasterizer. The drawing is a generated .minipaint file (compiled once, so only drawing is timed) with a few
+ * flood fills mixed in as barriers, and ends with a few huge shapes centered far off the canvas. Also checks
+ * that every tiled replay matches the serial one pixel for pixel.
+ *
+ * Runs on a plain JVM:
+ *   java -cp bin cs315.yourname.hwk2.ReplayBenchmark [width] [height] [commands] [maxThreads]
+ *
+ * @author Kyle Dybdal
+ * @version Fall 2013
+ */
+public class ReplayBenchmark
+{
+	private static final int WARMUP = 2;
+	private static final int RUNS = 5;
+	private static final int BATCH_SIZE = 256; //commands per flush, as the rasterizer thread would send them
+	private static final String EXTREMES = //shapes whose bounding boxes go past the int range, drawn at the end
+			"COLOR red\nC -2000000000 100 2000000300\nE 2000000000 200 2000000000 150\n"+
+			"COLOR green\nCF 100 -2000000000 2000000200\nEF -2000000000 -2000000000 2000000100 2000000050\n";
+
+	public static void main(String[] args) throws Exception
+	{
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		byte[] source = generate(width, height, count, new Random(315));
+		byte[] compiled = new MiniPaintCompiler().compile(ByteBuffer.wrap(source), 0);
+		System.out.println("Replaying "+count+" commands on "+width+"x"+height+", up to "+maxThreads+" threads");
+
+		IntFramebuffer fb = new IntFramebuffer(width, height);
+		Rasterizer raster = new Rasterizer(fb);
+		double serialMs = time(compiled, raster, raster);
+		int[] expected = fb.getPixels().clone();
+		System.out.printf("serial      %9.2f ms%n", serialMs);
+
+		for(int threads = 1; threads <= maxThreads; threads *= 2)
+		{
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				TiledReplay replay = new TiledReplay(raster, pool, Math.max(threads, 2));
+				double ms = time(compiled, raster, new Batcher(replay));
+				boolean same = Arrays.equals(expected, fb.getPixels());
+				System.out.printf("%2d threads  %9.2f ms  speedup %5.2fx  %s%n", threads, ms, serialMs/ms,
+						same ? "matches serial" : "MISMATCH");
+				if(!same)
+					System.exit(1);
+			}
+			finally {
+				pool.shutdown();
+			}
+			if(threads < maxThreads && threads*2 > maxThreads)
+				threads = maxThreads/2; //make sure we try maxThreads itself
+		}
+	}
+
+	/**
+	 * Replays the drawing onto a cleared surface, returning the median over RUNS runs in ms.
+	 * Leaves the result of the last run on the surface.
+	 */
+	private static double time(byte[] compiled, Rasterizer raster, PaintCommandSink sink) throws Exception
+	{
+		CompiledDrawing drawing = new CompiledDrawing();
+		double[] times = new double[RUNS];
+		for(int i = -WARMUP; i < RUNS; i++)
+		{
+			raster.clear(0xFF000000);
+			raster.setColor(0xFFFFFFFF);
+			long t0 = System.nanoTime();
+			drawing.replay(ByteBuffer.wrap(compiled), sink);
+			if(sink instanceof Batcher)
+				((Batcher)sink).flush();
+			long t1 = System.nanoTime();
+			if(i >= 0)
+				times[i] = (t1-t0)/1e6;
+		}
+		Arrays.sort(times);
+		return times[RUNS/2];
+	}
+
+	/**
+	 * Makes a drawing of random shapes across the canvas, with an occasional flood fill
+	 */
+	static byte[] generate(int width, int height, int count, Random rand)
+	{
+		String[] colors = {"black", "white", "red", "green", "blue"};
+		StringBuilder sb = new StringBuilder(count*20);
+		for(int i = 0; i < count; i++)
+		{
+			int kind = rand.nextInt(100);
+			int x = rand.nextInt(width), y = rand.nextInt(height);
+			if(kind < 10)
+				sb.append("COLOR ").append(colors[rand.nextInt(colors.length)]);
+			else if(kind < 35)
+				sb.append("L ").append(x).append(' ').append(y).append(' ')
+					.append(rand.nextInt(width)).append(' ').append(rand.nextInt(height));
+			else if(kind < 60)
+				sb.append("C ").append(x).append(' ').append(y).append(' ').append(rand.nextInt(width/4));
+			else if(kind < 75)
+				sb.append("R ").append(x).append(' ').append(y).append(' ')
+					.append(x + rand.nextInt(200)).append(' ').append(y + rand.nextInt(200));
+			else if(kind < 99)
+				sb.append("A ").append(x).append(' ').append(y);
+			else
+				sb.append("F ").append(x).append(' ').append(y);
+			sb.append('\n');
+		}
+		sb.append(EXTREMES);
+		return sb.toString().getBytes();
+	}
+
+	/**
+	 * Passes commands on to a TiledReplay, flushing every BATCH_SIZE commands
+	 */
+	static class Batcher implements PaintCommandSink
+	{
+		private final TiledReplay _replay;
+
+		Batcher(TiledReplay replay)
+		{
+			_replay = replay;
+		}
+
+		void flush()
+		{
+			_replay.flush();
+		}
+
+		private void added()
+		{
+			if(_replay.size() >= BATCH_SIZE)
+				_replay.flush();
+		}
+
+		public void setColor(int color) { _replay.setColor(color); }
+		public void drawPoint(int x, int y) { _replay.drawPoint(x, y); added(); }
+		public void drawLine(int startX, int startY, int endX, int endY) { _replay.drawLine(startX, startY, endX, endY); added(); }
+		public void drawCircle(int x, int y, int radius) { _replay.drawCircle(x, y, radius); added(); }
+		public void fillCircle(int x, int y, int radius) { _replay.fillCircle(x, y, radius); added(); }
+		public void drawEllipse(int x, int y, int radiusX, int radiusY) { _replay.drawEllipse(x, y, radiusX, radiusY); added(); }
+		public void fillEllipse(int x, int y, int radiusX, int radiusY) { _replay.fillEllipse(x, y, radiusX, radiusY); added(); }
+		public void fillPolygon(int[] coords, int offset, int points, int rule) { _replay.fillPolygon(coords, offset, points, rule); added(); }
+		public void stamp(int[] coords, int offset, int points, int brush) { _replay.stamp(coords, offset, points, brush); added(); }
+		public void drawRectangle(int startX, int startY, int endX, int endY) { _replay.drawRectangle(startX, startY, endX, endY); added(); }
+		public void strokeRectangle(int startX, int startY, int endX, int endY) { _replay.strokeRectangle(startX, startY, endX, endY); added(); }
+		public void floodFill(int x, int y) { _replay.floodFill(x, y); }
+		public void airBrush(int x, int y) { _replay.airBrush(x, y); added(); }
+		public void clear(int color) { _replay.clear(color); added(); }
+	}
+}